@@ -1,11 +1,22 @@
 // No package (default package)
 
+import controllers.AdminController;
 import controllers.AuthController;
 import controllers.BalanceController;
 import controllers.FriendController;
 import controllers.ReceiptController;
 import database.DatabaseConnection;
-import com.sun.net.httpserver.HttpServer;
+import metrics.MetricsHandler;
+import metrics.TimedHandler;
+import parser.ReceiptParser;
+import services.BalanceCheckpointService;
+import services.NotificationDispatcher;
+import services.UploadSpool;
+import tracing.TracingHandler;
+import utils.Router;
+import transport.HttpTransport;
+import com.sun.net.httpserver.HttpHandler;
+import utils.Settings;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -41,8 +52,35 @@ public class Server {
     }
 
 
+    /**
+     * Pick the HTTP engine: a --http-engine=jdk|nio argument, else HTTP_ENGINE from a System
+     * property or environment variable, else the JDK's built-in server.
+     */
+    private static String getEngine(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--http-engine=")) {
+                return arg.substring("--http-engine=".length());
+            }
+        }
+        return Settings.get("HTTP_ENGINE", "jdk");
+    }
+
+    /**
+     * Pick the receipt parser: RECEIPT_PARSER from a System property or environment variable,
+     * "subprocess" (default), "worker" or "stub".
+     */
+    private static String getParserKind() {
+        return Settings.get("RECEIPT_PARSER");
+    }
+
+    /**
+     * Register a route wrapped in TimedHandler and TracingHandler so its latency shows up
+     * on /metrics and each request gets an X-Request-Id and a (sampled) trace.
+     */
+    private static void register(Router router, String method, String path, HttpHandler handler) {
+        router.route(method, path, new TimedHandler(path, new TracingHandler(path, handler)));
+    }
 
-    
     public static void main(String[] args) {
         try {
             // init db
@@ -57,45 +95,70 @@ public class Server {
             // dbConnection.initializeSchema("backend/database/schema.sql");
             
             // create HTTP server - bind to all interfaces (0.0.0.0) so it's accessible from network
-            System.out.println("🟣 [SERVER INIT] Creating HTTP server on port " + PORT);
+            String engine = getEngine(args);
+            System.out.println("🟣 [SERVER INIT] Creating HTTP server (" + engine + " engine) on port " + PORT);
             System.out.println("🟣 [SERVER INIT] Binding to 0.0.0.0 (all interfaces) to allow network access");
             InetSocketAddress address = new InetSocketAddress("0.0.0.0", PORT);
-            HttpServer server = HttpServer.create(address, 0);
+            HttpTransport server = HttpTransport.create(engine, address);
             System.out.println("🟣 [SERVER INIT] HTTP server created and bound to " + address);
             
-            // register endpoints
+            // register endpoints; the router answers CORS preflights, 404 and 405 for all of them
             System.out.println("🟣 [SERVER INIT] Registering endpoints...");
-            server.createContext("/api/auth/login", new AuthController.LoginHandler());
+            Router router = new Router();
+            register(router, "POST", "/api/auth/login", new AuthController.LoginHandler());
             System.out.println("🟣 [SERVER INIT] Registered: /api/auth/login");
-            server.createContext("/api/auth/signup", new AuthController.SignupHandler());
-            server.createContext("/api/friends/add", new FriendController.AddFriendHandler());
-            server.createContext("/api/friends/add-by-email", new FriendController.AddFriendByEmailHandler());
-            server.createContext("/api/friends/remove", new FriendController.RemoveFriendHandler());
-            server.createContext("/api/friends/list", new FriendController.ListFriendsHandler());
-            server.createContext("/api/friends/accept", new FriendController.AcceptFriendRequestHandler());
-            server.createContext("/api/friends/decline", new FriendController.DeclineFriendRequestHandler());
-            server.createContext("/api/friends/pending", new FriendController.ListPendingFriendRequestsHandler());
-            server.createContext("/api/receipt/parse", new ReceiptController.ParseReceiptHandler());
-            server.createContext("/api/receipts/create", new ReceiptController.CreateReceiptHandler());
-            server.createContext("/api/receipts/view", new ReceiptController.ViewReceiptHandler());
-            server.createContext("/api/receipts/pending", new ReceiptController.ListPendingReceiptsHandler());
-            server.createContext("/api/receipts/accept", new ReceiptController.AcceptReceiptHandler());
-            server.createContext("/api/receipts/decline", new ReceiptController.DeclineReceiptHandler());
-            server.createContext("/api/receipts/activity", new ReceiptController.GetActivityReceiptsHandler());
-            server.createContext("/api/receipts/items/claim", new ReceiptController.ClaimItemHandler());
-            server.createContext("/api/receipts/items/assignments", new ReceiptController.GetItemAssignmentsHandler());
-            server.createContext("/api/receipts/pay", new ReceiptController.PayReceiptHandler());
-            server.createContext("/api/receipts/add-participants", new ReceiptController.AddParticipantsHandler());
-            server.createContext("/api/balance", new BalanceController.GetBalanceHandler());
-            server.createContext("/api/balance/add", new BalanceController.AddMoneyHandler());
-            server.createContext("/api/balance/cashout", new BalanceController.CashOutHandler());
+            register(router, "POST", "/api/auth/signup", new AuthController.SignupHandler());
+            register(router, "POST", "/api/friends/add", new FriendController.AddFriendHandler());
+            register(router, "POST", "/api/friends/add-by-email", new FriendController.AddFriendByEmailHandler());
+            register(router, "POST", "/api/friends/remove", new FriendController.RemoveFriendHandler());
+            register(router, "GET", "/api/friends/list", new FriendController.ListFriendsHandler());
+            register(router, "POST", "/api/friends/accept", new FriendController.AcceptFriendRequestHandler());
+            register(router, "POST", "/api/friends/decline", new FriendController.DeclineFriendRequestHandler());
+            register(router, "GET", "/api/friends/pending", new FriendController.ListPendingFriendRequestsHandler());
+            ReceiptParser parser = ReceiptParser.create(getParserKind());
+            System.out.println("🟣 [SERVER INIT] Receipt parser: " + parser.getClass().getSimpleName());
+            // Admission goes outside the timing and tracing wrappers: they run on the parse thread
+            router.route("POST", "/api/receipt/parse", new ReceiptController.ParseAdmissionHandler(
+                new TimedHandler("/api/receipt/parse", new TracingHandler("/api/receipt/parse",
+                    new ReceiptController.ParseReceiptHandler(parser)))));
+            register(router, "POST", "/api/receipts/create", new ReceiptController.CreateReceiptHandler());
+            register(router, "GET", "/api/receipts/view", new ReceiptController.ViewReceiptHandler());
+            register(router, "GET", "/api/receipts/image", new ReceiptController.ReceiptImageHandler());
+            register(router, "GET", "/api/receipts/pending", new ReceiptController.ListPendingReceiptsHandler());
+            register(router, "POST", "/api/receipts/accept", new ReceiptController.AcceptReceiptHandler());
+            register(router, "POST", "/api/receipts/decline", new ReceiptController.DeclineReceiptHandler());
+            register(router, "GET", "/api/receipts/activity", new ReceiptController.GetActivityReceiptsHandler());
+            ReceiptController.ClaimItemHandler claim = new ReceiptController.ClaimItemHandler();
+            register(router, "POST", "/api/receipts/items/claim", claim);
+            register(router, "DELETE", "/api/receipts/items/claim", claim);
+            register(router, "GET", "/api/receipts/items/assignments", new ReceiptController.GetItemAssignmentsHandler());
+            register(router, "POST", "/api/receipts/pay", new ReceiptController.PayReceiptHandler());
+            register(router, "POST", "/api/receipts/add-participants", new ReceiptController.AddParticipantsHandler());
+            register(router, "GET", "/api/balance", new BalanceController.GetBalanceHandler());
+            register(router, "POST", "/api/balance/add", new BalanceController.AddMoneyHandler());
+            register(router, "POST", "/api/balance/cashout", new BalanceController.CashOutHandler());
+            register(router, "GET", "/api/balance/history", new BalanceController.BalanceHistoryHandler());
+            register(router, "GET", "/api/balance/summary", new BalanceController.BalanceSummaryHandler());
+            AdminController.SqlStatsHandler sqlStats = new AdminController.SqlStatsHandler();
+            register(router, "GET", "/api/admin/sql-stats", sqlStats);
+            register(router, "DELETE", "/api/admin/sql-stats", sqlStats);
+            server.createContext("/api", router);
+            server.createContext("/metrics", new MetricsHandler());
 
             //start server
             System.out.println("🟣 [SERVER INIT] Starting server...");
-            server.setExecutor(null);
             server.start();
             System.out.println("🟣 [SERVER INIT] Server started successfully");
 
+            // start background fan-out of queued receipt notifications
+            NotificationDispatcher.getInstance().start();
+
+            // start periodic balance checkpoints and ledger verification
+            BalanceCheckpointService.getInstance().start();
+
+            // start the janitor that bounds the receipt upload spool
+            UploadSpool.getInstance().start();
+
             System.out.println("═══════════════════════════════════════════════════════════");
             System.out.println("CheckMate Server started on port " + PORT);
             System.out.println("═══════════════════════════════════════════════════════════");
@@ -114,7 +177,7 @@ public class Server {
             System.out.println("Accept receipt: http://localhost:" + PORT + "/api/receipts/accept?receiptId=1&userId=2");
             System.out.println("Decline receipt: http://localhost:" + PORT + "/api/receipts/decline?receiptId=1&userId=2");
             
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             
             System.err.println("Failed to start server: " + e.getMessage());
             e.printStackTrace();
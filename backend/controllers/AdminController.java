@@ -0,0 +1,109 @@
+package controllers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import metrics.SqlStatementStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import utils.QueryParams;
+import utils.ResponseWriter;
+import utils.Settings;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Controller for operational endpoints.
+ * When ADMIN_TOKEN is set, requests must send it in the X-Admin-Token header; otherwise
+ * only requests from the local machine are accepted.
+ */
+public class AdminController {
+
+    private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    /**
+     * Handler for /api/admin/sql-stats
+     * GET ?top=20&sort=total|max|count|avg|rows|errors returns the top statement shapes.
+     * DELETE clears the collected statistics.
+     */
+    public static class SqlStatsHandler implements HttpHandler {
+        private static final int DEFAULT_TOP = 20;
+        private static final int MAX_TOP = 500;
+
+        private final SqlStatementStats sqlStats = SqlStatementStats.getInstance();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAuthorized(exchange)) {
+                sendResponse(exchange, 403, "{\"success\": false, \"error\": \"Forbidden\"}");
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            if ("DELETE".equals(method)) {
+                sqlStats.reset();
+                sendResponse(exchange, 200, "{\"success\": true}");
+                return;
+            }
+
+            try {
+                Map<String, String> params = QueryParams.of(exchange);
+                int top = DEFAULT_TOP;
+                if (params.containsKey("top")) {
+                    top = Math.max(1, Math.min(MAX_TOP, Integer.parseInt(params.get("top"))));
+                }
+                String sort = params.getOrDefault("sort", "total");
+
+                JSONArray statements = new JSONArray();
+                for (SqlStatementStats.StatementSummary summary : sqlStats.top(top, sort)) {
+                    JSONObject json = new JSONObject();
+                    json.put("sql", summary.shape);
+                    json.put("count", summary.count);
+                    json.put("errors", summary.errors);
+                    json.put("totalMs", round(summary.totalMillis));
+                    json.put("avgMs", round(summary.avgMillis));
+                    json.put("maxMs", round(summary.maxMillis));
+                    json.put("rows", summary.rows);
+                    json.put("callers", new JSONArray(summary.callers));
+                    statements.put(json);
+                }
+
+                JSONObject response = new JSONObject();
+                response.put("success", true);
+                response.put("sort", sort);
+                response.put("distinctStatements", sqlStats.size());
+                response.put("statements", statements);
+                sendResponse(exchange, 200, response.toString());
+
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+            } catch (Exception e) {
+                System.err.println("Error getting SQL statistics: " + e.getMessage());
+                e.printStackTrace();
+                sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Internal server error\"}");
+            }
+        }
+
+        private static double round(double millis) {
+            return Math.round(millis * 1000.0) / 1000.0;
+        }
+    }
+
+    private static boolean isAuthorized(HttpExchange exchange) {
+        String token = Settings.get("ADMIN_TOKEN");
+        if (token != null && !token.isEmpty()) {
+            String provided = exchange.getRequestHeaders().getFirst(ADMIN_TOKEN_HEADER);
+            return provided != null && MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), provided.getBytes(StandardCharsets.UTF_8));
+        }
+        InetAddress remote = exchange.getRemoteAddress().getAddress();
+        return remote != null && remote.isLoopbackAddress();
+    }
+
+    private static void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        ResponseWriter.sendJson(exchange, statusCode, response);
+    }
+}
@@ -5,11 +5,11 @@ import services.AuthService;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONObject;
+import utils.ResponseWriter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,25 +46,7 @@ public class AuthController {
         public void handle(HttpExchange exchange) throws IOException {
             System.out.println("🟢 [BACKEND STEP 1/10] LoginHandler.handle() called");
             long startTime = System.currentTimeMillis();
-            
-            // Enable CORS
-            System.out.println("🟢 [BACKEND STEP 2/10] Setting CORS headers");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-            
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                System.out.println("🟢 [BACKEND STEP 2/10] OPTIONS request, returning 200");
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                System.out.println("🟢 [BACKEND STEP 2/10] Method not POST, returning 405");
-                sendResponse(exchange, 405, "{\"success\": false, \"message\": \"Method not allowed\"}");
-                return;
-            }
-            
+
             try {
                 System.out.println("🟢 [BACKEND STEP 3/10] Reading request body...");
                 String requestBody = readRequestBody(exchange);
@@ -162,21 +144,6 @@ public class AuthController {
         
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            //enable CORS
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-            
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendResponse(exchange, 405, "{\"success\": false, \"message\": \"Method not allowed\"}");
-                return;
-            }
-            
             try {
                 // read request body
                 String requestBody = readRequestBody(exchange);
@@ -259,11 +226,6 @@ public class AuthController {
      */
 
     private static void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(statusCode, bytes.length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(bytes);
-        os.close();
+        ResponseWriter.sendJson(exchange, statusCode, response);
     }
 }
\ No newline at end of file
@@ -2,12 +2,14 @@ package controllers;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import models.BalanceHistory;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import services.BalanceService;
+import utils.QueryParams;
+import utils.ResponseWriter;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.URI;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -24,15 +26,9 @@ public class BalanceController {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendResponse(exchange, 405, "{\"error\": \"Method not allowed\"}");
-                return;
-            }
-
             try {
                 // Parse query parameters
-                URI uri = exchange.getRequestURI();
-                Map<String, String> params = parseQueryParams(uri.getQuery());
+                Map<String, String> params = QueryParams.of(exchange);
 
                 String userId = params.get("userId");
 
@@ -55,27 +51,8 @@ public class BalanceController {
             }
         }
 
-        private Map<String, String> parseQueryParams(String query) {
-            Map<String, String> params = new HashMap<>();
-            if (query != null && !query.isEmpty()) {
-                String[] pairs = query.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=");
-                    if (keyValue.length == 2) {
-                        params.put(keyValue[0], keyValue[1]);
-                    }
-                }
-            }
-            return params;
-        }
-
         private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes());
-            os.close();
+            ResponseWriter.sendJson(exchange, statusCode, response);
         }
     }
 
@@ -88,22 +65,8 @@ public class BalanceController {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "POST, OPTIONS");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type");
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendResponse(exchange, 405, "{\"success\": false, \"error\": \"Method not allowed\"}");
-                return;
-            }
-
             try {
-                URI uri = exchange.getRequestURI();
-                Map<String, String> params = parseQueryParams(uri.getQuery());
+                Map<String, String> params = QueryParams.of(exchange);
 
                 String userId = params.get("userId");
                 String amountStr = params.get("amount");
@@ -147,31 +110,8 @@ public class BalanceController {
             }
         }
 
-        private Map<String, String> parseQueryParams(String query) {
-            Map<String, String> params = new HashMap<>();
-            if (query != null && !query.isEmpty()) {
-                String[] pairs = query.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=", 2);
-                    if (keyValue.length == 2) {
-                        try {
-                            params.put(keyValue[0], java.net.URLDecoder.decode(keyValue[1], "UTF-8"));
-                        } catch (java.io.UnsupportedEncodingException e) {
-                            params.put(keyValue[0], keyValue[1]);
-                        }
-                    }
-                }
-            }
-            return params;
-        }
-
         private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes());
-            os.close();
+            ResponseWriter.sendJson(exchange, statusCode, response);
         }
     }
 
@@ -184,22 +124,8 @@ public class BalanceController {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "POST, OPTIONS");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type");
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendResponse(exchange, 405, "{\"success\": false, \"error\": \"Method not allowed\"}");
-                return;
-            }
-
             try {
-                URI uri = exchange.getRequestURI();
-                Map<String, String> params = parseQueryParams(uri.getQuery());
+                Map<String, String> params = QueryParams.of(exchange);
 
                 String userId = params.get("userId");
                 String amountStr = params.get("amount");
@@ -252,31 +178,145 @@ public class BalanceController {
             }
         }
 
-        private Map<String, String> parseQueryParams(String query) {
-            Map<String, String> params = new HashMap<>();
-            if (query != null && !query.isEmpty()) {
-                String[] pairs = query.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=", 2);
-                    if (keyValue.length == 2) {
-                        try {
-                            params.put(keyValue[0], java.net.URLDecoder.decode(keyValue[1], "UTF-8"));
-                        } catch (java.io.UnsupportedEncodingException e) {
-                            params.put(keyValue[0], keyValue[1]);
-                        }
-                    }
+        private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+            ResponseWriter.sendJson(exchange, statusCode, response);
+        }
+    }
+
+    /**
+     * Handler for GET /api/balance/history?userId=xxx&limit=50&cursor=xxx&type=xxx
+     * Returns one page of balance history, newest first. Pass nextCursor from the
+     * previous response as cursor to get the following page.
+     */
+    public static class BalanceHistoryHandler implements HttpHandler {
+        private BalanceService balanceService = new BalanceService();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Map<String, String> params = QueryParams.of(exchange);
+
+                String userId = params.get("userId");
+                if (userId == null || userId.trim().isEmpty()) {
+                    sendResponse(exchange, 400, "{\"success\": false, \"error\": \"userId parameter is required\"}");
+                    return;
+                }
+
+                int limit = 50;
+                String limitStr = params.get("limit");
+                if (limitStr != null && !limitStr.trim().isEmpty()) {
+                    limit = Integer.parseInt(limitStr.trim());
+                }
+
+                BalanceService.BalanceHistoryPage page = balanceService.getBalanceHistoryPage(
+                    userId, params.get("type"), params.get("cursor"), limit);
+
+                JSONArray records = new JSONArray();
+                for (BalanceHistory record : page.records) {
+                    JSONObject json = new JSONObject();
+                    json.put("historyId", record.getHistoryId());
+                    json.put("amount", record.getAmount());
+                    json.put("balanceBefore", record.getBalanceBefore());
+                    json.put("balanceAfter", record.getBalanceAfter());
+                    json.put("transactionType", record.getTransactionType());
+                    json.put("description", record.getDescription() != null ? record.getDescription() : "");
+                    json.put("referenceId", record.getReferenceId() != null ? record.getReferenceId() : JSONObject.NULL);
+                    json.put("referenceType", record.getReferenceType() != null ? record.getReferenceType() : JSONObject.NULL);
+                    json.put("createdAt", record.getCreatedAt() != null ? record.getCreatedAt().toString() : JSONObject.NULL);
+                    records.put(json);
+                }
+
+                JSONObject response = new JSONObject();
+                response.put("success", true);
+                response.put("history", records);
+                response.put("nextCursor", page.nextCursor != null ? page.nextCursor : JSONObject.NULL);
+                response.put("hasMore", page.nextCursor != null);
+                sendResponse(exchange, 200, response.toString());
+
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "{\"success\": false, \"error\": \"Invalid limit format\"}");
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+            } catch (Exception e) {
+                System.err.println("Error getting balance history: " + e.getMessage());
+                e.printStackTrace();
+                sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Internal server error\"}");
+            }
+        }
+
+        private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+            ResponseWriter.sendJson(exchange, statusCode, response);
+        }
+    }
+
+    /**
+     * Handler for GET /api/balance/summary?userId=xxx&period=day|month&from=yyyy-MM-dd&to=yyyy-MM-dd
+     * Returns net flow per period and totals per transaction type, both aggregated in SQL.
+     */
+    public static class BalanceSummaryHandler implements HttpHandler {
+        private BalanceService balanceService = new BalanceService();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Map<String, String> params = QueryParams.of(exchange);
+
+                String userId = params.get("userId");
+                if (userId == null || userId.trim().isEmpty()) {
+                    sendResponse(exchange, 400, "{\"success\": false, \"error\": \"userId parameter is required\"}");
+                    return;
+                }
+
+                String period = params.getOrDefault("period", "month");
+                java.sql.Date from = parseDate(params.get("from"));
+                java.sql.Date to = parseDate(params.get("to"));
+
+                JSONArray periods = new JSONArray();
+                for (BalanceService.PeriodSummary summary : balanceService.getNetFlowByPeriod(userId, period, from, to)) {
+                    JSONObject json = new JSONObject();
+                    json.put("period", summary.period);
+                    json.put("credits", summary.credits);
+                    json.put("debits", summary.debits);
+                    json.put("net", summary.net);
+                    json.put("count", summary.count);
+                    periods.put(json);
+                }
+
+                JSONArray byType = new JSONArray();
+                for (BalanceService.TypeTotal total : balanceService.getTotalsByType(userId, from, to)) {
+                    JSONObject json = new JSONObject();
+                    json.put("transactionType", total.transactionType);
+                    json.put("total", total.total);
+                    json.put("count", total.count);
+                    byType.put(json);
                 }
+
+                JSONObject response = new JSONObject();
+                response.put("success", true);
+                response.put("period", period);
+                response.put("netFlow", periods);
+                response.put("totalsByType", byType);
+                sendResponse(exchange, 200, response.toString());
+
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+            } catch (Exception e) {
+                System.err.println("Error getting balance summary: " + e.getMessage());
+                e.printStackTrace();
+                sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Internal server error\"}");
+            }
+        }
+
+        // Dates must be yyyy-MM-dd; java.sql.Date.valueOf throws IllegalArgumentException otherwise
+        private java.sql.Date parseDate(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return null;
             }
-            return params;
+            return java.sql.Date.valueOf(value.trim());
         }
 
         private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes());
-            os.close();
+            ResponseWriter.sendJson(exchange, statusCode, response);
         }
     }
 }
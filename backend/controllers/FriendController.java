@@ -5,18 +5,16 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import utils.QueryParams;
+import utils.ResponseWriter;
 import utils.ValidationUtils;
 import database.UserDAO;
 import models.User;
 import models.Friend;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class FriendController {
 
@@ -25,16 +23,7 @@ public class FriendController {
     public static class AddFriendHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
                 String friendId = query.getOrDefault("friendId", "");
@@ -60,16 +49,7 @@ public class FriendController {
     public static class RemoveFriendHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
                 String friendId = query.getOrDefault("friendId", "");
@@ -100,21 +80,7 @@ public class FriendController {
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject()
-                    .put("success", false)
-                    .put("message", "Method not allowed"));
-                return;
-            }
-
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
 
             try {
                 String userId = query.getOrDefault("userId", "");
@@ -243,16 +209,7 @@ public class FriendController {
     public static class ListFriendsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
 
@@ -298,17 +255,7 @@ public class FriendController {
     public static class AcceptFriendRequestHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
                 String friendId = query.getOrDefault("friendId", "");
@@ -362,17 +309,7 @@ public class FriendController {
     public static class DeclineFriendRequestHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
                 String friendId = query.getOrDefault("friendId", "");
@@ -426,17 +363,7 @@ public class FriendController {
     public static class ListPendingFriendRequestsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userId = query.getOrDefault("userId", "");
 
@@ -491,32 +418,8 @@ public class FriendController {
         }
     }
 
-    private static Map<String, String> parseQuery(URI uri) {
-        String query = uri.getQuery();
-        if (query == null || query.isEmpty()) {
-            return Map.of();
-        }
-        return java.util.Arrays.stream(query.split("&"))
-                .map(kv -> kv.split("=", 2))
-                .collect(Collectors.toMap(
-                        kv -> kv[0],
-                        kv -> kv.length > 1 ? kv[1] : ""
-                ));
-    }
-
-    private static void addCors(HttpExchange exchange) {
-        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-    }
-
     private static void sendJson(HttpExchange exchange, int status, JSONObject json) throws IOException {
-        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(status, bytes.length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(bytes);
-        os.close();
+        ResponseWriter.sendJson(exchange, status, json.toString());
     }
 }
 
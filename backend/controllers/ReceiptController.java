@@ -1,34 +1,48 @@
 package controllers;
 
+import services.FriendService;
+import services.ParseAdmission;
+import services.ReceiptImagePreprocessor;
+import services.ReceiptImageStore;
+import services.ReceiptNotificationService;
 import services.ReceiptService;
+import services.ThumbnailService;
+import services.UploadSpool;
 import models.Receipt;
+import models.ReceiptDetail;
 import models.ReceiptItem;
+import database.ReceiptCache;
 import database.ReceiptDAO;
+import database.ReceiptVersions;
 import database.UserDAO;
+import metrics.MetricsRegistry;
 import models.User;
+import parser.ParseResult;
+import parser.ReceiptParser;
+import transport.HttpTransport;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import utils.ByteRange;
+import utils.ClientAddress;
+import utils.ETags;
+import utils.OwedAmountCalculator;
+import utils.QueryParams;
+import utils.ResponseWriter;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * Controller for handling receipt operations including parsing, viewing, creation, and management.
@@ -37,33 +51,84 @@ import java.util.stream.Collectors;
 public class ReceiptController {
 
     private static final ReceiptService receiptService = ReceiptService.getInstance();
-    private static final String UPLOAD_DIR = "receipts/";
-    private static final String PYTHON_SCRIPT = "receipt_parser_local.py";
+    private static final ReceiptNotificationService notificationService = new ReceiptNotificationService(new FriendService());
+    private static final ReceiptVersions receiptVersions = ReceiptVersions.getInstance();
+
+    /**
+     * Admission in front of ParseReceiptHandler, rate limited and queued per client address
+     * (see ClientAddress for requests through a proxy) by ParseAdmission. Refused requests get 429 with Retry-After; admitted ones run the
+     * wrapped handler on ParseAdmission's parse threads, which finish the exchange, so the
+     * HTTP engine's request thread is free again as soon as this returns.
+     * Register it outside TimedHandler and TracingHandler so that they measure the parse on
+     * the thread that runs it.
+     */
+    public static class ParseAdmissionHandler implements HttpHandler {
+        private final ParseAdmission admission;
+        private final HttpHandler delegate;
+
+        public ParseAdmissionHandler(HttpHandler delegate) {
+            this(ParseAdmission.getInstance(), delegate);
+        }
+
+        public ParseAdmissionHandler(ParseAdmission admission, HttpHandler delegate) {
+            this.admission = admission;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // The address, not a userId parameter the client could vary to get a fresh budget
+            String client = ClientAddress.of(exchange);
+            HttpTransport.detach(exchange);
+            admission.submit(client, new ParseAdmission.Job() {
+                @Override
+                public void run() {
+                    try {
+                        delegate.handle(exchange);
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("[ReceiptController] Parse handler failed: " + e.getMessage());
+                    } finally {
+                        // Ends a response the handler never sent; a no-op once it has
+                        exchange.close();
+                    }
+                }
+
+                @Override
+                public void refuse(long retryAfterSeconds) {
+                    try {
+                        exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds));
+                        sendJson(exchange, 429, new JSONObject()
+                            .put("success", false)
+                            .put("message", "Too many receipt scans. Please wait a moment and try again."));
+                    } catch (IOException e) {
+                        exchange.close();
+                    }
+                }
+            });
+        }
+    }
 
     /**
      * Handler for parsing a receipt image using OpenAI.
      * POST /api/receipt/parse
      * Body: Raw image bytes (image/jpeg)
+     * Runs behind ParseAdmissionHandler, which bounds how many parses run at once.
      */
     public static class ParseReceiptHandler implements HttpHandler {
+        // Long enough for the OpenAI call
+        private static final long PARSE_TIMEOUT_MILLIS = 120_000;
+
+        private final ReceiptParser parser;
+
+        public ParseReceiptHandler(ReceiptParser parser) {
+            this.parser = parser;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            // Enable CORS
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-            
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
+            UploadSpool spool = UploadSpool.getInstance();
             Path tempPath = null;
+            Path parserInput = null;
             try {
                 System.out.println("========================================");
                 System.out.println("[ReceiptController] Received receipt parse request at " + new java.util.Date());
@@ -81,117 +146,55 @@ public class ReceiptController {
                 
                 // Save to temp file
                 System.out.println("[ReceiptController] Saving image to temp file...");
-                String filename = "temp_" + UUID.randomUUID().toString() + ".jpg";
-                tempPath = Paths.get(UPLOAD_DIR, filename);
-                Files.createDirectories(tempPath.getParent());
-                Files.write(tempPath, imageData);
-                System.out.println("[ReceiptController] ✓ Saved image to: " + tempPath.toString());
-                
-                // Call Python parser - use absolute path to project root
-                System.out.println("[ReceiptController] Preparing to call Python parser...");
-                String projectRoot = System.getProperty("user.dir");
-                File projectRootFile = new File(projectRoot);
-                File pythonScriptFile = new File(projectRootFile, PYTHON_SCRIPT);
-                
-                if (!pythonScriptFile.exists()) {
-                    System.err.println("[ReceiptController] ERROR: Python script not found at: " + pythonScriptFile.getAbsolutePath());
-                    sendJson(exchange, 500, new JSONObject()
+                tempPath = spool.create(imageData, ".jpg");
+                if (tempPath == null) {
+                    exchange.getResponseHeaders().set("Retry-After", "5");
+                    sendJson(exchange, 503, new JSONObject()
                         .put("success", false)
-                        .put("message", "Python parser script not found"));
+                        .put("message", "Server is busy processing other receipts. Please try again shortly."));
                     return;
                 }
+                System.out.println("[ReceiptController] ✓ Saved image to: " + tempPath.toString());
                 
-                System.out.println("[ReceiptController] Python script: " + pythonScriptFile.getAbsolutePath());
-                System.out.println("[ReceiptController] Working directory: " + projectRoot);
-                System.out.println("[ReceiptController] Image path: " + tempPath.toAbsolutePath());
-                
-                ProcessBuilder pb = new ProcessBuilder(
-                    "python3",
-                    pythonScriptFile.getAbsolutePath(),
-                    tempPath.toAbsolutePath().toString()
-                );
-                pb.directory(projectRootFile);
-                // do NOT redirect error stream; keep stdout and stderr separate
-                System.out.println("[ReceiptController] Starting Python process...");
-                long pythonStartTime = System.currentTimeMillis();
-                Process process = pb.start();
-                System.out.println("[ReceiptController] ✓ Python process started (PID: " + process.pid() + "), waiting for output...");
-                
-                // Read stdout and stderr in parallel to avoid deadlock
-                // Use separate threads to read both streams simultaneously
-                StringBuilder output = new StringBuilder();
-                StringBuilder errorOutput = new StringBuilder();
-                
-                Thread stdoutThread = new Thread(() -> {
-                    try (BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            System.out.println("[ReceiptController] Python stdout: " + line);
-                            // Keep only the last line, expected to be the JSON
-                            output.setLength(0);
-                            output.append(line);
-                        }
-                    } catch (IOException e) {
-                        System.err.println("[ReceiptController] Error reading stdout: " + e.getMessage());
-                    }
-                });
-                
-                Thread stderrThread = new Thread(() -> {
-                    try (BufferedReader errorReader = new BufferedReader(
-                            new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
-                        String errorLine;
-                        while ((errorLine = errorReader.readLine()) != null) {
-                            errorOutput.append(errorLine).append("\n");
-                            System.err.println("[ReceiptController] Python stderr: " + errorLine);
-                        }
-                    } catch (IOException e) {
-                        System.err.println("[ReceiptController] Error reading stderr: " + e.getMessage());
-                    }
-                });
-                
-                stdoutThread.start();
-                stderrThread.start();
-                
-                System.out.println("[ReceiptController] Waiting for Python process to complete (timeout: 120 seconds)...");
+                // The parser gets a downscaled grayscale crop; the original is what gets stored
+                parserInput = ReceiptImagePreprocessor.getInstance().preprocess(tempPath);
+                if (parserInput != null) {
+                    System.out.println("[ReceiptController] ✓ Pre-processed image: " + Files.size(parserInput) + " bytes");
+                    spool.retain(parserInput);
+                }
                 
-                // Wait for process with timeout (120 seconds for OpenAI API call)
-                boolean finished = process.waitFor(120, TimeUnit.SECONDS);
-                int exitCode;
+                System.out.println("[ReceiptController] Calling receipt parser (timeout: 120 seconds)...");
+                long parseStartMillis = System.currentTimeMillis();
+                long parseStartNanos = System.nanoTime();
+                ParseResult result = parser.parse(parserInput != null ? parserInput : tempPath, parserInput != null,
+                    PARSE_TIMEOUT_MILLIS);
                 
-                if (!finished) {
-                    System.err.println("[ReceiptController] Python process timed out after 120 seconds - killing process");
-                    process.destroyForcibly();
-                    exitCode = -1;
-                    
-                    // Wait a bit for threads to finish
-                    stdoutThread.join(2000);
-                    stderrThread.join(2000);
-                    
+                if (result.status == ParseResult.Status.TIMED_OUT) {
+                    System.err.println("[ReceiptController] Receipt parser timed out after 120 seconds");
+                    recordParseDuration(parseStartNanos, "timeout");
                     sendJson(exchange, 500, new JSONObject()
                         .put("success", false)
                         .put("message", "Receipt parsing timed out. This usually takes 15-30 seconds. Please check:\n1. OpenAI API key is configured\n2. Internet connection is working\n3. Try again with a clearer receipt image"));
                     return;
-                } else {
-                    exitCode = process.exitValue();
                 }
-                
-                // Wait for threads to finish reading
-                stdoutThread.join(5000); // 5 second timeout
-                stderrThread.join(5000);
-                long pythonDuration = System.currentTimeMillis() - pythonStartTime;
-                System.out.println("[ReceiptController] ✓ Python process completed in " + pythonDuration + "ms with exit code: " + exitCode);
-                
-                // Clean up temp file
-                if (tempPath != null) {
-                    Files.deleteIfExists(tempPath);
-                    System.out.println("[ReceiptController] Cleaned up temp file");
+                int exitCode = result.exitCode;
+                String output = result.output;
+                String errorOutput = result.errorOutput;
+                long parseDuration = System.currentTimeMillis() - parseStartMillis;
+                recordParseDuration(parseStartNanos, result.isOk() ? "ok" : "error");
+                System.out.println("[ReceiptController] ✓ Receipt parser completed in " + parseDuration + "ms with exit code: " + exitCode);
+                
+                // Keep a successfully parsed image under its content name so clients can show it
+                String imageName = null;
+                if (result.isOk()) {
+                    imageName = ReceiptImageStore.getInstance().adopt(tempPath, imageData);
+                    ThumbnailService.getInstance().submit(imageName);
                 }
                 
-                if (exitCode != 0) {
+                if (!result.isOk()) {
                     System.err.println("[ReceiptController] Python script failed with exit code: " + exitCode);
-                    System.err.println("[ReceiptController] Python error output: " + errorOutput.toString());
-                    System.err.println("[ReceiptController] Python stdout output: " + output.toString());
+                    System.err.println("[ReceiptController] Python error output: " + errorOutput);
+                    System.err.println("[ReceiptController] Python stdout output: " + output);
                     
                     // Check if output contains an error message (JSON error from Python)
                     String errorMsg = "Error reading receipt. Python script failed with exit code: " + exitCode;
@@ -199,13 +202,13 @@ public class ReceiptController {
                     
                     if (output.length() > 0) {
                         try {
-                            JSONObject errorJson = new JSONObject(output.toString());
+                            JSONObject errorJson = new JSONObject(output);
                             if (errorJson.has("error")) {
                                 errorMsg = errorJson.getString("error");
                             }
                         } catch (Exception e) {
                             // Not JSON, check for common error patterns
-                            String outputStr = output.toString();
+                            String outputStr = output;
                             if (outputStr.contains("OPENAI_API_KEY")) {
                                 errorMsg = "OpenAI API key not configured. Please check your openai_key.env file.";
                             } else if (outputStr.contains("ModuleNotFoundError") || outputStr.contains("ImportError")) {
@@ -218,7 +221,7 @@ public class ReceiptController {
                     
                     // Include stderr in detailed error if available
                     if (errorOutput.length() > 0) {
-                        String stderrStr = errorOutput.toString();
+                        String stderrStr = errorOutput;
                         detailedError = "\n\nPython error details:\n" + stderrStr.substring(0, Math.min(500, stderrStr.length()));
                         if (stderrStr.contains("OPENAI_API_KEY")) {
                             errorMsg = "OpenAI API key not configured. Please check your openai_key.env file.";
@@ -236,7 +239,7 @@ public class ReceiptController {
                 }
                 
                 // Parse Python output (should be pure JSON on stdout)
-                String pythonOutput = output.toString().trim();
+                String pythonOutput = output.trim();
                 if (pythonOutput.isEmpty()) {
                     System.err.println("[ReceiptController] Python script returned empty output");
                     sendJson(exchange, 500, new JSONObject()
@@ -271,43 +274,111 @@ public class ReceiptController {
                 response.put("subtotal", receiptData.optDouble("subtotal", 0));
                 response.put("tax", receiptData.optDouble("tax", 0));
                 response.put("total", receiptData.optDouble("total", 0));
+                if (imageName != null) {
+                    response.put("imageUrl", ReceiptImageStore.urlFor(imageName));
+                    if (ReceiptImageStore.hasThumbnail(imageName)) {
+                        response.put("thumbnailUrl", ReceiptImageStore.urlFor(ReceiptImageStore.thumbnailName(imageName)));
+                    }
+                }
                 
                 sendJson(exchange, 200, response);
                 
             } catch (Exception e) {
-                // Clean up temp file on error
-                if (tempPath != null) {
-                    try {
-                        Files.deleteIfExists(tempPath);
-                    } catch (Exception ignored) {}
-                }
-                
                 e.printStackTrace();
                 sendJson(exchange, 500, new JSONObject()
                     .put("success", false)
                     .put("message", "Error reading receipt: " + e.getMessage()));
+            } finally {
+                // A stored image was already moved out of the spool; release is then a no-op delete
+                spool.release(tempPath);
+                spool.release(parserInput);
             }
         }
     }
 
     /**
-     * Handler for viewing a receipt by ID.
-     * GET /api/receipts/view?receiptId=X&userId=Y
+     * Handler for serving a stored receipt image.
+     * GET /api/receipts/image?name=X
+     * Names are content hashes, so responses carry a strong ETag and are cacheable for a year.
+     * Supports a single Range (206/416) and If-Range. The file is sent from disk without
+     * being read into the heap. A thumbnail that the background pipeline has not made yet
+     * is queued again and the original is served in its place, uncached so the client picks
+     * up the thumbnail later; originals ImageIO cannot read have no thumbnail (404).
      */
-    public static class ViewReceiptHandler implements HttpHandler {
+    public static class ReceiptImageHandler implements HttpHandler {
+        private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
+            String name = QueryParams.of(exchange).get("name");
+            ReceiptImageStore store = ReceiptImageStore.getInstance();
+            Path path = store.resolve(name);
+            String cacheControl = CACHE_CONTROL;
+            if (path == null && ReceiptImageStore.isValidName(name) && ReceiptImageStore.isThumbnail(name)) {
+                String original = store.originalOf(name);
+                if (original != null && ReceiptImageStore.hasThumbnail(original)) {
+                    ThumbnailService.getInstance().submit(original);
+                    name = original;
+                    path = store.resolve(original);
+                    cacheControl = "no-cache";
+                }
             }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
+            if (path == null) {
+                sendJson(exchange, 404, new JSONObject().put("success", false).put("message", "Image not found"));
                 return;
             }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+
+            try {
+                long size = Files.size(path);
+                String etag = ReceiptImageStore.etag(name);
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("ETag", etag);
+                headers.set("Cache-Control", cacheControl);
+                headers.set("Accept-Ranges", "bytes");
+                if (ETags.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+
+                // If-Range needs a strong match; otherwise the client's partial copy is stale
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                ByteRange range = ifRange == null || ifRange.equals(etag)
+                    ? ByteRange.parse(exchange.getRequestHeaders().getFirst("Range"), size) : null;
+                String contentType = ReceiptImageStore.contentType(name);
+                if (range == ByteRange.UNSATISFIABLE) {
+                    headers.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                } else if (range != null) {
+                    headers.set("Content-Range", range.contentRange(size));
+                    ResponseWriter.sendFile(exchange, 206, contentType, path, range.start, range.length);
+                } else {
+                    ResponseWriter.sendFile(exchange, 200, contentType, path, 0, size);
+                }
+            } catch (IOException e) {
+                System.err.println("[ReceiptController] Failed to serve image " + name + ": " + e.getMessage());
+                if (exchange.getResponseCode() < 0) {
+                    // The caching headers describe the image; the error must not be cached in its place
+                    Headers headers = exchange.getResponseHeaders();
+                    headers.remove("ETag");
+                    headers.remove("Accept-Ranges");
+                    headers.remove("Content-Range");
+                    headers.set("Cache-Control", "no-store");
+                    sendJson(exchange, 500, new JSONObject().put("success", false).put("message", "Error reading image"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Handler for viewing a receipt by ID.
+     * GET /api/receipts/view?receiptId=X&userId=Y
+     */
+    public static class ViewReceiptHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", "0"));
@@ -319,11 +390,15 @@ public class ReceiptController {
                     return;
                 }
                 
-                // Get full receipt with items loaded
-                ReceiptDAO receiptDAO = receiptService.getReceiptDAO();
-                Receipt receipt = receiptDAO.getReceiptById(receiptId);
+                String etag = receiptVersions.receiptTag("view", receiptId);
+                if (sendNotModified(exchange, etag)) {
+                    return;
+                }
+                
+                // Receipt, items, participants and completion state in one query
+                ReceiptDetail detail = receiptService.getReceiptDAO().getReceiptDetail(receiptId);
                 
-                if (receipt == null) {
+                if (detail == null) {
                     sendJson(exchange, 404, new JSONObject()
                         .put("success", false)
                         .put("message", "Receipt not found"));
@@ -331,42 +406,31 @@ public class ReceiptController {
                 }
                 
                 // Verify user has access (uploader or participant)
-                String uploadedBy = receiptDAO.getReceiptUploadedBy(receiptId);
-                String participantStatus = receiptDAO.getParticipantStatus(receiptId, userIdStr);
-                
-                if (uploadedBy == null || (!uploadedBy.equals(userIdStr) && participantStatus == null)) {
+                if (!detail.canView(userIdStr)) {
                     sendJson(exchange, 403, new JSONObject()
                         .put("success", false)
                         .put("message", "Access denied"));
                     return;
                 }
                 
-                // Build receipt JSON with all details including items
-                JSONObject receiptJson = buildReceiptJson(receipt);
+                JSONObject receiptJson = buildReceiptDetailJson(detail);
                 
-                // Get status using String userId version (explicitly call String overload)
-                String receiptStatus = receiptService.getReceiptStatus(userIdStr, receiptId);
+                ReceiptDetail.Participant participant = detail.getParticipant(userIdStr);
+                String receiptStatus = participant != null ? participant.getStatus() : null;
                 receiptJson.put("status", receiptStatus != null ? receiptStatus : "pending");
                 
                 // Add isUploader and hasPaid flags for frontend
-                // Note: uploadedBy and participantStatus are already defined above
-                boolean isUploader = uploadedBy != null && uploadedBy.equals(userIdStr);
+                boolean isUploader = detail.isUploader(userIdStr);
                 receiptJson.put("isUploader", isUploader);
                 
                 // CRITICAL: Add complete status so frontend can determine if receipt is completed
                 // Frontend will hide pay button and show completed UI when complete = true
-                boolean isComplete = receiptDAO.isReceiptComplete(receiptId);
-                receiptJson.put("complete", isComplete);
-                
-                if (!isUploader) {
-                    if (participantStatus != null && !participantStatus.equals("declined")) {
-                        float paidAmount = receiptDAO.getPaidAmount(receiptId, userIdStr);
-                        receiptJson.put("hasPaid", paidAmount > 0.01f);
-                        receiptJson.put("paidAmount", paidAmount);
-                    } else {
-                        receiptJson.put("hasPaid", false);
-                        receiptJson.put("paidAmount", 0.0f);
-                    }
+                receiptJson.put("complete", detail.isComplete());
+                
+                if (!isUploader && participant != null && !"declined".equals(participant.getStatus())) {
+                    float paidAmount = participant.getPaidAmount();
+                    receiptJson.put("hasPaid", paidAmount > 0.01f);
+                    receiptJson.put("paidAmount", paidAmount);
                 } else {
                     receiptJson.put("hasPaid", false);
                     receiptJson.put("paidAmount", 0.0f);
@@ -376,6 +440,7 @@ public class ReceiptController {
                     .put("success", true)
                     .put("receipt", receiptJson);
                 
+                setETag(exchange, etag);
                 sendJson(exchange, 200, resp);
             } catch (NumberFormatException e) {
                 sendJson(exchange, 400, new JSONObject()
@@ -398,17 +463,7 @@ public class ReceiptController {
     public static class ListPendingReceiptsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 
@@ -419,6 +474,12 @@ public class ReceiptController {
                     return;
                 }
                 
+                // Version check before the list and metadata queries
+                String etag = receiptVersions.userTag("pending", userIdStr);
+                if (sendNotModified(exchange, etag)) {
+                    return;
+                }
+                
                 // Use String userId version (for UUIDs)
                 List<Receipt> pendingReceipts = receiptService.getPendingReceipts(userIdStr);
                 System.out.println("[ReceiptController] ListPendingReceiptsHandler - Found " + pendingReceipts.size() + " pending receipts for user " + userIdStr);
@@ -491,6 +552,7 @@ public class ReceiptController {
                     .put("userId", userIdStr)
                     .put("receipts", receiptsArray);
                 
+                setETag(exchange, etag);
                 sendJson(exchange, 200, resp);
             } catch (Exception e) {
                 sendJson(exchange, 400, new JSONObject()
@@ -507,17 +569,7 @@ public class ReceiptController {
     public static class AcceptReceiptHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", ""));
@@ -562,19 +614,9 @@ public class ReceiptController {
     public static class CreateReceiptHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
             try {
                 // Get userId from query params
-                Map<String, String> query = parseQuery(exchange.getRequestURI());
+                Map<String, String> query = QueryParams.of(exchange);
                 String userIdStr = query.getOrDefault("userId", "");
                 
                 if (userIdStr.isEmpty()) {
@@ -594,6 +636,8 @@ public class ReceiptController {
                 double tax = json.optDouble("tax", 0.0);
                 double tip = json.optDouble("tip", 0.0);
                 String imageUrl = json.optString("imageUrl", json.optString("image_url", ""));
+                // No-op if the parse step already queued it
+                ThumbnailService.getInstance().submit(ReceiptImageStore.nameFromUrl(imageUrl));
                 
                 // Get items
                 JSONArray itemsArray = json.getJSONArray("items");
@@ -601,32 +645,7 @@ public class ReceiptController {
                 // Get participants (email addresses)
                 JSONArray participantsArray = json.getJSONArray("participants");
                 
-                // Create receipt in database
-                ReceiptDAO receiptDAO = receiptService.getReceiptDAO();
-                Date receiptDate = new Date();
-                
-                Receipt receipt = receiptDAO.createReceipt(
-                    userIdStr,
-                    merchantName,
-                    receiptDate,
-                    (float) totalAmount,
-                    (float) tip,
-                    (float) tax,
-                    imageUrl
-                );
-                
-                if (receipt == null) {
-                    sendJson(exchange, 500, new JSONObject()
-                        .put("success", false)
-                        .put("message", "Failed to create receipt"));
-                    return;
-                }
-                
-                // OPTIMIZATION: Batch insert items instead of one-by-one
-                UserDAO userDAO = new UserDAO();
-                List<String> validParticipantIds = new ArrayList<>();
-                
-                // Prepare items data for batch insert
+                // Prepare items data for the multi-row insert
                 List<Map<String, Object>> itemsData = new ArrayList<>();
                 for (int i = 0; i < itemsArray.length(); i++) {
                     JSONObject itemJson = itemsArray.getJSONObject(i);
@@ -638,60 +657,44 @@ public class ReceiptController {
                     itemsData.add(itemData);
                 }
                 
-                // Batch insert all items in one database operation
-                List<ReceiptItem> createdItems = receiptDAO.addReceiptItemsBatch(receipt.getReceiptId(), itemsData);
-                for (ReceiptItem item : createdItems) {
-                    receipt.addItem(item);
-                }
-                
-                // Add uploader as participant with 'pending' status (so they see it in Pending screen like everyone else)
-                receiptDAO.addReceiptParticipant(receipt.getReceiptId(), userIdStr);
-                validParticipantIds.add(userIdStr);
-                
-                // OPTIMIZATION: Batch lookup all participant emails in one query
                 List<String> participantEmails = new ArrayList<>();
                 for (int i = 0; i < participantsArray.length(); i++) {
-                    String email = participantsArray.getString(i).trim().toLowerCase();
-                    participantEmails.add(email);
+                    participantEmails.add(participantsArray.getString(i).trim().toLowerCase());
                 }
                 
-                // Batch lookup all users by email
-                Map<String, User> emailToUserMap = userDAO.findUsersByEmailsBatch(participantEmails);
-                
-                // Collect valid participant user IDs (excluding uploader)
-                List<String> participantUserIds = new ArrayList<>();
-                for (String email : participantEmails) {
-                    User participantUser = emailToUserMap.get(email);
-                    if (participantUser != null) {
-                        String participantUserId = participantUser.getUserId();
-                        // Skip if it's the uploader (already added)
-                        if (!participantUserId.equals(userIdStr)) {
-                            participantUserIds.add(participantUserId);
-                            validParticipantIds.add(participantUserId);
-                        }
-                    }
-                }
+                // Receipt, items and participants (uploader included) in one transaction
+                ReceiptDAO.CreatedReceipt created = receiptService.getReceiptDAO().createReceiptAggregate(
+                    userIdStr,
+                    merchantName,
+                    new Date(),
+                    (float) totalAmount,
+                    (float) tip,
+                    (float) tax,
+                    imageUrl,
+                    itemsData,
+                    participantEmails
+                );
                 
-                // OPTIMIZATION: Batch insert all participants in one database operation
-                if (!participantUserIds.isEmpty()) {
-                    receiptDAO.addReceiptParticipantsBatch(receipt.getReceiptId(), participantUserIds);
+                if (created == null) {
+                    sendJson(exchange, 500, new JSONObject()
+                        .put("success", false)
+                        .put("message", "Failed to create receipt"));
+                    return;
                 }
-                
-                // Update number_of_items in receipts table after all items are added
-                receiptDAO.updateReceiptItemCount(receipt.getReceiptId());
+                Receipt receipt = created.receipt;
                 
                 // OPTIMIZATION: Skip reload - build response from existing data
                 // Items are already added to receipt object, no need to reload from database
                 
                 // Build response - pass uploadedBy to avoid extra query
-                JSONObject receiptJson = buildReceiptJson(receipt, userIdStr);
+                JSONObject receiptJson = buildReceiptJson(receipt, created.uploadedBy);
                 receiptJson.put("status", "accepted");
                 
                 JSONObject resp = new JSONObject()
                     .put("success", true)
                     .put("message", "Receipt created successfully")
                     .put("receipt", receiptJson)
-                    .put("participantsAdded", validParticipantIds.size());
+                    .put("participantsAdded", created.participantIds.size());
                 
                 sendJson(exchange, 201, resp);
                 
@@ -711,17 +714,7 @@ public class ReceiptController {
     public static class DeclineReceiptHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", ""));
@@ -766,17 +759,7 @@ public class ReceiptController {
     public static class GetActivityReceiptsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 System.out.println("[ReceiptController] STEP B1: GetActivityReceiptsHandler - Request received");
                 String userIdStr = query.getOrDefault("userId", "");
@@ -790,6 +773,12 @@ public class ReceiptController {
                     return;
                 }
                 
+                // Version check before the list, metadata and owed-amount queries
+                String etag = receiptVersions.userTag("activity", userIdStr);
+                if (sendNotModified(exchange, etag)) {
+                    return;
+                }
+                
                 System.out.println("[ReceiptController] STEP B3: Calling receiptService.getAllReceiptsForUser(" + userIdStr + ")");
                 // Get all receipts for this user (accepted, declined, or uploaded)
                 List<Receipt> receipts = receiptService.getAllReceiptsForUser(userIdStr);
@@ -870,6 +859,7 @@ public class ReceiptController {
                     .put("userId", userIdStr)
                     .put("receipts", receiptsArray);
                 
+                setETag(exchange, etag);
                 sendJson(exchange, 200, resp);
                 System.out.println("[ReceiptController] STEP B12: Response sent successfully");
             } catch (Exception e) {
@@ -880,6 +870,16 @@ public class ReceiptController {
         }
     }
 
+    /**
+     * Record how long the receipt parser process ran.
+     * @param startNanos System.nanoTime() when the process was started
+     * @param outcome "ok", "error" or "timeout"
+     */
+    private static void recordParseDuration(long startNanos, String outcome) {
+        MetricsRegistry.getInstance().histogram("receipt_parse_duration_seconds",
+            "Receipt parser (OCR) process run time by outcome", "outcome", outcome).recordSince(startNanos);
+    }
+
     /**
      * Helper method to build a JSON object from a Receipt model.
      * @param receipt The receipt to convert to JSON
@@ -907,6 +907,7 @@ public class ReceiptController {
             .put("tipAmount", receipt.getTipAmount())
             .put("taxAmount", receipt.getTaxAmount())
             .put("imageUrl", receipt.getImageUrl())
+            .put("thumbnailUrl", thumbnailUrl(receipt.getImageUrl()))
             .put("status", receipt.getStatus())
             .put("senderName", receipt.getSenderName() != null ? receipt.getSenderName() : "")
             .put("numberOfItems", receipt.getNumberOfItems());
@@ -929,23 +930,79 @@ public class ReceiptController {
         return receiptJson;
     }
 
-    private static Map<String, String> parseQuery(URI uri) {
-        String query = uri.getQuery();
-        if (query == null || query.isEmpty()) {
-            return Map.of();
+    /**
+     * Thumbnail URL for a receipt image held in ReceiptImageStore; null (field omitted) for
+     * receipts without one, including HEIC and WebP originals that cannot be thumbnailed.
+     * Derived from the image name, so it is stable whether or not the thumbnail has been made yet.
+     */
+    private static String thumbnailUrl(String imageUrl) {
+        String name = ReceiptImageStore.nameFromUrl(imageUrl);
+        if (name == null || ReceiptImageStore.isThumbnail(name)) {
+            return name != null ? imageUrl : null;
+        }
+        if (!ReceiptImageStore.hasThumbnail(name)) {
+            return null;
         }
-        return java.util.Arrays.stream(query.split("&"))
-                .map(kv -> kv.split("=", 2))
-                .collect(Collectors.toMap(
-                        kv -> kv[0],
-                        kv -> kv.length > 1 ? kv[1] : ""
-                ));
+        return ReceiptImageStore.urlFor(ReceiptImageStore.thumbnailName(name));
     }
 
-    private static void addCors(HttpExchange exchange) {
-        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+    /**
+     * Helper method to build the receipt view JSON from a ReceiptDetail.
+     * Produces the same fields as buildReceiptJson without further queries.
+     */
+    private static JSONObject buildReceiptDetailJson(ReceiptDetail detail) {
+        JSONObject receiptJson = new JSONObject()
+            .put("receiptId", detail.getReceiptId())
+            .put("uploadedBy", detail.getUploadedBy())
+            .put("merchantName", detail.getMerchantName())
+            .put("date", detail.getDate().getTime())
+            .put("totalAmount", detail.getTotalAmount())
+            .put("tipAmount", detail.getTipAmount())
+            .put("taxAmount", detail.getTaxAmount())
+            .put("imageUrl", detail.getImageUrl())
+            .put("thumbnailUrl", thumbnailUrl(detail.getImageUrl()))
+            .put("status", detail.getStatus())
+            .put("senderName", detail.getSenderName() != null ? detail.getSenderName() : "")
+            .put("numberOfItems", detail.getNumberOfItems());
+        
+        JSONArray itemsArray = new JSONArray();
+        for (ReceiptItem item : detail.getItems()) {
+            JSONObject itemJson = new JSONObject()
+                .put("itemId", item.getItemId())
+                .put("receiptId", item.getReceiptId())
+                .put("name", item.getName())
+                .put("price", item.getPrice())
+                .put("quantity", item.getQuantity())
+                .put("qty", item.getQuantity()) // Also include as 'qty' for frontend compatibility
+                .put("category", item.getCategory());
+            itemsArray.put(itemJson);
+        }
+        receiptJson.put("items", itemsArray);
+        
+        return receiptJson;
+    }
+
+    /**
+     * Answer 304 Not Modified if the request's If-None-Match already names the current ETag.
+     * Called before any lookup, so polling clients with an up-to-date copy cost no queries.
+     *
+     * @return true if the 304 was sent and the handler should return
+     */
+    private static boolean sendNotModified(HttpExchange exchange, String etag) throws IOException {
+        if (!ETags.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            return false;
+        }
+        setETag(exchange, etag);
+        exchange.sendResponseHeaders(304, -1);
+        return true;
+    }
+
+    /**
+     * Tag a 200 response; no-cache makes clients revalidate with If-None-Match on every poll.
+     */
+    private static void setETag(HttpExchange exchange, String etag) {
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
     }
 
     /**
@@ -971,13 +1028,7 @@ public class ReceiptController {
     public static class ClaimItemHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", "0"));
@@ -1006,7 +1057,7 @@ public class ReceiptController {
                         return;
                     }
                     success = receiptDAO.unassignItemFromUser(itemId, userIdStr);
-                } else if ("POST".equals(exchange.getRequestMethod())) {
+                } else {
                     // For POST, check if paid before attempting claim
                     if (receiptDAO.isItemPaid(itemId)) {
                         sendJson(exchange, 400, new JSONObject()
@@ -1017,8 +1068,9 @@ public class ReceiptController {
                     // Claim item
                     int quantity = Integer.parseInt(query.getOrDefault("quantity", "1"));
                     
-                    // Get item info to validate quantity
-                    models.ReceiptItem item = receiptDAO.getReceiptItemById(itemId);
+                    // Get item info to validate quantity (from the cached receipt aggregate)
+                    ReceiptDetail detail = receiptDAO.getReceiptDetail(receiptId);
+                    models.ReceiptItem item = detail != null ? detail.getItem(itemId) : null;
                     if (item == null) {
                         sendJson(exchange, 400, new JSONObject()
                             .put("success", false)
@@ -1048,11 +1100,6 @@ public class ReceiptController {
                     }
                     
                     success = receiptDAO.assignItemToUser(itemId, userIdStr, quantity);
-                } else {
-                    sendJson(exchange, 405, new JSONObject()
-                        .put("success", false)
-                        .put("message", "Method not allowed"));
-                    return;
                 }
                 
                 if (success) {
@@ -1090,17 +1137,7 @@ public class ReceiptController {
     public static class GetItemAssignmentsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"GET".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", "0"));
@@ -1112,18 +1149,27 @@ public class ReceiptController {
                     return;
                 }
                 
-                System.out.println("[ReceiptController] GetItemAssignmentsHandler - receiptId: " + receiptId + ", userId: " + userIdStr);
+                // Clients poll this while splitting; unchanged state answers 304 before any lookup
+                String etag = receiptVersions.receiptTag("assignments", receiptId);
+                if (sendNotModified(exchange, etag)) {
+                    return;
+                }
                 
                 ReceiptDAO receiptDAO = receiptService.getReceiptDAO();
-                database.UserDAO userDAO = new database.UserDAO();
                 
-                // Get user's assignments
-                Map<Integer, Integer> assignments = receiptDAO.getItemAssignmentsForUser(receiptId, userIdStr);
-                float owedAmount = receiptDAO.calculateUserOwedAmount(receiptId, userIdStr);
-                // Calculate amount owed excluding paid items (for "Amount Owed" section)
-                float owedAmountExcludingPaid = receiptDAO.calculateUserOwedAmountExcludingPaid(receiptId, userIdStr);
+                // Receipt aggregate and assignment state (with claimant and payer names) come from
+                // ReceiptCache; on a miss each is one query, so no per-user lookups are needed
+                ReceiptDetail detail = receiptDAO.getReceiptDetail(receiptId);
+                ReceiptCache.PaymentState paymentState = receiptDAO.getPaymentState(receiptId);
+                List<ReceiptItem> items = detail != null ? detail.getItems() : List.of();
+                float taxAmount = detail != null ? detail.getTaxAmount() : 0f;
+                float tipAmount = detail != null ? detail.getTipAmount() : 0f;
                 
-                System.out.println("[ReceiptController] Found " + assignments.size() + " item assignments, owedAmount: " + owedAmount + ", owedAmountExcludingPaid: " + owedAmountExcludingPaid);
+                Map<Integer, Integer> assignments = paymentState.assignmentsForUser(userIdStr);
+                float owedAmount = OwedAmountCalculator.owedAmount(items, assignments, taxAmount, tipAmount).floatValue();
+                // Amount owed excluding paid items (for "Amount Owed" section)
+                float owedAmountExcludingPaid = OwedAmountCalculator.owedAmountExcludingPaid(items, assignments,
+                    paymentState.paidAssignmentsForUser(userIdStr), taxAmount, tipAmount).floatValue();
                 
                 // Build assignments JSON
                 JSONObject assignmentsJson = new JSONObject();
@@ -1131,29 +1177,19 @@ public class ReceiptController {
                     assignmentsJson.put(String.valueOf(entry.getKey()), entry.getValue());
                 }
                 
-                // Get item payment info from receipt_items table (new approach)
-                Map<Integer, Map<String, Object>> itemPaymentMap = receiptDAO.getItemPaymentInfoForReceipt(receiptId);
-                
                 // Build item payment info JSON with payer names
                 JSONObject itemPaymentInfo = new JSONObject();
-                for (Map.Entry<Integer, Map<String, Object>> entry : itemPaymentMap.entrySet()) {
-                    int itemId = entry.getKey();
+                for (Map.Entry<Integer, Map<String, Object>> entry : paymentState.itemPaymentInfo().entrySet()) {
                     Map<String, Object> paymentData = entry.getValue();
-                    String paidByUserId = (String) paymentData.get("paidBy");
-                    
-                    // Get payer's name
-                    models.User payer = userDAO.findUserById(paidByUserId);
-                    String payerName = payer != null ? payer.getName() : "Unknown";
+                    String payerName = (String) paymentData.get("payerName");
                     
                     JSONObject paymentJson = new JSONObject()
-                        .put("paidBy", paidByUserId)
-                        .put("payerName", payerName)
+                        .put("paidBy", paymentData.get("paidBy"))
+                        .put("payerName", payerName != null ? payerName : "Unknown")
                         .put("paidAt", paymentData.get("paidAt"));
-                    itemPaymentInfo.put(String.valueOf(itemId), paymentJson);
+                    itemPaymentInfo.put(String.valueOf(entry.getKey()), paymentJson);
                 }
                 
-                System.out.println("[ReceiptController] Found payment info for " + itemPaymentInfo.length() + " items");
-                
                 JSONObject resp = new JSONObject()
                     .put("success", true)
                     .put("assignments", assignmentsJson)
@@ -1161,7 +1197,7 @@ public class ReceiptController {
                     .put("owedAmountExcludingPaid", owedAmountExcludingPaid)
                     .put("itemPaymentInfo", itemPaymentInfo);
                 
-                System.out.println("[ReceiptController] Sending response: " + resp.toString());
+                setETag(exchange, etag);
                 sendJson(exchange, 200, resp);
             } catch (Exception e) {
                 System.err.println("[ReceiptController] Error in GetItemAssignmentsHandler: " + e.getMessage());
@@ -1180,17 +1216,7 @@ public class ReceiptController {
     public static class PayReceiptHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", "0"));
@@ -1382,9 +1408,11 @@ public class ReceiptController {
                     Map<String, Object> paymentData = entry.getValue();
                     String paidByUserId = (String) paymentData.get("paidBy");
                     
-                    // Get payer's name (might be different user if they paid for this item)
-                    models.User itemPayer = userDAO.findUserById(paidByUserId);
-                    String itemPayerName = itemPayer != null ? itemPayer.getName() : "Unknown";
+                    // Payer's name is joined in by getPaymentState (might be different user if they paid for this item)
+                    String itemPayerName = (String) paymentData.get("payerName");
+                    if (itemPayerName == null) {
+                        itemPayerName = "Unknown";
+                    }
                     
                     JSONObject paymentJson = new JSONObject()
                         .put("paidBy", paidByUserId)
@@ -1423,21 +1451,13 @@ public class ReceiptController {
      * Handler for adding participants to an existing receipt.
      * POST /api/receipts/add-participants?receiptId=X&userId=Y
      * Body: JSON with array of participant emails: {"participants": ["email1", "email2"]}
+     * Participants are queued through the notification outbox and appear once the dispatcher
+     * delivers them, normally within milliseconds.
      */
     public static class AddParticipantsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            addCors(exchange);
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (!"POST".equals(exchange.getRequestMethod())) {
-                sendJson(exchange, 405, new JSONObject().put("success", false).put("message", "Method not allowed"));
-                return;
-            }
-            
-            Map<String, String> query = parseQuery(exchange.getRequestURI());
+            Map<String, String> query = QueryParams.of(exchange);
             try {
                 String userIdStr = query.getOrDefault("userId", "");
                 int receiptId = Integer.parseInt(query.getOrDefault("receiptId", "0"));
@@ -1465,7 +1485,7 @@ public class ReceiptController {
                 JSONObject json = new JSONObject(requestBody);
                 JSONArray participantsArray = json.getJSONArray("participants");
                 
-                // Convert participant emails to user IDs and add them
+                // Convert participant emails to user IDs
                 UserDAO userDAO = new UserDAO();
                 List<String> validParticipantIds = new ArrayList<>();
                 
@@ -1478,22 +1498,21 @@ public class ReceiptController {
                     if (participantUser != null) {
                         String participantUserId = participantUser.getUserId();
                         
-                        // Skip if it's the uploader (already added)
-                        if (!participantUserId.equals(userIdStr)) {
-                            // Add participant to receipt
-                            boolean added = receiptDAO.addReceiptParticipant(receiptId, participantUserId);
-                            
-                            if (added) {
-                                validParticipantIds.add(participantUserId);
-                            }
+                        // Skip the uploader (already added) and repeated emails
+                        if (!participantUserId.equals(userIdStr) && !validParticipantIds.contains(participantUserId)) {
+                            validParticipantIds.add(participantUserId);
                         }
                     }
                 }
                 
+                // Participant rows and notifications are fanned out through the outbox
+                int shared = notificationService.shareReceipt(receiptId, userIdStr, validParticipantIds,
+                    "Receipt " + receiptId + " has been shared with you");
+                
                 JSONObject resp = new JSONObject()
                     .put("success", true)
                     .put("message", "Participants added successfully")
-                    .put("participantsAdded", validParticipantIds.size());
+                    .put("participantsAdded", shared);
                 
                 sendJson(exchange, 200, resp);
                 
@@ -1507,11 +1526,6 @@ public class ReceiptController {
     }
 
     private static void sendJson(HttpExchange exchange, int status, JSONObject json) throws IOException {
-        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(status, bytes.length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(bytes);
-        os.close();
+        ResponseWriter.sendJson(exchange, status, json.toString());
     }
 }
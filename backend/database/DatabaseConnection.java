@@ -1,5 +1,10 @@
 package database;
 
+import metrics.InstrumentedConnection;
+import metrics.MetricsRegistry;
+import metrics.SqlStatementStats;
+import utils.Settings;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -23,9 +28,19 @@ import java.io.IOException;
 
 public class DatabaseConnection {
 
+    // Connector/J statement caching: prepared statements are parsed once per connection and
+    // reused server-side, instead of being re-parsed on every DAO call
+    private static final String[][] MYSQL_STATEMENT_CACHE_SETTINGS = {
+        {"cachePrepStmts", "true"},
+        {"useServerPrepStmts", "true"},
+        {"prepStmtCacheSize", "250"},
+        {"prepStmtCacheSqlLimit", "2048"}
+    };
+
     // db config stuff - checks system properties first (from Maven -D flags), then environment variables, then defaults
-    private static final String DB_URL = System.getProperty("DB_URL",
-        System.getenv("DB_URL") != null ? System.getenv("DB_URL") : "jdbc:mysql://localhost:3306/checkmate_db");
+    private static final String DB_URL = applyStatementCacheSettings(System.getProperty("DB_URL",
+        System.getenv("DB_URL") != null ? System.getenv("DB_URL") : "jdbc:mysql://localhost:3306/checkmate_db"),
+        Settings.getBoolean("DB_STATEMENT_CACHE", true));
     private static final String DB_USER = System.getProperty("DB_USER",
         System.getenv("DB_USER") != null ? System.getenv("DB_USER") : "root");
     private static final String DB_PASSWORD = System.getProperty("DB_PASSWORD",
@@ -34,6 +49,10 @@ public class DatabaseConnection {
     //singleton instance
     private static DatabaseConnection instance;
     private Connection connection;
+    // connection wrapped for query timing; rebuilt whenever connection is replaced
+    private Connection instrumentedConnection;
+    private Connection instrumentedFor;
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
     
     /**
      * private constructor for singleton pattern
@@ -68,6 +87,28 @@ public class DatabaseConnection {
         }
     }
     
+    /**
+     * Add the Connector/J statement cache settings to a MySQL JDBC URL.
+     * Settings already present in the URL are left alone, and other drivers' URLs are returned unchanged.
+     * Set DB_STATEMENT_CACHE=false to turn caching off.
+     * @param url JDBC URL
+     * @param enabled whether statement caching is wanted
+     * @return URL with the cache settings applied
+     */
+    public static String applyStatementCacheSettings(String url, boolean enabled) {
+        if (!enabled || url == null || !url.startsWith("jdbc:mysql:")) {
+            return url;
+        }
+        StringBuilder sb = new StringBuilder(url);
+        for (String[] setting : MYSQL_STATEMENT_CACHE_SETTINGS) {
+            if (url.contains(setting[0] + "=")) {
+                continue;
+            }
+            sb.append(sb.indexOf("?") >= 0 ? '&' : '?').append(setting[0]).append('=').append(setting[1]);
+        }
+        return sb.toString();
+    }
+
     /**
      * get singleton instance of DatabaseConnection
      * @return DatabaseConnection instance
@@ -86,10 +127,24 @@ public class DatabaseConnection {
     /**
      * get the active database connection
      * This is now thread-safe ---- ensures only one connection is created at a time
+     * Callers may close the returned connection (e.g. try-with-resources); that is a no-op,
+     * so the shared connection and its prepared statement cache survive across DAO calls
      * @return Connection object (never null)
      * @throws SQLException if connection cannot be established
      */
-    public synchronized Connection getConnection() throws SQLException {
+    public Connection getConnection() throws SQLException {
+        // timed outside the lock so waiting for other callers counts towards db_connection_wait_seconds
+        long start = System.nanoTime();
+        try {
+            return acquireConnection();
+        } finally {
+            metrics.histogram("db_connection_wait_seconds",
+                "Time spent in DatabaseConnection.getConnection, including lock wait and revalidation")
+                .recordSince(start);
+        }
+    }
+
+    private synchronized Connection acquireConnection() throws SQLException {
         System.out.println("🔵 [DATABASE STEP 1/4] DatabaseConnection.getConnection() called");
         
         //check if connection is still valid - reconnect if needed
@@ -146,7 +201,24 @@ public class DatabaseConnection {
         }
         
         System.out.println("🔵 [DATABASE STEP 4/4] Returning connection");
-        return connection;
+        if (instrumentedFor != connection) {
+            instrumentedConnection = InstrumentedConnection.wrap(connection, metrics, SqlStatementStats.getInstance(), true);
+            instrumentedFor = connection;
+        }
+        return instrumentedConnection;
+    }
+    
+    /**
+     * Open a separate connection for a background job, so its statements and transactions
+     * never interleave with a request's on the shared connection (e.g. an autocommit change
+     * committing someone else's half-finished transaction). The caller owns the connection
+     * and must close it.
+     * @return A new instrumented connection
+     * @throws SQLException if the connection cannot be established
+     */
+    public Connection openConnection() throws SQLException {
+        return InstrumentedConnection.wrap(DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD),
+            metrics, SqlStatementStats.getInstance(), false);
     }
     
     /**
@@ -0,0 +1,294 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Access Object for the receipt_notification_outbox table.
+ * Receipt shares are written here first and fanned out later by NotificationDispatcher,
+ * so the request that shares a receipt never waits on per-friend inserts.
+ *
+ * The methods that take a Connection are the dispatcher's: they run transactions on a
+ * background thread, so they must not use the shared connection, where they could commit or
+ * roll back a request's half-finished transaction.
+ */
+public class NotificationOutboxDAO {
+
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_PROCESSING = "processing";
+    public static final String STATUS_DELIVERED = "delivered";
+    public static final String STATUS_FAILED = "failed";
+
+    private final DatabaseConnection dbConnection;
+
+    public NotificationOutboxDAO() {
+        this.dbConnection = DatabaseConnection.getInstance();
+    }
+
+    /**
+     * Write one outbox row per recipient in a single multi-row insert.
+     *
+     * @param receiptId The receipt being shared
+     * @param senderId The user sharing the receipt
+     * @param recipientIds Users who should receive the receipt
+     * @param message Notification message shown to recipients
+     * @return Number of rows written
+     * @throws SQLException if the outbox could not be written (caller should fall back to inline delivery)
+     */
+    public int enqueue(int receiptId, String senderId, List<String> recipientIds, String message) throws SQLException {
+        if (recipientIds == null || recipientIds.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO receipt_notification_outbox (receipt_id, sender_id, recipient_id, message) VALUES ");
+        for (int i = 0; i < recipientIds.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?, ?, ?, ?)");
+        }
+
+        Connection conn = dbConnection.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (String recipientId : recipientIds) {
+                pstmt.setInt(index++, receiptId);
+                pstmt.setString(index++, senderId);
+                pstmt.setString(index++, recipientId);
+                pstmt.setString(index++, message);
+            }
+            return pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Claim up to batchSize due rows and move them to 'processing' in one transaction.
+     * Rows are locked with SELECT ... FOR UPDATE so two dispatchers never claim the same row.
+     *
+     * @param conn The dispatcher's own connection
+     * @param batchSize Maximum number of rows to claim
+     * @return Claimed entries, oldest first
+     */
+    public List<OutboxEntry> claimBatch(Connection conn, int batchSize) throws SQLException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        try {
+            conn.setAutoCommit(false);
+
+            String selectSql = "SELECT outbox_id, receipt_id, sender_id, recipient_id, message, attempts, created_at " +
+                               "FROM receipt_notification_outbox " +
+                               "WHERE status = 'pending' AND next_attempt_at <= CURRENT_TIMESTAMP " +
+                               "ORDER BY outbox_id LIMIT ? FOR UPDATE";
+            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
+                pstmt.setInt(1, batchSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        OutboxEntry entry = new OutboxEntry();
+                        entry.outboxId = rs.getLong("outbox_id");
+                        entry.receiptId = rs.getInt("receipt_id");
+                        entry.senderId = rs.getString("sender_id");
+                        entry.recipientId = rs.getString("recipient_id");
+                        entry.message = rs.getString("message");
+                        entry.attempts = rs.getInt("attempts");
+                        entry.createdAt = rs.getTimestamp("created_at");
+                        entries.add(entry);
+                    }
+                }
+            }
+
+            if (!entries.isEmpty()) {
+                String claimSql = "UPDATE receipt_notification_outbox SET status = 'processing' " +
+                                  "WHERE outbox_id IN (" + placeholders(entries.size()) + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(claimSql)) {
+                    for (int i = 0; i < entries.size(); i++) {
+                        pstmt.setLong(i + 1, entries.get(i).outboxId);
+                    }
+                    pstmt.executeUpdate();
+                }
+            }
+
+            conn.commit();
+            return entries;
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                System.err.println("Error rolling back outbox claim: " + rollbackEx.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Insert the receipt participants for a group of outbox rows and mark those rows delivered,
+     * all in one transaction. Either every participant row lands and the outbox rows are closed,
+     * or nothing changes and the rows can be retried.
+     *
+     * @param conn The dispatcher's own connection
+     * @param receiptId The receipt all entries belong to
+     * @param entries Claimed outbox entries for that receipt
+     */
+    public void deliver(Connection conn, int receiptId, List<OutboxEntry> entries) throws SQLException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        StringBuilder participantSql = new StringBuilder(
+            "INSERT INTO receipt_participants (receipt_id, user_id, status) VALUES ");
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) participantSql.append(", ");
+            participantSql.append("(?, ?, 'pending')");
+        }
+        participantSql.append(" ON DUPLICATE KEY UPDATE status = 'pending'");
+
+        String deliveredSql = "UPDATE receipt_notification_outbox " +
+                              "SET status = 'delivered', delivered_at = CURRENT_TIMESTAMP, last_error = NULL " +
+                              "WHERE outbox_id IN (" + placeholders(entries.size()) + ")";
+
+        try {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement pstmt = conn.prepareStatement(participantSql.toString())) {
+                int index = 1;
+                for (OutboxEntry entry : entries) {
+                    pstmt.setInt(index++, receiptId);
+                    pstmt.setString(index++, entry.recipientId);
+                }
+                pstmt.executeUpdate();
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement(deliveredSql)) {
+                for (int i = 0; i < entries.size(); i++) {
+                    pstmt.setLong(i + 1, entries.get(i).outboxId);
+                }
+                pstmt.executeUpdate();
+            }
+
+            conn.commit();
+            new ReceiptDAO().receiptChanged(receiptId);
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                System.err.println("Error rolling back outbox delivery: " + rollbackEx.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Return failed entries to the queue with exponential backoff, or park them as 'failed'
+     * once they have used up maxAttempts.
+     *
+     * @param conn The dispatcher's own connection
+     * @param entries Entries whose delivery failed
+     * @param error Error message to store for diagnosis
+     * @param maxAttempts Attempts allowed before an entry is parked
+     * @param baseBackoffSeconds Delay before the first retry; doubles on every attempt
+     * @param maxBackoffSeconds Upper bound on the retry delay
+     */
+    public void markFailed(Connection conn, List<OutboxEntry> entries, String error, int maxAttempts,
+                           int baseBackoffSeconds, int maxBackoffSeconds) {
+        String sql = "UPDATE receipt_notification_outbox " +
+                     "SET attempts = attempts + 1, last_error = ?, status = ?, " +
+                     "next_attempt_at = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) " +
+                     "WHERE outbox_id = ?";
+
+        String truncatedError = error != null && error.length() > 500 ? error.substring(0, 500) : error;
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (OutboxEntry entry : entries) {
+                int attempts = entry.attempts + 1;
+                pstmt.setString(1, truncatedError);
+                pstmt.setString(2, attempts >= maxAttempts ? STATUS_FAILED : STATUS_PENDING);
+                pstmt.setLong(3, backoffSeconds(attempts, baseBackoffSeconds, maxBackoffSeconds));
+                pstmt.setLong(4, entry.outboxId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            System.err.println("[NotificationOutboxDAO] Error marking outbox entries failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Delay before retry number attempts: baseBackoffSeconds, doubling per attempt, capped at
+     * maxBackoffSeconds.
+     */
+    public static long backoffSeconds(int attempts, int baseBackoffSeconds, int maxBackoffSeconds) {
+        return Math.min((long) maxBackoffSeconds, (long) baseBackoffSeconds << Math.min(Math.max(attempts, 1) - 1, 20));
+    }
+
+    /**
+     * Put rows left in 'processing' by a dispatcher that died mid-batch back into the queue.
+     *
+     * @param conn The dispatcher's own connection
+     * @return Number of rows requeued
+     */
+    public int requeueStuck(Connection conn) {
+        String sql = "UPDATE receipt_notification_outbox SET status = 'pending' WHERE status = 'processing'";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("[NotificationOutboxDAO] Error requeueing stuck outbox entries: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Get the number of undelivered entries and the age of the oldest one in a single query.
+     *
+     * @return long[] {pendingCount, oldestPendingAgeSeconds}, or {-1, -1} if the query failed
+     */
+    public long[] getBacklog() {
+        String sql = "SELECT COUNT(*) AS pending_count, " +
+                     "COALESCE(TIMESTAMPDIFF(SECOND, MIN(created_at), CURRENT_TIMESTAMP), 0) AS oldest_age " +
+                     "FROM receipt_notification_outbox WHERE status IN ('pending', 'processing')";
+        try {
+            Connection conn = dbConnection.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new long[] { rs.getLong("pending_count"), rs.getLong("oldest_age") };
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[NotificationOutboxDAO] Error reading outbox backlog: " + e.getMessage());
+        }
+        return new long[] { -1, -1 };
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(",");
+            sb.append("?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One queued receipt share for one recipient.
+     */
+    public static class OutboxEntry {
+        public long outboxId;
+        public int receiptId;
+        public String senderId;
+        public String recipientId;
+        public String message;
+        public int attempts;
+        public Timestamp createdAt;
+    }
+}
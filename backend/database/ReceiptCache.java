@@ -0,0 +1,308 @@
+package database;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import models.ReceiptDetail;
+import utils.Settings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of receipt data keyed by receiptId, shared by all ReceiptDAO instances.
+ * It has two layers with their own bounds and TTLs:
+ * - details: the ReceiptDetail aggregate (header, items, participants, completion), which
+ *   rarely changes once a receipt is created (RECEIPT_CACHE_TTL_MS, default 300000)
+ * - payment state: item assignments and who paid for which item, which changes on every
+ *   claim and payment (RECEIPT_PAYMENT_CACHE_TTL_MS, default 2000)
+ * Each layer holds at most RECEIPT_CACHE_MAX_ENTRIES receipts (default 1000) and evicts the
+ * least recently used one beyond that.
+ *
+ * ReceiptDAO invalidates the affected layer after every write. Readers take a ticket()
+ * before loading and publish with it; an invalidation after the ticket was taken makes the
+ * publish a no-op, so a slow read can never re-cache data that a write has replaced.
+ */
+public class ReceiptCache {
+
+    private static ReceiptCache instance;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final Layer<ReceiptDetail> details;
+    private final Layer<PaymentState> paymentStates;
+
+    /**
+     * Create a standalone cache. Production code should use getInstance() so all
+     * ReceiptDAO instances share one cache.
+     *
+     * @param maxEntries Receipts kept per layer before the least recently used is evicted
+     * @param detailTtlMillis How long a receipt detail is served before it must be reloaded
+     * @param paymentStateTtlMillis How long payment state is served before it must be reloaded
+     */
+    public ReceiptCache(int maxEntries, long detailTtlMillis, long paymentStateTtlMillis) {
+        this.details = new Layer<>("detail", maxEntries, detailTtlMillis);
+        this.paymentStates = new Layer<>("payment_state", maxEntries, paymentStateTtlMillis);
+    }
+
+    public static synchronized ReceiptCache getInstance() {
+        if (instance == null) {
+            instance = new ReceiptCache(
+                Settings.getInt("RECEIPT_CACHE_MAX_ENTRIES", 1000),
+                Settings.getLong("RECEIPT_CACHE_TTL_MS", 300_000L),
+                Settings.getLong("RECEIPT_PAYMENT_CACHE_TTL_MS", 2_000L));
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            ReceiptCache cache = instance;
+            metrics.gauge("receipt_cache_entries", "Receipts held in the receipt cache",
+                cache.details::size, "layer", "detail");
+            metrics.gauge("receipt_cache_entries", "Receipts held in the receipt cache",
+                cache.paymentStates::size, "layer", "payment_state");
+        }
+        return instance;
+    }
+
+    /**
+     * Take a ticket before loading data to publish with putDetail or putPaymentState.
+     */
+    public long ticket() {
+        return sequence.get();
+    }
+
+    /**
+     * Get a fresh receipt detail.
+     *
+     * @return The cached detail, or null if missing, expired or invalidated
+     */
+    public ReceiptDetail getDetail(int receiptId) {
+        return details.get(receiptId);
+    }
+
+    /**
+     * Publish a receipt detail unless it was invalidated after the ticket was taken.
+     */
+    public void putDetail(int receiptId, long ticket, ReceiptDetail detail) {
+        details.put(receiptId, ticket, detail);
+    }
+
+    /**
+     * Get fresh item assignments and payment state for a receipt.
+     *
+     * @return The cached state, or null if missing, expired or invalidated
+     */
+    public PaymentState getPaymentState(int receiptId) {
+        return paymentStates.get(receiptId);
+    }
+
+    /**
+     * Publish payment state unless it was invalidated after the ticket was taken.
+     */
+    public void putPaymentState(int receiptId, long ticket, PaymentState state) {
+        paymentStates.put(receiptId, ticket, state);
+    }
+
+    /**
+     * Drop a receipt's detail after its header, items, participants or completion changed.
+     */
+    public void invalidateDetail(int receiptId) {
+        details.invalidate(receiptId, sequence.incrementAndGet());
+    }
+
+    /**
+     * Drop a receipt's payment state after an item was claimed, unclaimed or paid.
+     */
+    public void invalidatePaymentState(int receiptId) {
+        paymentStates.invalidate(receiptId, sequence.incrementAndGet());
+    }
+
+    /**
+     * Drop both layers for a receipt.
+     */
+    public void invalidate(int receiptId) {
+        long version = sequence.incrementAndGet();
+        details.invalidate(receiptId, version);
+        paymentStates.invalidate(receiptId, version);
+    }
+
+    public void clear() {
+        long version = sequence.incrementAndGet();
+        details.clear(version);
+        paymentStates.clear(version);
+    }
+
+    /**
+     * Item assignments for one receipt, with payment info per assignment.
+     * Immutable; built by ReceiptDAO from a single item_assignments query.
+     */
+    public static class PaymentState {
+        private final List<Assignment> assignments;
+
+        public PaymentState(List<Assignment> assignments) {
+            this.assignments = Collections.unmodifiableList(new ArrayList<>(assignments));
+        }
+
+        public List<Assignment> getAssignments() {
+            return assignments;
+        }
+
+        /**
+         * Map of item_id -> quantity assigned to the user.
+         */
+        public Map<Integer, Integer> assignmentsForUser(String userId) {
+            Map<Integer, Integer> result = new HashMap<>();
+            for (Assignment assignment : assignments) {
+                if (assignment.userId.equals(userId)) {
+                    result.put(assignment.itemId, assignment.quantity);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Map of item_id -> quantity of the user's assignments that are already paid.
+         */
+        public Map<Integer, Integer> paidAssignmentsForUser(String userId) {
+            Map<Integer, Integer> result = new HashMap<>();
+            for (Assignment assignment : assignments) {
+                if (assignment.userId.equals(userId) && assignment.paidBy != null) {
+                    result.put(assignment.itemId, assignment.quantity);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Map of item_id -> {paidBy, payerName, paidAt} for items with at least one paid assignment.
+         */
+        public Map<Integer, Map<String, Object>> itemPaymentInfo() {
+            Map<Integer, Map<String, Object>> result = new HashMap<>();
+            for (Assignment assignment : assignments) {
+                if (assignment.paidBy != null && !result.containsKey(assignment.itemId)) {
+                    Map<String, Object> info = new HashMap<>();
+                    info.put("paidBy", assignment.paidBy);
+                    info.put("payerName", assignment.payerName);
+                    info.put("paidAt", assignment.paidAt);
+                    result.put(assignment.itemId, info);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * One item_assignments row with the display names of the claimant and the payer.
+     */
+    public static class Assignment {
+        public final int itemId;
+        public final String userId;
+        public final String userName;
+        public final int quantity;
+        public final String paidBy;
+        public final String payerName;
+        public final Long paidAt;
+
+        public Assignment(int itemId, String userId, String userName, int quantity,
+                          String paidBy, String payerName, Long paidAt) {
+            this.itemId = itemId;
+            this.userId = userId;
+            this.userName = userName;
+            this.quantity = quantity;
+            this.paidBy = paidBy;
+            this.payerName = payerName;
+            this.paidAt = paidAt;
+        }
+    }
+
+    /**
+     * One bounded LRU layer. Invalidation leaves a tombstone carrying the invalidation's
+     * version so late publishes with an older ticket are rejected; when a tombstone is
+     * evicted its version raises the floor that tickets for absent receipts must reach.
+     */
+    private static class Layer<V> {
+        private final long ttlMillis;
+        private final LinkedHashMap<Integer, Slot<V>> slots;
+        private final Counter hits;
+        private final Counter misses;
+        private long evictedFloor;
+
+        Layer(String name, int maxEntries, long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            this.slots = new LinkedHashMap<Integer, Slot<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Slot<V>> eldest) {
+                    if (size() <= maxEntries) {
+                        return false;
+                    }
+                    evictedFloor = Math.max(evictedFloor, eldest.getValue().version);
+                    return true;
+                }
+            };
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            this.hits = metrics.counter("receipt_cache_requests_total", "Receipt cache lookups by layer and result",
+                "layer", name, "result", "hit");
+            this.misses = metrics.counter("receipt_cache_requests_total", "Receipt cache lookups by layer and result",
+                "layer", name, "result", "miss");
+        }
+
+        synchronized V get(int receiptId) {
+            Slot<V> slot = slots.get(receiptId);
+            if (slot == null || slot.value == null) {
+                misses.increment();
+                return null;
+            }
+            if (System.currentTimeMillis() - slot.loadedAt > ttlMillis) {
+                // Keep the version so an in-flight load that predates a later write stays rejected
+                slots.put(receiptId, new Slot<>(null, slot.version, 0));
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return slot.value;
+        }
+
+        synchronized void put(int receiptId, long ticket, V value) {
+            if (value == null) {
+                return;
+            }
+            Slot<V> existing = slots.get(receiptId);
+            long floor = existing != null ? existing.version : evictedFloor;
+            if (ticket < floor) {
+                return;
+            }
+            slots.put(receiptId, new Slot<>(value, ticket, System.currentTimeMillis()));
+        }
+
+        synchronized void invalidate(int receiptId, long version) {
+            slots.put(receiptId, new Slot<>(null, version, 0));
+        }
+
+        synchronized void clear(long version) {
+            slots.clear();
+            evictedFloor = version;
+        }
+
+        synchronized int size() {
+            int count = 0;
+            for (Slot<V> slot : slots.values()) {
+                if (slot.value != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static class Slot<V> {
+        final V value;
+        final long version;
+        final long loadedAt;
+
+        Slot(V value, long version, long loadedAt) {
+            this.value = value;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -1,17 +1,25 @@
 package database;
 
+import metrics.MetricsRegistry;
 import models.Receipt;
+import models.ReceiptDetail;
 import models.ReceiptItem;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import tracing.Span;
+import tracing.Tracer;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Data Access Object for managing receipts in the database.
@@ -20,8 +28,19 @@ import java.util.concurrent.Executors;
 public class ReceiptDAO {
 
     private final DatabaseConnection dbConnection;
+    private final ReceiptCache receiptCache = ReceiptCache.getInstance();
+    private final ReceiptVersions receiptVersions = ReceiptVersions.getInstance();
     // Thread pool for async operations (prevents thread exhaustion)
-    private static final ExecutorService asyncUpdateExecutor = Executors.newFixedThreadPool(5);
+    private static final ThreadPoolExecutor asyncUpdateExecutor =
+        (ThreadPoolExecutor) Executors.newFixedThreadPool(5);
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("executor_queue_depth", "Tasks waiting in a background executor queue",
+            () -> asyncUpdateExecutor.getQueue().size(), "executor", "receipt-async-update");
+        metrics.gauge("executor_active_threads", "Threads running tasks in a background executor",
+            asyncUpdateExecutor::getActiveCount, "executor", "receipt-async-update");
+    }
 
     /**
      * Constructor that gets the database connection instance
@@ -85,6 +104,7 @@ public class ReceiptDAO {
                 try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         int receiptId = generatedKeys.getInt(1);
+                        receiptVersions.bumpUser(uploadedBy);
                         return getReceiptById(receiptId);
                     }
                 }
@@ -97,6 +117,202 @@ public class ReceiptDAO {
         return null;
     }
 
+    /**
+     * Create a receipt with its items and participants in one transaction, so a failure
+     * part way leaves nothing behind. The uploader and participants are looked up in one
+     * query, and the receipt, its items and its participants are each written with a single
+     * multi-row INSERT; number_of_items is known up front instead of counted afterwards.
+     *
+     * @param uploadedBy User ID (VARCHAR(36)) of the user who uploaded the receipt
+     * @param merchantName Name of the merchant
+     * @param date Date of the receipt
+     * @param totalAmount Total amount of the receipt
+     * @param tipAmount Tip amount
+     * @param taxAmount Tax amount
+     * @param imageUrl URL/path to the receipt image
+     * @param items List of item data: {name, price, quantity, category}
+     * @param participantEmails Emails of the users to share the receipt with; unknown emails
+     *                          and the uploader's own are skipped
+     * @return The receipt with its items and the IDs of all participants, uploader first,
+     *         or null if creation failed and was rolled back
+     */
+    public CreatedReceipt createReceiptAggregate(String uploadedBy, String merchantName, Date date,
+                                                 float totalAmount, float tipAmount, float taxAmount,
+                                                 String imageUrl, List<Map<String, Object>> items,
+                                                 List<String> participantEmails) {
+        try (Span span = Tracer.span("ReceiptDAO.createReceiptAggregate")) {
+            span.tag("items", items != null ? items.size() : 0);
+            Connection conn = null;
+            try {
+                conn = dbConnection.getConnection();
+                conn.setAutoCommit(false); // Start transaction
+
+                // Step 1: Sender name and participant user IDs in one query
+                Set<String> emails = new HashSet<>();
+                for (String email : participantEmails) {
+                    emails.add(email.trim().toLowerCase());
+                }
+                StringBuilder usersSql = new StringBuilder("SELECT user_id, name, email FROM users WHERE user_id = ?");
+                if (!emails.isEmpty()) {
+                    usersSql.append(" OR email IN (").append(placeholders(emails.size())).append(")");
+                }
+                String senderName = null;
+                Map<String, String> emailToUserId = new HashMap<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(usersSql.toString())) {
+                    int index = 1;
+                    pstmt.setString(index++, uploadedBy);
+                    for (String email : emails) {
+                        pstmt.setString(index++, email);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (uploadedBy.equals(rs.getString("user_id"))) {
+                                senderName = rs.getString("name");
+                            }
+                            if (rs.getString("email") != null) {
+                                emailToUserId.put(rs.getString("email").toLowerCase(), rs.getString("user_id"));
+                            }
+                        }
+                    }
+                }
+
+                // Uploader first, with 'pending' status so they see it in Pending like everyone else
+                Set<String> participantIds = new LinkedHashSet<>();
+                participantIds.add(uploadedBy);
+                for (String email : participantEmails) {
+                    String userId = emailToUserId.get(email.trim().toLowerCase());
+                    if (userId != null) {
+                        participantIds.add(userId);
+                    }
+                }
+
+                // Step 2: The receipt row
+                Timestamp timestamp = new Timestamp(date != null ? date.getTime() : System.currentTimeMillis());
+                String receiptSql = "INSERT INTO receipts (uploaded_by, merchant_name, date, total_amount, " +
+                                    "tip_amount, tax_amount, image_url, status, complete, sender_name, number_of_items) " +
+                                    "VALUES (?, ?, ?, ?, ?, ?, ?, 'pending', FALSE, ?, ?)";
+                int receiptId;
+                try (PreparedStatement pstmt = conn.prepareStatement(receiptSql, Statement.RETURN_GENERATED_KEYS)) {
+                    pstmt.setString(1, uploadedBy);
+                    pstmt.setString(2, merchantName);
+                    pstmt.setTimestamp(3, timestamp);
+                    pstmt.setBigDecimal(4, java.math.BigDecimal.valueOf(totalAmount));
+                    pstmt.setBigDecimal(5, java.math.BigDecimal.valueOf(tipAmount));
+                    pstmt.setBigDecimal(6, java.math.BigDecimal.valueOf(taxAmount));
+                    pstmt.setString(7, imageUrl);
+                    pstmt.setString(8, senderName);
+                    pstmt.setInt(9, items.size());
+                    pstmt.executeUpdate();
+                    try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                        if (!generatedKeys.next()) {
+                            throw new SQLException("No receipt_id generated");
+                        }
+                        receiptId = generatedKeys.getInt(1);
+                    }
+                }
+
+                // Read the row back so the result matches getReceiptById, e.g. the date as stored
+                Receipt receipt;
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM receipts WHERE receipt_id = ?")) {
+                    pstmt.setInt(1, receiptId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new SQLException("Receipt " + receiptId + " not found after insert");
+                        }
+                        receipt = mapResultSetToReceipt(rs);
+                    }
+                }
+
+                // Step 3: All items in one statement; keys come back in VALUES order
+                if (!items.isEmpty()) {
+                    StringBuilder itemsSql = new StringBuilder(
+                        "INSERT INTO receipt_items (receipt_id, name, price, quantity, category) VALUES ");
+                    for (int i = 0; i < items.size(); i++) {
+                        if (i > 0) itemsSql.append(", ");
+                        itemsSql.append("(?, ?, ?, ?, ?)");
+                    }
+                    try (PreparedStatement pstmt = conn.prepareStatement(itemsSql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+                        int index = 1;
+                        for (Map<String, Object> item : items) {
+                            pstmt.setInt(index++, receiptId);
+                            pstmt.setString(index++, (String) item.get("name"));
+                            pstmt.setBigDecimal(index++, java.math.BigDecimal.valueOf(((Number) item.get("price")).doubleValue()));
+                            pstmt.setInt(index++, ((Number) item.getOrDefault("quantity", 1)).intValue());
+                            pstmt.setString(index++, (String) item.getOrDefault("category", null));
+                        }
+                        pstmt.executeUpdate();
+                        try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                            for (Map<String, Object> item : items) {
+                                if (!generatedKeys.next()) {
+                                    throw new SQLException("Fewer item_ids generated than items inserted");
+                                }
+                                receipt.addItem(new ReceiptItem(
+                                    generatedKeys.getInt(1),
+                                    receiptId,
+                                    (String) item.get("name"),
+                                    ((Number) item.get("price")).floatValue(),
+                                    ((Number) item.getOrDefault("quantity", 1)).intValue(),
+                                    (String) item.getOrDefault("category", null)
+                                ));
+                            }
+                        }
+                    }
+                }
+
+                // Step 4: All participants in one statement
+                StringBuilder participantsSql = new StringBuilder(
+                    "INSERT INTO receipt_participants (receipt_id, user_id, status) VALUES ");
+                for (int i = 0; i < participantIds.size(); i++) {
+                    if (i > 0) participantsSql.append(", ");
+                    participantsSql.append("(?, ?, 'pending')");
+                }
+                participantsSql.append(" ON DUPLICATE KEY UPDATE status = 'pending'");
+                try (PreparedStatement pstmt = conn.prepareStatement(participantsSql.toString())) {
+                    int index = 1;
+                    for (String userId : participantIds) {
+                        pstmt.setInt(index++, receiptId);
+                        pstmt.setString(index++, userId);
+                    }
+                    pstmt.executeUpdate();
+                }
+
+                conn.commit();
+                // The members are known, so skip the lookup detailChanged() would make
+                List<String> memberIds = new ArrayList<>(participantIds);
+                receiptCache.invalidateDetail(receiptId);
+                receiptVersions.bumpReceipt(receiptId, memberIds);
+                System.out.println("[ReceiptDAO] Created receipt " + receiptId + " with " + items.size() +
+                                   " items and " + memberIds.size() + " participants in single transaction");
+
+                CreatedReceipt created = new CreatedReceipt();
+                created.receipt = receipt;
+                created.uploadedBy = uploadedBy;
+                created.participantIds = memberIds;
+                return created;
+
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("[ReceiptDAO] ERROR: Failed to create receipt in transaction: " + e.getMessage());
+                e.printStackTrace();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackEx) {
+                        System.err.println("Error rolling back receipt creation: " + rollbackEx.getMessage());
+                    }
+                }
+                return null;
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(true); // Reset auto-commit
+                    } catch (SQLException e) {
+                        System.err.println("Error resetting auto-commit: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Get a receipt by its ID.
      * 
@@ -129,6 +345,101 @@ public class ReceiptDAO {
         return null;
     }
 
+    /**
+     * Get a receipt with its items and participants, served from ReceiptCache when a fresh
+     * copy exists. Writes in this DAO invalidate the cached copy.
+     *
+     * @param receiptId The receipt ID
+     * @return Immutable receipt detail, or null if not found
+     */
+    public ReceiptDetail getReceiptDetail(int receiptId) {
+        ReceiptDetail cached = receiptCache.getDetail(receiptId);
+        if (cached != null) {
+            return cached;
+        }
+        long ticket = receiptCache.ticket();
+        ReceiptDetail detail = loadReceiptDetail(receiptId);
+        receiptCache.putDetail(receiptId, ticket, detail);
+        return detail;
+    }
+
+    /**
+     * Load a receipt with its items and participants in a single round trip.
+     * Items and participants are aggregated into JSON arrays by correlated subqueries
+     * (JSON_ARRAYAGG, MySQL 5.7.22+), so the receipt view needs one query instead of
+     * separate lookups for the receipt, items, uploader, participant status and paid amount.
+     */
+    private ReceiptDetail loadReceiptDetail(int receiptId) {
+        try (Span span = Tracer.span("ReceiptDAO.getReceiptDetail")) {
+            String sql = "SELECT r.*, " +
+                         "  (SELECT JSON_ARRAYAGG(JSON_OBJECT('itemId', i.item_id, 'name', i.name, " +
+                         "          'price', i.price, 'quantity', i.quantity, 'category', i.category)) " +
+                         "     FROM receipt_items i WHERE i.receipt_id = r.receipt_id) AS items_json, " +
+                         "  (SELECT JSON_ARRAYAGG(JSON_OBJECT('userId', p.user_id, 'status', p.status, " +
+                         "          'paidAmount', COALESCE(p.paid_amount, 0))) " +
+                         "     FROM receipt_participants p WHERE p.receipt_id = r.receipt_id) AS participants_json " +
+                         "FROM receipts r WHERE r.receipt_id = ?";
+
+            try (Connection conn = dbConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+                pstmt.setInt(1, receiptId);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+
+                    List<ReceiptItem> items = new ArrayList<>();
+                    String itemsJson = rs.getString("items_json");
+                    if (itemsJson != null) {
+                        JSONArray array = new JSONArray(itemsJson);
+                        for (int i = 0; i < array.length(); i++) {
+                            JSONObject item = array.getJSONObject(i);
+                            items.add(new ReceiptItem(item.getInt("itemId"), receiptId,
+                                item.optString("name", null), (float) item.optDouble("price", 0),
+                                item.optInt("quantity", 1), item.optString("category", null)));
+                        }
+                    }
+
+                    List<ReceiptDetail.Participant> participants = new ArrayList<>();
+                    String participantsJson = rs.getString("participants_json");
+                    if (participantsJson != null) {
+                        JSONArray array = new JSONArray(participantsJson);
+                        for (int i = 0; i < array.length(); i++) {
+                            JSONObject participant = array.getJSONObject(i);
+                            participants.add(new ReceiptDetail.Participant(participant.getString("userId"),
+                                participant.optString("status", null), (float) participant.optDouble("paidAmount", 0)));
+                        }
+                    }
+                    span.tag("items", items.size());
+
+                    Timestamp dateTs = rs.getTimestamp("date");
+                    return new ReceiptDetail(
+                        receiptId,
+                        rs.getString("uploaded_by"),
+                        rs.getString("merchant_name"),
+                        dateTs != null ? new Date(dateTs.getTime()) : new Date(),
+                        rs.getBigDecimal("total_amount").floatValue(),
+                        rs.getBigDecimal("tip_amount").floatValue(),
+                        rs.getBigDecimal("tax_amount").floatValue(),
+                        rs.getString("image_url"),
+                        rs.getString("status"),
+                        rs.getString("sender_name"),
+                        rs.getInt("number_of_items"),
+                        rs.getBoolean("complete"),
+                        items,
+                        participants);
+                }
+            } catch (SQLException | JSONException e) {
+                System.err.println("[ReceiptDAO] Error getting receipt detail: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            return null;
+        }
+    }
+
     /**
      * Assign an item to a user (claim an item).
      * 
@@ -315,6 +626,7 @@ public class ReceiptDAO {
                 if (affectedRows > 0) {
                     // Commit transaction before async update
                     conn.commit();
+                    paymentStateChanged(receiptId);
                     
                     // Update receipt complete status asynchronously (after commit)
                     // This improves response time for the user
@@ -389,6 +701,7 @@ public class ReceiptDAO {
                 int affectedRows = pstmt.executeUpdate();
                 if (affectedRows > 0) {
                     conn.commit();
+                    paymentStateChanged(receiptId);
                     
                     // Update receipt complete status asynchronously (after commit)
                     if (receiptId > 0) {
@@ -448,28 +761,61 @@ public class ReceiptDAO {
      * @return Map of item_id -> quantity assigned to this user
      */
     public Map<Integer, Integer> getItemAssignmentsForUser(int receiptId, String userId) {
-        String sql = "SELECT item_id, quantity FROM item_assignments " +
-                     "WHERE receipt_id = ? AND user_id = ?";
-        Map<Integer, Integer> assignments = new HashMap<>();
-        
+        return getPaymentState(receiptId).assignmentsForUser(userId);
+    }
+
+    /**
+     * Get all item assignments of a receipt with their payment info and the claimant and
+     * payer names, loaded by one joined query and served from the
+     * short-lived payment state layer of ReceiptCache when a fresh copy exists.
+     * Claims, unclaims and payments in this DAO invalidate the cached copy.
+     *
+     * @param receiptId The receipt ID
+     * @return Immutable payment state (empty if the receipt has no assignments or on error)
+     */
+    public ReceiptCache.PaymentState getPaymentState(int receiptId) {
+        ReceiptCache.PaymentState cached = receiptCache.getPaymentState(receiptId);
+        if (cached != null) {
+            return cached;
+        }
+        long ticket = receiptCache.ticket();
+        // Claimant and payer names are joined in so callers need no per-user lookups
+        String sql = "SELECT ia.item_id, ia.user_id, u.name AS user_name, ia.quantity, " +
+                     "  ia.paid_by, payer.name AS payer_name, ia.paid_at " +
+                     "FROM item_assignments ia " +
+                     "LEFT JOIN users u ON u.user_id = ia.user_id " +
+                     "LEFT JOIN users payer ON payer.user_id = ia.paid_by " +
+                     "WHERE ia.receipt_id = ? " +
+                     "ORDER BY ia.item_id, ia.user_id";
+        List<ReceiptCache.Assignment> assignments = new ArrayList<>();
+
         try (Connection conn = dbConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, receiptId);
-            pstmt.setString(2, userId);
-            
+
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    int itemId = rs.getInt("item_id");
-                    int quantity = rs.getInt("quantity");
-                    assignments.put(itemId, quantity);
+                    Timestamp paidAt = rs.getTimestamp("paid_at");
+                    assignments.add(new ReceiptCache.Assignment(
+                        rs.getInt("item_id"),
+                        rs.getString("user_id"),
+                        rs.getString("user_name"),
+                        rs.getInt("quantity"),
+                        rs.getString("paid_by"),
+                        rs.getString("payer_name"),
+                        paidAt != null ? paidAt.getTime() : null));
                 }
             }
         } catch (SQLException e) {
             System.err.println("Error getting item assignments: " + e.getMessage());
             e.printStackTrace();
+            // Not cached, so the next call retries
+            return new ReceiptCache.PaymentState(assignments);
         }
-        
-        return assignments;
+
+        ReceiptCache.PaymentState state = new ReceiptCache.PaymentState(assignments);
+        receiptCache.putPaymentState(receiptId, ticket, state);
+        return state;
     }
 
     /**
@@ -565,6 +911,7 @@ public class ReceiptDAO {
             pstmt.setString(3, userId);
             
             int affectedRows = pstmt.executeUpdate();
+            paymentStateChanged(receiptId);
             System.out.println("Marked " + affectedRows + " item assignments as paid for user " + userId);
             return affectedRows;
         } catch (SQLException e) {
@@ -582,40 +929,7 @@ public class ReceiptDAO {
      * @return Map of itemId -> {paidBy, paidAt} for items that have been paid
      */
     public Map<Integer, Map<String, Object>> getItemPaymentInfoForReceipt(int receiptId) {
-        // FIXED: Query item_assignments instead of receipt_items
-        // Group by item_id and get the first paid assignment (in case multiple users paid)
-        String sql = "SELECT item_id, paid_by, paid_at " +
-                     "FROM item_assignments " +
-                     "WHERE receipt_id = ? AND paid_by IS NOT NULL " +
-                     "GROUP BY item_id, paid_by, paid_at";
-        
-        Map<Integer, Map<String, Object>> paymentInfo = new HashMap<>();
-        
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, receiptId);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    int itemId = rs.getInt("item_id");
-                    // If item already has payment info, keep the first one (or could merge)
-                    if (!paymentInfo.containsKey(itemId)) {
-                        String paidBy = rs.getString("paid_by");
-                        Timestamp paidAt = rs.getTimestamp("paid_at");
-                        
-                        Map<String, Object> info = new HashMap<>();
-                        info.put("paidBy", paidBy);
-                        info.put("paidAt", paidAt != null ? paidAt.getTime() : null);
-                        paymentInfo.put(itemId, info);
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting item payment info from item_assignments: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return paymentInfo;
+        return getPaymentState(receiptId).itemPaymentInfo();
     }
 
     /**
@@ -686,73 +1000,76 @@ public class ReceiptDAO {
      * @return The total amount owed (items + proportional tax/tip), or 0 if no items assigned
      */
     public float calculateUserOwedAmount(int receiptId, String userId) {
-        // OPTIMIZATION FIX: Single SQL query instead of multiple queries and Java loops
-        // This calculates everything in the database for better performance and accuracy
-        String sql = "SELECT " +
-                     "  COALESCE(SUM(ri.price * ia.quantity), 0) as assigned_subtotal, " +
-                     "  COALESCE(SUM(ri.price * ri.quantity), 0) as total_subtotal, " +
-                     "  r.tax_amount, " +
-                     "  r.tip_amount " +
-                     "FROM receipt_items ri " +
-                     "LEFT JOIN item_assignments ia ON ri.item_id = ia.item_id AND ia.user_id = ? " +
-                     "INNER JOIN receipts r ON ri.receipt_id = r.receipt_id " +
-                     "WHERE ri.receipt_id = ?";
-        
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Span span = Tracer.span("ReceiptDAO.calculateUserOwedAmount")) {
+            span.tag("receiptId", receiptId);
+            // OPTIMIZATION FIX: Single SQL query instead of multiple queries and Java loops
+            // This calculates everything in the database for better performance and accuracy
+            String sql = "SELECT " +
+                         "  COALESCE(SUM(ri.price * ia.quantity), 0) as assigned_subtotal, " +
+                         "  COALESCE(SUM(ri.price * ri.quantity), 0) as total_subtotal, " +
+                         "  r.tax_amount, " +
+                         "  r.tip_amount " +
+                         "FROM receipt_items ri " +
+                         "LEFT JOIN item_assignments ia ON ri.item_id = ia.item_id AND ia.user_id = ? " +
+                         "INNER JOIN receipts r ON ri.receipt_id = r.receipt_id " +
+                         "WHERE ri.receipt_id = ?";
+        
+            try (Connection conn = dbConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setString(1, userId);
-            pstmt.setInt(2, receiptId);
+                pstmt.setString(1, userId);
+                pstmt.setInt(2, receiptId);
             
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    // Use BigDecimal for precise calculations
-                    java.math.BigDecimal assignedSubtotal = rs.getBigDecimal("assigned_subtotal");
-                    java.math.BigDecimal totalSubtotal = rs.getBigDecimal("total_subtotal");
-                    java.math.BigDecimal taxAmount = rs.getBigDecimal("tax_amount");
-                    java.math.BigDecimal tipAmount = rs.getBigDecimal("tip_amount");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        // Use BigDecimal for precise calculations
+                        java.math.BigDecimal assignedSubtotal = rs.getBigDecimal("assigned_subtotal");
+                        java.math.BigDecimal totalSubtotal = rs.getBigDecimal("total_subtotal");
+                        java.math.BigDecimal taxAmount = rs.getBigDecimal("tax_amount");
+                        java.math.BigDecimal tipAmount = rs.getBigDecimal("tip_amount");
                     
-                    // Check if user has any assigned items
-                    if (assignedSubtotal == null || assignedSubtotal.compareTo(java.math.BigDecimal.ZERO) == 0) {
-                        return 0.0f;
-                    }
+                        // Check if user has any assigned items
+                        if (assignedSubtotal == null || assignedSubtotal.compareTo(java.math.BigDecimal.ZERO) == 0) {
+                            return 0.0f;
+                        }
                     
-                    if (totalSubtotal == null || totalSubtotal.compareTo(java.math.BigDecimal.ZERO) == 0) {
-                        return 0.0f;
-                    }
+                        if (totalSubtotal == null || totalSubtotal.compareTo(java.math.BigDecimal.ZERO) == 0) {
+                            return 0.0f;
+                        }
                     
-                    // Calculate proportion using BigDecimal for precision
-                    java.math.BigDecimal proportion = assignedSubtotal.divide(
-                        totalSubtotal, 
-                        10, // 10 decimal places for intermediate calculation
-                        java.math.RoundingMode.HALF_UP
-                    );
+                        // Calculate proportion using BigDecimal for precision
+                        java.math.BigDecimal proportion = assignedSubtotal.divide(
+                            totalSubtotal, 
+                            10, // 10 decimal places for intermediate calculation
+                            java.math.RoundingMode.HALF_UP
+                        );
                     
-                    // Calculate proportional tax and tip
-                    java.math.BigDecimal assignedTax = (taxAmount != null ? taxAmount : java.math.BigDecimal.ZERO)
-                        .multiply(proportion)
-                        .setScale(2, java.math.RoundingMode.HALF_UP);
+                        // Calculate proportional tax and tip
+                        java.math.BigDecimal assignedTax = (taxAmount != null ? taxAmount : java.math.BigDecimal.ZERO)
+                            .multiply(proportion)
+                            .setScale(2, java.math.RoundingMode.HALF_UP);
                     
-                    java.math.BigDecimal assignedTip = (tipAmount != null ? tipAmount : java.math.BigDecimal.ZERO)
-                        .multiply(proportion)
-                        .setScale(2, java.math.RoundingMode.HALF_UP);
+                        java.math.BigDecimal assignedTip = (tipAmount != null ? tipAmount : java.math.BigDecimal.ZERO)
+                            .multiply(proportion)
+                            .setScale(2, java.math.RoundingMode.HALF_UP);
                     
-                    // Calculate total and round to 2 decimal places
-                    java.math.BigDecimal total = assignedSubtotal
-                        .add(assignedTax)
-                        .add(assignedTip)
-                        .setScale(2, java.math.RoundingMode.HALF_UP);
+                        // Calculate total and round to 2 decimal places
+                        java.math.BigDecimal total = assignedSubtotal
+                            .add(assignedTax)
+                            .add(assignedTip)
+                            .setScale(2, java.math.RoundingMode.HALF_UP);
                     
-                    // Convert to float for backward compatibility (models use float)
-                    return total.floatValue();
+                        // Convert to float for backward compatibility (models use float)
+                        return total.floatValue();
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println("Error calculating user owed amount: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Error calculating user owed amount: " + e.getMessage());
-            e.printStackTrace();
-        }
         
-        return 0.0f;
+            return 0.0f;
+        }
     }
 
     /**
@@ -1078,6 +1395,7 @@ public class ReceiptDAO {
             
             // Execute batch insert
             int[] affectedRows = pstmt.executeBatch();
+            detailChanged(receiptId);
             
             // Get generated keys for all inserted items
             try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
@@ -1127,6 +1445,7 @@ public class ReceiptDAO {
             pstmt.setInt(1, receiptId);
             pstmt.setInt(2, receiptId);
             pstmt.executeUpdate();
+            detailChanged(receiptId);
         } catch (SQLException e) {
             System.err.println("Error updating receipt item count: " + e.getMessage());
         }
@@ -1206,6 +1525,7 @@ public class ReceiptDAO {
             pstmt.setString(2, userId);
 
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             return affectedRows > 0;
 
         } catch (SQLException e) {
@@ -1247,6 +1567,7 @@ public class ReceiptDAO {
             
             // Execute batch insert
             int[] affectedRows = pstmt.executeBatch();
+            detailChanged(receiptId);
             
             // Count successful inserts
             for (int rows : affectedRows) {
@@ -1285,6 +1606,7 @@ public class ReceiptDAO {
             pstmt.setString(3, userId);
 
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             return affectedRows > 0;
 
         } catch (SQLException e) {
@@ -1316,6 +1638,7 @@ public class ReceiptDAO {
             pstmt.setInt(2, receiptId);
             
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             System.out.println("Updated status to '" + status + "' for " + affectedRows + " participants of receipt " + receiptId);
             return affectedRows > 0;
             
@@ -1372,6 +1695,7 @@ public class ReceiptDAO {
             pstmt.setInt(2, receiptId);
 
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             return affectedRows > 0;
 
         } catch (SQLException e) {
@@ -1431,24 +1755,27 @@ public class ReceiptDAO {
      * @return User ID string or null if not found
      */
     public String getReceiptUploadedBy(int receiptId) {
-        String sql = "SELECT uploaded_by FROM receipts WHERE receipt_id = ?";
+        try (Span span = Tracer.span("ReceiptDAO.getReceiptUploadedBy")) {
+            span.tag("receiptId", receiptId);
+            String sql = "SELECT uploaded_by FROM receipts WHERE receipt_id = ?";
 
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (Connection conn = dbConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, receiptId);
+                pstmt.setInt(1, receiptId);
 
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("uploaded_by");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getString("uploaded_by");
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println("Error getting receipt uploaded_by: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Error getting receipt uploaded_by: " + e.getMessage());
-            e.printStackTrace();
-        }
 
-        return null;
+            return null;
+        }
     }
 
     /**
@@ -1480,6 +1807,7 @@ public class ReceiptDAO {
             pstmt.setString(3, userId);
 
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             return affectedRows > 0;
 
         } catch (SQLException e) {
@@ -1500,73 +1828,77 @@ public class ReceiptDAO {
      * @return Number of items marked as paid, or -1 if transaction failed
      */
     public int recordPaymentAndMarkItems(int receiptId, String userId, double amount) {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            conn.setAutoCommit(false); // Start transaction
+        try (Span span = Tracer.span("ReceiptDAO.recordPaymentAndMarkItems")) {
+            span.tag("receiptId", receiptId);
+            Connection conn = null;
+            try {
+                conn = dbConnection.getConnection();
+                conn.setAutoCommit(false); // Start transaction
             
-            // Step 1: Record payment in receipt_participants
-            String paymentSql = "UPDATE receipt_participants " +
-                               "SET paid_amount = COALESCE(paid_amount, 0) + ?, paid_at = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP " +
-                               "WHERE receipt_id = ? AND user_id = ?";
+                // Step 1: Record payment in receipt_participants
+                String paymentSql = "UPDATE receipt_participants " +
+                                   "SET paid_amount = COALESCE(paid_amount, 0) + ?, paid_at = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP " +
+                                   "WHERE receipt_id = ? AND user_id = ?";
             
-            try (PreparedStatement pstmt = conn.prepareStatement(paymentSql)) {
-                pstmt.setBigDecimal(1, java.math.BigDecimal.valueOf(amount));
-                pstmt.setInt(2, receiptId);
-                pstmt.setString(3, userId);
+                try (PreparedStatement pstmt = conn.prepareStatement(paymentSql)) {
+                    pstmt.setBigDecimal(1, java.math.BigDecimal.valueOf(amount));
+                    pstmt.setInt(2, receiptId);
+                    pstmt.setString(3, userId);
                 
-                int paymentRows = pstmt.executeUpdate();
-                if (paymentRows == 0) {
-                    conn.rollback();
-                    System.err.println("Failed to record payment: participant not found for receipt " + receiptId + ", user " + userId);
-                    return -1;
+                    int paymentRows = pstmt.executeUpdate();
+                    if (paymentRows == 0) {
+                        conn.rollback();
+                        System.err.println("Failed to record payment: participant not found for receipt " + receiptId + ", user " + userId);
+                        return -1;
+                    }
                 }
-            }
             
-            // Step 2: Mark item assignments as paid in item_assignments
-            // FIXED: Update item_assignments (not receipt_items) where the user has claimed items
-            // Payment is tracked at the ASSIGNMENT level, not the ITEM level
-            String itemsSql = "UPDATE item_assignments " +
-                            "SET paid_by = ?, paid_at = CURRENT_TIMESTAMP " +
-                            "WHERE receipt_id = ? AND user_id = ? AND paid_by IS NULL";
+                // Step 2: Mark item assignments as paid in item_assignments
+                // FIXED: Update item_assignments (not receipt_items) where the user has claimed items
+                // Payment is tracked at the ASSIGNMENT level, not the ITEM level
+                String itemsSql = "UPDATE item_assignments " +
+                                "SET paid_by = ?, paid_at = CURRENT_TIMESTAMP " +
+                                "WHERE receipt_id = ? AND user_id = ? AND paid_by IS NULL";
             
-            int itemsMarked = 0;
-            try (PreparedStatement pstmt = conn.prepareStatement(itemsSql)) {
-                pstmt.setString(1, userId);
-                pstmt.setInt(2, receiptId);
-                pstmt.setString(3, userId);
+                int itemsMarked = 0;
+                try (PreparedStatement pstmt = conn.prepareStatement(itemsSql)) {
+                    pstmt.setString(1, userId);
+                    pstmt.setInt(2, receiptId);
+                    pstmt.setString(3, userId);
                 
-                itemsMarked = pstmt.executeUpdate();
-            }
+                    itemsMarked = pstmt.executeUpdate();
+                }
             
-            // Commit transaction
-            conn.commit();
-            System.out.println("[ReceiptDAO] Successfully recorded payment and marked " + itemsMarked + " items as paid in single transaction");
+                // Commit transaction
+                conn.commit();
+                receiptChanged(receiptId);
+                System.out.println("[ReceiptDAO] Successfully recorded payment and marked " + itemsMarked + " items as paid in single transaction");
             
-            // CRITICAL FIX: After marking items as paid, check if all items are now paid for
-            // and update the receipt's complete status accordingly
-            // This ensures receipt moves to History when all items are paid
-            updateReceiptCompleteStatusAsync(receiptId);
+                // CRITICAL FIX: After marking items as paid, check if all items are now paid for
+                // and update the receipt's complete status accordingly
+                // This ensures receipt moves to History when all items are paid
+                updateReceiptCompleteStatusAsync(receiptId);
             
-            return itemsMarked;
+                return itemsMarked;
             
-        } catch (SQLException e) {
-            System.err.println("[ReceiptDAO] ERROR: Failed to record payment and mark items in transaction: " + e.getMessage());
-            e.printStackTrace();
-            if (conn != null) {
-                try {
-                    conn.rollback();
-                } catch (SQLException rollbackEx) {
-                    System.err.println("Error rolling back payment transaction: " + rollbackEx.getMessage());
+            } catch (SQLException e) {
+                System.err.println("[ReceiptDAO] ERROR: Failed to record payment and mark items in transaction: " + e.getMessage());
+                e.printStackTrace();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackEx) {
+                        System.err.println("Error rolling back payment transaction: " + rollbackEx.getMessage());
+                    }
                 }
-            }
-            return -1;
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.setAutoCommit(true); // Reset auto-commit
-                } catch (SQLException e) {
-                    System.err.println("Error resetting auto-commit: " + e.getMessage());
+                return -1;
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(true); // Reset auto-commit
+                    } catch (SQLException e) {
+                        System.err.println("Error resetting auto-commit: " + e.getMessage());
+                    }
                 }
             }
         }
@@ -1580,26 +1912,29 @@ public class ReceiptDAO {
      * @return The amount paid, or 0 if no payment recorded
      */
     public float getPaidAmount(int receiptId, String userId) {
-        String sql = "SELECT COALESCE(paid_amount, 0) as paid_amount FROM receipt_participants " +
-                     "WHERE receipt_id = ? AND user_id = ?";
+        try (Span span = Tracer.span("ReceiptDAO.getPaidAmount")) {
+            span.tag("receiptId", receiptId);
+            String sql = "SELECT COALESCE(paid_amount, 0) as paid_amount FROM receipt_participants " +
+                         "WHERE receipt_id = ? AND user_id = ?";
 
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (Connection conn = dbConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, receiptId);
-            pstmt.setString(2, userId);
+                pstmt.setInt(1, receiptId);
+                pstmt.setString(2, userId);
 
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getBigDecimal("paid_amount").floatValue();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getBigDecimal("paid_amount").floatValue();
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println("Error getting paid amount: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Error getting paid amount: " + e.getMessage());
-            e.printStackTrace();
-        }
 
-        return 0.0f;
+            return 0.0f;
+        }
     }
 
     /**
@@ -1802,6 +2137,7 @@ public class ReceiptDAO {
             pstmt.setInt(2, receiptId);
             
             int affectedRows = pstmt.executeUpdate();
+            detailChanged(receiptId);
             if (affectedRows > 0) {
                 System.out.println("[ReceiptDAO] SUCCESS: Updated receipt " + receiptId + " complete status to " + isComplete + " (affected rows: " + affectedRows + ")");
                 
@@ -2118,6 +2454,81 @@ public class ReceiptDAO {
         return owedAmounts;
     }
     
+    /**
+     * Invalidate cached state and bump ETag versions after a write to any part of a receipt,
+     * including writes made outside this DAO.
+     *
+     * @param receiptId The receipt that changed
+     */
+    public void receiptChanged(int receiptId) {
+        receiptCache.invalidate(receiptId);
+        receiptVersions.bumpReceipt(receiptId, getReceiptMemberIds(receiptId));
+    }
+
+    /**
+     * After a write to a receipt's header, items, participants or completion.
+     */
+    private void detailChanged(int receiptId) {
+        receiptCache.invalidateDetail(receiptId);
+        receiptVersions.bumpReceipt(receiptId, getReceiptMemberIds(receiptId));
+    }
+
+    /**
+     * After an item was claimed, unclaimed or paid.
+     */
+    private void paymentStateChanged(int receiptId) {
+        receiptCache.invalidatePaymentState(receiptId);
+        receiptVersions.bumpReceipt(receiptId, getReceiptMemberIds(receiptId));
+    }
+
+    /**
+     * Get the uploader and participants of a receipt, whose receipt lists include it.
+     *
+     * @param receiptId The receipt ID
+     * @return User IDs (empty if the receipt does not exist or on error)
+     */
+    private List<String> getReceiptMemberIds(int receiptId) {
+        String sql = "SELECT uploaded_by AS user_id FROM receipts WHERE receipt_id = ? " +
+                     "UNION SELECT user_id FROM receipt_participants WHERE receipt_id = ?";
+        List<String> memberIds = new ArrayList<>();
+
+        try (Connection conn = dbConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, receiptId);
+            pstmt.setInt(2, receiptId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    memberIds.add(rs.getString("user_id"));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[ReceiptDAO] Error getting receipt members: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return memberIds;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append("?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Result of createReceiptAggregate: the receipt with its items, its uploader (the Receipt
+     * model has no room for a VARCHAR user ID), and everyone it was shared with
+     */
+    public static class CreatedReceipt {
+        public Receipt receipt;
+        public String uploadedBy;
+        public List<String> participantIds;
+    }
+
     /**
      * Inner class to hold receipt metadata for batch operations
      */
@@ -0,0 +1,118 @@
+package database;
+
+import utils.Settings;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory version counters behind the ETags of the receipt list and detail endpoints.
+ * Every write to a receipt, its items, participants, assignments or payments bumps the
+ * receipt's version and the version of each user involved in it (uploader and participants).
+ * Handlers build their ETag from these counters before running any query, so a client whose
+ * If-None-Match still names the current version gets a 304 without touching the database.
+ *
+ * Versions come from one monotonic sequence, so a counter never repeats a value. Tags also
+ * carry a per-process epoch, so a restart changes every tag, and a time bucket of
+ * RECEIPT_ETAG_MAX_AGE_MS (default 60000), so changes made outside this process (another
+ * server, a migration script) are picked up within that window.
+ */
+public class ReceiptVersions {
+
+    private static ReceiptVersions instance;
+
+    // When a map grows past this it is cleared; keys then report the sequence value at the reset
+    private static final int MAX_TRACKED = 100_000;
+
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> receiptVersions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> userVersions = new ConcurrentHashMap<>();
+    private final long maxAgeMillis;
+    private volatile long floor;
+
+    /**
+     * Create standalone counters. Production code should use getInstance() so all DAOs and
+     * handlers share one set of versions.
+     *
+     * @param maxAgeMillis Longest time a tag stays valid without a local write
+     */
+    public ReceiptVersions(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public static synchronized ReceiptVersions getInstance() {
+        if (instance == null) {
+            instance = new ReceiptVersions(Settings.getLong("RECEIPT_ETAG_MAX_AGE_MS", 60_000L));
+        }
+        return instance;
+    }
+
+    /**
+     * Record a write to a receipt.
+     *
+     * @param receiptId The receipt that changed
+     * @param memberIds Uploader and participants whose receipt lists include it
+     */
+    public void bumpReceipt(int receiptId, Collection<String> memberIds) {
+        long version = sequence.incrementAndGet();
+        trim();
+        receiptVersions.put(receiptId, version);
+        for (String userId : memberIds) {
+            if (userId != null) {
+                userVersions.put(userId, version);
+            }
+        }
+    }
+
+    /**
+     * Record a change to a user's receipt lists that is not tied to an existing receipt,
+     * such as uploading a new one.
+     */
+    public void bumpUser(String userId) {
+        if (userId == null) {
+            return;
+        }
+        long version = sequence.incrementAndGet();
+        trim();
+        userVersions.put(userId, version);
+    }
+
+    public long receiptVersion(int receiptId) {
+        return receiptVersions.getOrDefault(receiptId, floor);
+    }
+
+    public long userVersion(String userId) {
+        return userVersions.getOrDefault(userId, floor);
+    }
+
+    /**
+     * ETag for a per-receipt response such as the receipt view.
+     */
+    public String receiptTag(String kind, int receiptId) {
+        return tag(kind, receiptVersion(receiptId));
+    }
+
+    /**
+     * ETag for a per-user response such as the pending or activity list.
+     */
+    public String userTag(String kind, String userId) {
+        return tag(kind, userVersion(userId));
+    }
+
+    private String tag(String kind, long version) {
+        long bucket = System.currentTimeMillis() / maxAgeMillis;
+        return "\"" + kind + "-" + epoch + "-" + version + "-" + bucket + "\"";
+    }
+
+    private void trim() {
+        if (receiptVersions.size() > MAX_TRACKED || userVersions.size() > MAX_TRACKED) {
+            // Raise the floor before clearing so no key can fall back to a version it already reported
+            floor = sequence.get();
+            receiptVersions.clear();
+            userVersions.clear();
+        }
+    }
+}
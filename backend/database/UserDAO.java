@@ -1,6 +1,8 @@
 package database;
 
 import models.User;
+import tracing.Span;
+import tracing.Tracer;
 import java.sql.*;
 import java.util.HashMap;
 import java.util.List;
@@ -58,33 +60,38 @@ public class UserDAO {
      * @return User object if found, null otherwise
      */
     public User findUserById(String userId) {
-        String sql = "SELECT * FROM users WHERE user_id = ?";
+        try (Span span = Tracer.span("UserDAO.findUserById")) {
+            String sql = "SELECT * FROM users WHERE user_id = ?";
 
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (Connection conn = dbConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, userId);
+                pstmt.setString(1, userId);
 
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return new User(
-                        rs.getString("user_id"),
-                        rs.getString("name"),
-                        rs.getString("email"),
-                        rs.getString("phone_number"),
-                        rs.getString("password_hash"),
-                        rs.getDouble("balance"),
-                        rs.getTimestamp("created_at"),
-                        rs.getTimestamp("updated_at")
-                    );
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        span.tag("found", true);
+                        return new User(
+                            rs.getString("user_id"),
+                            rs.getString("name"),
+                            rs.getString("email"),
+                            rs.getString("phone_number"),
+                            rs.getString("password_hash"),
+                            rs.getDouble("balance"),
+                            rs.getTimestamp("created_at"),
+                            rs.getTimestamp("updated_at")
+                        );
+                    }
                 }
+            } catch (SQLException e) {
+                span.markError(e);
+                System.err.println("Error finding user by ID: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Error finding user by ID: " + e.getMessage());
-            e.printStackTrace();
-        }
 
-        return null;
+            span.tag("found", false);
+            return null;
+        }
     }
     
     /**
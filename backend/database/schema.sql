@@ -73,6 +73,21 @@ CREATE INDEX idx_balance_history_user_id ON balance_history(user_id);
 CREATE INDEX idx_balance_history_created_at ON balance_history(created_at);
 CREATE INDEX idx_balance_history_type ON balance_history(transaction_type);
 CREATE INDEX idx_balance_history_reference ON balance_history(reference_type, reference_id);
+-- keyset paging and per-user aggregates walk this index in (created_at, history_id) order
+CREATE INDEX idx_balance_history_user_created ON balance_history(user_id, created_at, history_id);
+
+-- -----
+-- balance_checkpoints table: periodic per-user ledger balances so replays start from the latest checkpoint
+CREATE TABLE IF NOT EXISTS balance_checkpoints (
+    checkpoint_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id VARCHAR(36) NOT NULL,
+    balance DECIMAL(10, 2) NOT NULL,
+    last_history_id INT NOT NULL,
+    last_history_at TIMESTAMP NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_balance_checkpoints_user ON balance_checkpoints(user_id, last_history_id);
 
 -- -----
 -- transactions table for tracking all financial transactions between users
@@ -99,6 +114,9 @@ CREATE INDEX idx_transactions_status ON transactions(status);
 CREATE INDEX idx_transactions_type ON transactions(transaction_type);
 CREATE INDEX idx_transactions_created_at ON transactions(created_at);
 CREATE INDEX idx_transactions_related_entity ON transactions(related_entity_id);
+-- per-user history is paged newest first on (created_at, transaction_id) from either side
+CREATE INDEX idx_transactions_from_user_created ON transactions(from_user_id, created_at, transaction_id);
+CREATE INDEX idx_transactions_to_user_created ON transactions(to_user_id, created_at, transaction_id);
 
 -- -----
 -- receipts table for storing receipt information
@@ -178,4 +196,21 @@ CREATE TABLE IF NOT EXISTS item_assignments (
 );
 CREATE INDEX idx_item_assignments_receipt_id ON item_assignments(receipt_id);
 CREATE INDEX idx_item_assignments_item_id ON item_assignments(item_id);
-CREATE INDEX idx_item_assignments_user_id ON item_assignments(user_id);
\ No newline at end of file
+CREATE INDEX idx_item_assignments_user_id ON item_assignments(user_id);
+-- -----
+-- receipt_notification_outbox table: receipt shares waiting to be fanned out by NotificationDispatcher
+CREATE TABLE IF NOT EXISTS receipt_notification_outbox (
+    outbox_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    receipt_id INT NOT NULL,
+    sender_id VARCHAR(36) NOT NULL,
+    recipient_id VARCHAR(36) NOT NULL,
+    message VARCHAR(500) NOT NULL,
+    status ENUM('pending', 'processing', 'delivered', 'failed') DEFAULT 'pending',
+    attempts INT DEFAULT 0,
+    last_error VARCHAR(500) NULL,
+    next_attempt_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    delivered_at TIMESTAMP NULL,
+    FOREIGN KEY (receipt_id) REFERENCES receipts(receipt_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_notification_outbox_due ON receipt_notification_outbox(status, next_attempt_at);
@@ -0,0 +1,232 @@
+package metrics;
+
+import tracing.Span;
+import tracing.Tracer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC proxies that time statement execution.
+ * When a statement is created the first stack frame outside java.*, jdk.* and this package
+ * is captured (e.g. "ReceiptDAO.getReceiptById"), and every execute call on the statement is
+ * recorded in db_query_duration_seconds with that caller as the "method" label. Failed
+ * executions also count towards db_query_errors_total. Every execution is also added to
+ * SqlStatementStats by statement shape, and inside a traced request it is a "sql" span
+ * tagged with that shape.
+ */
+public final class InstrumentedConnection {
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private static final int MAX_TRACED_SQL = 300;
+
+    private InstrumentedConnection() {
+    }
+
+    /**
+     * Wrap a connection so that statements created from it are timed and added to the SQL statistics.
+     *
+     * @param shared When true, close() from callers is ignored: the connection is owned by
+     *               DatabaseConnection and reused, together with its driver statement cache,
+     *               by every later DAO call. DatabaseConnection.closeConnection() still closes it.
+     */
+    public static Connection wrap(Connection connection, MetricsRegistry registry, SqlStatementStats sqlStats,
+                                  boolean shared) {
+        return (Connection) Proxy.newProxyInstance(
+            InstrumentedConnection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new ConnectionHandler(connection, registry, sqlStats, shared));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Name of the code that asked for the statement, as SimpleClass.method.
+     */
+    static String callerName() {
+        return WALKER.walk(frames -> frames
+            .filter(f -> {
+                String cls = f.getClassName();
+                return !cls.startsWith("metrics.") && !cls.startsWith("java.")
+                    && !cls.startsWith("jdk.") && !cls.startsWith("com.sun.proxy.")
+                    && !cls.startsWith("sun.");
+            })
+            .findFirst()
+            .map(f -> simpleClassName(f.getClassName()) + "." + cleanMethodName(f.getMethodName()))
+            .orElse("unknown"));
+    }
+
+    private static String simpleClassName(String className) {
+        String simple = className.substring(className.lastIndexOf('.') + 1);
+        int nested = simple.indexOf('$');
+        return nested > 0 ? simple.substring(0, nested) : simple;
+    }
+
+    // lambda$updateReceiptCompleteStatusAsync$3 -> updateReceiptCompleteStatusAsync
+    private static String cleanMethodName(String methodName) {
+        if (methodName.startsWith("lambda$")) {
+            String rest = methodName.substring("lambda$".length());
+            int end = rest.indexOf('$');
+            return end > 0 ? rest.substring(0, end) : rest;
+        }
+        return methodName;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+        private final MetricsRegistry registry;
+        private final SqlStatementStats sqlStats;
+        private final boolean shared;
+
+        ConnectionHandler(Connection target, MetricsRegistry registry, SqlStatementStats sqlStats, boolean shared) {
+            this.target = target;
+            this.registry = registry;
+            this.sqlStats = sqlStats;
+            this.shared = shared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (shared && "close".equals(name)) {
+                return null;
+            }
+            Object result = InstrumentedConnection.invoke(target, method, args);
+            if (result instanceof Statement
+                    && ("prepareStatement".equals(name) || "prepareCall".equals(name) || "createStatement".equals(name))) {
+                Class<?> iface = result instanceof CallableStatement ? CallableStatement.class
+                    : result instanceof PreparedStatement ? PreparedStatement.class
+                    : Statement.class;
+                return Proxy.newProxyInstance(
+                    InstrumentedConnection.class.getClassLoader(),
+                    new Class<?>[] {iface},
+                    new StatementHandler((Statement) result, callerName(),
+                        args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null,
+                        registry, sqlStats));
+            }
+            return result;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String caller;
+        private final String preparedSql;
+        private final MetricsRegistry registry;
+        private final SqlStatementStats sqlStats;
+        // Types of bound parameters by index, for the slow-query log; values are never kept
+        private List<String> parameterTypes;
+
+        StatementHandler(Statement target, String caller, String preparedSql,
+                         MetricsRegistry registry, SqlStatementStats sqlStats) {
+            this.target = target;
+            this.caller = caller;
+            this.preparedSql = preparedSql;
+            this.registry = registry;
+            this.sqlStats = sqlStats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    rememberParameterType((Integer) args[0], name.substring(3));
+                } else if ("clearParameters".equals(name)) {
+                    parameterTypes = null;
+                }
+                return InstrumentedConnection.invoke(target, method, args);
+            }
+
+            String sql = preparedSql != null ? preparedSql
+                : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            SqlStatementStats.Entry entry = sql != null ? sqlStats.entryFor(sql) : null;
+            Span span = Tracer.span("sql " + caller);
+            if (entry != null && span != Span.NOOP) {
+                span.tag("sql", entry.shape.length() > MAX_TRACED_SQL
+                    ? entry.shape.substring(0, MAX_TRACED_SQL) + "..." : entry.shape);
+            }
+
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                Object result = InstrumentedConnection.invoke(target, method, args);
+                return entry != null ? countRows(result, entry) : result;
+            } catch (Throwable t) {
+                failed = true;
+                registry.counter("db_query_errors_total",
+                    "Failed JDBC statement executions by calling method", "method", caller).increment();
+                span.markError(t);
+                throw t;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                registry.histogram("db_query_duration_seconds",
+                    "JDBC statement execution time by calling method", "method", caller).record(elapsed);
+                if (entry != null) {
+                    sqlStats.record(entry, caller, elapsed, failed, parameterTypes);
+                }
+                span.close();
+            }
+        }
+
+        private void rememberParameterType(int index, String type) {
+            if (index < 1 || index > 10_000) {
+                return;
+            }
+            if (parameterTypes == null) {
+                parameterTypes = new ArrayList<>();
+            }
+            while (parameterTypes.size() < index) {
+                parameterTypes.add("?");
+            }
+            parameterTypes.set(index - 1, type);
+        }
+
+        // Rows affected come from the update counts; rows returned are counted as the caller reads them
+        private static Object countRows(Object result, SqlStatementStats.Entry entry) {
+            if (result instanceof ResultSet) {
+                ResultSet rs = (ResultSet) result;
+                return Proxy.newProxyInstance(
+                    InstrumentedConnection.class.getClassLoader(),
+                    new Class<?>[] {ResultSet.class},
+                    (proxy, method, args) -> {
+                        Object value = InstrumentedConnection.invoke(rs, method, args);
+                        if ("next".equals(method.getName()) && Boolean.TRUE.equals(value)) {
+                            entry.addRows(1);
+                        }
+                        return value;
+                    });
+            }
+            if (result instanceof Integer) {
+                entry.addRows((Integer) result);
+            } else if (result instanceof Long) {
+                entry.addRows((Long) result);
+            } else if (result instanceof int[]) {
+                for (int n : (int[]) result) {
+                    entry.addRows(n);
+                }
+            } else if (result instanceof long[]) {
+                for (long n : (long[]) result) {
+                    entry.addRows(n);
+                }
+            }
+            return result;
+        }
+    }
+}
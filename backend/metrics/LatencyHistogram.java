@@ -0,0 +1,83 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed log-scale buckets (1-2-5 steps from 100us to 50s,
+ * plus +Inf), exported as a Prometheus histogram in seconds.
+ * Recording is a binary search and one atomic increment, so it is cheap enough for every request.
+ */
+public class LatencyHistogram {
+
+    // Upper bounds in nanoseconds
+    static final long[] BUCKET_BOUNDS_NANOS = {
+        100_000L, 200_000L, 500_000L,
+        1_000_000L, 2_000_000L, 5_000_000L,
+        10_000_000L, 20_000_000L, 50_000_000L,
+        100_000_000L, 200_000_000L, 500_000_000L,
+        1_000_000_000L, 2_000_000_000L, 5_000_000_000L,
+        10_000_000_000L, 20_000_000_000L, 50_000_000_000L
+    };
+
+    // Last slot counts values above the largest bound (+Inf)
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS_NANOS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Record one observation.
+     *
+     * @param nanos Duration in nanoseconds; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        sumNanos.add(value);
+    }
+
+    /**
+     * Record the time elapsed since a System.nanoTime() reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucketIndex(long nanos) {
+        int low = 0;
+        int high = BUCKET_BOUNDS_NANOS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nanos <= BUCKET_BOUNDS_NANOS[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Cumulative counts per bucket, as Prometheus expects; the last entry is the +Inf bucket.
+     */
+    long[] cumulativeCounts() {
+        long[] cumulative = new long[counts.length()];
+        long running = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            running += counts.get(i);
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import utils.ResponseWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handler for GET /metrics.
+ * Serves every registered metric in the Prometheus text exposition format.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public MetricsHandler() {
+        this(MetricsRegistry.getInstance());
+    }
+
+    public MetricsHandler(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = registry.writePrometheus().getBytes(StandardCharsets.UTF_8);
+        ResponseWriter.send(exchange, 200, CONTENT_TYPE, body);
+    }
+}
@@ -0,0 +1,196 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms.
+ * Metrics are identified by name plus label pairs and created on first use, so call sites
+ * can simply ask for the metric they want to update. Everything is rendered in the
+ * Prometheus text exposition format by writePrometheus().
+ */
+public class MetricsRegistry {
+
+    private static MetricsRegistry instance;
+
+    private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Create a standalone registry. Production code should use getInstance() so that
+     * /metrics sees every metric.
+     */
+    public MetricsRegistry() {
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name Metric name, conventionally ending in _total
+     * @param help One-line description
+     * @param labels Alternating label names and values
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).metrics
+            .computeIfAbsent(formatLabels(labels), k -> new Counter());
+    }
+
+    /**
+     * Get or create a latency histogram, exported in seconds.
+     *
+     * @param name Metric name, conventionally ending in _seconds
+     * @param help One-line description
+     * @param labels Alternating label names and values
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, Type.HISTOGRAM).metrics
+            .computeIfAbsent(formatLabels(labels), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge whose value is read when metrics are scraped.
+     * Registering the same name and labels again replaces the supplier.
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, Type.GAUGE).metrics.put(formatLabels(labels), supplier);
+    }
+
+    /**
+     * Register a counter backed by an existing value, such as an AtomicLong a service
+     * already maintains. The supplier must never decrease.
+     */
+    public void counterFunction(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, Type.COUNTER).metrics.put(formatLabels(labels), supplier);
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(type, help));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.text);
+        }
+        return family;
+    }
+
+    /**
+     * Render every metric in the Prometheus text format, families sorted by name.
+     */
+    public String writePrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> metric : new TreeMap<>(family.metrics).entrySet()) {
+                writeMetric(out, name, metric.getKey(), metric.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeMetric(StringBuilder out, String name, String labels, Object metric) {
+        if (metric instanceof Counter) {
+            sample(out, name, labels, Long.toString(((Counter) metric).get()));
+        } else if (metric instanceof LongSupplier) {
+            sample(out, name, labels, Long.toString(((LongSupplier) metric).getAsLong()));
+        } else if (metric instanceof DoubleSupplier) {
+            double value;
+            try {
+                value = ((DoubleSupplier) metric).getAsDouble();
+            } catch (RuntimeException e) {
+                value = Double.NaN;
+            }
+            sample(out, name, labels, formatDouble(value));
+        } else if (metric instanceof LatencyHistogram) {
+            LatencyHistogram histogram = (LatencyHistogram) metric;
+            long[] cumulative = histogram.cumulativeCounts();
+            for (int i = 0; i < cumulative.length; i++) {
+                String le = i < LatencyHistogram.BUCKET_BOUNDS_NANOS.length
+                    ? formatDouble(LatencyHistogram.BUCKET_BOUNDS_NANOS[i] / 1e9)
+                    : "+Inf";
+                sample(out, name + "_bucket", withLabel(labels, "le", le), Long.toString(cumulative[i]));
+            }
+            sample(out, name + "_sum", labels, formatDouble(histogram.getSumNanos() / 1e9));
+            sample(out, name + "_count", labels, Long.toString(cumulative[cumulative.length - 1]));
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String extra = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? extra : labels + "," + extra;
+    }
+
+    private static String escapeLabelValue(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Family {
+        final Type type;
+        final String help;
+        // Label string -> Counter, LatencyHistogram, DoubleSupplier or LongSupplier
+        final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+}
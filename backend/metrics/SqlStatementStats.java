@@ -0,0 +1,223 @@
+package metrics;
+
+import tracing.Tracer;
+import utils.Settings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Per-statement-shape SQL statistics and slow-query log.
+ * Statements are grouped by a normalized shape: whitespace collapsed, literals replaced by ?,
+ * and placeholder lists such as IN (?, ?, ?) or multi-row VALUES collapsed, so batched
+ * queries of different sizes land in one entry. Each entry tracks executions, errors, total
+ * and max latency, and rows returned or affected.
+ *
+ * Executions slower than SLOW_QUERY_MS (default 200) are logged with the shape, the caller
+ * and the types of the bound parameters; parameter values are never logged.
+ */
+public class SqlStatementStats {
+
+    private static SqlStatementStats instance;
+
+    // Shapes beyond this are folded into OTHER so dynamic SQL cannot grow the map without bound
+    static final int MAX_SHAPES = 1000;
+    static final String OTHER = "(other)";
+    private static final int MAX_CALLERS_PER_SHAPE = 5;
+    private static final int MAX_NORMALIZE_CACHE = 5000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern REPEATED_ROWS = Pattern.compile("\\(\\?\\+\\)(?:\\s*,\\s*\\(\\?\\+\\))+");
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> normalized = new ConcurrentHashMap<>();
+    private final long slowThresholdNanos;
+
+    /**
+     * Create a standalone instance. Production code should use getInstance().
+     *
+     * @param slowThresholdMillis Executions at least this slow are logged
+     */
+    public SqlStatementStats(long slowThresholdMillis) {
+        this.slowThresholdNanos = slowThresholdMillis * 1_000_000L;
+    }
+
+    public static synchronized SqlStatementStats getInstance() {
+        if (instance == null) {
+            instance = new SqlStatementStats(Settings.getLong("SLOW_QUERY_MS", 200));
+        }
+        return instance;
+    }
+
+    /**
+     * Normalize a SQL string into its statement shape.
+     */
+    public static String normalize(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+        shape = PLACEHOLDER_LIST.matcher(shape).replaceAll("(?+)");
+        return REPEATED_ROWS.matcher(shape).replaceAll("(?+), ...");
+    }
+
+    /**
+     * Get the stats entry for a SQL string, normalizing it (cached per distinct string).
+     */
+    public Entry entryFor(String sql) {
+        String shape = normalized.get(sql);
+        if (shape == null) {
+            shape = normalize(sql);
+            if (normalized.size() < MAX_NORMALIZE_CACHE) {
+                normalized.put(sql, shape);
+            }
+        }
+        Entry entry = entries.get(shape);
+        if (entry != null) {
+            return entry;
+        }
+        if (entries.size() >= MAX_SHAPES) {
+            return entries.computeIfAbsent(OTHER, Entry::new);
+        }
+        return entries.computeIfAbsent(shape, Entry::new);
+    }
+
+    /**
+     * Record one execution and log it if it was slow.
+     *
+     * @param entry Entry from entryFor
+     * @param caller Calling DAO/service method
+     * @param nanos Execution time
+     * @param failed Whether the execution threw
+     * @param parameterTypes Types of the bound parameters in index order, for the slow-query log
+     */
+    public void record(Entry entry, String caller, long nanos, boolean failed, List<String> parameterTypes) {
+        entry.count.increment();
+        entry.totalNanos.add(nanos);
+        entry.maxNanos.accumulateAndGet(nanos, Math::max);
+        if (failed) {
+            entry.errors.increment();
+        }
+        if (entry.callers.size() < MAX_CALLERS_PER_SHAPE) {
+            entry.callers.add(caller);
+        }
+        if (nanos >= slowThresholdNanos) {
+            String requestId = Tracer.currentRequestId();
+            System.err.println("[SqlStatementStats] Slow query " + (nanos / 1_000_000) + "ms in " + caller +
+                               (requestId != null ? " (request " + requestId + ")" : "") +
+                               ": " + entry.shape +
+                               " params=" + (parameterTypes != null ? parameterTypes : "[]"));
+        }
+    }
+
+    /**
+     * Top statements ordered by the given key.
+     *
+     * @param limit Maximum number of statements
+     * @param sortBy "total" (default), "max", "count", "avg", "rows" or "errors"
+     */
+    public List<StatementSummary> top(int limit, String sortBy) {
+        Comparator<StatementSummary> order;
+        switch (sortBy == null ? "total" : sortBy) {
+            case "max":
+                order = Comparator.comparingDouble(s -> s.maxMillis);
+                break;
+            case "count":
+                order = Comparator.comparingLong(s -> s.count);
+                break;
+            case "avg":
+                order = Comparator.comparingDouble(s -> s.avgMillis);
+                break;
+            case "rows":
+                order = Comparator.comparingLong(s -> s.rows);
+                break;
+            case "errors":
+                order = Comparator.comparingLong(s -> s.errors);
+                break;
+            case "total":
+                order = Comparator.comparingDouble(s -> s.totalMillis);
+                break;
+            default:
+                throw new IllegalArgumentException("sort must be one of total, max, count, avg, rows, errors");
+        }
+
+        List<StatementSummary> summaries = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            summaries.add(entry.summarize());
+        }
+        summaries.sort(order.reversed());
+        return summaries.size() > limit ? new ArrayList<>(summaries.subList(0, limit)) : summaries;
+    }
+
+    /**
+     * Number of distinct statement shapes seen.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * Live counters for one statement shape.
+     */
+    public static class Entry {
+        final String shape;
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder rows = new LongAdder();
+        final Set<String> callers = ConcurrentHashMap.newKeySet();
+
+        Entry(String shape) {
+            this.shape = shape;
+        }
+
+        /**
+         * Add rows returned by a query or affected by an update.
+         */
+        public void addRows(long n) {
+            if (n > 0) {
+                rows.add(n);
+            }
+        }
+
+        StatementSummary summarize() {
+            StatementSummary summary = new StatementSummary();
+            summary.shape = shape;
+            summary.count = count.sum();
+            summary.errors = errors.sum();
+            summary.totalMillis = totalNanos.sum() / 1e6;
+            summary.maxMillis = maxNanos.get() / 1e6;
+            summary.avgMillis = summary.count > 0 ? summary.totalMillis / summary.count : 0;
+            summary.rows = rows.sum();
+            summary.callers = new ArrayList<>(callers);
+            return summary;
+        }
+    }
+
+    /**
+     * Point-in-time view of one statement shape.
+     */
+    public static class StatementSummary {
+        public String shape;
+        public long count;
+        public long errors;
+        public double totalMillis;
+        public double maxMillis;
+        public double avgMillis;
+        public long rows;
+        public List<String> callers;
+    }
+}
@@ -0,0 +1,58 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps an HttpHandler and records its latency in http_request_duration_seconds,
+ * labelled with the registered route, the HTTP method and the response status.
+ * Requests that end without a response (an exception before sendResponseHeaders) are
+ * recorded with status "none".
+ */
+public class TimedHandler implements HttpHandler {
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+
+    static {
+        MetricsRegistry.getInstance().gauge("http_requests_in_flight",
+            "HTTP requests currently being handled", inFlight::get);
+    }
+
+    private final String route;
+    private final HttpHandler delegate;
+    private final MetricsRegistry registry;
+
+    public TimedHandler(String route, HttpHandler delegate) {
+        this(route, delegate, MetricsRegistry.getInstance());
+    }
+
+    public TimedHandler(String route, HttpHandler delegate, MetricsRegistry registry) {
+        this.route = route;
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            delegate.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            registry.counter("http_request_exceptions_total",
+                "Exceptions thrown out of HTTP handlers", "route", route).increment();
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+            int code = exchange.getResponseCode();
+            registry.histogram("http_request_duration_seconds",
+                "HTTP request latency by route, method and status",
+                "route", route,
+                "method", exchange.getRequestMethod(),
+                "status", code > 0 ? Integer.toString(code) : "none").recordSince(start);
+        }
+    }
+}
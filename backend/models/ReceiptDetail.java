@@ -0,0 +1,126 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable view of one receipt with its items and participants, as loaded by
+ * ReceiptDAO.getReceiptDetail in a single query. Used to render the receipt view
+ * and to check the viewer's access without further lookups.
+ */
+public final class ReceiptDetail {
+    private final int receiptId;
+    private final String uploadedBy;
+    private final String merchantName;
+    private final long dateMillis;
+    private final float totalAmount;
+    private final float tipAmount;
+    private final float taxAmount;
+    private final String imageUrl;
+    private final String status;
+    private final String senderName;
+    private final int numberOfItems;
+    private final boolean complete;
+    private final List<ReceiptItem> items;
+    private final List<Participant> participants;
+
+    public ReceiptDetail(int receiptId, String uploadedBy, String merchantName, Date date,
+                         float totalAmount, float tipAmount, float taxAmount,
+                         String imageUrl, String status, String senderName, int numberOfItems,
+                         boolean complete, List<ReceiptItem> items, List<Participant> participants) {
+        this.receiptId = receiptId;
+        this.uploadedBy = uploadedBy;
+        this.merchantName = merchantName;
+        this.dateMillis = date != null ? date.getTime() : System.currentTimeMillis();
+        this.totalAmount = totalAmount;
+        this.tipAmount = tipAmount;
+        this.taxAmount = taxAmount;
+        this.imageUrl = imageUrl;
+        this.status = status;
+        this.senderName = senderName;
+        this.numberOfItems = numberOfItems;
+        this.complete = complete;
+
+        List<ReceiptItem> sortedItems = new ArrayList<>(items != null ? items : List.of());
+        sortedItems.sort(Comparator.comparingInt(ReceiptItem::getItemId));
+        this.items = Collections.unmodifiableList(sortedItems);
+        this.participants = Collections.unmodifiableList(
+            new ArrayList<>(participants != null ? participants : List.of()));
+    }
+
+    // Getters
+    public int getReceiptId() { return receiptId; }
+    public String getUploadedBy() { return uploadedBy; }
+    public String getMerchantName() { return merchantName; }
+    public Date getDate() { return new Date(dateMillis); }
+    public float getTotalAmount() { return totalAmount; }
+    public float getTipAmount() { return tipAmount; }
+    public float getTaxAmount() { return taxAmount; }
+    public String getImageUrl() { return imageUrl; }
+    public String getStatus() { return status; }
+    public String getSenderName() { return senderName; }
+    public int getNumberOfItems() { return numberOfItems; }
+    public boolean isComplete() { return complete; }
+    public List<ReceiptItem> getItems() { return items; }
+    public List<Participant> getParticipants() { return participants; }
+
+    public boolean isUploader(String userId) {
+        return uploadedBy != null && uploadedBy.equals(userId);
+    }
+
+    /**
+     * Get an item of this receipt, or null if the receipt has no item with that ID.
+     */
+    public ReceiptItem getItem(int itemId) {
+        for (ReceiptItem item : items) {
+            if (item.getItemId() == itemId) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a participant's row, or null if the user is not a participant.
+     */
+    public Participant getParticipant(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        for (Participant participant : participants) {
+            if (userId.equals(participant.getUserId())) {
+                return participant;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A receipt is visible to its uploader and to its participants.
+     */
+    public boolean canView(String userId) {
+        return isUploader(userId) || getParticipant(userId) != null;
+    }
+
+    /**
+     * One receipt_participants row.
+     */
+    public static final class Participant {
+        private final String userId;
+        private final String status;
+        private final float paidAmount;
+
+        public Participant(String userId, String status, float paidAmount) {
+            this.userId = userId;
+            this.status = status;
+            this.paidAmount = paidAmount;
+        }
+
+        public String getUserId() { return userId; }
+        public String getStatus() { return status; }
+        public float getPaidAmount() { return paidAmount; }
+    }
+}
@@ -0,0 +1,40 @@
+package parser;
+
+/**
+ * Outcome of one parse. On success output is the receipt JSON; on failure it is whatever the
+ * parser printed, often a JSON object with an "error" field, and errorOutput holds its
+ * diagnostics.
+ */
+public final class ParseResult {
+
+    public enum Status { OK, FAILED, TIMED_OUT }
+
+    public final Status status;
+    public final String output;
+    public final String errorOutput;
+    // Process exit code, or -1 when there was no process exit to report
+    public final int exitCode;
+
+    private ParseResult(Status status, String output, String errorOutput, int exitCode) {
+        this.status = status;
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.exitCode = exitCode;
+    }
+
+    public static ParseResult ok(String output, String errorOutput) {
+        return new ParseResult(Status.OK, output, errorOutput, 0);
+    }
+
+    public static ParseResult failed(int exitCode, String output, String errorOutput) {
+        return new ParseResult(Status.FAILED, output, errorOutput, exitCode);
+    }
+
+    public static ParseResult timedOut(String errorOutput) {
+        return new ParseResult(Status.TIMED_OUT, "", errorOutput, -1);
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+}
@@ -0,0 +1,236 @@
+package parser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import utils.Settings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps RECEIPT_PARSER_WORKERS (default 2) Python parser processes running in --worker mode and
+ * hands each one receipt at a time, so a parse no longer pays for interpreter start-up and
+ * importing the model client.
+ *
+ * A worker reads one JSON request per stdin line, {"id": ..., "image": ..., "preprocessed": ...},
+ * and answers with one line, {"id": ..., "result": {...}} or {"id": ..., "error": "..."}.
+ * A worker that times out, is interrupted, answers out of turn or exits is killed, and its slot
+ * is handed to the next parse (including one already waiting), which starts a fresh worker.
+ */
+public class PersistentWorkerReceiptParser implements ReceiptParser {
+
+    private static final String EOF = "\u0000EOF";
+    // Queued when a worker is discarded so a parse waiting for a worker wakes up and starts one
+    private static final Worker VACANT = new Worker();
+
+    private final File script;
+    private final int size;
+    // Workers ready to take a receipt; a worker is out of the queue while it parses
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final List<Worker> all = new CopyOnWriteArrayList<>();
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile boolean closed;
+
+    public PersistentWorkerReceiptParser(File script, int size) {
+        this.script = script;
+        this.size = size;
+    }
+
+    static PersistentWorkerReceiptParser fromEnvironment() {
+        return new PersistentWorkerReceiptParser(SubprocessReceiptParser.scriptFromEnvironment(),
+            Settings.getInt("RECEIPT_PARSER_WORKERS", 2));
+    }
+
+    @Override
+    public ParseResult parse(Path image, boolean preprocessed, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Worker worker = acquire(timeoutMillis);
+        if (worker == null) {
+            return ParseResult.timedOut("No parser worker became free within " + timeoutMillis + "ms\n");
+        }
+
+        boolean healthy = false;
+        try {
+            String id = Long.toString(nextId.incrementAndGet());
+            JSONObject request = new JSONObject();
+            request.put("id", id);
+            request.put("image", image.toAbsolutePath().toString());
+            request.put("preprocessed", preprocessed);
+            try {
+                worker.send(request.toString());
+            } catch (IOException e) {
+                return ParseResult.failed(-1, "", "Parser worker is not accepting requests: " + e.getMessage() + "\n");
+            }
+
+            String line = worker.lines.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (line == null) {
+                System.err.println("[PersistentWorkerReceiptParser] Worker " + worker.pid() + " timed out after " +
+                                   timeoutMillis + "ms - killing it");
+                return ParseResult.timedOut("");
+            }
+            if (line == EOF) {
+                return ParseResult.failed(-1, "", "Parser worker exited before answering\n");
+            }
+
+            JSONObject response;
+            try {
+                response = new JSONObject(line);
+            } catch (JSONException e) {
+                return ParseResult.failed(-1, line, "Parser worker sent a line that is not JSON\n");
+            }
+            if (!id.equals(response.optString("id"))) {
+                return ParseResult.failed(-1, line, "Parser worker answered request " + response.optString("id") +
+                                                    " instead of " + id + "\n");
+            }
+            healthy = true;
+            if (response.has("result")) {
+                return ParseResult.ok(response.get("result").toString(), "");
+            }
+            JSONObject error = new JSONObject();
+            error.put("error", response.optString("error", "Parser worker returned no result"));
+            return ParseResult.failed(1, error.toString(), "");
+        } finally {
+            if (healthy && !closed) {
+                idle.add(worker);
+            } else {
+                discard(worker);
+            }
+        }
+    }
+
+    /**
+     * Take an idle worker, starting one whenever the pool is below its size.
+     *
+     * @return The worker, or null if none became free in time
+     */
+    private Worker acquire(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Worker worker = idle.poll();
+        while (true) {
+            if (closed) {
+                throw new IOException("Receipt parser is closed");
+            }
+            if (worker != null && worker != VACANT) {
+                return worker;
+            }
+            if (started.incrementAndGet() <= size) {
+                try {
+                    return start();
+                } catch (IOException e) {
+                    started.decrementAndGet();
+                    throw e;
+                }
+            }
+            started.decrementAndGet();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            worker = idle.poll(remaining, TimeUnit.NANOSECONDS);
+            if (worker == null) {
+                return null;
+            }
+        }
+    }
+
+    private Worker start() throws IOException {
+        SubprocessReceiptParser.checkScript(script);
+        ProcessBuilder pb = new ProcessBuilder("python3", script.getAbsolutePath(), "--worker");
+        pb.directory(new File(System.getProperty("user.dir")));
+        Worker worker = new Worker(pb.start());
+        all.add(worker);
+        System.out.println("[PersistentWorkerReceiptParser] Started parser worker (PID: " + worker.pid() + ")");
+        return worker;
+    }
+
+    private void discard(Worker worker) {
+        worker.process.destroyForcibly();
+        if (all.remove(worker)) {
+            started.decrementAndGet();
+            if (!closed) {
+                idle.add(VACANT);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : all) {
+            discard(worker);
+        }
+        idle.clear();
+    }
+
+    /**
+     * One Python process. Its stdout lines are queued by a reader thread so waiting for an
+     * answer can time out; stderr is copied to the server log.
+     */
+    private static final class Worker {
+        final Process process;
+        final OutputStream stdin;
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+        private Worker() {
+            this.process = null;
+            this.stdin = null;
+        }
+
+        Worker(Process process) {
+            this.process = process;
+            this.stdin = process.getOutputStream();
+            Thread stdout = new Thread(() -> {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            lines.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    // The process was killed
+                } finally {
+                    lines.add(EOF);
+                }
+            }, "receipt-parser-worker-" + process.pid());
+            stdout.setDaemon(true);
+            stdout.start();
+            Thread stderr = new Thread(() -> {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        System.err.println("[PersistentWorkerReceiptParser] Worker " + process.pid() + " stderr: " + line);
+                    }
+                } catch (IOException e) {
+                    // The process was killed
+                }
+            }, "receipt-parser-worker-" + process.pid() + "-stderr");
+            stderr.setDaemon(true);
+            stderr.start();
+        }
+
+        long pid() {
+            return process.pid();
+        }
+
+        void send(String line) throws IOException {
+            stdin.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Turns a receipt image into the parser's JSON. ParseReceiptHandler only talks to this
+ * interface, so the rest of the pipeline can be benchmarked and load-tested without a model call.
+ *
+ * Implementations:
+ * - SubprocessReceiptParser: starts the Python parser for every receipt (default)
+ * - PersistentWorkerReceiptParser: keeps Python parser processes running and sends them
+ *   one receipt at a time, saving interpreter start-up and imports on every parse
+ * - StubReceiptParser: returns fixture JSON after a configurable delay, without leaving the JVM
+ *
+ * Every implementation honours the timeout and stops work when the calling thread is
+ * interrupted, so a cancelled request does not leave a parse running.
+ */
+public interface ReceiptParser {
+
+    /**
+     * Parse one image.
+     *
+     * @param image The image file
+     * @param preprocessed Whether the image was already cropped, downscaled and re-encoded
+     * @param timeoutMillis Longest time to wait for the result
+     * @return The outcome; never null
+     * @throws InterruptedException If the calling thread was interrupted; the parse is abandoned
+     */
+    ParseResult parse(Path image, boolean preprocessed, long timeoutMillis) throws IOException, InterruptedException;
+
+    /**
+     * Release processes or threads the parser holds.
+     */
+    default void close() {
+    }
+
+    /**
+     * Create the parser named by RECEIPT_PARSER: "subprocess" (default), "worker" or "stub".
+     */
+    static ReceiptParser create(String kind) {
+        if (kind == null || kind.isEmpty() || kind.equalsIgnoreCase("subprocess")) {
+            return new SubprocessReceiptParser(SubprocessReceiptParser.scriptFromEnvironment());
+        }
+        if (kind.equalsIgnoreCase("worker")) {
+            return PersistentWorkerReceiptParser.fromEnvironment();
+        }
+        if (kind.equalsIgnoreCase("stub")) {
+            return StubReceiptParser.fromEnvironment();
+        }
+        throw new IllegalArgumentException("Unknown receipt parser: " + kind + " (expected subprocess, worker or stub)");
+    }
+}
@@ -0,0 +1,59 @@
+package parser;
+
+import utils.Settings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Returns the same receipt for every image after STUB_PARSER_DELAY_MS (default 0), without
+ * starting a process. Used to load-test and benchmark the parse endpoint in isolation.
+ *
+ * The receipt matches loadtest/stub_receipt_parser.py; RECEIPT_PARSER_STUB_FIXTURE names a JSON
+ * file to return instead.
+ */
+public class StubReceiptParser implements ReceiptParser {
+
+    // Same keys as receipt_parser_local.py; an item's price is its line total
+    static final String DEFAULT_FIXTURE = "{\"merchant\": \"Load Test Diner\", \"date\": \"2024-01-15\", \"items\": ["
+        + "{\"name\": \"Burger\", \"qty\": 1, \"price\": 12.50}, "
+        + "{\"name\": \"Fries\", \"qty\": 2, \"price\": 8.50}, "
+        + "{\"name\": \"Soda\", \"qty\": 2, \"price\": 5.50}], "
+        + "\"subtotal\": 26.50, \"tax\": 2.25, \"tip\": 4.00, \"total\": 32.75}";
+
+    private final String fixture;
+    private final long delayMillis;
+
+    public StubReceiptParser(String fixture, long delayMillis) {
+        this.fixture = fixture;
+        this.delayMillis = delayMillis;
+    }
+
+    static StubReceiptParser fromEnvironment() {
+        String fixture = DEFAULT_FIXTURE;
+        String path = Settings.get("RECEIPT_PARSER_STUB_FIXTURE");
+        if (path != null) {
+            try {
+                fixture = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8).trim();
+            } catch (IOException e) {
+                System.err.println("Invalid RECEIPT_PARSER_STUB_FIXTURE: " + path + ", using the built-in receipt");
+            }
+        }
+        return new StubReceiptParser(fixture, Settings.getLong("STUB_PARSER_DELAY_MS", 0, 0, Long.MAX_VALUE));
+    }
+
+    @Override
+    public ParseResult parse(Path image, boolean preprocessed, long timeoutMillis) throws InterruptedException {
+        if (delayMillis > timeoutMillis) {
+            Thread.sleep(timeoutMillis);
+            return ParseResult.timedOut("");
+        }
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        return ParseResult.ok(fixture, "");
+    }
+}
@@ -0,0 +1,119 @@
+package parser;
+
+import utils.Settings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the Python parser script once per receipt: python3 <script> <image> [--preprocessed].
+ * The script prints diagnostics on stderr and the receipt JSON as the last line of stdout.
+ *
+ * The script is RECEIPT_PARSER_SCRIPT (default receipt_parser_local.py), relative to the
+ * working directory; point it at loadtest/stub_receipt_parser.py to skip the model call
+ * while still paying for the process.
+ */
+public class SubprocessReceiptParser implements ReceiptParser {
+
+    private final File script;
+
+    public SubprocessReceiptParser(File script) {
+        this.script = script;
+    }
+
+    static File scriptFromEnvironment() {
+        return new File(System.getProperty("user.dir"), Settings.get("RECEIPT_PARSER_SCRIPT", "receipt_parser_local.py"));
+    }
+
+    static void checkScript(File script) throws IOException {
+        if (!script.exists()) {
+            throw new IOException("Python parser script not found at " + script.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public ParseResult parse(Path image, boolean preprocessed, long timeoutMillis) throws IOException, InterruptedException {
+        checkScript(script);
+        List<String> command = new ArrayList<>();
+        command.add("python3");
+        command.add(script.getAbsolutePath());
+        command.add(image.toAbsolutePath().toString());
+        if (preprocessed) {
+            command.add("--preprocessed");
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(new File(System.getProperty("user.dir")));
+        // do NOT redirect error stream; keep stdout and stderr separate
+        Process process = pb.start();
+        System.out.println("[SubprocessReceiptParser] Python process started (PID: " + process.pid() + ")");
+
+        // Read stdout and stderr in parallel to avoid deadlock
+        StringBuilder output = new StringBuilder();
+        StringBuilder errorOutput = new StringBuilder();
+        Thread stdoutThread = drain(process.getInputStream(), line -> {
+            System.out.println("[SubprocessReceiptParser] Python stdout: " + line);
+            // Keep only the last line, expected to be the JSON
+            synchronized (output) {
+                output.setLength(0);
+                output.append(line);
+            }
+        });
+        Thread stderrThread = drain(process.getErrorStream(), line -> {
+            System.err.println("[SubprocessReceiptParser] Python stderr: " + line);
+            synchronized (errorOutput) {
+                errorOutput.append(line).append("\n");
+            }
+        });
+
+        try {
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.err.println("[SubprocessReceiptParser] Python process timed out after " + timeoutMillis + "ms - killing process");
+                process.destroyForcibly();
+                stdoutThread.join(2000);
+                stderrThread.join(2000);
+                return ParseResult.timedOut(text(errorOutput));
+            }
+            stdoutThread.join(5000);
+            stderrThread.join(5000);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+
+        int exitCode = process.exitValue();
+        return exitCode == 0
+            ? ParseResult.ok(text(output).trim(), text(errorOutput))
+            : ParseResult.failed(exitCode, text(output), text(errorOutput));
+    }
+
+    private static Thread drain(InputStream stream, Consumer<String> lines) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.accept(line);
+                }
+            } catch (IOException e) {
+                System.err.println("[SubprocessReceiptParser] Error reading parser output: " + e.getMessage());
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static String text(StringBuilder builder) {
+        synchronized (builder) {
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package services;
+
+import utils.Settings;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory per-user balance snapshots shared by all BalanceService instances.
+ * Each snapshot carries a version stamp: the history_id of the newest balance_history row
+ * it reflects. Writers publish after commit and readers publish after a load, and a snapshot
+ * only replaces an older one, so a slow read can never overwrite a newer committed balance.
+ *
+ * Snapshots also expire after a TTL (BALANCE_CACHE_TTL_MS, default 30000) so balance changes
+ * made outside BalanceService are eventually picked up.
+ */
+public class BalanceCache {
+
+    private static BalanceCache instance;
+
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+
+    /**
+     * Create a standalone cache. Production code should use getInstance() so all
+     * BalanceService instances share one cache.
+     *
+     * @param ttlMillis How long a snapshot is served before it must be reloaded
+     */
+    public BalanceCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static synchronized BalanceCache getInstance() {
+        if (instance == null) {
+            instance = new BalanceCache(Settings.getLong("BALANCE_CACHE_TTL_MS", 30_000L, 0, Long.MAX_VALUE));
+        }
+        return instance;
+    }
+
+    /**
+     * Get a fresh snapshot for a user.
+     *
+     * @param userId The user ID
+     * @return The cached snapshot, or null if missing or expired
+     */
+    public Snapshot get(String userId) {
+        Snapshot snapshot = snapshots.get(userId);
+        if (snapshot == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - snapshot.loadedAt > ttlMillis) {
+            // Only drop the entry we looked at; a newer one may have been published meanwhile
+            snapshots.remove(userId, snapshot);
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Publish a balance unless a snapshot with a newer version is already cached.
+     * An equal version replaces the existing snapshot to refresh its TTL.
+     *
+     * @param userId The user ID
+     * @param balance Balance as of the given version
+     * @param version history_id of the newest ledger row reflected in balance (0 if none)
+     */
+    public void putIfNewer(String userId, double balance, long version) {
+        Snapshot candidate = new Snapshot(balance, version, System.currentTimeMillis());
+        snapshots.merge(userId, candidate,
+            (existing, incoming) -> incoming.version >= existing.version ? incoming : existing);
+    }
+
+    /**
+     * Drop the cached snapshot for a user, forcing the next read to hit the database.
+     */
+    public void invalidate(String userId) {
+        snapshots.remove(userId);
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+
+    /**
+     * Immutable balance snapshot.
+     */
+    public static class Snapshot {
+        public final double balance;
+        public final long version;
+        public final long loadedAt;
+
+        Snapshot(double balance, long version, long loadedAt) {
+            this.balance = balance;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
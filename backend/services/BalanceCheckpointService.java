@@ -0,0 +1,347 @@
+package services;
+
+import database.DatabaseConnection;
+import utils.Settings;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodic per-user balance checkpoints over balance_history.
+ * A checkpoint records the ledger balance of a user up to a given history_id, so
+ * reconciliation and "balance as of" queries only replay the rows written after it
+ * instead of the user's whole history.
+ *
+ * The job runs every BALANCE_CHECKPOINT_INTERVAL_MINUTES (default 60): it writes new
+ * checkpoints for users with ledger activity since their last one, then verifies
+ * users.balance against checkpoint + later rows and logs any drift. Users with no ledger
+ * rows at all are not verified. The job uses its own connection rather than the shared
+ * one, which request threads use for their transactions.
+ */
+public class BalanceCheckpointService {
+
+    private static BalanceCheckpointService instance;
+
+    // Differences below half a cent are rounding, not drift
+    private static final BigDecimal DRIFT_TOLERANCE = new BigDecimal("0.005");
+
+    // Every user with their latest checkpoint, looked up per user through idx_balance_checkpoints_user
+    private static final String USERS_SQL =
+        "SELECT u.user_id, u.balance, cp.balance AS checkpoint_balance, cp.last_history_id " +
+        "FROM users u LEFT JOIN balance_checkpoints cp ON cp.checkpoint_id = (" +
+        "SELECT c.checkpoint_id FROM balance_checkpoints c WHERE c.user_id = u.user_id " +
+        "ORDER BY c.last_history_id DESC LIMIT 1)";
+
+    // Ledger rows after a checkpoint: a range scan of idx_balance_history_user_id, which InnoDB
+    // orders by (user_id, history_id)
+    private static final String DELTA_SQL =
+        "SELECT SUM(amount) AS delta, MAX(history_id) AS last_history_id, MAX(created_at) AS last_history_at " +
+        "FROM balance_history WHERE user_id = ? AND history_id > ?";
+
+    // Balance before a user's first ledger row, for users who have no checkpoint yet
+    private static final String OPENING_BALANCE_SQL =
+        "SELECT balance_before FROM balance_history WHERE user_id = ? ORDER BY history_id LIMIT 1";
+
+    private final DatabaseConnection dbConnection;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * Create a standalone checkpoint service. Production code should use getInstance().
+     */
+    public BalanceCheckpointService() {
+        this.dbConnection = DatabaseConnection.getInstance();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "balance-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static synchronized BalanceCheckpointService getInstance() {
+        if (instance == null) {
+            instance = new BalanceCheckpointService();
+        }
+        return instance;
+    }
+
+    /**
+     * Schedule the checkpoint-and-verify job. Calling start more than once has no effect.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        long intervalMinutes = Settings.getLong("BALANCE_CHECKPOINT_INTERVAL_MINUTES", 60);
+        scheduler.scheduleWithFixedDelay(this::runCycle, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        System.out.println("[BalanceCheckpointService] Scheduled every " + intervalMinutes + " minutes");
+    }
+
+    private void runCycle() {
+        try {
+            int written = createCheckpoints();
+            List<BalanceDrift> drifts = verifyBalances();
+            System.out.println("[BalanceCheckpointService] Wrote " + written + " checkpoints, " +
+                               drifts.size() + " users with drift");
+        } catch (RuntimeException e) {
+            System.err.println("[BalanceCheckpointService] Checkpoint cycle failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write a checkpoint for every user with ledger rows after their latest checkpoint.
+     * The new balance is the previous checkpoint (or the opening balance) plus the sum of
+     * the newer rows. The ledger is read with plain SELECTs, which take no locks, so balance
+     * writes are never blocked behind the job; the checkpoints are then inserted in one batch.
+     *
+     * @return Number of checkpoints written, or -1 on error
+     */
+    public int createCheckpoints() {
+        String sql = "INSERT INTO balance_checkpoints (user_id, balance, last_history_id, last_history_at) " +
+                     "VALUES (?, ?, ?, ?)";
+        try (Connection conn = dbConnection.openConnection()) {
+            List<Ledger> ledgers = readLedgers(conn);
+            int written = 0;
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Ledger ledger : ledgers) {
+                    if (ledger.lastHistoryId == 0) {
+                        continue;
+                    }
+                    stmt.setString(1, ledger.userId);
+                    stmt.setBigDecimal(2, ledgerBalance(ledger.checkpointBalance, ledger.openingBalance, ledger.delta));
+                    stmt.setLong(3, ledger.lastHistoryId);
+                    stmt.setTimestamp(4, ledger.lastHistoryAt);
+                    stmt.addBatch();
+                    written++;
+                }
+                if (written > 0) {
+                    stmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            return written;
+        } catch (SQLException e) {
+            System.err.println("[BalanceCheckpointService] Error creating checkpoints: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Recompute every user's balance from their latest checkpoint plus later ledger rows
+     * and compare it with users.balance. Drifted users are logged.
+     *
+     * @return Users whose stored balance does not match the ledger
+     */
+    public List<BalanceDrift> verifyBalances() {
+        List<BalanceDrift> drifts = new ArrayList<>();
+        try (Connection conn = dbConnection.openConnection()) {
+            for (Ledger ledger : readLedgers(conn)) {
+                BalanceDrift drift = compare(ledger.userId, ledger.storedBalance, ledger.checkpointBalance,
+                    ledger.openingBalance, ledger.delta);
+                if (drift != null) {
+                    drifts.add(drift);
+                    System.err.println("[BalanceCheckpointService] Balance drift for user " + drift.userId +
+                                       ": stored=" + drift.storedBalance + ", ledger=" + drift.ledgerBalance);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[BalanceCheckpointService] Error verifying balances: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return drifts;
+    }
+
+    /**
+     * Read each user's stored balance, latest checkpoint and the ledger rows after it.
+     * Only rows past the checkpoint are read, one index range per user, and the opening
+     * balance is only looked up for users without a checkpoint. The reads share one
+     * transaction so they see a single consistent snapshot.
+     */
+    private List<Ledger> readLedgers(Connection conn) throws SQLException {
+        List<Ledger> ledgers = new ArrayList<>();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement(USERS_SQL);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Ledger ledger = new Ledger();
+                    ledger.userId = rs.getString("user_id");
+                    ledger.storedBalance = rs.getBigDecimal("balance");
+                    ledger.checkpointBalance = rs.getBigDecimal("checkpoint_balance");
+                    ledger.checkpointHistoryId = rs.getLong("last_history_id");
+                    ledgers.add(ledger);
+                }
+            }
+            try (PreparedStatement delta = conn.prepareStatement(DELTA_SQL);
+                 PreparedStatement opening = conn.prepareStatement(OPENING_BALANCE_SQL)) {
+                for (Ledger ledger : ledgers) {
+                    delta.setString(1, ledger.userId);
+                    delta.setLong(2, ledger.checkpointHistoryId);
+                    try (ResultSet rs = delta.executeQuery()) {
+                        rs.next();
+                        ledger.delta = rs.getBigDecimal("delta");
+                        ledger.lastHistoryId = rs.getLong("last_history_id");
+                        ledger.lastHistoryAt = rs.getTimestamp("last_history_at");
+                    }
+                    if (ledger.checkpointBalance == null) {
+                        opening.setString(1, ledger.userId);
+                        try (ResultSet rs = opening.executeQuery()) {
+                            if (rs.next()) {
+                                ledger.openingBalance = rs.getBigDecimal("balance_before");
+                            }
+                        }
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return ledgers;
+    }
+
+    /**
+     * Ledger balance: the latest checkpoint, or the balance before the first ledger row when
+     * there is no checkpoint yet, plus the rows after it. Matches what createCheckpoints stores.
+     *
+     * @return The balance, or null if the user has neither a checkpoint nor ledger rows
+     */
+    public static BigDecimal ledgerBalance(BigDecimal checkpointBalance, BigDecimal openingBalance, BigDecimal delta) {
+        BigDecimal base = checkpointBalance != null ? checkpointBalance : openingBalance;
+        if (base == null) {
+            return null;
+        }
+        return delta != null ? base.add(delta) : base;
+    }
+
+    /**
+     * Compare a stored balance with the ledger. A user without ledger rows (e.g. a balance
+     * set before the ledger existed) has nothing to compare against and is not drift.
+     *
+     * @return The drift, or null if the balances agree within half a cent or there is no ledger
+     */
+    public static BalanceDrift compare(String userId, BigDecimal storedBalance, BigDecimal checkpointBalance,
+                                       BigDecimal openingBalance, BigDecimal delta) {
+        BigDecimal expected = ledgerBalance(checkpointBalance, openingBalance, delta);
+        if (storedBalance == null || expected == null) {
+            return null;
+        }
+        BigDecimal difference = storedBalance.subtract(expected);
+        if (difference.abs().compareTo(DRIFT_TOLERANCE) <= 0) {
+            return null;
+        }
+        BalanceDrift drift = new BalanceDrift();
+        drift.userId = userId;
+        drift.storedBalance = storedBalance;
+        drift.ledgerBalance = expected;
+        drift.difference = difference;
+        return drift;
+    }
+
+    /**
+     * Get a user's ledger balance as of a point in time.
+     * Starts from the newest checkpoint taken at or before asOf and replays only the rows after it.
+     *
+     * @param userId The user ID
+     * @param asOf Point in time to compute the balance for
+     * @return The balance, or null if it could not be computed
+     */
+    public BigDecimal getBalanceAsOf(String userId, Timestamp asOf) {
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (asOf == null) {
+            throw new IllegalArgumentException("asOf cannot be null");
+        }
+
+        String checkpointSql = "SELECT balance, last_history_id FROM balance_checkpoints " +
+                               "WHERE user_id = ? AND last_history_at <= ? " +
+                               "ORDER BY last_history_id DESC LIMIT 1";
+        String replaySql = "SELECT COALESCE(SUM(amount), 0) AS delta FROM balance_history " +
+                           "WHERE user_id = ? AND history_id > ? AND created_at <= ?";
+
+        try {
+            Connection conn = dbConnection.getConnection();
+            BigDecimal base = null;
+            long lastHistoryId = 0;
+
+            try (PreparedStatement stmt = conn.prepareStatement(checkpointSql)) {
+                stmt.setString(1, userId);
+                stmt.setTimestamp(2, asOf);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        base = rs.getBigDecimal("balance");
+                        lastHistoryId = rs.getLong("last_history_id");
+                    }
+                }
+            }
+
+            if (base == null) {
+                base = BigDecimal.ZERO;
+                try (PreparedStatement stmt = conn.prepareStatement(OPENING_BALANCE_SQL)) {
+                    stmt.setString(1, userId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            base = rs.getBigDecimal("balance_before");
+                        }
+                    }
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(replaySql)) {
+                stmt.setString(1, userId);
+                stmt.setLong(2, lastHistoryId);
+                stmt.setTimestamp(3, asOf);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return base.add(rs.getBigDecimal("delta"));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[BalanceCheckpointService] Error getting balance as of " + asOf + ": " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * One user's stored balance and ledger as read by readLedgers.
+     */
+    private static final class Ledger {
+        String userId;
+        BigDecimal storedBalance;
+        BigDecimal checkpointBalance;
+        long checkpointHistoryId;
+        // Only read when there is no checkpoint
+        BigDecimal openingBalance;
+        // Rows after the checkpoint; null delta and 0 lastHistoryId when there are none
+        BigDecimal delta;
+        long lastHistoryId;
+        Timestamp lastHistoryAt;
+    }
+
+    /**
+     * A user whose stored balance differs from the balance replayed from the ledger.
+     */
+    public static class BalanceDrift {
+        public String userId;
+        public BigDecimal storedBalance;
+        public BigDecimal ledgerBalance;
+        public BigDecimal difference;
+    }
+}
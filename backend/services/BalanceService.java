@@ -2,6 +2,9 @@ package services;
 
 import database.DatabaseConnection;
 import models.BalanceHistory;
+import tracing.Span;
+import tracing.Tracer;
+import utils.PageCursor;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -14,6 +17,7 @@ import java.util.List;
 public class BalanceService {
     
     private DatabaseConnection dbConnection;
+    private final BalanceCache balanceCache;
     
     // Transaction type constants
     public static final String TYPE_PAYMENT_RECEIVED = "payment_received";
@@ -25,8 +29,12 @@ public class BalanceService {
     public static final String TYPE_ADJUSTMENT = "adjustment";
     public static final String TYPE_OTHER = "other";
     
+    // Largest page the paged history endpoint will return
+    public static final int MAX_PAGE_SIZE = 200;
+    
     public BalanceService() {
         this.dbConnection = DatabaseConnection.getInstance();
+        this.balanceCache = BalanceCache.getInstance();
     }
     
     /**
@@ -43,77 +51,82 @@ public class BalanceService {
      */
     public boolean addToBalance(String userId, double amount, String transactionType, 
                                 String description, String referenceId, String referenceType) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount must be positive for additions");
-        }
-        
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            conn.setAutoCommit(false); // Start transaction
-            
-            // Get current balance
-            double balanceBefore = getCurrentBalanceInternal(conn, userId);
-            
-            // Calculate new balance
-            double balanceAfter = balanceBefore + amount;
-            
-            // Update user balance
-            String updateSql = "UPDATE users SET balance = ?, updated_at = CURRENT_TIMESTAMP WHERE user_id = ?";
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
-            updateStmt.setDouble(1, balanceAfter);
-            updateStmt.setString(2, userId);
-            
-            int rowsUpdated = updateStmt.executeUpdate();
-            updateStmt.close();
-            
-            if (rowsUpdated == 0) {
-                conn.rollback();
-                return false; // User not found
+        try (Span span = Tracer.span("BalanceService.addToBalance")) {
+            span.tag("type", transactionType);
+            if (userId == null || userId.trim().isEmpty()) {
+                throw new IllegalArgumentException("User ID cannot be null or empty");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount must be positive for additions");
             }
+        
+            Connection conn = null;
+            try {
+                conn = dbConnection.getConnection();
+                conn.setAutoCommit(false); // Start transaction
             
-            // Record in balance history
-            String historySql = "INSERT INTO balance_history " +
-                    "(user_id, amount, balance_before, balance_after, transaction_type, " +
-                    "description, reference_id, reference_type) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+                // Get current balance, locking the user row until commit
+                double balanceBefore = getCurrentBalanceForUpdate(conn, userId);
             
-            PreparedStatement historyStmt = conn.prepareStatement(historySql);
-            historyStmt.setString(1, userId);
-            historyStmt.setDouble(2, amount);
-            historyStmt.setDouble(3, balanceBefore);
-            historyStmt.setDouble(4, balanceAfter);
-            historyStmt.setString(5, transactionType);
-            historyStmt.setString(6, description);
-            historyStmt.setString(7, referenceId);
-            historyStmt.setString(8, referenceType);
+                // Calculate new balance
+                double balanceAfter = balanceBefore + amount;
             
-            historyStmt.executeUpdate();
-            historyStmt.close();
+                // Update user balance
+                String updateSql = "UPDATE users SET balance = ?, updated_at = CURRENT_TIMESTAMP WHERE user_id = ?";
+                PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+                updateStmt.setDouble(1, balanceAfter);
+                updateStmt.setString(2, userId);
             
-            conn.commit();
-            return true;
+                int rowsUpdated = updateStmt.executeUpdate();
+                updateStmt.close();
             
-        } catch (SQLException e) {
-            System.err.println("Error adding to balance: " + e.getMessage());
-            e.printStackTrace();
-            if (conn != null) {
-                try {
+                if (rowsUpdated == 0) {
                     conn.rollback();
-                } catch (SQLException rollbackEx) {
-                    System.err.println("Error rolling back transaction: " + rollbackEx.getMessage());
+                    return false; // User not found
                 }
-            }
-            return false;
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.setAutoCommit(true);
-                } catch (SQLException e) {
-                    System.err.println("Error resetting auto-commit: " + e.getMessage());
+            
+                // Record in balance history
+                String historySql = "INSERT INTO balance_history " +
+                        "(user_id, amount, balance_before, balance_after, transaction_type, " +
+                        "description, reference_id, reference_type) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            
+                PreparedStatement historyStmt = conn.prepareStatement(historySql, Statement.RETURN_GENERATED_KEYS);
+                historyStmt.setString(1, userId);
+                historyStmt.setDouble(2, amount);
+                historyStmt.setDouble(3, balanceBefore);
+                historyStmt.setDouble(4, balanceAfter);
+                historyStmt.setString(5, transactionType);
+                historyStmt.setString(6, description);
+                historyStmt.setString(7, referenceId);
+                historyStmt.setString(8, referenceType);
+            
+                historyStmt.executeUpdate();
+                long historyId = readGeneratedId(historyStmt);
+                historyStmt.close();
+            
+                conn.commit();
+                balanceCache.putIfNewer(userId, balanceAfter, historyId);
+                return true;
+            
+            } catch (SQLException e) {
+                System.err.println("Error adding to balance: " + e.getMessage());
+                e.printStackTrace();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackEx) {
+                        System.err.println("Error rolling back transaction: " + rollbackEx.getMessage());
+                    }
+                }
+                return false;
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(true);
+                    } catch (SQLException e) {
+                        System.err.println("Error resetting auto-commit: " + e.getMessage());
+                    }
                 }
             }
         }
@@ -133,83 +146,88 @@ public class BalanceService {
      */
     public boolean subtractFromBalance(String userId, double amount, String transactionType, 
                                       String description, String referenceId, String referenceType) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount must be positive for subtractions");
-        }
-        
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            conn.setAutoCommit(false); // Start transaction
-            
-            // Get current balance
-            double balanceBefore = getCurrentBalanceInternal(conn, userId);
-            
-            // Check if user has sufficient balance
-            if (balanceBefore < amount) {
-                conn.rollback();
-                throw new IllegalArgumentException("Insufficient balance. Current: " + balanceBefore + ", Required: " + amount);
+        try (Span span = Tracer.span("BalanceService.subtractFromBalance")) {
+            span.tag("type", transactionType);
+            if (userId == null || userId.trim().isEmpty()) {
+                throw new IllegalArgumentException("User ID cannot be null or empty");
             }
-            
-            // Calculate new balance
-            double balanceAfter = balanceBefore - amount;
-            
-            // Update user balance
-            String updateSql = "UPDATE users SET balance = ?, updated_at = CURRENT_TIMESTAMP WHERE user_id = ?";
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
-            updateStmt.setDouble(1, balanceAfter);
-            updateStmt.setString(2, userId);
-            
-            int rowsUpdated = updateStmt.executeUpdate();
-            updateStmt.close();
-            
-            if (rowsUpdated == 0) {
-                conn.rollback();
-                return false; // User not found
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount must be positive for subtractions");
             }
+        
+            Connection conn = null;
+            try {
+                conn = dbConnection.getConnection();
+                conn.setAutoCommit(false); // Start transaction
             
-            // Record in balance history (store as negative amount)
-            String historySql = "INSERT INTO balance_history " +
-                    "(user_id, amount, balance_before, balance_after, transaction_type, " +
-                    "description, reference_id, reference_type) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+                // Get current balance, locking the user row until commit
+                double balanceBefore = getCurrentBalanceForUpdate(conn, userId);
             
-            PreparedStatement historyStmt = conn.prepareStatement(historySql);
-            historyStmt.setString(1, userId);
-            historyStmt.setDouble(2, -amount); // Store as negative
-            historyStmt.setDouble(3, balanceBefore);
-            historyStmt.setDouble(4, balanceAfter);
-            historyStmt.setString(5, transactionType);
-            historyStmt.setString(6, description);
-            historyStmt.setString(7, referenceId);
-            historyStmt.setString(8, referenceType);
+                // Check if user has sufficient balance
+                if (balanceBefore < amount) {
+                    conn.rollback();
+                    throw new IllegalArgumentException("Insufficient balance. Current: " + balanceBefore + ", Required: " + amount);
+                }
             
-            historyStmt.executeUpdate();
-            historyStmt.close();
+                // Calculate new balance
+                double balanceAfter = balanceBefore - amount;
             
-            conn.commit();
-            return true;
+                // Update user balance
+                String updateSql = "UPDATE users SET balance = ?, updated_at = CURRENT_TIMESTAMP WHERE user_id = ?";
+                PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+                updateStmt.setDouble(1, balanceAfter);
+                updateStmt.setString(2, userId);
             
-        } catch (SQLException e) {
-            System.err.println("Error subtracting from balance: " + e.getMessage());
-            e.printStackTrace();
-            if (conn != null) {
-                try {
+                int rowsUpdated = updateStmt.executeUpdate();
+                updateStmt.close();
+            
+                if (rowsUpdated == 0) {
                     conn.rollback();
-                } catch (SQLException rollbackEx) {
-                    System.err.println("Error rolling back transaction: " + rollbackEx.getMessage());
+                    return false; // User not found
                 }
-            }
-            return false;
-        } finally {
-            if (conn != null) {
-                try {
-                    conn.setAutoCommit(true);
-                } catch (SQLException e) {
-                    System.err.println("Error resetting auto-commit: " + e.getMessage());
+            
+                // Record in balance history (store as negative amount)
+                String historySql = "INSERT INTO balance_history " +
+                        "(user_id, amount, balance_before, balance_after, transaction_type, " +
+                        "description, reference_id, reference_type) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            
+                PreparedStatement historyStmt = conn.prepareStatement(historySql, Statement.RETURN_GENERATED_KEYS);
+                historyStmt.setString(1, userId);
+                historyStmt.setDouble(2, -amount); // Store as negative
+                historyStmt.setDouble(3, balanceBefore);
+                historyStmt.setDouble(4, balanceAfter);
+                historyStmt.setString(5, transactionType);
+                historyStmt.setString(6, description);
+                historyStmt.setString(7, referenceId);
+                historyStmt.setString(8, referenceType);
+            
+                historyStmt.executeUpdate();
+                long historyId = readGeneratedId(historyStmt);
+                historyStmt.close();
+            
+                conn.commit();
+                balanceCache.putIfNewer(userId, balanceAfter, historyId);
+                return true;
+            
+            } catch (SQLException e) {
+                System.err.println("Error subtracting from balance: " + e.getMessage());
+                e.printStackTrace();
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackEx) {
+                        System.err.println("Error rolling back transaction: " + rollbackEx.getMessage());
+                    }
+                }
+                return false;
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.setAutoCommit(true);
+                    } catch (SQLException e) {
+                        System.err.println("Error resetting auto-commit: " + e.getMessage());
+                    }
                 }
             }
         }
@@ -217,42 +235,73 @@ public class BalanceService {
     
     /**
      * Get the current balance for a user.
+     * Served from BalanceCache when a fresh snapshot exists; otherwise loaded and cached.
      * 
      * @param userId The user ID
      * @return Current balance, or 0.0 if user not found
      */
     public double getCurrentBalance(String userId) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
+        try (Span span = Tracer.span("BalanceService.getCurrentBalance")) {
+            if (userId == null || userId.trim().isEmpty()) {
+                throw new IllegalArgumentException("User ID cannot be null or empty");
+            }
         
-        try {
-            Connection conn = dbConnection.getConnection();
-            return getCurrentBalanceInternal(conn, userId);
-        } catch (SQLException e) {
-            System.err.println("Error getting current balance: " + e.getMessage());
-            e.printStackTrace();
-            return 0.0;
+            BalanceCache.Snapshot cached = balanceCache.get(userId);
+            span.tag("cacheHit", cached != null);
+            if (cached != null) {
+                return cached.balance;
+            }
+        
+            try {
+                Connection conn = dbConnection.getConnection();
+                return loadBalanceSnapshot(conn, userId);
+            } catch (SQLException e) {
+                System.err.println("Error getting current balance: " + e.getMessage());
+                e.printStackTrace();
+                return 0.0;
+            }
         }
     }
     
     /**
-     * Internal method to get current balance using existing connection.
+     * Load a user's balance together with the id of their newest ledger row and publish it to the cache.
+     * A user that does not exist is not cached.
      */
-    private double getCurrentBalanceInternal(Connection conn, String userId) throws SQLException {
-        String sql = "SELECT balance FROM users WHERE user_id = ?";
-        PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, userId);
-        
-        ResultSet rs = stmt.executeQuery();
-        double balance = 0.0;
-        if (rs.next()) {
-            balance = rs.getDouble("balance");
+    private double loadBalanceSnapshot(Connection conn, String userId) throws SQLException {
+        String sql = "SELECT u.balance, " +
+                     "(SELECT COALESCE(MAX(h.history_id), 0) FROM balance_history h WHERE h.user_id = u.user_id) AS version " +
+                     "FROM users u WHERE u.user_id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return 0.0;
+                }
+                double balance = rs.getDouble("balance");
+                balanceCache.putIfNewer(userId, balance, rs.getLong("version"));
+                return balance;
+            }
+        }
+    }
+    
+    /**
+     * Read the balance inside a write transaction, locking the user row so concurrent
+     * writers apply their changes one after another.
+     */
+    private double getCurrentBalanceForUpdate(Connection conn, String userId) throws SQLException {
+        String sql = "SELECT balance FROM users WHERE user_id = ? FOR UPDATE";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getDouble("balance") : 0.0;
+            }
+        }
+    }
+    
+    private static long readGeneratedId(PreparedStatement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            return keys.next() ? keys.getLong(1) : 0L;
         }
-        rs.close();
-        stmt.close();
-        
-        return balance;
     }
     
     /**
@@ -289,19 +338,7 @@ public class BalanceService {
             ResultSet rs = stmt.executeQuery();
             
             while (rs.next()) {
-                BalanceHistory record = new BalanceHistory(
-                    rs.getInt("history_id"),
-                    rs.getString("user_id"),
-                    rs.getDouble("amount"),
-                    rs.getDouble("balance_before"),
-                    rs.getDouble("balance_after"),
-                    rs.getString("transaction_type"),
-                    rs.getString("description"),
-                    rs.getString("reference_id"),
-                    rs.getString("reference_type"),
-                    rs.getTimestamp("created_at")
-                );
-                history.add(record);
+                history.add(mapResultSetToBalanceHistory(rs));
             }
             
             rs.close();
@@ -356,19 +393,7 @@ public class BalanceService {
             ResultSet rs = stmt.executeQuery();
             
             while (rs.next()) {
-                BalanceHistory record = new BalanceHistory(
-                    rs.getInt("history_id"),
-                    rs.getString("user_id"),
-                    rs.getDouble("amount"),
-                    rs.getDouble("balance_before"),
-                    rs.getDouble("balance_after"),
-                    rs.getString("transaction_type"),
-                    rs.getString("description"),
-                    rs.getString("reference_id"),
-                    rs.getString("reference_type"),
-                    rs.getTimestamp("created_at")
-                );
-                history.add(record);
+                history.add(mapResultSetToBalanceHistory(rs));
             }
             
             rs.close();
@@ -381,5 +406,233 @@ public class BalanceService {
         
         return history;
     }
-}
 
+    /**
+     * Get one page of balance history, newest first, using keyset paging on (created_at, history_id).
+     * Unlike OFFSET paging, each page costs the same no matter how deep the user scrolls.
+     * 
+     * @param userId The user ID
+     * @param transactionType Optional transaction type filter (null for all types)
+     * @param cursor Opaque cursor from the previous page's nextCursor (null for the first page)
+     * @param pageSize Number of records per page (1-200)
+     * @return The page of records and the cursor for the next page
+     * @throws IllegalArgumentException if userId is empty, the cursor is malformed or pageSize is out of range
+     */
+    public BalanceHistoryPage getBalanceHistoryPage(String userId, String transactionType, String cursor, int pageSize) {
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        
+        PageCursor after = PageCursor.parse(cursor);
+        
+        boolean filterByType = transactionType != null && !transactionType.trim().isEmpty();
+        StringBuilder sql = new StringBuilder(
+            "SELECT history_id, user_id, amount, balance_before, balance_after, " +
+            "transaction_type, description, reference_id, reference_type, created_at " +
+            "FROM balance_history WHERE user_id = ?");
+        if (filterByType) {
+            sql.append(" AND transaction_type = ?");
+        }
+        if (after != null) {
+            sql.append(" AND (created_at < ? OR (created_at = ? AND history_id < ?))");
+        }
+        // Fetch one extra row to learn whether another page exists
+        sql.append(" ORDER BY created_at DESC, history_id DESC LIMIT ?");
+        
+        BalanceHistoryPage page = new BalanceHistoryPage();
+        try {
+            Connection conn = dbConnection.getConnection();
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                stmt.setString(index++, userId);
+                if (filterByType) {
+                    stmt.setString(index++, transactionType);
+                }
+                if (after != null) {
+                    stmt.setTimestamp(index++, after.createdAt);
+                    stmt.setTimestamp(index++, after.createdAt);
+                    stmt.setInt(index++, after.id);
+                }
+                stmt.setInt(index, pageSize + 1);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        page.records.add(mapResultSetToBalanceHistory(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting balance history page: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        if (page.records.size() > pageSize) {
+            page.records.remove(page.records.size() - 1);
+            BalanceHistory last = page.records.get(page.records.size() - 1);
+            page.nextCursor = PageCursor.encode(last.getCreatedAt(), last.getHistoryId());
+        }
+        return page;
+    }
+    
+    /**
+     * Get net money flow per day or per month, aggregated in SQL.
+     * 
+     * @param userId The user ID
+     * @param period "day" or "month"
+     * @param from Optional inclusive start date (null for no lower bound)
+     * @param to Optional inclusive end date (null for no upper bound)
+     * @return One summary per period that has activity, oldest first
+     * @throws IllegalArgumentException if userId is empty or period is not "day" or "month"
+     */
+    public List<PeriodSummary> getNetFlowByPeriod(String userId, String period, java.sql.Date from, java.sql.Date to) {
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        String format;
+        if ("day".equals(period)) {
+            format = "%Y-%m-%d";
+        } else if ("month".equals(period)) {
+            format = "%Y-%m";
+        } else {
+            throw new IllegalArgumentException("Period must be 'day' or 'month'");
+        }
+        
+        String sql = "SELECT DATE_FORMAT(created_at, '" + format + "') AS period, " +
+                     "COALESCE(SUM(CASE WHEN amount > 0 THEN amount ELSE 0 END), 0) AS credits, " +
+                     "COALESCE(SUM(CASE WHEN amount < 0 THEN -amount ELSE 0 END), 0) AS debits, " +
+                     "COALESCE(SUM(amount), 0) AS net, COUNT(*) AS entry_count " +
+                     "FROM balance_history WHERE user_id = ?" + dateRangeClause(from, to) +
+                     " GROUP BY period ORDER BY period";
+        
+        List<PeriodSummary> summaries = new ArrayList<>();
+        try {
+            Connection conn = dbConnection.getConnection();
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                bindUserAndDateRange(stmt, userId, from, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        PeriodSummary summary = new PeriodSummary();
+                        summary.period = rs.getString("period");
+                        summary.credits = rs.getBigDecimal("credits");
+                        summary.debits = rs.getBigDecimal("debits");
+                        summary.net = rs.getBigDecimal("net");
+                        summary.count = rs.getInt("entry_count");
+                        summaries.add(summary);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting balance net flow: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return summaries;
+    }
+    
+    /**
+     * Get the total amount and entry count per transaction type, aggregated in SQL.
+     * 
+     * @param userId The user ID
+     * @param from Optional inclusive start date (null for no lower bound)
+     * @param to Optional inclusive end date (null for no upper bound)
+     * @return One total per transaction type that has activity
+     */
+    public List<TypeTotal> getTotalsByType(String userId, java.sql.Date from, java.sql.Date to) {
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        
+        String sql = "SELECT transaction_type, COALESCE(SUM(amount), 0) AS total, COUNT(*) AS entry_count " +
+                     "FROM balance_history WHERE user_id = ?" + dateRangeClause(from, to) +
+                     " GROUP BY transaction_type ORDER BY transaction_type";
+        
+        List<TypeTotal> totals = new ArrayList<>();
+        try {
+            Connection conn = dbConnection.getConnection();
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                bindUserAndDateRange(stmt, userId, from, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        TypeTotal total = new TypeTotal();
+                        total.transactionType = rs.getString("transaction_type");
+                        total.total = rs.getBigDecimal("total");
+                        total.count = rs.getInt("entry_count");
+                        totals.add(total);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting balance totals by type: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return totals;
+    }
+    
+    private static String dateRangeClause(java.sql.Date from, java.sql.Date to) {
+        StringBuilder clause = new StringBuilder();
+        if (from != null) {
+            clause.append(" AND created_at >= ?");
+        }
+        if (to != null) {
+            clause.append(" AND created_at < DATE_ADD(?, INTERVAL 1 DAY)");
+        }
+        return clause.toString();
+    }
+    
+    private static void bindUserAndDateRange(PreparedStatement stmt, String userId,
+                                             java.sql.Date from, java.sql.Date to) throws SQLException {
+        int index = 1;
+        stmt.setString(index++, userId);
+        if (from != null) {
+            stmt.setDate(index++, from);
+        }
+        if (to != null) {
+            stmt.setDate(index, to);
+        }
+    }
+    
+    private BalanceHistory mapResultSetToBalanceHistory(ResultSet rs) throws SQLException {
+        return new BalanceHistory(
+            rs.getInt("history_id"),
+            rs.getString("user_id"),
+            rs.getDouble("amount"),
+            rs.getDouble("balance_before"),
+            rs.getDouble("balance_after"),
+            rs.getString("transaction_type"),
+            rs.getString("description"),
+            rs.getString("reference_id"),
+            rs.getString("reference_type"),
+            rs.getTimestamp("created_at")
+        );
+    }
+    
+    /**
+     * One page of balance history. nextCursor is null on the last page.
+     */
+    public static class BalanceHistoryPage {
+        public List<BalanceHistory> records = new ArrayList<>();
+        public String nextCursor;
+    }
+    
+    /**
+     * Money in, money out and net flow for one day or month.
+     */
+    public static class PeriodSummary {
+        public String period;
+        public java.math.BigDecimal credits;
+        public java.math.BigDecimal debits;
+        public java.math.BigDecimal net;
+        public int count;
+    }
+    
+    /**
+     * Net total and entry count for one transaction type.
+     */
+    public static class TypeTotal {
+        public String transactionType;
+        public java.math.BigDecimal total;
+        public int count;
+    }
+}
@@ -0,0 +1,73 @@
+package services;
+
+import utils.Settings;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Decodes uploaded images without trusting their size. The dimensions are read from the header
+ * first, and an image over IMAGE_MAX_PIXELS (default 50 million, more than any phone camera)
+ * is refused before a single pixel is decoded, so a small decompression bomb cannot exhaust
+ * the heap. Other images are decoded with source subsampling, so a 12 MP photo bound for a
+ * small output is never held at full resolution.
+ */
+final class ImageDecoder {
+
+    private static final long MAX_PIXELS = Settings.getLong("IMAGE_MAX_PIXELS", 50_000_000L);
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decode an image at roughly the size it is needed at.
+     *
+     * @param source The image file
+     * @param targetDimension Long side the caller will scale to; the decoded image is at least
+     *                        this large unless the original is smaller
+     * @return The decoded image, or null if ImageIO has no reader for the format
+     * @throws IOException If the file cannot be read or its dimensions are over the limit
+     */
+    static BufferedImage read(Path source, int targetDimension) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    throw new IOException("Image is " + width + "x" + height + ", over the " + MAX_PIXELS + " pixel limit");
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = subsampling(width, height, targetDimension);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Largest whole subsampling step that keeps the long side at or above targetDimension;
+     * the caller's filtered scaling does the rest.
+     */
+    static int subsampling(int width, int height, int targetDimension) {
+        return Math.max(1, Math.max(width, height) / Math.max(1, targetDimension));
+    }
+}
@@ -0,0 +1,249 @@
+package services;
+
+import database.DatabaseConnection;
+import database.NotificationOutboxDAO;
+import database.NotificationOutboxDAO.OutboxEntry;
+import database.ReceiptDAO;
+import metrics.MetricsRegistry;
+import models.Receipt;
+import patterns.FriendObserver;
+import utils.Settings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background dispatcher for the receipt notification outbox.
+ * Claims pending outbox rows in batches, inserts all participants for a receipt in one
+ * transaction, then notifies the recipients through the observer pattern.
+ * Failed batches are retried with exponential backoff by NotificationOutboxDAO.
+ * All outbox work runs on the dispatcher thread over a connection of its own, opened on
+ * first use and reopened after an error, so its transactions never touch the shared one.
+ *
+ * Tunables (System property, then environment variable):
+ *   NOTIFY_BATCH_SIZE (default 200), NOTIFY_POLL_MS (default 1000), NOTIFY_MAX_ATTEMPTS (default 8)
+ */
+public class NotificationDispatcher {
+
+    private static NotificationDispatcher instance;
+
+    private static final int BASE_BACKOFF_SECONDS = 2;
+    private static final int MAX_BACKOFF_SECONDS = 600;
+
+    private final NotificationOutboxDAO outboxDAO;
+    private final ReceiptDAO receiptDAO;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final int maxAttempts;
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    // Only used on the scheduler thread
+    private Connection connection;
+
+    // Lag and throughput metrics
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong lastDeliveryLagMs = new AtomicLong();
+    private final AtomicLong maxDeliveryLagMs = new AtomicLong();
+
+    private NotificationDispatcher() {
+        this.outboxDAO = new NotificationOutboxDAO();
+        this.receiptDAO = new ReceiptDAO();
+        this.batchSize = Settings.getInt("NOTIFY_BATCH_SIZE", 200);
+        this.pollIntervalMs = Settings.getInt("NOTIFY_POLL_MS", 1000);
+        this.maxAttempts = Settings.getInt("NOTIFY_MAX_ATTEMPTS", 8);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notification-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counterFunction("notification_delivered_total", "Receipt notifications delivered from the outbox",
+            deliveredCount::get);
+        metrics.counterFunction("notification_failed_total", "Outbox deliveries that failed and were rescheduled",
+            failedCount::get);
+        metrics.gauge("notification_last_delivery_lag_seconds", "Enqueue-to-delivery lag of the last delivered batch",
+            () -> lastDeliveryLagMs.get() / 1000.0);
+    }
+
+    public static synchronized NotificationDispatcher getInstance() {
+        if (instance == null) {
+            instance = new NotificationDispatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * Start polling the outbox. Rows left in 'processing' by a previous run are requeued first.
+     * Calling start more than once has no effect.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.execute(() -> {
+            try {
+                int requeued = outboxDAO.requeueStuck(connection());
+                if (requeued > 0) {
+                    System.out.println("[NotificationDispatcher] Requeued " + requeued + " outbox entries left in processing");
+                }
+            } catch (SQLException e) {
+                System.err.println("[NotificationDispatcher] Error opening outbox connection: " + e.getMessage());
+                closeConnection();
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::drain, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("[NotificationDispatcher] Started (batchSize=" + batchSize +
+                           ", pollMs=" + pollIntervalMs + ", maxAttempts=" + maxAttempts + ")");
+    }
+
+    /**
+     * Ask the dispatcher to drain the outbox now instead of waiting for the next poll.
+     * Called after new entries are enqueued so small shares are delivered promptly.
+     */
+    public void wakeUp() {
+        if (started.get()) {
+            scheduler.execute(this::drain);
+        }
+    }
+
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    /**
+     * Deliver batches until the outbox has nothing due.
+     */
+    private void drain() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (true) {
+                Connection conn = connection();
+                List<OutboxEntry> batch = outboxDAO.claimBatch(conn, batchSize);
+                if (batch.isEmpty()) {
+                    return;
+                }
+                batchCount.incrementAndGet();
+                dispatchBatch(conn, batch);
+                if (batch.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[NotificationDispatcher] Error claiming outbox batch: " + e.getMessage());
+            closeConnection();
+        } catch (RuntimeException e) {
+            System.err.println("[NotificationDispatcher] Unexpected error while draining outbox: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = DatabaseConnection.getInstance().openConnection();
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Already broken; a new one is opened on the next poll
+            }
+            connection = null;
+        }
+    }
+
+    private void dispatchBatch(Connection conn, List<OutboxEntry> batch) {
+        Map<Integer, List<OutboxEntry>> byReceipt = new LinkedHashMap<>();
+        for (OutboxEntry entry : batch) {
+            byReceipt.computeIfAbsent(entry.receiptId, k -> new ArrayList<>()).add(entry);
+        }
+
+        for (Map.Entry<Integer, List<OutboxEntry>> group : byReceipt.entrySet()) {
+            int receiptId = group.getKey();
+            List<OutboxEntry> entries = group.getValue();
+            try {
+                outboxDAO.deliver(conn, receiptId, entries);
+            } catch (SQLException e) {
+                System.err.println("[NotificationDispatcher] Delivery failed for receipt " + receiptId +
+                                   " (" + entries.size() + " recipients): " + e.getMessage());
+                failedCount.addAndGet(entries.size());
+                outboxDAO.markFailed(conn, entries, e.getMessage(), maxAttempts, BASE_BACKOFF_SECONDS, MAX_BACKOFF_SECONDS);
+                continue;
+            }
+
+            deliveredCount.addAndGet(entries.size());
+            recordLag(entries);
+            notifyRecipients(receiptId, entries);
+        }
+    }
+
+    /**
+     * Notify recipients once their participant rows are committed.
+     * The receipt is loaded once per group rather than once per recipient.
+     */
+    private void notifyRecipients(int receiptId, List<OutboxEntry> entries) {
+        Receipt receipt = receiptDAO.getReceiptById(receiptId);
+        if (receipt == null) {
+            return;
+        }
+        for (OutboxEntry entry : entries) {
+            try {
+                receipt.addFriendObserver(new FriendObserver(Integer.parseInt(entry.recipientId)));
+            } catch (NumberFormatException e) {
+                // FriendObserver only knows numeric IDs; for UUID users the pending receipt is the notification
+            }
+        }
+        receipt.notifyFriends(entries.get(0).message);
+    }
+
+    private void recordLag(List<OutboxEntry> entries) {
+        long now = System.currentTimeMillis();
+        for (OutboxEntry entry : entries) {
+            if (entry.createdAt == null) {
+                continue;
+            }
+            long lag = Math.max(0, now - entry.createdAt.getTime());
+            lastDeliveryLagMs.set(lag);
+            maxDeliveryLagMs.accumulateAndGet(lag, Math::max);
+        }
+    }
+
+    /**
+     * Snapshot of dispatcher metrics: counters kept in memory plus the current outbox backlog.
+     *
+     * @return Map of metric name to value
+     */
+    public Map<String, Long> getMetrics() {
+        long[] backlog = outboxDAO.getBacklog();
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("delivered", deliveredCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("batches", batchCount.get());
+        metrics.put("lastDeliveryLagMs", lastDeliveryLagMs.get());
+        metrics.put("maxDeliveryLagMs", maxDeliveryLagMs.get());
+        metrics.put("pending", backlog[0]);
+        metrics.put("oldestPendingAgeSeconds", backlog[1]);
+        return metrics;
+    }
+}
@@ -0,0 +1,347 @@
+package services;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import utils.Settings;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control in front of the receipt parser, so one client retrying in a loop cannot
+ * take every parser slot. Admitted parses run on PARSE_MAX_CONCURRENT threads of their own,
+ * so a parse never holds an HTTP engine's request thread, and a parse waiting for a slot
+ * holds no thread at all.
+ *
+ * A request passes two gates:
+ * - a token bucket per client: PARSE_RATE_BURST (default 5) parses at once, refilled at
+ *   PARSE_RATE_PER_MINUTE (default 10). Buckets that have refilled completely are
+ *   indistinguishable from new ones, so the sweep drops them to keep the map small.
+ * - PARSE_MAX_CONCURRENT (default 4) parses run at a time. Others wait in a queue per client
+ *   and free slots go to the clients in turn, so a client with many queued parses cannot
+ *   starve one with a single parse. At most PARSE_MAX_QUEUED_PER_CLIENT (default 2) and
+ *   PARSE_MAX_QUEUED (default 32) requests wait, for at most PARSE_QUEUE_TIMEOUT_MS
+ *   (default 30000). A request turned away by the queue, full or timed out, gets its
+ *   token back.
+ *
+ * A refused request should be answered with 429 and Retry-After.
+ */
+public class ParseAdmission {
+
+    private static ParseAdmission instance;
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long QUEUE_RETRY_AFTER_SECONDS = 1;
+
+    private final double burst;
+    private final double tokensPerNano;
+    private final int maxConcurrent;
+    private final int maxQueuedPerClient;
+    private final int maxQueued;
+    private final long queueTimeoutMillis;
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private volatile long lastSweepNanos = System.nanoTime();
+
+    // Guards running, queued, queues and Waiter.done
+    private final Object lock = new Object();
+    private int running;
+    private int queued;
+    // Insertion order is the round-robin order: a client that was just served moves to the back
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+
+    private final ExecutorService executor;
+    // Expires waiters; a cancelled timeout is dropped at once instead of when it would have fired
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final Counter rateLimited;
+    private final Counter queueFull;
+    private final Counter timedOut;
+    private final LatencyHistogram queueWait;
+
+    /**
+     * Create a standalone admission controller. Production code should use getInstance().
+     *
+     * @param burst Parses a client may start back to back
+     * @param perMinute Parses a client may start per minute once the burst is spent
+     * @param maxConcurrent Parses running at once across all clients, and threads running them
+     * @param maxQueuedPerClient Parses one client may have waiting
+     * @param maxQueued Parses waiting across all clients
+     * @param queueTimeoutMillis Longest a parse waits for a slot
+     */
+    public ParseAdmission(int burst, int perMinute, int maxConcurrent, int maxQueuedPerClient, int maxQueued,
+                          long queueTimeoutMillis) {
+        this.burst = burst;
+        this.tokensPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueuedPerClient = maxQueuedPerClient;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+
+        AtomicInteger workerIds = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrent, runnable -> {
+            Thread thread = new Thread(runnable, "parse-worker-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "parse-queue-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        rateLimited = rejectedCounter("rate");
+        queueFull = rejectedCounter("queue_full");
+        timedOut = rejectedCounter("timeout");
+        queueWait = metrics.histogram("parse_queue_wait_seconds", "Time parse requests waited for a parser slot");
+        metrics.gauge("parse_in_flight", "Receipt parses running", this::getRunning);
+        metrics.gauge("parse_queued", "Receipt parses waiting for a slot", this::getQueued);
+        metrics.gauge("parse_rate_buckets", "Clients with a partly used parse rate budget", buckets::size);
+    }
+
+    public static synchronized ParseAdmission getInstance() {
+        if (instance == null) {
+            instance = new ParseAdmission(
+                Settings.getInt("PARSE_RATE_BURST", 5),
+                Settings.getInt("PARSE_RATE_PER_MINUTE", 10),
+                Settings.getInt("PARSE_MAX_CONCURRENT", 4),
+                Settings.getInt("PARSE_MAX_QUEUED_PER_CLIENT", 2),
+                Settings.getInt("PARSE_MAX_QUEUED", 32),
+                Settings.getInt("PARSE_QUEUE_TIMEOUT_MS", 30000));
+        }
+        return instance;
+    }
+
+    /**
+     * Run a parse for a client: at once if a slot is free, otherwise when the fair queue
+     * reaches it. Never blocks the caller. Exactly one of the job's methods is called:
+     * run() on a parse thread holding a slot, or refuse() on the calling thread (over the
+     * rate, or the queue is full) or on the timeout thread (waited too long).
+     *
+     * @param client Key the rate limit and queue are kept per, e.g. a client address
+     */
+    public void submit(String client, Job job) {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        TokenBucket bucket = buckets.computeIfAbsent(client, key -> new TokenBucket(burst, now));
+        long waitNanos = bucket.take(now, burst, tokensPerNano);
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            job.refuse(retryAfterSeconds(waitNanos));
+            return;
+        }
+
+        synchronized (lock) {
+            if (running < maxConcurrent && queued == 0) {
+                running++;
+            } else {
+                ArrayDeque<Waiter> queue = queues.get(client);
+                if (queued >= maxQueued || (queue != null && queue.size() >= maxQueuedPerClient)) {
+                    bucket.refund(burst);
+                    queueFull.increment();
+                    waitNanos = -1;
+                } else {
+                    if (queue == null) {
+                        queue = new ArrayDeque<>();
+                        queues.put(client, queue);
+                    }
+                    Waiter waiter = new Waiter(client, job, bucket, now);
+                    queue.add(waiter);
+                    queued++;
+                    waiter.timeout = timer.schedule(() -> expire(waiter), queueTimeoutMillis, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+        }
+        if (waitNanos < 0) {
+            job.refuse(QUEUE_RETRY_AFTER_SECONDS);
+        } else {
+            start(job);
+        }
+    }
+
+    /**
+     * Run an admitted job on the executor; its slot is freed when it returns.
+     */
+    private void start(Job job) {
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            job.refuse(QUEUE_RETRY_AFTER_SECONDS);
+        }
+    }
+
+    private void release() {
+        Waiter next = null;
+        synchronized (lock) {
+            running--;
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> clients = queues.entrySet().iterator();
+            if (clients.hasNext()) {
+                Map.Entry<String, ArrayDeque<Waiter>> entry = clients.next();
+                next = entry.getValue().poll();
+                clients.remove();
+                if (!entry.getValue().isEmpty()) {
+                    queues.put(entry.getKey(), entry.getValue());
+                }
+                queued--;
+                running++;
+                next.done = true;
+            }
+        }
+        if (next != null) {
+            next.timeout.cancel(false);
+            queueWait.recordSince(next.enqueuedNanos);
+            start(next.job);
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (lock) {
+            if (waiter.done) {
+                return;
+            }
+            waiter.done = true;
+            ArrayDeque<Waiter> queue = queues.get(waiter.client);
+            if (queue != null && queue.remove(waiter)) {
+                queued--;
+                if (queue.isEmpty()) {
+                    queues.remove(waiter.client);
+                }
+            }
+        }
+        waiter.bucket.refund(burst);
+        timedOut.increment();
+        waiter.job.refuse(QUEUE_RETRY_AFTER_SECONDS);
+    }
+
+    public int getRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    public int getQueued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    private void sweepIfDue(long now) {
+        if (now - lastSweepNanos < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        lastSweepNanos = now;
+        buckets.entrySet().removeIf(entry -> entry.getValue().isFull(now, burst, tokensPerNano));
+    }
+
+    /**
+     * Whole seconds until a token is available; at least 1.
+     */
+    private static long retryAfterSeconds(long waitNanos) {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        return Math.max(1, (waitNanos + second - 1) / second);
+    }
+
+    private static Counter rejectedCounter(String reason) {
+        return MetricsRegistry.getInstance().counter("parse_admission_rejected_total",
+            "Parse requests refused with 429", "reason", reason);
+    }
+
+    /**
+     * A parse handed to submit().
+     */
+    public interface Job {
+
+        /**
+         * Do the parse. Runs on a parse thread; the slot is freed when this returns.
+         */
+        void run();
+
+        /**
+         * The parse was not admitted.
+         *
+         * @param retryAfterSeconds Whole seconds the client should wait before retrying; at least 1
+         */
+        void refuse(long retryAfterSeconds);
+    }
+
+    private static final class Waiter {
+        final String client;
+        final Job job;
+        final TokenBucket bucket;
+        final long enqueuedNanos;
+        ScheduledFuture<?> timeout;
+        // Granted a slot or expired; written and read under lock
+        boolean done;
+
+        Waiter(String client, Job job, TokenBucket bucket, long enqueuedNanos) {
+            this.client = client;
+            this.job = job;
+            this.bucket = bucket;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    /**
+     * Tokens and the time they were last topped up; two fields per client.
+     */
+    private static final class TokenBucket {
+        private double tokens;
+        private long updatedNanos;
+
+        TokenBucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.updatedNanos = now;
+        }
+
+        /**
+         * Take one token.
+         *
+         * @return 0 if taken, otherwise how long until one is available
+         */
+        synchronized long take(long now, double burst, double tokensPerNano) {
+            refill(now, burst, tokensPerNano);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        synchronized void refund(double burst) {
+            tokens = Math.min(burst, tokens + 1);
+        }
+
+        synchronized boolean isFull(long now, double burst, double tokensPerNano) {
+            refill(now, burst, tokensPerNano);
+            return tokens >= burst;
+        }
+
+        private void refill(long now, double burst, double tokensPerNano) {
+            if (now > updatedNanos) {
+                tokens = Math.min(burst, tokens + (now - updatedNanos) * tokensPerNano);
+                updatedNanos = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package services;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import utils.Settings;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shrinks receipt photos before they go to the parser. Phones upload 3-12 MB photos, which
+ * the parser used to re-encode, crop and base64-encode in a cold Python process; doing it
+ * here means the parser gets a small grayscale JPEG and sends it as-is.
+ *
+ * Each image is downscaled so its long side is at most RECEIPT_PREPROCESS_MAX_DIMENSION
+ * (default 2048, which the vision model downsamples to anyway), converted to grayscale,
+ * cropped to the area that is not near-white paper margin, and re-encoded at
+ * RECEIPT_PREPROCESS_QUALITY (default 85, in percent).
+ *
+ * Work runs on RECEIPT_PREPROCESS_THREADS (default half the cores) so a burst of uploads
+ * cannot take every CPU from request handling. Images are decoded through ImageDecoder, which
+ * refuses oversized ones and subsamples large photos while decoding. Images ImageIO cannot
+ * read (HEIC, WebP), oversized ones, a full queue or a slow run fall back to sending the
+ * original to the parser.
+ */
+public class ReceiptImagePreprocessor {
+
+    private static ReceiptImagePreprocessor instance;
+
+    // Same threshold the parser used: lighter pixels are background
+    private static final int BACKGROUND_LEVEL = 240;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final int maxDimension;
+    private final float quality;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram duration;
+    private final Counter inputBytes;
+    private final Counter outputBytes;
+    private final Counter skipped;
+
+    /**
+     * Create a standalone preprocessor. Production code should use getInstance().
+     *
+     * @param maxDimension Longest side of the output in pixels
+     * @param quality JPEG quality between 0 and 1
+     * @param threads Worker threads
+     */
+    public ReceiptImagePreprocessor(int maxDimension, float quality, int threads) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * 4), r -> {
+                Thread t = new Thread(r, "receipt-preprocess-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        duration = metrics.histogram("receipt_preprocess_duration_seconds", "Receipt image pre-processing time");
+        inputBytes = metrics.counter("receipt_preprocess_bytes_total", "Receipt image bytes before and after pre-processing",
+            "stage", "in");
+        outputBytes = metrics.counter("receipt_preprocess_bytes_total", "Receipt image bytes before and after pre-processing",
+            "stage", "out");
+        skipped = metrics.counter("receipt_preprocess_skipped_total",
+            "Receipt images sent to the parser unprocessed");
+    }
+
+    public static synchronized ReceiptImagePreprocessor getInstance() {
+        if (instance == null) {
+            instance = new ReceiptImagePreprocessor(
+                Settings.getInt("RECEIPT_PREPROCESS_MAX_DIMENSION", 2048, 64, 16384),
+                Settings.getInt("RECEIPT_PREPROCESS_QUALITY", 85, 1, 100) / 100f,
+                Settings.getInt("RECEIPT_PREPROCESS_THREADS",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1, 256));
+        }
+        return instance;
+    }
+
+    /**
+     * Pre-process an uploaded image on the worker pool, waiting for the result.
+     *
+     * @param source The uploaded image
+     * @return A temporary JPEG the caller must delete, or null to send the original instead
+     */
+    public Path preprocess(Path source) {
+        Future<Path> result;
+        try {
+            result = executor.submit(() -> process(source));
+        } catch (RejectedExecutionException e) {
+            skipped.increment();
+            return null;
+        }
+        try {
+            Path output = result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (output == null) {
+                skipped.increment();
+            }
+            return output;
+        } catch (TimeoutException e) {
+            // The worker is interrupted; the parser gets the original instead
+            result.cancel(true);
+            System.err.println("[ReceiptImagePreprocessor] Timed out on " + source);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel(true);
+        } catch (ExecutionException e) {
+            System.err.println("[ReceiptImagePreprocessor] Failed on " + source + ": " + e.getCause());
+        }
+        skipped.increment();
+        return null;
+    }
+
+    /**
+     * Pre-process on the calling thread.
+     *
+     * @return A JPEG written next to the source, or null if the source is not an image ImageIO reads
+     * @throws IOException If the source cannot be read or is over the pixel limit
+     */
+    Path process(Path source) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = ImageDecoder.read(source, maxDimension);
+        if (image == null) {
+            return null;
+        }
+        BufferedImage processed = cropToContent(toGrayscale(image, maxDimension));
+        Path output = source.resolveSibling(source.getFileName() + ".pre.jpg");
+        try {
+            writeJpeg(processed, output, quality);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        inputBytes.add(Files.size(source));
+        outputBytes.add(Files.size(output));
+        duration.recordSince(start);
+        return output;
+    }
+
+    /**
+     * Downscale so the long side is at most maxDimension, drawing into a grayscale image.
+     * Transparent areas become white, i.e. background.
+     */
+    static BufferedImage toGrayscale(BufferedImage image, int maxDimension) {
+        double factor = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return gray;
+    }
+
+    /**
+     * Crop a grayscale image to the bounding box of its non-background pixels. An image that
+     * is all background is returned unchanged.
+     */
+    static BufferedImage cropToContent(BufferedImage gray) {
+        Raster raster = gray.getRaster();
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        int[] row = new int[width];
+        int top = -1;
+        int bottom = -1;
+        int left = width;
+        int right = -1;
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            int first = -1;
+            int last = -1;
+            for (int x = 0; x < width; x++) {
+                if (row[x] <= BACKGROUND_LEVEL) {
+                    if (first < 0) {
+                        first = x;
+                    }
+                    last = x;
+                }
+            }
+            if (first >= 0) {
+                if (top < 0) {
+                    top = y;
+                }
+                bottom = y;
+                left = Math.min(left, first);
+                right = Math.max(right, last);
+            }
+        }
+        if (top < 0 || (left == 0 && top == 0 && right == width - 1 && bottom == height - 1)) {
+            return gray;
+        }
+        return gray.getSubimage(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
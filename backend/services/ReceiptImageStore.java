@@ -0,0 +1,214 @@
+package services;
+
+import utils.Settings;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed storage for uploaded receipt images. Each image is stored once under the
+ * hex SHA-256 of its bytes plus an extension sniffed from its magic number, so a name always
+ * refers to the same bytes: the name itself is a strong ETag and responses can be cached
+ * for a year without revalidation.
+ *
+ * Thumbnails made by ThumbnailService live next to their original as <hash>_thumb.jpg, so
+ * they are content-addressed the same way.
+ *
+ * The directory comes from RECEIPT_IMAGE_DIR (default receipts/images).
+ */
+public class ReceiptImageStore {
+
+    private static final Pattern NAME = Pattern.compile("[0-9a-f]{64}(_thumb)?\\.(jpg|png|webp|heic)");
+    private static final String URL_PREFIX = "/api/receipts/image?name=";
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+    private static final String[] EXTENSIONS = {"jpg", "png", "webp", "heic"};
+    private static ReceiptImageStore instance;
+
+    private final Path dir;
+
+    /**
+     * Create a store over a directory. Production code should use getInstance().
+     *
+     * @param dir Directory holding the images; created on first write
+     */
+    public ReceiptImageStore(Path dir) {
+        this.dir = dir;
+    }
+
+    public static synchronized ReceiptImageStore getInstance() {
+        if (instance == null) {
+            instance = new ReceiptImageStore(Paths.get(Settings.get("RECEIPT_IMAGE_DIR", "receipts/images")));
+        }
+        return instance;
+    }
+
+    /**
+     * Move an uploaded file into the store under its content name. If the same image is
+     * already stored the upload is simply deleted.
+     *
+     * @param source Uploaded file, on the same file system as the store
+     * @param data The file's bytes, already in memory from the upload
+     * @return The stored name, or null if the file could not be stored
+     */
+    public String adopt(Path source, byte[] data) {
+        String name = nameFor(data);
+        Path target = dir.resolve(name);
+        try {
+            Files.createDirectories(dir);
+            if (Files.exists(target)) {
+                Files.deleteIfExists(source);
+                return name;
+            }
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target);
+            }
+            return name;
+        } catch (FileAlreadyExistsException e) {
+            // Stored concurrently by an identical upload
+            try {
+                Files.deleteIfExists(source);
+            } catch (IOException ignored) {
+                // Only a stray temp file left behind
+            }
+            return name;
+        } catch (IOException e) {
+            System.err.println("[ReceiptImageStore] Failed to store " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Path of a stored image.
+     *
+     * @param name Name as returned by adopt()
+     * @return The path, or null if the name is not a valid image name or nothing is stored under it
+     */
+    public Path resolve(String name) {
+        if (!isValidName(name)) {
+            return null;
+        }
+        Path path = dir.resolve(name);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * Path where an image is, or will be, stored. Does not check that it exists.
+     */
+    public Path pathFor(String name) {
+        return isValidName(name) ? dir.resolve(name) : null;
+    }
+
+    /**
+     * Whether a name has the form adopt() produces. Rejects anything that could escape the directory.
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    /**
+     * Strong ETag for a stored image; the content hash is already in its name.
+     */
+    public static String etag(String name) {
+        return "\"" + name.substring(0, name.indexOf('.')) + "\"";
+    }
+
+    public static String contentType(String name) {
+        switch (name.substring(name.indexOf('.') + 1)) {
+            case "png": return "image/png";
+            case "webp": return "image/webp";
+            case "heic": return "image/heic";
+            default: return "image/jpeg";
+        }
+    }
+
+    /**
+     * API path that serves a stored image.
+     */
+    public static String urlFor(String name) {
+        return URL_PREFIX + name;
+    }
+
+    /**
+     * Name of a stored image referenced by an image URL, or null if the URL is empty or points elsewhere.
+     */
+    public static String nameFromUrl(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX)) {
+            return null;
+        }
+        String name = url.substring(URL_PREFIX.length());
+        return isValidName(name) ? name : null;
+    }
+
+    /**
+     * Whether an original can have a thumbnail: ImageIO reads JPEG and PNG but not HEIC or WebP.
+     */
+    public static boolean hasThumbnail(String name) {
+        return name != null && !isThumbnail(name) && (name.endsWith(".jpg") || name.endsWith(".png"));
+    }
+
+    public static boolean isThumbnail(String name) {
+        return name.endsWith(THUMBNAIL_SUFFIX);
+    }
+
+    /**
+     * Name of the thumbnail for an original image.
+     */
+    public static String thumbnailName(String name) {
+        return name.substring(0, name.indexOf('.')) + THUMBNAIL_SUFFIX;
+    }
+
+    /**
+     * Name of the stored original a thumbnail belongs to.
+     *
+     * @return The original's name, or null if no original with that hash is stored
+     */
+    public String originalOf(String thumbnailName) {
+        String hash = thumbnailName.substring(0, 64);
+        for (String extension : EXTENSIONS) {
+            if (Files.isRegularFile(dir.resolve(hash + "." + extension))) {
+                return hash + "." + extension;
+            }
+        }
+        return null;
+    }
+
+    static String nameFor(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder name = new StringBuilder(70);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.append('.').append(extension(data)).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Clients upload JPEG, PNG, WebP or HEIC; anything unrecognised is assumed to be JPEG
+    private static String extension(byte[] data) {
+        if (data.length >= 8 && (data[0] & 0xff) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return "png";
+        }
+        if (data.length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P') {
+            return "webp";
+        }
+        if (data.length >= 12 && data[4] == 'f' && data[5] == 't' && data[6] == 'y' && data[7] == 'p'
+                && data[8] == 'h' && data[9] == 'e' && data[10] == 'i' && (data[11] == 'c' || data[11] == 'x')) {
+            return "heic";
+        }
+        return "jpg";
+    }
+}
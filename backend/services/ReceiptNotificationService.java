@@ -1,14 +1,19 @@
 package services;
 
+import database.NotificationOutboxDAO;
 import models.Receipt;
 import patterns.FriendObserver;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Service for enabling notifications when sending receipts to friends.
  * Integrates FriendService with the Receipt observer pattern.
- * Foundational implementation - no database or frontend dependencies.
+ * Participant inserts and notifications are written to the notification outbox and fanned out
+ * by NotificationDispatcher, so sharing with a large group returns immediately. If the outbox
+ * cannot be written (e.g. no database), delivery falls back to the inline path.
  * 
  * Usage example:
  * <pre>
@@ -30,15 +35,21 @@ public class ReceiptNotificationService {
 
     private final FriendService friendService;
     private final ReceiptService receiptService;
+    private final NotificationOutboxDAO outboxDAO;
 
     public ReceiptNotificationService(FriendService friendService) {
         this.friendService = friendService;
         this.receiptService = ReceiptService.getInstance();
+        this.outboxDAO = new NotificationOutboxDAO();
     }
 
+    /**
+     * Callers that supply their own ReceiptService get inline delivery through it.
+     */
     public ReceiptNotificationService(FriendService friendService, ReceiptService receiptService) {
         this.friendService = friendService;
         this.receiptService = receiptService;
+        this.outboxDAO = null;
     }
 
     /**
@@ -140,17 +151,7 @@ public class ReceiptNotificationService {
                 }
             }
             receipt.sendToFriends(friendIds);
-            
-            // Add receipt to each friend's pending receipts list
-            for (Integer friendId : friendIds) {
-                receiptService.addPendingReceipt(friendId, receipt);
-            }
-            
-            // Trigger notifications via observer pattern
-            String message = "Receipt from " + receipt.getMerchantName() + 
-                           " for $" + receipt.getTotalAmount() + 
-                           " has been shared with you";
-            receipt.notifyFriends(message);
+            deliverReceipt(receipt, userId, friendIds);
         }
         
         return friendCount;
@@ -186,22 +187,86 @@ public class ReceiptNotificationService {
             }
             
             receipt.sendToFriends(validFriendIds);
-            
-            // Add receipt to each friend's pending receipts list
-            for (Integer friendId : validFriendIds) {
-                receiptService.addPendingReceipt(friendId, receipt);
-            }
-            
-            // Trigger notifications via observer pattern
-            String message = "Receipt from " + receipt.getMerchantName() + 
-                           " for $" + receipt.getTotalAmount() + 
-                           " has been shared with you";
-            receipt.notifyFriends(message);
+            deliverReceipt(receipt, userId, validFriendIds);
         }
         
         return friendCount;
     }
 
+    /**
+     * Add the receipt to each friend's pending list and notify them.
+     * Queued through the outbox when available; otherwise done inline, one friend at a time.
+     */
+    private void deliverReceipt(Receipt receipt, int userId, List<Integer> friendIds) {
+        if (friendIds.isEmpty()) {
+            return;
+        }
+
+        String message = "Receipt from " + receipt.getMerchantName() + 
+                       " for $" + receipt.getTotalAmount() + 
+                       " has been shared with you";
+
+        List<String> recipientIds = new ArrayList<>();
+        for (Integer friendId : friendIds) {
+            recipientIds.add(String.valueOf(friendId));
+        }
+        if (enqueue(receipt.getReceiptId(), String.valueOf(userId), recipientIds, message)) {
+            return;
+        }
+
+        // Add receipt to each friend's pending receipts list
+        for (Integer friendId : friendIds) {
+            receiptService.addPendingReceipt(friendId, receipt);
+        }
+
+        // Trigger notifications via observer pattern
+        receipt.notifyFriends(message);
+    }
+
+    /**
+     * Share an existing receipt with users: each becomes a pending participant and is notified.
+     * This is the path the add-participants endpoint uses; the work is queued through the
+     * outbox and this returns at once. Without an outbox the participants are added inline in
+     * one batch insert.
+     *
+     * @param receiptId The receipt to share
+     * @param senderId The user sharing it
+     * @param recipientIds Users to share it with
+     * @param message Notification message shown to recipients
+     * @return Number of recipients the receipt was queued or added for
+     */
+    public int shareReceipt(int receiptId, String senderId, List<String> recipientIds, String message) {
+        if (recipientIds == null || recipientIds.isEmpty()) {
+            return 0;
+        }
+        if (enqueue(receiptId, senderId, recipientIds, message)) {
+            return recipientIds.size();
+        }
+        return receiptService.getReceiptDAO().addReceiptParticipantsBatch(receiptId, recipientIds);
+    }
+
+    /**
+     * Write the shares to the outbox and wake the dispatcher.
+     *
+     * @return false if there is no outbox or it could not be written; the caller delivers inline
+     */
+    private boolean enqueue(int receiptId, String senderId, List<String> recipientIds, String message) {
+        if (outboxDAO == null) {
+            return false;
+        }
+        try {
+            int queued = outboxDAO.enqueue(receiptId, senderId, recipientIds, message);
+            NotificationDispatcher dispatcher = NotificationDispatcher.getInstance();
+            dispatcher.start();
+            dispatcher.wakeUp();
+            System.out.println("Queued receipt " + receiptId + " for " + queued + " recipients");
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Notification outbox unavailable, delivering inline: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Remove all observers from a receipt (cleanup method).
      * 
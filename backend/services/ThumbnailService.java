@@ -0,0 +1,215 @@
+package services;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import utils.Settings;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background generation of receipt thumbnails, so list views load a few KB instead of the
+ * multi-megabyte original. Thumbnails are JPEGs no larger than THUMBNAIL_MAX_DIMENSION
+ * (default 320) on their long side, stored next to the original by ReceiptImageStore.
+ *
+ * Work runs on THUMBNAIL_THREADS (default 1) low-priority threads with a queue of
+ * THUMBNAIL_QUEUE (default 64). When the queue is full new requests are dropped; the image
+ * endpoint queues a missing thumbnail again when it is asked for. Only JPEG and PNG originals
+ * get thumbnails (ImageIO has no HEIC or WebP reader), and an original that failed once is
+ * not tried again until restart.
+ */
+public class ThumbnailService {
+
+    private static ThumbnailService instance;
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private final ReceiptImageStore store;
+    private final int maxDimension;
+    private final ThreadPoolExecutor executor;
+    // Originals queued or being scaled, so repeated submits do not duplicate work
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Originals that could not be thumbnailed, so requests for them do not redo the work
+    private final Set<String> failures = ConcurrentHashMap.newKeySet();
+    private final Counter generated;
+    private final Counter failed;
+    private final Counter dropped;
+
+    /**
+     * Create a standalone service. Production code should use getInstance().
+     *
+     * @param store Where originals are read and thumbnails written
+     * @param maxDimension Longest side of a thumbnail in pixels
+     * @param threads Worker threads
+     * @param queueSize Requests that may wait for a worker
+     */
+    public ThumbnailService(ReceiptImageStore store, int maxDimension, int threads, int queueSize) {
+        this.store = store;
+        this.maxDimension = maxDimension;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread t = new Thread(r, "thumbnail-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                // Scaling is CPU-bound; request threads come first
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        generated = metrics.counter("thumbnails_generated_total", "Receipt thumbnails written");
+        failed = metrics.counter("thumbnails_failed_total", "Receipt images that could not be thumbnailed");
+        dropped = metrics.counter("thumbnails_dropped_total", "Thumbnail requests dropped because the queue was full");
+        metrics.gauge("thumbnail_queue_depth", "Thumbnail requests waiting for a worker", () -> executor.getQueue().size());
+    }
+
+    public static synchronized ThumbnailService getInstance() {
+        if (instance == null) {
+            instance = new ThumbnailService(ReceiptImageStore.getInstance(),
+                Settings.getInt("THUMBNAIL_MAX_DIMENSION", 320),
+                Settings.getInt("THUMBNAIL_THREADS", 1),
+                Settings.getInt("THUMBNAIL_QUEUE", 64));
+        }
+        return instance;
+    }
+
+    /**
+     * Queue thumbnail generation for a stored original. Returns immediately; does nothing if
+     * the thumbnail already exists, is being made, or cannot be made.
+     *
+     * @param name Name of the original in the store
+     */
+    public void submit(String name) {
+        if (name == null || !ReceiptImageStore.hasThumbnail(name) || failures.contains(name)
+                || store.resolve(ReceiptImageStore.thumbnailName(name)) != null || !pending.add(name)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(name);
+                } finally {
+                    pending.remove(name);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(name);
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Make the thumbnail for a stored original on the calling thread, unless it exists.
+     * Decoding is bounded by ImageDecoder, but this is still CPU-heavy; request handlers
+     * should call submit() instead.
+     *
+     * @param name Name of the original in the store
+     * @return The thumbnail's path, or null if the original is missing or not a readable image
+     */
+    public Path generate(String name) {
+        if (!ReceiptImageStore.hasThumbnail(name) || failures.contains(name)) {
+            return null;
+        }
+        String thumbnailName = ReceiptImageStore.thumbnailName(name);
+        Path existing = store.resolve(thumbnailName);
+        if (existing != null) {
+            return existing;
+        }
+        Path original = store.resolve(name);
+        if (original == null) {
+            return null;
+        }
+        try {
+            BufferedImage image = ImageDecoder.read(original, maxDimension);
+            if (image == null) {
+                failures.add(name);
+                failed.increment();
+                return null;
+            }
+            Path target = store.pathFor(thumbnailName);
+            Path temp = Files.createTempFile(target.getParent(), "thumb_", ".tmp");
+            try {
+                writeJpeg(scale(image, maxDimension), temp);
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            generated.increment();
+            return target;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ThumbnailService] Failed to make thumbnail for " + name + ": " + e.getMessage());
+            failures.add(name);
+            failed.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Scale an image so its long side is at most maxDimension, flattening any alpha onto white.
+     */
+    static BufferedImage scale(BufferedImage image, int maxDimension) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double factor = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * factor));
+        int targetHeight = Math.max(1, (int) Math.round(height * factor));
+
+        // Halve repeatedly before the final step; a single bilinear pass from a large photo aliases badly
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return draw(current, targetWidth, targetHeight);
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -2,9 +2,13 @@ package services;
 
 import database.DatabaseConnection;
 import models.Transaction;
+import tracing.Span;
+import tracing.Tracer;
+import utils.PageCursor;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -50,73 +54,124 @@ public class TransactionService {
                                         double amount, String transactionType,
                                         String description, String status, 
                                         String relatedEntityId) {
-        // Validation
-        if (fromUserId == null || fromUserId.trim().isEmpty()) {
+        List<Transaction> created = createTransactions(Collections.singletonList(
+            new Transaction(fromUserId, toUserId, amount, transactionType, description, status, relatedEntityId)));
+        return created.isEmpty() ? null : created.get(0);
+    }
+    
+    /**
+     * Create several transactions with a single multi-row INSERT.
+     * Generated IDs are read from the insert itself, so no rows are re-read afterwards.
+     * created_at/updated_at are bound from one timestamp truncated to whole seconds, as the
+     * columns store it, so the returned objects carry the values that were written.
+     * 
+     * @param pending Unsaved transactions (built with the Transaction "new transaction" constructor)
+     * @return The saved transactions with their IDs, in input order, or an empty list if the insert failed
+     * @throws IllegalArgumentException if any transaction fails validation
+     */
+    public List<Transaction> createTransactions(List<Transaction> pending) {
+        try (Span span = Tracer.span("TransactionService.createTransactions")) {
+            span.tag("rows", pending != null ? pending.size() : 0);
+            if (pending == null || pending.isEmpty()) {
+                return new ArrayList<>();
+            }
+            for (Transaction transaction : pending) {
+                validateNewTransaction(transaction);
+            }
+        
+            StringBuilder sql = new StringBuilder("INSERT INTO transactions " +
+                        "(from_user_id, to_user_id, amount, transaction_type, description, status, related_entity_id, " +
+                        "created_at, updated_at) VALUES ");
+            for (int i = 0; i < pending.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            Timestamp now = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+        
+            List<Transaction> created = new ArrayList<>();
+            try {
+                Connection conn = dbConnection.getConnection();
+                try (PreparedStatement stmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+                    int index = 1;
+                    for (Transaction transaction : pending) {
+                        String status = transaction.getStatus();
+                        if (status == null || status.trim().isEmpty()) {
+                            status = STATUS_PENDING;
+                        }
+                        stmt.setString(index++, transaction.getFromUserId());
+                        setNullableString(stmt, index++, transaction.getToUserId());
+                        stmt.setDouble(index++, transaction.getAmount());
+                        stmt.setString(index++, transaction.getTransactionType());
+                        stmt.setString(index++, transaction.getDescription());
+                        stmt.setString(index++, status);
+                        setNullableString(stmt, index++, transaction.getRelatedEntityId());
+                        stmt.setTimestamp(index++, now);
+                        stmt.setTimestamp(index++, now);
+                    }
+                
+                    stmt.executeUpdate();
+                
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        for (Transaction transaction : pending) {
+                            if (!keys.next()) {
+                                break;
+                            }
+                            String status = transaction.getStatus();
+                            if (status == null || status.trim().isEmpty()) {
+                                status = STATUS_PENDING;
+                            }
+                            created.add(new Transaction(
+                                keys.getInt(1),
+                                transaction.getFromUserId(),
+                                emptyToNull(transaction.getToUserId()),
+                                transaction.getAmount(),
+                                transaction.getTransactionType(),
+                                transaction.getDescription(),
+                                status,
+                                emptyToNull(transaction.getRelatedEntityId()),
+                                now,
+                                now
+                            ));
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error creating transactions: " + e.getMessage());
+                e.printStackTrace();
+                return new ArrayList<>();
+            }
+        
+            return created;
+        }
+    }
+    
+    private void validateNewTransaction(Transaction transaction) {
+        if (transaction == null) {
+            throw new IllegalArgumentException("Transaction cannot be null");
+        }
+        if (transaction.getFromUserId() == null || transaction.getFromUserId().trim().isEmpty()) {
             throw new IllegalArgumentException("From user ID cannot be null or empty");
         }
-        if (amount <= 0) {
+        if (transaction.getAmount() <= 0) {
             throw new IllegalArgumentException("Amount must be positive");
         }
-        if (transactionType == null || transactionType.trim().isEmpty()) {
+        if (transaction.getTransactionType() == null || transaction.getTransactionType().trim().isEmpty()) {
             throw new IllegalArgumentException("Transaction type cannot be null or empty");
         }
-        
-        // Set default status
-        if (status == null || status.trim().isEmpty()) {
-            status = STATUS_PENDING;
-        }
-        
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            
-            String sql = "INSERT INTO transactions " +
-                        "(from_user_id, to_user_id, amount, transaction_type, description, status, related_entity_id) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            stmt.setString(1, fromUserId);
-            if (toUserId != null && !toUserId.trim().isEmpty()) {
-                stmt.setString(2, toUserId);
-            } else {
-                stmt.setNull(2, Types.VARCHAR);
-            }
-            stmt.setDouble(3, amount);
-            stmt.setString(4, transactionType);
-            stmt.setString(5, description);
-            stmt.setString(6, status);
-            if (relatedEntityId != null && !relatedEntityId.trim().isEmpty()) {
-                stmt.setString(7, relatedEntityId);
-            } else {
-                stmt.setNull(7, Types.VARCHAR);
-            }
-            
-            int rowsInserted = stmt.executeUpdate();
-            
-            if (rowsInserted == 0) {
-                stmt.close();
-                return null;
-            }
-            
-            // Get generated transaction ID
-            ResultSet rs = stmt.getGeneratedKeys();
-            int transactionId = 0;
-            if (rs.next()) {
-                transactionId = rs.getInt(1);
-            }
-            rs.close();
-            stmt.close();
-            
-            // Return the created transaction
-            return getTransactionById(transactionId);
-            
-        } catch (SQLException e) {
-            System.err.println("Error creating transaction: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+    }
+    
+    private static void setNullableString(PreparedStatement stmt, int index, String value) throws SQLException {
+        if (value != null && !value.trim().isEmpty()) {
+            stmt.setString(index, value);
+        } else {
+            stmt.setNull(index, Types.VARCHAR);
         }
     }
     
+    private static String emptyToNull(String value) {
+        return value != null && !value.trim().isEmpty() ? value : null;
+    }
+    
     /**
      * Get transaction by ID.
      * 
@@ -159,39 +214,7 @@ public class TransactionService {
      * @return List of transactions, ordered by most recent first
      */
     public List<Transaction> getTransactionHistory(String userId) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
-        
-        List<Transaction> transactions = new ArrayList<>();
-        
-        try {
-            Connection conn = dbConnection.getConnection();
-            String sql = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
-                        "transaction_type, description, status, related_entity_id, " +
-                        "created_at, updated_at FROM transactions " +
-                        "WHERE from_user_id = ? OR to_user_id = ? " +
-                        "ORDER BY created_at DESC";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            stmt.setString(2, userId);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                transactions.add(mapResultSetToTransaction(rs));
-            }
-            
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
-            System.err.println("Error getting transaction history: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return transactions;
+        return findTransactions(new TransactionQuery(userId)).transactions;
     }
     
     /**
@@ -202,43 +225,10 @@ public class TransactionService {
      * @return List of recent transactions, ordered by most recent first
      */
     public List<Transaction> getRecentTransactions(String userId, int limit) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
         if (limit <= 0) {
             throw new IllegalArgumentException("Limit must be positive");
         }
-        
-        List<Transaction> transactions = new ArrayList<>();
-        
-        try {
-            Connection conn = dbConnection.getConnection();
-            String sql = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
-                        "transaction_type, description, status, related_entity_id, " +
-                        "created_at, updated_at FROM transactions " +
-                        "WHERE from_user_id = ? OR to_user_id = ? " +
-                        "ORDER BY created_at DESC LIMIT ?";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            stmt.setString(2, userId);
-            stmt.setInt(3, limit);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                transactions.add(mapResultSetToTransaction(rs));
-            }
-            
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
-            System.err.println("Error getting recent transactions: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return transactions;
+        return findTransactions(new TransactionQuery(userId).limit(limit)).transactions;
     }
     
     /**
@@ -282,43 +272,10 @@ public class TransactionService {
      * @return List of transactions with the specified status
      */
     public List<Transaction> getTransactionsByStatus(String userId, String status) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
         if (status == null || status.trim().isEmpty()) {
             throw new IllegalArgumentException("Status cannot be null or empty");
         }
-        
-        List<Transaction> transactions = new ArrayList<>();
-        
-        try {
-            Connection conn = dbConnection.getConnection();
-            String sql = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
-                        "transaction_type, description, status, related_entity_id, " +
-                        "created_at, updated_at FROM transactions " +
-                        "WHERE (from_user_id = ? OR to_user_id = ?) AND status = ? " +
-                        "ORDER BY created_at DESC";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            stmt.setString(2, userId);
-            stmt.setString(3, status);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                transactions.add(mapResultSetToTransaction(rs));
-            }
-            
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
-            System.err.println("Error getting transactions by status: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return transactions;
+        return findTransactions(new TransactionQuery(userId).status(status)).transactions;
     }
     
     /**
@@ -329,43 +286,10 @@ public class TransactionService {
      * @return List of transactions with the specified type
      */
     public List<Transaction> getTransactionsByType(String userId, String transactionType) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
         if (transactionType == null || transactionType.trim().isEmpty()) {
             throw new IllegalArgumentException("Transaction type cannot be null or empty");
         }
-        
-        List<Transaction> transactions = new ArrayList<>();
-        
-        try {
-            Connection conn = dbConnection.getConnection();
-            String sql = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
-                        "transaction_type, description, status, related_entity_id, " +
-                        "created_at, updated_at FROM transactions " +
-                        "WHERE (from_user_id = ? OR to_user_id = ?) AND transaction_type = ? " +
-                        "ORDER BY created_at DESC";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            stmt.setString(2, userId);
-            stmt.setString(3, transactionType);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                transactions.add(mapResultSetToTransaction(rs));
-            }
-            
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
-            System.err.println("Error getting transactions by type: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return transactions;
+        return findTransactions(new TransactionQuery(userId).type(transactionType)).transactions;
     }
     
     /**
@@ -377,48 +301,111 @@ public class TransactionService {
      * @return List of transactions within the date range
      */
     public List<Transaction> getTransactionsByDateRange(String userId, Timestamp startDate, Timestamp endDate) {
-        if (userId == null || userId.trim().isEmpty()) {
-            throw new IllegalArgumentException("User ID cannot be null or empty");
-        }
         if (startDate == null || endDate == null) {
             throw new IllegalArgumentException("Start date and end date cannot be null");
         }
-        if (startDate.after(endDate)) {
+        return findTransactions(new TransactionQuery(userId).between(startDate, endDate)).transactions;
+    }
+    
+    /**
+     * Run a filtered, optionally paginated transaction query for a user.
+     * All filters are combined into one statement; pagination is keyset-based on
+     * (created_at, transaction_id), newest first.
+     * 
+     * Sent and received transactions are read by two UNION ALL branches so each walks its
+     * own (user, created_at, transaction_id) index in order and stops after a page; an OR
+     * across both user columns would read and sort every transaction the user has.
+     * 
+     * @param query The filters and page settings
+     * @return The matching transactions and, when a limit was set and more rows exist, the next cursor
+     * @throws IllegalArgumentException if the query is invalid
+     */
+    public TransactionPage findTransactions(TransactionQuery query) {
+        if (query == null || query.userId == null || query.userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (query.startDate != null && query.endDate != null && query.startDate.after(query.endDate)) {
             throw new IllegalArgumentException("Start date must be before end date");
         }
         
-        List<Transaction> transactions = new ArrayList<>();
+        PageCursor after = PageCursor.parse(query.cursor);
+        
+        // Filters shared by both branches
+        StringBuilder filters = new StringBuilder();
+        List<Object> filterParams = new ArrayList<>();
+        if (query.status != null) {
+            filters.append(" AND status = ?");
+            filterParams.add(query.status);
+        }
+        if (query.transactionType != null) {
+            filters.append(" AND transaction_type = ?");
+            filterParams.add(query.transactionType);
+        }
+        if (query.startDate != null) {
+            filters.append(" AND created_at >= ?");
+            filterParams.add(query.startDate);
+        }
+        if (query.endDate != null) {
+            filters.append(" AND created_at <= ?");
+            filterParams.add(query.endDate);
+        }
+        if (after != null) {
+            filters.append(" AND (created_at < ? OR (created_at = ? AND transaction_id < ?))");
+            filterParams.add(after.createdAt);
+            filterParams.add(after.createdAt);
+            filterParams.add(after.id);
+        }
+        String order = " ORDER BY created_at DESC, transaction_id DESC";
+        // Fetch one extra row to learn whether another page exists
+        String limit = query.limit > 0 ? " LIMIT ?" : "";
+        
+        String columns = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
+                         "transaction_type, description, status, related_entity_id, " +
+                         "created_at, updated_at FROM transactions ";
+        // A transaction to oneself is only taken from the sent branch
+        String sql = "(" + columns + "WHERE from_user_id = ?" + filters + order + limit + ")" +
+                     " UNION ALL " +
+                     "(" + columns + "WHERE to_user_id = ? AND from_user_id <> ?" +
+                     filters + order + limit + ")" +
+                     order + limit;
+        List<Object> params = new ArrayList<>();
+        params.add(query.userId);
+        params.addAll(filterParams);
+        if (query.limit > 0) {
+            params.add(query.limit + 1);
+        }
+        params.add(query.userId);
+        params.add(query.userId);
+        params.addAll(filterParams);
+        if (query.limit > 0) {
+            params.add(query.limit + 1);
+            params.add(query.limit + 1);
+        }
         
+        TransactionPage page = new TransactionPage();
         try {
             Connection conn = dbConnection.getConnection();
-            String sql = "SELECT transaction_id, from_user_id, to_user_id, amount, " +
-                        "transaction_type, description, status, related_entity_id, " +
-                        "created_at, updated_at FROM transactions " +
-                        "WHERE (from_user_id = ? OR to_user_id = ?) " +
-                        "AND created_at >= ? AND created_at <= ? " +
-                        "ORDER BY created_at DESC";
-            
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            stmt.setString(2, userId);
-            stmt.setTimestamp(3, startDate);
-            stmt.setTimestamp(4, endDate);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                transactions.add(mapResultSetToTransaction(rs));
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        page.transactions.add(mapResultSetToTransaction(rs));
+                    }
+                }
             }
-            
-            rs.close();
-            stmt.close();
-            
         } catch (SQLException e) {
-            System.err.println("Error getting transactions by date range: " + e.getMessage());
+            System.err.println("Error finding transactions: " + e.getMessage());
             e.printStackTrace();
         }
         
-        return transactions;
+        if (query.limit > 0 && page.transactions.size() > query.limit) {
+            page.transactions.remove(page.transactions.size() - 1);
+            Transaction last = page.transactions.get(page.transactions.size() - 1);
+            page.nextCursor = PageCursor.encode(last.getCreatedAt(), last.getTransactionId());
+        }
+        return page;
     }
     
     /**
@@ -438,5 +425,69 @@ public class TransactionService {
             rs.getTimestamp("updated_at")
         );
     }
+    
+    /**
+     * Filters and page settings for findTransactions. Unset filters are ignored.
+     * 
+     * <pre>
+     *   TransactionPage page = transactionService.findTransactions(
+     *       new TransactionQuery(userId).status(STATUS_COMPLETED).limit(20).after(previous.nextCursor));
+     * </pre>
+     */
+    public static class TransactionQuery {
+        private final String userId;
+        private String status;
+        private String transactionType;
+        private Timestamp startDate;
+        private Timestamp endDate;
+        private int limit;
+        private String cursor;
+        
+        public TransactionQuery(String userId) {
+            this.userId = userId;
+        }
+        
+        public TransactionQuery status(String status) {
+            this.status = status;
+            return this;
+        }
+        
+        public TransactionQuery type(String transactionType) {
+            this.transactionType = transactionType;
+            return this;
+        }
+        
+        /**
+         * Restrict to transactions created in [startDate, endDate]. Either bound may be null.
+         */
+        public TransactionQuery between(Timestamp startDate, Timestamp endDate) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            return this;
+        }
+        
+        /**
+         * Page size; 0 (the default) returns every matching row.
+         */
+        public TransactionQuery limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+        
+        /**
+         * Continue after the nextCursor of a previous page.
+         */
+        public TransactionQuery after(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+    }
+    
+    /**
+     * One page of transactions. nextCursor is null on the last page.
+     */
+    public static class TransactionPage {
+        public List<Transaction> transactions = new ArrayList<>();
+        public String nextCursor;
+    }
 }
-
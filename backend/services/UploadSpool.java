@@ -0,0 +1,294 @@
+package services;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import utils.Settings;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spool for uploaded files that only live while a request is handled, such as receipt photos
+ * waiting for the parser. Files are spread over 256 shard directories by the first two hex
+ * digits of their random name, so no directory grows large enough to slow lookups.
+ *
+ * Space is bounded two ways. A janitor deletes files older than UPLOAD_SPOOL_TTL_SECONDS
+ * (default 600), the leftovers of crashed or timed-out requests, every
+ * UPLOAD_SPOOL_SWEEP_SECONDS (default 60). And the spool holds at most UPLOAD_SPOOL_MAX_BYTES
+ * (default 512 MB): when a new upload would exceed it the oldest files not in use are
+ * evicted, and if that does not free enough the upload is refused.
+ *
+ * The spool lives in UPLOAD_SPOOL_DIR (default receipts/spool), on the same file system as
+ * ReceiptImageStore so stored images can be moved out of it.
+ */
+public class UploadSpool {
+
+    private static UploadSpool instance;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final long sweepSeconds;
+
+    // Files handed out and not yet released, with their sizes; never evicted
+    private final Map<Path, Long> active = new ConcurrentHashMap<>();
+    // Bytes in the spool: exact after a sweep, kept current by create and release in between
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    // Guards changes to active, bytes and files, so a sweep's recount cannot lose one
+    private final Object quotaLock = new Object();
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final Counter expired;
+    private final Counter evicted;
+    private final Counter refused;
+
+    /**
+     * Create a standalone spool. Production code should use getInstance().
+     *
+     * @param dir Spool directory; created on first use
+     * @param maxBytes Quota for all spooled files
+     * @param ttlMillis Age after which the janitor deletes a file
+     * @param sweepSeconds Janitor interval
+     */
+    public UploadSpool(Path dir, long maxBytes, long ttlMillis, long sweepSeconds) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.sweepSeconds = sweepSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-spool-janitor");
+            t.setDaemon(true);
+            return t;
+        });
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        expired = metrics.counter("upload_spool_deleted_total", "Spooled uploads deleted by the janitor", "reason", "ttl");
+        evicted = metrics.counter("upload_spool_deleted_total", "Spooled uploads deleted by the janitor", "reason", "quota");
+        refused = metrics.counter("upload_spool_refused_total", "Uploads refused because the spool was full");
+        metrics.gauge("upload_spool_bytes", "Bytes held in the upload spool", bytes::get);
+        metrics.gauge("upload_spool_files", "Files held in the upload spool", files::get);
+    }
+
+    public static synchronized UploadSpool getInstance() {
+        if (instance == null) {
+            instance = new UploadSpool(Paths.get(Settings.get("UPLOAD_SPOOL_DIR", "receipts/spool")),
+                Settings.getLong("UPLOAD_SPOOL_MAX_BYTES", 512L * 1024 * 1024),
+                Settings.getLong("UPLOAD_SPOOL_TTL_SECONDS", 600) * 1000,
+                Settings.getLong("UPLOAD_SPOOL_SWEEP_SECONDS", 60));
+        }
+        return instance;
+    }
+
+    /**
+     * Sweep once now, to clear what a previous run left behind, then on a fixed delay.
+     * Calling start more than once has no effect.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::sweep, 0, sweepSeconds, TimeUnit.SECONDS);
+        System.out.println("[UploadSpool] Started (dir=" + dir + ", maxBytes=" + maxBytes +
+                           ", ttlSeconds=" + ttlMillis / 1000 + ")");
+    }
+
+    /**
+     * Write an upload to a new spool file. The file stays in use, and is never evicted, until
+     * release() is called with it.
+     *
+     * @param data The uploaded bytes
+     * @param suffix File name suffix, e.g. ".jpg"
+     * @return The spooled file, or null if the spool is full even after evicting idle files
+     */
+    public Path create(byte[] data, String suffix) throws IOException {
+        String name = UUID.randomUUID().toString();
+        Path path = dir.resolve(name.substring(0, 2)).resolve(name + suffix);
+        synchronized (quotaLock) {
+            if (bytes.get() + data.length > maxBytes && !evict(data.length)) {
+                refused.increment();
+                return null;
+            }
+            active.put(path, (long) data.length);
+            bytes.addAndGet(data.length);
+            files.incrementAndGet();
+        }
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, data);
+            return path;
+        } catch (IOException e) {
+            release(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Count a file derived from a spooled upload, e.g. a converted copy written next to it,
+     * as part of the spool and in use until released.
+     */
+    public void retain(Path path) throws IOException {
+        long size = Files.size(path);
+        synchronized (quotaLock) {
+            if (active.putIfAbsent(path, size) == null) {
+                bytes.addAndGet(size);
+                files.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Delete a spooled file, if it is still there, and stop tracking it as in use.
+     * Safe to call for a file that was moved out of the spool.
+     */
+    public void release(Path path) {
+        if (path == null) {
+            return;
+        }
+        deleteQuietly(path);
+        synchronized (quotaLock) {
+            Long size = active.remove(path);
+            if (size != null) {
+                bytes.addAndGet(-size);
+                files.decrementAndGet();
+            }
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Delete expired files and recount the spool; evict oldest idle files if it is over quota.
+     * The directory is listed without the lock, so files in use are counted from active at
+     * their reserved size rather than from the listing, which may miss or under-size an
+     * upload that is still being written.
+     */
+    public void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            List<SpooledFile> idle = new ArrayList<>();
+            for (SpooledFile file : list()) {
+                if (active.containsKey(file.path)) {
+                    continue;
+                }
+                if (now - file.modified > ttlMillis && deleteQuietly(file.path)) {
+                    expired.increment();
+                    continue;
+                }
+                idle.add(file);
+            }
+            synchronized (quotaLock) {
+                long total = 0;
+                long count = 0;
+                for (long size : active.values()) {
+                    total += size;
+                    count++;
+                }
+                for (SpooledFile file : idle) {
+                    // Skip files retained or evicted since the listing
+                    if (!active.containsKey(file.path) && Files.exists(file.path)) {
+                        total += file.size;
+                        count++;
+                    }
+                }
+                bytes.set(total);
+                files.set(count);
+                if (total > maxBytes) {
+                    evict(0);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep the janitor scheduled whatever happened in this run
+            System.err.println("[UploadSpool] Sweep failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the oldest idle files until needed more bytes fit under the quota.
+     * Caller holds quotaLock.
+     *
+     * @return true if there is room
+     */
+    private boolean evict(long needed) {
+        List<SpooledFile> candidates = list();
+        candidates.sort(Comparator.comparingLong(file -> file.modified));
+        for (SpooledFile file : candidates) {
+            if (bytes.get() + needed <= maxBytes) {
+                break;
+            }
+            if (!active.containsKey(file.path) && deleteQuietly(file.path)) {
+                bytes.addAndGet(-file.size);
+                files.decrementAndGet();
+                evicted.increment();
+            }
+        }
+        return bytes.get() + needed <= maxBytes;
+    }
+
+    private List<SpooledFile> list() {
+        List<SpooledFile> result = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(shard)) {
+                    for (Path entry : entries) {
+                        try {
+                            BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                            if (attributes.isRegularFile()) {
+                                result.add(new SpooledFile(entry, attributes.size(),
+                                    attributes.lastModifiedTime().toMillis()));
+                            }
+                        } catch (NoSuchFileException e) {
+                            // Released while listing
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[UploadSpool] Failed to list " + dir + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[UploadSpool] Failed to delete " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static final class SpooledFile {
+        final Path path;
+        final long size;
+        final long modified;
+
+        SpooledFile(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
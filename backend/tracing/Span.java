@@ -0,0 +1,64 @@
+package tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed step inside a trace. Spans are opened with Tracer.span(name) and closed with
+ * try-with-resources; outside a traced request Tracer.span returns NOOP, so instrumented
+ * code costs almost nothing when no trace is active.
+ */
+public class Span implements AutoCloseable {
+
+    /** Returned when the current thread has no active trace. */
+    public static final Span NOOP = new Span(null, -1, -1, "noop", 0);
+
+    final TraceContext context;
+    final int id;
+    final int parentId;
+    final String name;
+    final long startNanos;
+    long durationNanos = -1;
+    boolean error;
+    Map<String, String> tags;
+
+    Span(TraceContext context, int id, int parentId, String name, long startNanos) {
+        this.context = context;
+        this.id = id;
+        this.parentId = parentId;
+        this.name = name;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Attach a key/value to the span. Do not tag secrets or personal data; traces are written to disk.
+     */
+    public Span tag(String key, Object value) {
+        if (context != null) {
+            if (tags == null) {
+                tags = new LinkedHashMap<>();
+            }
+            tags.put(key, String.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * Mark the span as failed.
+     */
+    public Span markError(Throwable t) {
+        if (context != null) {
+            error = true;
+            tag("error", t.getClass().getSimpleName());
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (context != null && durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+            context.finish(this);
+        }
+    }
+}
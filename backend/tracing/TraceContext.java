@@ -0,0 +1,109 @@
+package tracing;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Spans of one request, owned by the thread handling it.
+ * Spans form a tree through the stack of currently open spans; finished spans are kept
+ * in completion order until the trace ends and is either written or discarded.
+ */
+public class TraceContext {
+
+    // Bounds memory for requests that run thousands of statements
+    static final int MAX_SPANS = 500;
+
+    private final String requestId;
+    private final long startEpochMillis;
+    private final Deque<Span> open = new ArrayDeque<>();
+    private final List<Span> finished = new ArrayList<>();
+    private int nextSpanId = 0;
+    private int droppedSpans = 0;
+
+    final Span root;
+
+    TraceContext(String requestId, String name) {
+        this.requestId = requestId;
+        this.startEpochMillis = System.currentTimeMillis();
+        this.root = new Span(this, nextSpanId++, -1, name, System.nanoTime());
+        open.push(root);
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    Span startSpan(String name) {
+        Span parent = open.peek();
+        Span span = new Span(this, nextSpanId++, parent != null ? parent.id : -1, name, System.nanoTime());
+        open.push(span);
+        return span;
+    }
+
+    void finish(Span span) {
+        // Spans normally close innermost first; tolerate out-of-order closes
+        if (open.peek() == span) {
+            open.pop();
+        } else {
+            open.remove(span);
+        }
+        if (span == root || finished.size() < MAX_SPANS) {
+            finished.add(span);
+        } else {
+            droppedSpans++;
+        }
+    }
+
+    long getDurationNanos() {
+        return root.durationNanos;
+    }
+
+    /**
+     * Serialize the finished trace as one JSON object; span offsets and durations are in milliseconds.
+     */
+    String toJson(int status, String sampledBy) {
+        JSONArray spans = new JSONArray();
+        for (Span span : finished) {
+            if (span == root) {
+                continue;
+            }
+            JSONObject json = new JSONObject()
+                .put("id", span.id)
+                .put("parent", span.parentId)
+                .put("name", span.name)
+                .put("offsetMs", millis(span.startNanos - root.startNanos))
+                .put("durationMs", millis(span.durationNanos));
+            if (span.error) {
+                json.put("error", true);
+            }
+            if (span.tags != null) {
+                json.put("tags", new JSONObject(span.tags));
+            }
+            spans.put(json);
+        }
+        JSONObject trace = new JSONObject()
+            .put("requestId", requestId)
+            .put("name", root.name)
+            .put("start", startEpochMillis)
+            .put("durationMs", millis(root.durationNanos))
+            .put("status", status)
+            .put("sampledBy", sampledBy)
+            .put("spans", spans);
+        if (root.tags != null) {
+            trace.put("tags", new JSONObject(root.tags));
+        }
+        if (droppedSpans > 0) {
+            trace.put("droppedSpans", droppedSpans);
+        }
+        return trace.toString();
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
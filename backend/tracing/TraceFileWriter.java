@@ -0,0 +1,63 @@
+package tracing;
+
+import metrics.MetricsRegistry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends trace JSON lines to a local file from a background thread, so request threads
+ * never block on disk. When the queue is full new traces are dropped and counted in
+ * trace_dropped_total.
+ */
+class TraceFileWriter {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    private final Path path;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    TraceFileWriter(String file) {
+        this.path = Paths.get(file);
+        Thread thread = new Thread(this::run, "trace-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void write(String line) {
+        if (!queue.offer(line)) {
+            MetricsRegistry.getInstance().counter("trace_dropped_total",
+                "Sampled traces dropped because the trace writer queue was full").increment();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                String line = queue.take();
+                try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    // Drain whatever else is queued before closing the file
+                    while (line != null) {
+                        out.write(line);
+                        out.newLine();
+                        line = queue.poll(100, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                System.err.println("[TraceFileWriter] Error writing " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
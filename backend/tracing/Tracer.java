@@ -0,0 +1,108 @@
+package tracing;
+
+import utils.Settings;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Minimal per-request tracing.
+ * A trace is begun for each HTTP request (see TracingHandler) and bound to the handling
+ * thread; service, DAO and SQL code opens child spans with Tracer.span(name). When the
+ * request ends the trace is kept if it was sampled (TRACE_SAMPLE_RATE, default 0.01),
+ * took at least TRACE_SLOW_MS (default 1000) or failed with a 5xx status, and kept traces
+ * are appended as JSON lines to TRACE_FILE (default traces.jsonl).
+ *
+ * Work handed to other threads (e.g. ReceiptDAO's async updates) is not traced.
+ */
+public class Tracer {
+
+    private static Tracer instance;
+
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<>();
+
+    private final double sampleRate;
+    private final long slowNanos;
+    private final Consumer<String> sink;
+
+    /**
+     * Create a standalone tracer. Production code should use getInstance().
+     *
+     * @param sampleRate Fraction of requests kept regardless of latency, 0.0 to 1.0
+     * @param slowMillis Requests at least this slow are always kept
+     * @param sink Receives one JSON line per kept trace
+     */
+    public Tracer(double sampleRate, long slowMillis, Consumer<String> sink) {
+        this.sampleRate = sampleRate;
+        this.slowNanos = slowMillis * 1_000_000L;
+        this.sink = sink;
+    }
+
+    public static synchronized Tracer getInstance() {
+        if (instance == null) {
+            TraceFileWriter writer = new TraceFileWriter(Settings.get("TRACE_FILE", "traces.jsonl"));
+            instance = new Tracer(Settings.getDouble("TRACE_SAMPLE_RATE", 0.01, 0.0, 1.0),
+                Settings.getLong("TRACE_SLOW_MS", 1000), writer::write);
+        }
+        return instance;
+    }
+
+    /**
+     * Begin a trace on the current thread, replacing any trace left over from a previous request.
+     *
+     * @param requestId Request id reported in the trace and the X-Request-Id header
+     * @param name Name of the root span, usually the route
+     */
+    public TraceContext begin(String requestId, String name) {
+        TraceContext context = new TraceContext(requestId, name);
+        current.set(context);
+        return context;
+    }
+
+    /**
+     * End the current thread's trace and write it if it is kept.
+     *
+     * @param status HTTP status of the response (or -1 if none was sent)
+     * @return true if the trace was written
+     */
+    public boolean end(int status) {
+        TraceContext context = current.get();
+        if (context == null) {
+            return false;
+        }
+        current.remove();
+        context.root.close();
+
+        String sampledBy = null;
+        if (status >= 500 || context.root.error) {
+            sampledBy = "error";
+        } else if (context.getDurationNanos() >= slowNanos) {
+            sampledBy = "slow";
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            sampledBy = "random";
+        }
+        if (sampledBy == null) {
+            return false;
+        }
+        sink.accept(context.toJson(status, sampledBy));
+        return true;
+    }
+
+    /**
+     * Open a child span of the innermost open span on this thread.
+     *
+     * @return The span, or Span.NOOP when no trace is active
+     */
+    public static Span span(String name) {
+        TraceContext context = current.get();
+        return context != null ? context.startSpan(name) : Span.NOOP;
+    }
+
+    /**
+     * Request id of the trace active on this thread, or null.
+     */
+    public static String currentRequestId() {
+        TraceContext context = current.get();
+        return context != null ? context.getRequestId() : null;
+    }
+}
@@ -0,0 +1,53 @@
+package tracing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Wraps an HttpHandler in a trace. The request id is taken from the X-Request-Id request
+ * header when it is well formed, otherwise generated, and is echoed in the response header
+ * so clients and logs can refer to the trace.
+ */
+public class TracingHandler implements HttpHandler {
+
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final Pattern VALID_REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final String route;
+    private final HttpHandler delegate;
+    private final Tracer tracer;
+
+    public TracingHandler(String route, HttpHandler delegate) {
+        this(route, delegate, Tracer.getInstance());
+    }
+
+    public TracingHandler(String route, HttpHandler delegate, Tracer tracer) {
+        this.route = route;
+        this.delegate = delegate;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String requestId = exchange.getRequestHeaders().getFirst(REQUEST_ID_HEADER);
+        if (requestId == null || !VALID_REQUEST_ID.matcher(requestId).matches()) {
+            requestId = UUID.randomUUID().toString();
+        }
+        exchange.getResponseHeaders().set(REQUEST_ID_HEADER, requestId);
+
+        TraceContext context = tracer.begin(requestId, exchange.getRequestMethod() + " " + route);
+        try {
+            delegate.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            context.root.markError(e);
+            throw e;
+        } finally {
+            tracer.end(exchange.getResponseCode());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of fixed-size direct buffers for socket reads and writes. Direct buffers let the
+ * channel skip the copy through the JDK's temporary per-thread direct buffer, but they are
+ * expensive to allocate and only freed by GC, so they are borrowed for one I/O operation and
+ * returned instead of being held by idle connections.
+ */
+public class BufferPool {
+
+    private final int bufferBytes;
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * @param bufferBytes Capacity of each buffer
+     * @param maxPooled Buffers kept for reuse; extra returned buffers are left to GC
+     */
+    public BufferPool(int bufferBytes, int maxPooled) {
+        this.bufferBytes = bufferBytes;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Borrow a cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferBytes);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferBytes) {
+            buffer.clear();
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Buffers currently idle in the pool.
+     */
+    public int available() {
+        return free.size();
+    }
+}
@@ -0,0 +1,71 @@
+package transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * The HTTP engine the server runs on. Handlers are plain com.sun.net.httpserver HttpHandlers
+ * on every engine, so controllers do not know which one is serving them.
+ *
+ * Implementations:
+ * - JdkHttpTransport: the JDK's built-in com.sun.net.httpserver.HttpServer
+ * - NioHttpTransport: a selector-based engine with pooled direct buffers, keep-alive idle
+ *   timeouts, a connection limit and request size limits
+ *
+ * A handler may finish its exchange on another thread by calling detach() before it returns.
+ */
+public interface HttpTransport {
+
+    /**
+     * Exchange attribute set by detach().
+     */
+    String DETACHED_ATTRIBUTE = "transport.detached";
+
+    /**
+     * Mark an exchange as finished by another thread: the engine leaves it open when the
+     * handler returns, and whoever finishes it must close the exchange or its response body.
+     * The JDK engine never finishes an exchange itself; NioHttpTransport does unless detached.
+     */
+    static void detach(HttpExchange exchange) {
+        exchange.setAttribute(DETACHED_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    /**
+     * Route requests whose path starts with the given prefix to a handler.
+     * The longest matching prefix wins, as with HttpServer.createContext.
+     */
+    void createContext(String path, HttpHandler handler);
+
+    /**
+     * Start accepting connections.
+     */
+    void start() throws IOException;
+
+    /**
+     * Stop accepting connections and close the listening socket.
+     *
+     * @param delaySeconds Longest time to wait for in-flight requests to finish
+     */
+    void stop(int delaySeconds);
+
+    /**
+     * The bound address; useful after binding to port 0.
+     */
+    InetSocketAddress getAddress();
+
+    /**
+     * Create the engine named by HTTP_ENGINE: "jdk" (default) or "nio".
+     */
+    static HttpTransport create(String engine, InetSocketAddress address) throws IOException {
+        if (engine == null || engine.isEmpty() || engine.equalsIgnoreCase("jdk")) {
+            return new JdkHttpTransport(address);
+        }
+        if (engine.equalsIgnoreCase("nio")) {
+            return new NioHttpTransport(address, TransportSettings.fromEnvironment());
+        }
+        throw new IllegalArgumentException("Unknown HTTP engine: " + engine + " (expected jdk or nio)");
+    }
+}
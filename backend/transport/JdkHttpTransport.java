@@ -0,0 +1,55 @@
+package transport;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * HttpTransport on the JDK's built-in HttpServer. Handlers run on its dispatcher thread.
+ *
+ * HTTP_MAX_CONNECTIONS and HTTP_IDLE_TIMEOUT_MS are passed to the server through its
+ * sun.net.httpserver.* properties unless those are already set; they are read once, when the
+ * first server is created, so they only take effect if this is the first server in the JVM.
+ */
+public class JdkHttpTransport implements HttpTransport {
+
+    private final HttpServer server;
+
+    public JdkHttpTransport(InetSocketAddress address) throws IOException {
+        TransportSettings settings = TransportSettings.fromEnvironment();
+        setDefault("sun.net.httpserver.maxConnections", Integer.toString(settings.maxConnections));
+        // The JDK property is in seconds
+        setDefault("sun.net.httpserver.idleInterval",
+            Long.toString(Math.max(1, settings.idleTimeoutMillis / 1000)));
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(null);
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package transport;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpExchange for NioHttpTransport, so existing handlers run unchanged. The request body is
+ * already fully read when the handler starts, and the response body is buffered and handed
+ * to the selector thread in one piece when the handler closes the exchange or its response
+ * stream, which lets the response carry an exact Content-Length instead of chunked encoding.
+ * File bodies sent through sendFile skip the buffer and are transferred by the selector thread.
+ */
+class NioHttpExchange extends HttpExchange implements ZeroCopyExchange {
+
+    private final NioHttpTransport.Connection connection;
+    private final HttpContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final boolean clientKeepAlive;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ResponseBody responseBody = new ResponseBody();
+    private InputStream in;
+    private OutputStream out = responseBody;
+    private int responseCode = -1;
+    private long declaredLength;
+    private boolean completed;
+
+    NioHttpExchange(NioHttpTransport.Connection connection, HttpContext context, NioHttpTransport.Request request,
+                    byte[] body) {
+        this.connection = connection;
+        this.context = context;
+        this.method = request.method;
+        this.uri = request.uri;
+        this.protocol = request.protocol;
+        this.requestHeaders = request.headers;
+        this.clientKeepAlive = request.keepAlive;
+        this.in = new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        complete(false);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out;
+    }
+
+    /**
+     * Same contract as the JDK server: length -1 means no body, 0 means a body of any length,
+     * and a positive length is the size of the body that follows.
+     */
+    @Override
+    public synchronized void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("Response headers already sent");
+        }
+        responseCode = rCode;
+        declaredLength = responseLength;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.remoteAddress;
+    }
+
+    @Override
+    public synchronized int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            in = i;
+        }
+        if (o != null) {
+            out = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public void sendFile(int status, FileChannel file, long position, long count) throws IOException {
+        synchronized (this) {
+            if (responseCode >= 0 || completed) {
+                NioHttpTransport.closeQuietly(file);
+                throw new IOException("Response headers already sent");
+            }
+            responseCode = status;
+            completed = true;
+        }
+        boolean keepAlive = clientKeepAlive && connection.acceptsMore()
+            && !"close".equalsIgnoreCase(responseHeaders.getFirst("Connection"));
+        if ("HEAD".equals(method)) {
+            NioHttpTransport.closeQuietly(file);
+            connection.respond(encodeHead(status, responseHeaders, count, keepAlive), keepAlive);
+            return;
+        }
+        connection.respond(encodeHead(status, responseHeaders, count, keepAlive),
+            new NioHttpTransport.FileRegion(file, position, count), keepAlive);
+    }
+
+    /**
+     * Called after the handler returns. A handler that failed or never sent headers gets its
+     * connection closed after the response, since the client cannot trust what it received.
+     */
+    void finish(boolean failed) {
+        complete(failed);
+    }
+
+    private synchronized void complete(boolean failed) {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        boolean keepAlive = clientKeepAlive && !failed && responseCode >= 0 && connection.acceptsMore()
+            && !"close".equalsIgnoreCase(responseHeaders.getFirst("Connection"));
+        if (responseCode < 0) {
+            responseCode = 500;
+            declaredLength = -1;
+        }
+
+        boolean hasBody = declaredLength >= 0 && !"HEAD".equals(method)
+            && responseCode >= 200 && responseCode != 204 && responseCode != 304;
+        byte[] body = hasBody ? responseBody.toByteArray() : new byte[0];
+        connection.respond(encode(responseCode, responseHeaders, body, keepAlive), keepAlive);
+    }
+
+    /**
+     * Serialize a full response: status line, headers and body in one array so it goes out
+     * in as few writes as possible.
+     */
+    static byte[] encode(int status, Headers headers, byte[] body, boolean keepAlive) {
+        byte[] headBytes = encodeHead(status, headers, body.length, keepAlive);
+        byte[] response = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        return response;
+    }
+
+    /**
+     * Serialize the status line and headers for a body of contentLength bytes.
+     */
+    static byte[] encodeHead(int status, Headers headers, long contentLength, boolean keepAlive) {
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        head.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)))
+            .append("\r\n");
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Connection")
+                    || name.equalsIgnoreCase("Transfer-Encoding") || name.equalsIgnoreCase("Date")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (status >= 200 && status != 204 && status != 304) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 416: return "Range Not Satisfiable";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "";
+        }
+    }
+
+    // Closing the response stream completes the exchange, as with the JDK server
+    private class ResponseBody extends ByteArrayOutputStream {
+        @Override
+        public void close() {
+            complete(false);
+        }
+    }
+
+    /**
+     * The context a request was routed to. There is no HttpServer behind it, so getServer()
+     * returns null; filters and authenticators are not applied by NioHttpTransport.
+     */
+    static class Context extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final Map<String, Object> attributes = new HashMap<>();
+        private final List<Filter> filters = new ArrayList<>();
+        private Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator auth) {
+            Authenticator previous = authenticator;
+            authenticator = auth;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,774 @@
+package transport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 engine on a single NIO selector thread. The selector thread accepts connections,
+ * reads and parses requests and writes responses; handlers run on a pool of
+ * HTTP_WORKER_THREADS workers through NioHttpExchange, which is finished when the handler
+ * returns unless the handler detached it. See TransportSettings for the limits.
+ *
+ * - Connections stay open between requests (keep-alive) and are closed once idle for
+ *   HTTP_IDLE_TIMEOUT_MS. A request's line and headers must also arrive within
+ *   HTTP_IDLE_TIMEOUT_MS of its first byte, however steadily they trickle in, so slow
+ *   clients cannot hold connections open indefinitely. A body, which may be a large photo
+ *   on a slow uplink, only has to keep arriving: it is closed after HTTP_IDLE_TIMEOUT_MS
+ *   without a read.
+ * - Past HTTP_MAX_CONNECTIONS open connections, new ones get a 503 and are closed, so a burst
+ *   of clients cannot exhaust file descriptors or worker queue memory.
+ * - Requests whose headers or body exceed the limits get 431 or 413 before the body is read.
+ * - Socket I/O goes through pooled direct buffers that are only borrowed for one read or
+ *   write, so idle keep-alive connections hold no buffer.
+ * - File bodies sent through ZeroCopyExchange go from the page cache to the socket with
+ *   FileChannel.transferTo and never pass through the heap.
+ * - Each connection has at most one request in flight; pipelined requests wait in the input
+ *   buffer and reading is paused until the response is written.
+ * Chunked request bodies are not supported (411), which no current client sends.
+ */
+public class NioHttpTransport implements HttpTransport {
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] EMPTY = new byte[0];
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    // Input arrays larger than this are dropped after a request instead of being kept for the next one
+    private static final int RETAINED_INPUT_BYTES = 64 * 1024;
+    private static final int POOLED_BUFFERS = 64;
+
+    private final TransportSettings settings;
+    private final BufferPool buffers;
+    private final Map<String, HttpHandler> contexts = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Counter rejectedConnections;
+    private final MetricsRegistry metrics;
+    private Thread selectorThread;
+    private volatile boolean running;
+    private volatile boolean stopping;
+
+    /**
+     * Bind to an address; requests are not accepted until start().
+     */
+    public NioHttpTransport(InetSocketAddress address, TransportSettings settings) throws IOException {
+        this.settings = settings;
+        this.buffers = new BufferPool(settings.bufferBytes, POOLED_BUFFERS);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address, 128);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(settings.workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "http-worker-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.metrics = MetricsRegistry.getInstance();
+        this.rejectedConnections = metrics.counter("http_connections_rejected_total",
+            "Connections refused with 503 because HTTP_MAX_CONNECTIONS were open");
+        metrics.gauge("http_connections_open", "Open client connections on the NIO engine", openConnections::get);
+        metrics.gauge("http_buffer_pool_available", "Idle direct buffers in the NIO engine's pool",
+            buffers::available);
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler) {
+        if (contexts.putIfAbsent(path, handler) != null) {
+            throw new IllegalArgumentException("Context already registered: " + path);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (selectorThread != null) {
+            throw new IllegalStateException("Transport already started");
+        }
+        running = true;
+        selectorThread = new Thread(this::runSelector, "http-selector");
+        selectorThread.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        stopping = true;
+        selectorTasks.add(this::closeListener);
+        selector.wakeup();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        selector.wakeup();
+        Thread thread = selectorThread;
+        if (thread != null) {
+            try {
+                thread.join(SWEEP_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            closeListener();
+            closeQuietly(selector);
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void runSelector() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SWEEP_INTERVAL_MS);
+                runSelectorTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (stopping || now - lastSweep >= SWEEP_INTERVAL_MS) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[NioHttpTransport] Selector loop failed: " + e.getMessage());
+        } finally {
+            // Deliver responses that finished during shutdown before closing everything
+            runSelectorTasks();
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            closeListener();
+            closeQuietly(selector);
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // One bad task must not stop the selector loop
+                System.err.println("[NioHttpTransport] Selector task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.attachment() == null) {
+            try {
+                accept();
+            } catch (IOException e) {
+                System.err.println("[NioHttpTransport] Accept failed: " + e.getMessage());
+            }
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            connection.close();
+        } catch (RuntimeException e) {
+            // Only this connection is lost; the selector loop keeps serving the others
+            System.err.println("[NioHttpTransport] Closing connection after error: " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (openConnections.get() >= settings.maxConnections || stopping) {
+                refuse(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                openConnections.incrementAndGet();
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    // Best effort: the response is small enough for one non-blocking write into an empty socket buffer
+    private void refuse(SocketChannel channel) {
+        rejectedConnections.increment();
+        try {
+            channel.configureBlocking(false);
+            Headers headers = new Headers();
+            headers.set("Retry-After", "1");
+            channel.write(ByteBuffer.wrap(NioHttpExchange.encode(503, headers, EMPTY, false)));
+        } catch (IOException e) {
+            // The client is refused either way
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.inFlight) {
+                    continue;
+                }
+                // A client that stops reading a response is as idle as one that sends nothing;
+                // a partly received request head is timed from its first byte, not its latest one
+                long since = connection.requestStarted > 0 ? connection.requestStarted : connection.lastActivity;
+                if (stopping && connection.isIdle() || now - since > settings.idleTimeoutMillis) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void closeListener() {
+        closeQuietly(serverChannel);
+    }
+
+    private void dispatch(Connection connection, Request request, byte[] body) {
+        String contextPath = findContext(request.uri.getPath());
+        HttpHandler handler = contextPath != null ? contexts.get(contextPath) : null;
+        NioHttpExchange exchange = new NioHttpExchange(connection,
+            new NioHttpExchange.Context(contextPath != null ? contextPath : "/", handler), request, body);
+        try {
+            workers.execute(() -> runHandler(exchange, handler, request));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            connection.close();
+        }
+    }
+
+    private void runHandler(NioHttpExchange exchange, HttpHandler handler, Request request) {
+        boolean failed = false;
+        try {
+            if (handler == null) {
+                byte[] message = "No context found for request".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(404, message.length);
+                exchange.getResponseBody().write(message);
+            } else {
+                handler.handle(exchange);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[NioHttpTransport] Handler failed for " + request.method + " "
+                + request.uri.getPath() + ": " + e.getMessage());
+            failed = true;
+        } finally {
+            // A detached exchange is finished by the thread it was handed to
+            if (failed || !Boolean.TRUE.equals(exchange.getAttribute(DETACHED_ATTRIBUTE))) {
+                exchange.finish(failed);
+            }
+        }
+    }
+
+    /**
+     * Longest registered prefix of the path, matching HttpServer's context selection.
+     */
+    private String findContext(String path) {
+        if (path == null) {
+            return null;
+        }
+        String best = null;
+        for (String context : contexts.keySet()) {
+            if (path.startsWith(context) && (best == null || context.length() > best.length())) {
+                best = context;
+            }
+        }
+        return best;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do while closing
+        }
+    }
+
+    /**
+     * A parsed request line and headers, waiting for its body.
+     */
+    static final class Request {
+        final String method;
+        final URI uri;
+        final String protocol;
+        final Headers headers;
+        final boolean keepAlive;
+        final int bodyStart;
+        final int contentLength;
+
+        Request(String method, URI uri, String protocol, Headers headers, boolean keepAlive,
+                int bodyStart, int contentLength) {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.headers = headers;
+            this.keepAlive = keepAlive;
+            this.bodyStart = bodyStart;
+            this.contentLength = contentLength;
+        }
+    }
+
+    /**
+     * Part of a file still to be sent; the connection closes the channel once it is done.
+     */
+    static final class FileRegion {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        /**
+         * Transfer as much as the socket accepts.
+         *
+         * @return true once the whole region has been sent
+         */
+        boolean transferTo(SocketChannel target) throws IOException {
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    if (position >= file.size()) {
+                        throw new EOFException("File truncated while sending");
+                    }
+                    return false;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            return true;
+        }
+
+        void close() {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Per-connection state. Everything except respond() and acceptsMore() runs on the
+     * selector thread.
+     */
+    final class Connection {
+        final SocketChannel channel;
+        final InetSocketAddress remoteAddress;
+        final InetSocketAddress localAddress;
+        SelectionKey key;
+        private byte[] input = EMPTY;
+        private int inputLength;
+        private Request request;
+        private volatile boolean inFlight;
+        private boolean closeAfterWrite;
+        private boolean closed;
+        // byte[] and FileRegion entries, written in order
+        private final ArrayDeque<Object> outbound = new ArrayDeque<>();
+        private int outboundOffset;
+        private ByteBuffer writeBuffer;
+        long lastActivity = System.currentTimeMillis();
+        // When the first byte of the request head now in the input buffer arrived; 0 when there
+        // is none or the head is complete
+        long requestStarted;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+            this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        /**
+         * Hand a finished response to the selector thread. Called from a worker.
+         */
+        void respond(byte[] response, boolean keepAlive) {
+            respond(response, null, keepAlive);
+        }
+
+        /**
+         * Hand a response head and a file body to the selector thread. Called from a worker;
+         * the region's channel is closed once sent or when the connection closes.
+         */
+        void respond(byte[] head, FileRegion body, boolean keepAlive) {
+            selectorTasks.add(() -> {
+                if (closed) {
+                    if (body != null) {
+                        body.close();
+                    }
+                    return;
+                }
+                inFlight = false;
+                if (!keepAlive) {
+                    closeAfterWrite = true;
+                }
+                if (body != null) {
+                    outbound.add(head);
+                    send(body);
+                } else {
+                    send(head);
+                }
+                if (!closed && !closeAfterWrite && outbound.isEmpty()) {
+                    process();
+                    startRequestClock(System.currentTimeMillis());
+                }
+            });
+            selector.wakeup();
+        }
+
+        boolean acceptsMore() {
+            return !stopping;
+        }
+
+        boolean isIdle() {
+            return !inFlight && outbound.isEmpty();
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buffer = buffers.acquire();
+            try {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                append(buffer);
+            } finally {
+                buffers.release(buffer);
+            }
+            lastActivity = System.currentTimeMillis();
+            process();
+            startRequestClock(lastActivity);
+        }
+
+        /**
+         * Start the deadline for a request head whose first bytes are waiting in the input
+         * buffer. A pipelined request's clock starts once the one before it has been answered.
+         */
+        private void startRequestClock(long now) {
+            if (requestStarted == 0 && inputLength > 0 && !inFlight && request == null) {
+                requestStarted = now;
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (flush() && !closed && !closeAfterWrite) {
+                process();
+                startRequestClock(System.currentTimeMillis());
+            }
+        }
+
+        /**
+         * Parse and dispatch the next complete request in the input buffer, if any.
+         */
+        private void process() {
+            if (inFlight || closeAfterWrite || closed) {
+                return;
+            }
+            if (request == null) {
+                int end = indexOf(HEADER_END, input, inputLength);
+                if (end < 0) {
+                    if (inputLength > settings.maxHeaderBytes) {
+                        reject(431, "Request headers too large");
+                    }
+                    return;
+                }
+                if (end + HEADER_END.length > settings.maxHeaderBytes) {
+                    reject(431, "Request headers too large");
+                    return;
+                }
+                request = parseHead(end);
+                if (request == null) {
+                    return;
+                }
+                // The head arrived in time; the body is only held to the idle timeout per read
+                requestStarted = 0;
+                if ("100-continue".equalsIgnoreCase(request.headers.getFirst("Expect"))
+                        && inputLength < request.bodyStart + request.contentLength) {
+                    send(CONTINUE);
+                }
+            }
+
+            int requestEnd = request.bodyStart + request.contentLength;
+            if (inputLength < requestEnd) {
+                return;
+            }
+            byte[] body = Arrays.copyOfRange(input, request.bodyStart, requestEnd);
+            System.arraycopy(input, requestEnd, input, 0, inputLength - requestEnd);
+            inputLength -= requestEnd;
+            if (inputLength == 0 && input.length > RETAINED_INPUT_BYTES) {
+                input = EMPTY;
+            }
+
+            Request ready = request;
+            request = null;
+            requestStarted = 0;
+            inFlight = true;
+            updateInterest();
+            dispatch(this, ready, body);
+        }
+
+        private Request parseHead(int end) {
+            String[] lines = new String(input, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.") || lines[0].indexOf('\n') >= 0) {
+                reject(400, "Malformed request line");
+                return null;
+            }
+            URI uri;
+            try {
+                uri = new URI(requestLine[1]);
+            } catch (URISyntaxException e) {
+                reject(400, "Malformed request target");
+                return null;
+            }
+
+            Headers headers = new Headers();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                // Headers rejects a bare CR or LF in a value by throwing
+                if (colon <= 0 || lines[i].indexOf('\r') >= 0 || lines[i].indexOf('\n') >= 0) {
+                    reject(400, "Malformed header");
+                    return null;
+                }
+                headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+
+            if (headers.containsKey("Transfer-Encoding")) {
+                reject(411, "Chunked request bodies are not supported; send Content-Length");
+                return null;
+            }
+            long contentLength = 0;
+            List<String> lengths = headers.get("Content-Length");
+            if (lengths != null) {
+                try {
+                    contentLength = Long.parseLong(lengths.get(0).trim());
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+                if (contentLength < 0 || lengths.stream().anyMatch(l -> !l.trim().equals(lengths.get(0).trim()))) {
+                    reject(400, "Invalid Content-Length");
+                    return null;
+                }
+            }
+            if (contentLength > settings.maxBodyBytes) {
+                reject(413, "Request body too large");
+                return null;
+            }
+
+            String protocol = requestLine[2];
+            String connectionHeader = headers.getFirst("Connection");
+            boolean keepAlive = protocol.equals("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connectionHeader)
+                : "keep-alive".equalsIgnoreCase(connectionHeader);
+            return new Request(requestLine[0], uri, protocol, headers, keepAlive,
+                end + HEADER_END.length, (int) contentLength);
+        }
+
+        private void reject(int status, String message) {
+            metrics.counter("http_requests_rejected_total",
+                "Requests refused by the NIO engine before reaching a handler",
+                "status", Integer.toString(status)).increment();
+            Headers headers = new Headers();
+            headers.set("Content-Type", "text/plain; charset=utf-8");
+            closeAfterWrite = true;
+            input = EMPTY;
+            inputLength = 0;
+            send(NioHttpExchange.encode(status, headers, message.getBytes(StandardCharsets.UTF_8), false));
+        }
+
+        private void send(Object bytesOrRegion) {
+            outbound.add(bytesOrRegion);
+            try {
+                flush();
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        /**
+         * Write queued output through a pooled direct buffer.
+         *
+         * @return true if everything queued has been written
+         */
+        private boolean flush() throws IOException {
+            while (true) {
+                if (writeBuffer != null && writeBuffer.hasRemaining()) {
+                    if (channel.write(writeBuffer) > 0) {
+                        lastActivity = System.currentTimeMillis();
+                    }
+                    if (writeBuffer.hasRemaining()) {
+                        updateInterest();
+                        return false;
+                    }
+                }
+                Object head = outbound.peek();
+                if (head == null) {
+                    break;
+                }
+                if (head instanceof FileRegion) {
+                    FileRegion region = (FileRegion) head;
+                    boolean done = region.transferTo(channel);
+                    lastActivity = System.currentTimeMillis();
+                    if (!done) {
+                        updateInterest();
+                        return false;
+                    }
+                    region.close();
+                    outbound.poll();
+                    continue;
+                }
+                byte[] next = (byte[]) head;
+                if (writeBuffer == null) {
+                    writeBuffer = buffers.acquire();
+                }
+                writeBuffer.clear();
+                int length = Math.min(writeBuffer.capacity(), next.length - outboundOffset);
+                writeBuffer.put(next, outboundOffset, length).flip();
+                outboundOffset += length;
+                if (outboundOffset == next.length) {
+                    outbound.poll();
+                    outboundOffset = 0;
+                }
+            }
+
+            buffers.release(writeBuffer);
+            writeBuffer = null;
+            lastActivity = System.currentTimeMillis();
+            if (closeAfterWrite) {
+                close();
+            } else {
+                updateInterest();
+            }
+            return true;
+        }
+
+        private void updateInterest() {
+            if (closed) {
+                return;
+            }
+            int ops = 0;
+            if (!inFlight && !closeAfterWrite) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (writeBuffer != null || !outbound.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private void append(ByteBuffer buffer) {
+            int needed = inputLength + buffer.remaining();
+            if (needed > input.length) {
+                input = Arrays.copyOf(input, Math.max(needed, Math.max(1024, input.length * 2)));
+            }
+            buffer.get(input, inputLength, buffer.remaining());
+            inputLength = needed;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            buffers.release(writeBuffer);
+            writeBuffer = null;
+            for (Object pending : outbound) {
+                if (pending instanceof FileRegion) {
+                    ((FileRegion) pending).close();
+                }
+            }
+            outbound.clear();
+            input = EMPTY;
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private static int indexOf(byte[] pattern, byte[] data, int length) {
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,45 @@
+package transport;
+
+import utils.Settings;
+
+/**
+ * Limits applied by the HTTP engines. fromEnvironment() reads each from a System property or
+ * environment variable:
+ * - HTTP_MAX_CONNECTIONS: open connections before new ones get 503 (default 1000)
+ * - HTTP_IDLE_TIMEOUT_MS: how long a keep-alive connection may sit idle, and on the NIO engine
+ *   how long a request line and headers may take to arrive from their first byte (default 30000)
+ * - HTTP_MAX_HEADER_BYTES: request line plus headers before 431 (default 16384)
+ * - HTTP_MAX_BODY_BYTES: request body before 413 (default 20971520, room for a receipt photo)
+ * - HTTP_WORKER_THREADS: threads running handlers (default 1, because every DAO shares one
+ *   JDBC connection; the JDK engine also runs handlers on a single dispatcher thread)
+ * - HTTP_BUFFER_BYTES: size of each pooled direct I/O buffer (default 16384)
+ */
+public final class TransportSettings {
+
+    public final int maxConnections;
+    public final long idleTimeoutMillis;
+    public final int maxHeaderBytes;
+    public final long maxBodyBytes;
+    public final int workerThreads;
+    public final int bufferBytes;
+
+    public TransportSettings(int maxConnections, long idleTimeoutMillis, int maxHeaderBytes,
+                             long maxBodyBytes, int workerThreads, int bufferBytes) {
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.workerThreads = workerThreads;
+        this.bufferBytes = bufferBytes;
+    }
+
+    public static TransportSettings fromEnvironment() {
+        return new TransportSettings(
+            Settings.getInt("HTTP_MAX_CONNECTIONS", 1000),
+            Settings.getLong("HTTP_IDLE_TIMEOUT_MS", 30_000L, 1, Integer.MAX_VALUE),
+            Settings.getInt("HTTP_MAX_HEADER_BYTES", 16_384),
+            Settings.getLong("HTTP_MAX_BODY_BYTES", 20L * 1024 * 1024, 1, Integer.MAX_VALUE),
+            Settings.getInt("HTTP_WORKER_THREADS", 1),
+            Settings.getInt("HTTP_BUFFER_BYTES", 16_384));
+    }
+}
@@ -0,0 +1,18 @@
+package transport;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by exchanges that can send a file body straight from the page cache to the
+ * socket. Callers check for it and fall back to copying through getResponseBody otherwise.
+ */
+public interface ZeroCopyExchange {
+
+    /**
+     * Send count bytes of file starting at position as the whole response body, using the
+     * response headers already set, and complete the exchange. Takes ownership of the channel:
+     * it is closed once sent, or if the connection goes away first.
+     */
+    void sendFile(int status, FileChannel file, long position, long count) throws IOException;
+}
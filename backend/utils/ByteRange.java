@@ -0,0 +1,87 @@
+package utils;
+
+/**
+ * A single byte range from a Range request header, resolved against the size of the
+ * representation. Only single ranges are served: a multi-range request, or a header that
+ * does not parse, is ignored and the whole representation is sent, as RFC 9110 allows.
+ */
+public final class ByteRange {
+
+    /**
+     * Returned by parse() when the range is well formed but lies outside the representation (416).
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, 0);
+
+    public final long start;
+    public final long length;
+
+    private ByteRange(long start, long length) {
+        this.start = start;
+        this.length = length;
+    }
+
+    public long end() {
+        return start + length - 1;
+    }
+
+    /**
+     * Content-Range header value for this range.
+     */
+    public String contentRange(long size) {
+        return "bytes " + start + "-" + end() + "/" + size;
+    }
+
+    /**
+     * Resolve a Range header against a representation size.
+     *
+     * @param header Range header value, may be null
+     * @param size Size of the full representation in bytes
+     * @return The range to send, UNSATISFIABLE, or null to send the whole representation
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            if (dash == 0) {
+                // Suffix range: the last n bytes
+                long suffix = parseDigits(spec.substring(1));
+                if (suffix == 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                long length = Math.min(suffix, size);
+                return new ByteRange(size - length, length);
+            }
+            long first = parseDigits(spec.substring(0, dash));
+            String lastText = spec.substring(dash + 1);
+            long last = lastText.isEmpty() ? Long.MAX_VALUE : parseDigits(lastText);
+            if (last < first) {
+                return null;
+            }
+            if (first >= size) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(first, Math.min(last, size - 1) - first + 1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Long.parseLong also accepts a sign, which a range must not have
+    private static long parseDigits(String text) {
+        if (text.isEmpty()) {
+            throw new NumberFormatException("Empty range bound");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                throw new NumberFormatException("Bad range bound: " + text);
+            }
+        }
+        return Long.parseLong(text);
+    }
+}
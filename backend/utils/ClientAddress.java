@@ -0,0 +1,49 @@
+package utils;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The address of the client behind a request, for per-client limits.
+ *
+ * Behind a reverse proxy (Railway in production) every request arrives from the proxy's
+ * address, so the client is taken from X-Forwarded-For instead. Each proxy appends the
+ * address it received the request from, so with TRUSTED_PROXY_HOPS proxies in front of the
+ * server (default 0, i.e. no proxy) the client is that many entries from the right. Entries
+ * further left were written by the client and are never used. Without a proxy setting, or
+ * when the header has fewer entries than there are proxies, the socket address is used.
+ */
+public class ClientAddress {
+
+    private static final int TRUSTED_PROXY_HOPS = Settings.getInt("TRUSTED_PROXY_HOPS", 0, 0, 16);
+
+    /**
+     * Client address of the exchange under TRUSTED_PROXY_HOPS.
+     */
+    public static String of(HttpExchange exchange) {
+        return resolve(exchange.getRemoteAddress().getAddress().getHostAddress(),
+            exchange.getRequestHeaders().get("X-Forwarded-For"), TRUSTED_PROXY_HOPS);
+    }
+
+    /**
+     * @param socketAddress Address the connection came from
+     * @param forwardedFor X-Forwarded-For header values in order, or null
+     * @param trustedHops Proxies in front of the server
+     */
+    public static String resolve(String socketAddress, List<String> forwardedFor, int trustedHops) {
+        if (trustedHops == 0 || forwardedFor == null) {
+            return socketAddress;
+        }
+        List<String> hops = new ArrayList<>();
+        for (String value : forwardedFor) {
+            for (String hop : value.split(",")) {
+                if (!hop.trim().isEmpty()) {
+                    hops.add(hop.trim());
+                }
+            }
+        }
+        return hops.size() >= trustedHops ? hops.get(hops.size() - trustedHops) : socketAddress;
+    }
+}
@@ -0,0 +1,35 @@
+package utils;
+
+/**
+ * Entity tags for conditional GETs. Handlers answer 304 Not Modified when the client's
+ * If-None-Match already names the current tag (see ReceiptVersions and ReceiptImageStore),
+ * which saves the response transfer and the client's re-render when nothing changed.
+ */
+public class ETags {
+
+    /**
+     * Whether an If-None-Match header value matches an ETag.
+     * Accepts "*", comma-separated lists and weak tags (W/ prefix), per the weak comparison
+     * RFC 9110 prescribes for If-None-Match.
+     *
+     * @param ifNoneMatch Header value, may be null
+     * @param etag Current ETag
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        String current = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
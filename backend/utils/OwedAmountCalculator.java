@@ -0,0 +1,79 @@
+package utils;
+
+import models.ReceiptItem;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a participant's share of a receipt in memory, with the same BigDecimal rounding as
+ * ReceiptDAO.calculateUserOwedAmount: tax and tip are split in proportion to the claimed
+ * subtotal, the proportion is kept to 10 places and each share is rounded half-up to cents.
+ */
+public class OwedAmountCalculator {
+
+    private static final int PROPORTION_SCALE = 10;
+
+    /**
+     * Amount owed for the claimed items including their share of tax and tip.
+     *
+     * @param items All items of the receipt
+     * @param claimedQuantities Map of item_id -> quantity claimed by the user
+     * @param taxAmount Receipt tax
+     * @param tipAmount Receipt tip
+     * @return Amount owed, or 0 if nothing is claimed
+     */
+    public static BigDecimal owedAmount(List<ReceiptItem> items, Map<Integer, Integer> claimedQuantities,
+                                        float taxAmount, float tipAmount) {
+        BigDecimal totalSubtotal = BigDecimal.ZERO;
+        BigDecimal claimedSubtotal = BigDecimal.ZERO;
+        for (ReceiptItem item : items) {
+            BigDecimal price = toDecimal(item.getPrice());
+            totalSubtotal = totalSubtotal.add(price.multiply(BigDecimal.valueOf(item.getQuantity())));
+            Integer claimed = claimedQuantities.get(item.getItemId());
+            if (claimed != null) {
+                claimedSubtotal = claimedSubtotal.add(price.multiply(BigDecimal.valueOf(claimed)));
+            }
+        }
+        return withTaxAndTip(claimedSubtotal, totalSubtotal, taxAmount, tipAmount);
+    }
+
+    /**
+     * Amount still owed once the user's paid assignments are taken off, never negative.
+     *
+     * @param items All items of the receipt
+     * @param claimedQuantities Map of item_id -> quantity claimed by the user
+     * @param paidQuantities Map of item_id -> quantity of the user's claims already paid
+     * @param taxAmount Receipt tax
+     * @param tipAmount Receipt tip
+     */
+    public static BigDecimal owedAmountExcludingPaid(List<ReceiptItem> items, Map<Integer, Integer> claimedQuantities,
+                                                     Map<Integer, Integer> paidQuantities,
+                                                     float taxAmount, float tipAmount) {
+        BigDecimal owed = owedAmount(items, claimedQuantities, taxAmount, tipAmount);
+        if (owed.compareTo(new BigDecimal("0.01")) <= 0) {
+            return BigDecimal.ZERO;
+        }
+        BigDecimal paid = owedAmount(items, paidQuantities, taxAmount, tipAmount);
+        BigDecimal remaining = owed.subtract(paid).setScale(2, RoundingMode.HALF_UP);
+        return remaining.signum() > 0 ? remaining : BigDecimal.ZERO;
+    }
+
+    private static BigDecimal withTaxAndTip(BigDecimal subtotal, BigDecimal totalSubtotal,
+                                            float taxAmount, float tipAmount) {
+        if (subtotal.signum() == 0 || totalSubtotal.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        BigDecimal proportion = subtotal.divide(totalSubtotal, PROPORTION_SCALE, RoundingMode.HALF_UP);
+        BigDecimal tax = toDecimal(taxAmount).multiply(proportion).setScale(2, RoundingMode.HALF_UP);
+        BigDecimal tip = toDecimal(tipAmount).multiply(proportion).setScale(2, RoundingMode.HALF_UP);
+        return subtotal.add(tax).add(tip).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    // Amounts are DECIMAL(10, 2) in the database; the float's shortest decimal form recovers the stored value
+    private static BigDecimal toDecimal(float amount) {
+        return new BigDecimal(Float.toString(amount));
+    }
+}
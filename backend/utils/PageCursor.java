@@ -0,0 +1,47 @@
+package utils;
+
+import java.sql.Timestamp;
+
+/**
+ * Keyset paging cursor for lists ordered newest first by (created_at, id), as used by
+ * BalanceService.getBalanceHistoryPage and TransactionService.findTransactions.
+ * Encoded as "&lt;created_at millis&gt;_&lt;id&gt;"; clients treat it as opaque.
+ */
+public final class PageCursor {
+
+    public final Timestamp createdAt;
+    public final int id;
+
+    private PageCursor(Timestamp createdAt, int id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    /**
+     * Cursor for the page after the row with this created_at and id.
+     */
+    public static String encode(Timestamp createdAt, int id) {
+        return createdAt.getTime() + "_" + id;
+    }
+
+    /**
+     * Parse a cursor from a previous page.
+     *
+     * @return The cursor, or null for a null or blank cursor (the first page)
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static PageCursor parse(String cursor) {
+        if (cursor == null || cursor.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = cursor.trim().split("_");
+        try {
+            if (parts.length != 2) {
+                throw new NumberFormatException(cursor);
+            }
+            return new PageCursor(new Timestamp(Long.parseLong(parts[0])), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package utils;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Query string parsing shared by all handlers. Requests dispatched by Router carry their
+ * parsed parameters, so the query is split and decoded at most once per request however
+ * many times a handler or its helpers ask for it.
+ *
+ * Keys and values are split on the raw query and then percent-decoded, so an encoded '&' or
+ * '=' inside a value survives. '+' is kept literally rather than read as a space, since
+ * e-mail addresses are passed in query strings. A key without '=' maps to "", and when a key
+ * repeats the first value wins.
+ */
+public class QueryParams {
+
+    /**
+     * Parameters of the exchange's query string; unmodifiable.
+     */
+    public static Map<String, String> of(HttpExchange exchange) {
+        if (exchange instanceof Router.RoutedExchange) {
+            return ((Router.RoutedExchange) exchange).queryParams();
+        }
+        return parse(exchange.getRequestURI().getRawQuery());
+    }
+
+    /**
+     * Parse a raw (still percent-encoded) query string.
+     */
+    public static Map<String, String> parse(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, String> params = new HashMap<>();
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = decode(eq >= 0 ? pair.substring(0, eq) : pair);
+            String value = eq >= 0 ? decode(pair.substring(eq + 1)) : "";
+            params.putIfAbsent(key, value);
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // Malformed escape: keep the raw text so validation reports it instead of a 500
+            return value;
+        }
+    }
+}
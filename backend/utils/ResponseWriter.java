@@ -0,0 +1,235 @@
+package utils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import transport.ZeroCopyExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Shared response path for all handlers. Bodies of at least COMPRESSION_MIN_BYTES (default 1024)
+ * are compressed with gzip, or deflate, when the request's Accept-Encoding allows it and the
+ * result is actually smaller. COMPRESSION_LEVEL (1-9, default 6) picks the speed/size tradeoff.
+ *
+ * Deflater instances hold native zlib memory that is only released by end() or finalization,
+ * so they are pooled and reset between responses instead of being allocated per request.
+ */
+public class ResponseWriter {
+
+    private static final int MIN_BYTES = Settings.getInt("COMPRESSION_MIN_BYTES", 1024, 0, Integer.MAX_VALUE);
+    private static final int LEVEL = Settings.getInt("COMPRESSION_LEVEL", 6, 1, 9);
+    private static final int POOL_SIZE = 32;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // Raw deflate streams for gzip framing, and zlib-wrapped streams for Content-Encoding: deflate
+    private static final BlockingQueue<Deflater> GZIP_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Deflater> DEFLATE_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final Counter gzipResponses = compressedCounter("gzip");
+    private static final Counter deflateResponses = compressedCounter("deflate");
+    private static final Counter bytesSaved = MetricsRegistry.getInstance().counter(
+        "http_response_compression_saved_bytes_total", "Response bytes saved by compression");
+
+    /**
+     * Send a JSON body.
+     */
+    public static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a body, compressed when the client accepts it and it is large enough to benefit.
+     */
+    public static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+
+        byte[] payload = body;
+        if (body.length >= MIN_BYTES) {
+            // The representation depends on Accept-Encoding whether or not this one is compressed
+            headers.add("Vary", "Accept-Encoding");
+            String encoding = negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            if (encoding != null) {
+                byte[] compressed = "gzip".equals(encoding) ? gzip(body) : deflate(body);
+                if (compressed.length < body.length) {
+                    payload = compressed;
+                    headers.set("Content-Encoding", encoding);
+                    weakenETag(headers);
+                    ("gzip".equals(encoding) ? gzipResponses : deflateResponses).increment();
+                    bytesSaved.add(body.length - compressed.length);
+                }
+            }
+        }
+
+        exchange.sendResponseHeaders(status, payload.length == 0 ? -1 : payload.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(payload);
+        }
+    }
+
+    /**
+     * Send part of a file as the body without reading it into the heap. On the NIO engine the
+     * bytes go from the page cache to the socket with sendfile; elsewhere they are streamed in
+     * small chunks. Files are sent as-is: the images served this way are already compressed.
+     *
+     * @param position Offset of the first byte to send
+     * @param count Number of bytes to send
+     */
+    public static void sendFile(HttpExchange exchange, int status, String contentType, Path file,
+                                long position, long count) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        HttpExchange target = exchange instanceof Router.RoutedExchange
+            ? ((Router.RoutedExchange) exchange).delegate() : exchange;
+        if (target instanceof ZeroCopyExchange) {
+            // The exchange owns the channel from here on
+            ((ZeroCopyExchange) target).sendFile(status, channel, position, count);
+            return;
+        }
+        try (FileChannel in = channel) {
+            exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+            try (OutputStream os = exchange.getResponseBody()) {
+                WritableByteChannel out = Channels.newChannel(os);
+                long sent = 0;
+                while (sent < count) {
+                    long n = in.transferTo(position + sent, count - sent, out);
+                    if (n <= 0) {
+                        throw new IOException("File truncated while sending: " + file);
+                    }
+                    sent += n;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pick gzip or deflate from an Accept-Encoding header, honouring q-values; null for identity.
+     * gzip wins ties because every client that sends Accept-Encoding decodes it.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double wildcard = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+        if (gzip < 0) gzip = wildcard;
+        if (deflate < 0) deflate = wildcard;
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    /**
+     * Compress a body into a gzip member using a pooled raw deflater.
+     */
+    public static byte[] gzip(byte[] body) {
+        Deflater deflater = borrow(GZIP_POOL, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 3 + 32);
+            out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            compress(deflater, body, out);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, body.length);
+            return out.toByteArray();
+        } finally {
+            release(GZIP_POOL, deflater);
+        }
+    }
+
+    /**
+     * Compress a body into a zlib stream, which is what Content-Encoding: deflate means.
+     */
+    public static byte[] deflate(byte[] body) {
+        Deflater deflater = borrow(DEFLATE_POOL, false);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 3 + 16);
+            compress(deflater, body, out);
+            return out.toByteArray();
+        } finally {
+            release(DEFLATE_POOL, deflater);
+        }
+    }
+
+    private static void compress(Deflater deflater, byte[] body, ByteArrayOutputStream out) {
+        deflater.setInput(body);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    private static Deflater borrow(BlockingQueue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        return deflater != null ? deflater : new Deflater(LEVEL, nowrap);
+    }
+
+    private static void release(BlockingQueue<Deflater> pool, Deflater deflater) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            // Pool is full: free the native memory now rather than waiting for GC
+            deflater.end();
+        }
+    }
+
+    // A compressed body is a different byte sequence, so a strong validator must not be reused for it
+    private static void weakenETag(Headers headers) {
+        String etag = headers.getFirst("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            headers.set("ETag", "W/" + etag);
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    private static Counter compressedCounter(String encoding) {
+        return MetricsRegistry.getInstance().counter("http_responses_compressed_total",
+            "Responses sent with a Content-Encoding", "encoding", encoding);
+    }
+}
@@ -0,0 +1,251 @@
+package utils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single entry point for the API, mounted as one context. Routes are registered per method
+ * and exact path; the table is built once at startup, so dispatch is one hash lookup plus a
+ * scan of the two or three methods a path accepts.
+ *
+ * The router owns the cross-cutting parts every handler used to repeat:
+ * - CORS: Access-Control-Allow-Origin on every response, and ETag/X-Request-Id exposed to scripts
+ * - preflights: OPTIONS answers 204 with the path's methods and Access-Control-Max-Age of
+ *   CORS_MAX_AGE_SECONDS (default 86400), so browsers cache it instead of re-preflighting
+ * - method checks: 405 with an Allow header; unknown paths get 404
+ * - query parsing: handlers receive an exchange whose parameters are parsed once, on first
+ *   use, through QueryParams.of
+ */
+public class Router implements HttpHandler {
+
+    private static final String ALLOW_HEADERS = "Content-Type, If-None-Match, X-Request-Id, X-Admin-Token";
+    private static final String EXPOSE_HEADERS = "ETag, X-Request-Id";
+    private static final String MAX_AGE = Integer.toString(Settings.getInt("CORS_MAX_AGE_SECONDS", 86400, 0, Integer.MAX_VALUE));
+    private static final String NOT_FOUND = "{\"success\": false, \"message\": \"Not found\"}";
+    private static final String METHOD_NOT_ALLOWED = "{\"success\": false, \"message\": \"Method not allowed\"}";
+
+    private final Map<String, Route> routes = new HashMap<>();
+
+    public Router get(String path, HttpHandler handler) {
+        return route("GET", path, handler);
+    }
+
+    public Router post(String path, HttpHandler handler) {
+        return route("POST", path, handler);
+    }
+
+    public Router delete(String path, HttpHandler handler) {
+        return route("DELETE", path, handler);
+    }
+
+    /**
+     * Register a handler for one method on one path. Register every route before the
+     * server starts; the table is not modified afterwards.
+     */
+    public synchronized Router route(String method, String path, HttpHandler handler) {
+        String key = normalize(path);
+        Route existing = routes.get(key);
+        routes.put(key, existing == null ? new Route(method, handler) : existing.with(method, handler));
+        return this;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+
+        Route route = routes.get(normalize(exchange.getRequestURI().getPath()));
+        if (route == null) {
+            ResponseWriter.sendJson(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        String method = exchange.getRequestMethod();
+        if ("OPTIONS".equals(method)) {
+            headers.set("Allow", route.allow);
+            headers.set("Access-Control-Allow-Methods", route.allow);
+            headers.set("Access-Control-Allow-Headers", ALLOW_HEADERS);
+            headers.set("Access-Control-Max-Age", MAX_AGE);
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+
+        HttpHandler handler = route.handler(method);
+        if (handler == null) {
+            headers.set("Allow", route.allow);
+            ResponseWriter.sendJson(exchange, 405, METHOD_NOT_ALLOWED);
+            return;
+        }
+        headers.set("Access-Control-Expose-Headers", EXPOSE_HEADERS);
+        handler.handle(new RoutedExchange(exchange));
+    }
+
+    // "/api/x/" and "/api/x" are the same route
+    private static String normalize(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * Methods and handlers for one path, with the Allow header value precomputed.
+     */
+    private static final class Route {
+        private final String[] methods;
+        private final HttpHandler[] handlers;
+        private final String allow;
+
+        Route(String method, HttpHandler handler) {
+            this(new String[] {method}, new HttpHandler[] {handler});
+        }
+
+        private Route(String[] methods, HttpHandler[] handlers) {
+            this.methods = methods;
+            this.handlers = handlers;
+            this.allow = String.join(", ", methods) + ", OPTIONS";
+        }
+
+        Route with(String method, HttpHandler handler) {
+            if (handler(method) != null) {
+                throw new IllegalArgumentException("Route already registered: " + method);
+            }
+            String[] newMethods = Arrays.copyOf(methods, methods.length + 1);
+            HttpHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+            newMethods[methods.length] = method;
+            newHandlers[handlers.length] = handler;
+            return new Route(newMethods, newHandlers);
+        }
+
+        HttpHandler handler(String method) {
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    return handlers[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The exchange handed to route handlers: delegates everything to the server's exchange
+     * and carries the request's parsed query parameters.
+     */
+    static final class RoutedExchange extends HttpExchange {
+        private final HttpExchange delegate;
+        private Map<String, String> queryParams;
+
+        RoutedExchange(HttpExchange delegate) {
+            this.delegate = delegate;
+        }
+
+        HttpExchange delegate() {
+            return delegate;
+        }
+
+        Map<String, String> queryParams() {
+            if (queryParams == null) {
+                queryParams = QueryParams.parse(delegate.getRequestURI().getRawQuery());
+            }
+            return queryParams;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return delegate.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return delegate.getResponseHeaders();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return delegate.getRequestURI();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return delegate.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return delegate.getHttpContext();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return delegate.getRequestBody();
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return delegate.getResponseBody();
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            delegate.sendResponseHeaders(rCode, responseLength);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return delegate.getRemoteAddress();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return delegate.getResponseCode();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return delegate.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            delegate.setAttribute(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            delegate.setStreams(i, o);
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return delegate.getPrincipal();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+/**
+ * Server settings, read from a System property (e.g. a Maven -D flag) or else an environment
+ * variable of the same name. A numeric setting that is not a number, or is outside its
+ * allowed range, falls back to its default with a message on stderr.
+ */
+public final class Settings {
+
+    private Settings() {
+    }
+
+    /**
+     * @return The trimmed value, or null if the setting is unset or empty
+     */
+    public static String get(String name) {
+        return get(name, null);
+    }
+
+    /**
+     * @return The trimmed value, or defaultValue if the setting is unset or empty
+     */
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            value = System.getenv(name);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * A positive whole number.
+     */
+    public static int getInt(String name, int defaultValue) {
+        return getInt(name, defaultValue, 1, Integer.MAX_VALUE);
+    }
+
+    public static int getInt(String name, int defaultValue, int min, int max) {
+        return (int) getLong(name, defaultValue, min, max);
+    }
+
+    /**
+     * A positive whole number.
+     */
+    public static long getLong(String name, long defaultValue) {
+        return getLong(name, defaultValue, 1, Long.MAX_VALUE);
+    }
+
+    public static long getLong(String name, long defaultValue, long min, long max) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Invalid " + name + ": " + value + ", using default " + defaultValue);
+        return defaultValue;
+    }
+
+    public static double getDouble(String name, double defaultValue, double min, double max) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Invalid " + name + ": " + value + ", using default " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * "true" or "false", in any case.
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        System.err.println("Invalid " + name + ": " + value + ", using default " + defaultValue);
+        return defaultValue;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import services.BalanceService;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the balance write path (row lock, update, ledger insert, commit) and the cached read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BalanceServiceBenchmark {
+
+    @Param({"1000"})
+    public int receiptCount;
+
+    private BalanceService balanceService;
+    private List<String> userIds;
+    private int userCursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.SeededData data = BenchmarkDatabase.seed(receiptCount);
+        balanceService = new BalanceService();
+        userIds = data.userIds;
+    }
+
+    @Benchmark
+    public boolean addToBalance() {
+        String userId = userIds.get(Math.floorMod(userCursor++, userIds.size()));
+        // One cent per call keeps balances far below DECIMAL(10, 2) limits for any run length
+        return balanceService.addToBalance(userId, 0.01, BalanceService.TYPE_ADJUSTMENT,
+                                           "benchmark", null, "benchmark");
+    }
+
+    @Benchmark
+    public double getCurrentBalance() {
+        return balanceService.getCurrentBalance(userIds.get(Math.floorMod(userCursor++, userIds.size())));
+    }
+}
@@ -0,0 +1,227 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Embedded benchmark database.
+ * Points DatabaseConnection at an in-memory H2 database running in MySQL mode, creates the
+ * schema from bench-schema.sql and seeds it with a deterministic data set whose size is
+ * controlled by the benchmark's @Param values.
+ *
+ * Must be called before anything touches database.DatabaseConnection, because that class
+ * reads DB_URL once when it is loaded.
+ */
+public final class BenchmarkDatabase {
+
+    static final String DB_URL = "jdbc:h2:mem:checkmate_bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    // H2's per-session parsed-statement cache turned off, the embedded equivalent of running
+    // Connector/J without cachePrepStmts/useServerPrepStmts
+    static final String DB_URL_NO_STATEMENT_CACHE = DB_URL + ";QUERY_CACHE_SIZE=0";
+    static final String DB_USER = "bench";
+    static final String DB_PASSWORD = "bench";
+
+    static final int ITEMS_PER_RECEIPT = 8;
+    static final int PARTICIPANTS_PER_RECEIPT = 4;
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Configure DatabaseConnection for the embedded database and silence the per-call
+     * console logging of the backend (set -Dbench.quiet=false to keep it).
+     */
+    static void configure() {
+        configure(true);
+    }
+
+    /**
+     * @param statementCache false to disable the database's prepared statement cache
+     */
+    static void configure(boolean statementCache) {
+        System.setProperty("DB_URL", statementCache ? DB_URL : DB_URL_NO_STATEMENT_CACHE);
+        System.setProperty("DB_USER", DB_USER);
+        System.setProperty("DB_PASSWORD", DB_PASSWORD);
+        if (!"false".equals(System.getProperty("bench.quiet"))) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    /**
+     * Recreate the schema and seed it.
+     *
+     * @param receiptCount Number of receipts to create
+     * @return Handles to the seeded data that benchmarks operate on
+     */
+    static SeededData seed(int receiptCount) throws SQLException, IOException {
+        return seed(receiptCount, true);
+    }
+
+    /**
+     * Recreate the schema and seed it.
+     *
+     * @param receiptCount Number of receipts to create
+     * @param statementCache false to disable the database's prepared statement cache
+     * @return Handles to the seeded data that benchmarks operate on
+     */
+    static SeededData seed(int receiptCount, boolean statementCache) throws SQLException, IOException {
+        configure(statementCache);
+        // The first connection creates the in-memory database, so it decides the cache setting
+        String url = statementCache ? DB_URL : DB_URL_NO_STATEMENT_CACHE;
+        int userCount = Math.max(PARTICIPANTS_PER_RECEIPT + 1, receiptCount / 4);
+        Random random = new Random(42);
+        SeededData data = new SeededData();
+
+        try (Connection conn = DriverManager.getConnection(url, DB_USER, DB_PASSWORD)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP ALL OBJECTS");
+                for (String ddl : loadSchema()) {
+                    stmt.execute(ddl);
+                }
+            }
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement users = conn.prepareStatement(
+                    "INSERT INTO users (user_id, name, email, phone_number, password_hash, balance) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int u = 0; u < userCount; u++) {
+                    String userId = userId(u);
+                    users.setString(1, userId);
+                    users.setString(2, "Bench User " + u);
+                    users.setString(3, "bench" + u + "@example.com");
+                    users.setString(4, String.format("555%07d", u));
+                    users.setString(5, "x");
+                    users.setBigDecimal(6, new java.math.BigDecimal("1000.00"));
+                    users.addBatch();
+                    data.userIds.add(userId);
+                }
+                users.executeBatch();
+            }
+
+            try (PreparedStatement receipts = conn.prepareStatement(
+                    "INSERT INTO receipts (uploaded_by, merchant_name, date, total_amount, tip_amount, " +
+                    "tax_amount, status, sender_name, number_of_items) VALUES (?, ?, CURRENT_TIMESTAMP, ?, ?, ?, 'pending', ?, ?)");
+                 PreparedStatement items = conn.prepareStatement(
+                    "INSERT INTO receipt_items (receipt_id, name, price, quantity, category) VALUES (?, ?, ?, ?, 'food')");
+                 PreparedStatement participants = conn.prepareStatement(
+                    "INSERT INTO receipt_participants (receipt_id, user_id, status) VALUES (?, ?, 'pending')");
+                 PreparedStatement assignments = conn.prepareStatement(
+                    "INSERT INTO item_assignments (receipt_id, item_id, user_id, quantity) VALUES (?, ?, ?, 1)")) {
+
+                // Fresh schema, so generated keys run 1..N in insert order
+                int itemId = 1;
+                for (int r = 1; r <= receiptCount; r++) {
+                    int uploader = random.nextInt(userCount);
+                    receipts.setString(1, userId(uploader));
+                    receipts.setString(2, "Merchant " + (r % 97));
+                    receipts.setBigDecimal(3, new java.math.BigDecimal("120.00"));
+                    receipts.setBigDecimal(4, new java.math.BigDecimal("15.00"));
+                    receipts.setBigDecimal(5, new java.math.BigDecimal("9.50"));
+                    receipts.setString(6, "Bench User " + uploader);
+                    receipts.setInt(7, ITEMS_PER_RECEIPT);
+                    receipts.addBatch();
+
+                    List<String> receiptParticipants = new ArrayList<>();
+                    for (int p = 1; p <= PARTICIPANTS_PER_RECEIPT; p++) {
+                        String participant = userId((uploader + p) % userCount);
+                        receiptParticipants.add(participant);
+                        participants.setInt(1, r);
+                        participants.setString(2, participant);
+                        participants.addBatch();
+                    }
+
+                    for (int i = 0; i < ITEMS_PER_RECEIPT; i++, itemId++) {
+                        items.setInt(1, r);
+                        items.setString(2, "Item " + i);
+                        items.setBigDecimal(3, java.math.BigDecimal.valueOf(200 + random.nextInt(2000), 2));
+                        items.setInt(4, 1 + random.nextInt(3));
+                        items.addBatch();
+                        data.itemIds.add(itemId);
+
+                        // Half of the items are already claimed by one participant
+                        if (i % 2 == 0) {
+                            assignments.setInt(1, r);
+                            assignments.setInt(2, itemId);
+                            assignments.setString(3, receiptParticipants.get(i % receiptParticipants.size()));
+                            assignments.addBatch();
+                        }
+                    }
+
+                    if (r % 500 == 0) {
+                        receipts.executeBatch();
+                        participants.executeBatch();
+                        items.executeBatch();
+                        assignments.executeBatch();
+                    }
+                }
+                receipts.executeBatch();
+                participants.executeBatch();
+                items.executeBatch();
+                assignments.executeBatch();
+            }
+
+            conn.commit();
+        }
+
+        // The benchmarked user sees receipts where they are a participant
+        data.benchUserId = userId(1);
+        try (Connection conn = DriverManager.getConnection(url, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT receipt_id FROM receipt_participants WHERE user_id = ? ORDER BY receipt_id")) {
+            stmt.setString(1, data.benchUserId);
+            try (java.sql.ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    data.benchUserReceiptIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return data;
+    }
+
+    static String userId(int index) {
+        return String.format("00000000-0000-0000-0000-%012d", index);
+    }
+
+    private static List<String> loadSchema() throws IOException {
+        try (InputStream in = BenchmarkDatabase.class.getResourceAsStream("/bench-schema.sql")) {
+            if (in == null) {
+                throw new IOException("bench-schema.sql not found on classpath");
+            }
+            String script = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))
+                .lines()
+                .filter(line -> !line.trim().startsWith("--"))
+                .collect(Collectors.joining("\n"));
+            List<String> statements = new ArrayList<>();
+            for (String statement : script.split(";")) {
+                if (!statement.trim().isEmpty()) {
+                    statements.add(statement.trim());
+                }
+            }
+            return statements;
+        }
+    }
+
+    /**
+     * IDs of seeded rows that benchmarks pick from.
+     */
+    static final class SeededData {
+        final List<String> userIds = new ArrayList<>();
+        final List<Integer> itemIds = new ArrayList<>();
+        final List<Integer> benchUserReceiptIds = new ArrayList<>();
+        String benchUserId;
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import database.ReceiptDAO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the ReceiptDAO calls behind the pending/activity lists and item claiming.
+ *
+ * receiptCount controls the size of the seeded data set; batchSize is how many receipt IDs
+ * a list screen asks for at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiptDAOBenchmark {
+
+    @Param({"1000", "10000"})
+    public int receiptCount;
+
+    @Param({"20"})
+    public int batchSize;
+
+    private ReceiptDAO receiptDAO;
+    private String userId;
+    private List<Integer> receiptIds;
+    private List<Integer> itemIds;
+    private List<String> claimers;
+    private int claimCursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.SeededData data = BenchmarkDatabase.seed(receiptCount);
+        receiptDAO = new ReceiptDAO();
+        userId = data.benchUserId;
+        List<Integer> visible = data.benchUserReceiptIds;
+        receiptIds = new ArrayList<>(visible.subList(0, Math.min(batchSize, visible.size())));
+        itemIds = data.itemIds;
+        claimers = data.userIds;
+    }
+
+    @Benchmark
+    public Map<Integer, ReceiptDAO.ReceiptMetadata> getReceiptsMetadataBatch() {
+        return receiptDAO.getReceiptsMetadataBatch(receiptIds, userId);
+    }
+
+    @Benchmark
+    public Map<Integer, Float> calculateUserOwedAmountsBatch() {
+        return receiptDAO.calculateUserOwedAmountsBatch(receiptIds, userId);
+    }
+
+    /**
+     * Claims one unit of a different item each call. Re-claiming an item a user already
+     * holds is an upsert, so the data set does not grow without bound.
+     */
+    @Benchmark
+    public boolean assignItemToUser() {
+        int cursor = claimCursor++;
+        int itemId = itemIds.get(Math.floorMod(cursor, itemIds.size()));
+        String claimer = claimers.get(Math.floorMod(cursor / itemIds.size(), claimers.size()));
+        return receiptDAO.assignItemToUser(itemId, claimer, 1);
+    }
+}
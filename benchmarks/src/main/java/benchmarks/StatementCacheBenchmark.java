@@ -0,0 +1,69 @@
+package benchmarks;
+
+import database.ReceiptDAO;
+import models.ReceiptItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per call of two small, very frequent ReceiptDAO lookups with and without a prepared
+ * statement cache. Both run one short single-table query, so statement preparation is a
+ * large share of each call.
+ *
+ * statementCache=false turns off the embedded database's parsed-statement cache; run with
+ * -prof gc (allocation per op) or -prof stack to compare the CPU spent per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+    @Param({"true", "false"})
+    public boolean statementCache;
+
+    @Param({"1000"})
+    public int receiptCount;
+
+    private ReceiptDAO receiptDAO;
+    private String userId;
+    private List<Integer> receiptIds;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.SeededData data = BenchmarkDatabase.seed(receiptCount, statementCache);
+        receiptDAO = new ReceiptDAO();
+        userId = data.benchUserId;
+        receiptIds = data.benchUserReceiptIds;
+    }
+
+    private int nextReceiptId() {
+        return receiptIds.get(Math.floorMod(cursor++, receiptIds.size()));
+    }
+
+    @Benchmark
+    public List<ReceiptItem> getReceiptItems() {
+        return receiptDAO.getReceiptItems(nextReceiptId());
+    }
+
+    @Benchmark
+    public String getParticipantStatus() {
+        return receiptDAO.getParticipantStatus(nextReceiptId(), userId);
+    }
+}
@@ -0,0 +1,107 @@
+-- Benchmark schema: backend/database/schema.sql plus the columns added by
+-- scripts/database/migrate_*.sql, written so it also runs on H2 in MySQL mode.
+-- Keep in sync with the production schema when tables used by benchmarks change.
+
+CREATE TABLE IF NOT EXISTS users (
+    user_id VARCHAR(36) PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    email VARCHAR(255) UNIQUE NOT NULL,
+    phone_number VARCHAR(20) UNIQUE NOT NULL,
+    password_hash VARCHAR(255) NOT NULL,
+    balance DECIMAL(10, 2) DEFAULT 0.00,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS balance_history (
+    history_id INT AUTO_INCREMENT PRIMARY KEY,
+    user_id VARCHAR(36) NOT NULL,
+    amount DECIMAL(10, 2) NOT NULL,
+    balance_before DECIMAL(10, 2) NOT NULL,
+    balance_after DECIMAL(10, 2) NOT NULL,
+    transaction_type ENUM('payment_received', 'payment_sent', 'pot_contribution', 'pot_withdrawal', 'receipt_split', 'refund', 'adjustment', 'other') NOT NULL,
+    description VARCHAR(500),
+    reference_id VARCHAR(100),
+    reference_type VARCHAR(50),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_balance_history_user_created ON balance_history(user_id, created_at, history_id);
+
+CREATE TABLE IF NOT EXISTS receipts (
+    receipt_id INT AUTO_INCREMENT PRIMARY KEY,
+    uploaded_by VARCHAR(36) NOT NULL,
+    merchant_name VARCHAR(255),
+    date TIMESTAMP,
+    total_amount DECIMAL(10, 2) NOT NULL,
+    tip_amount DECIMAL(10, 2) DEFAULT 0.00,
+    tax_amount DECIMAL(10, 2) DEFAULT 0.00,
+    image_url VARCHAR(500),
+    status ENUM('pending', 'accepted', 'declined', 'completed') DEFAULT 'pending',
+    complete BOOLEAN DEFAULT FALSE NOT NULL,
+    sender_name VARCHAR(100) NULL,
+    number_of_items INT DEFAULT 0 NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (uploaded_by) REFERENCES users(user_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_receipts_uploaded_by ON receipts(uploaded_by);
+
+CREATE TABLE IF NOT EXISTS receipt_items (
+    item_id INT AUTO_INCREMENT PRIMARY KEY,
+    receipt_id INT NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    price DECIMAL(10, 2) NOT NULL,
+    quantity INT DEFAULT 1,
+    category VARCHAR(100),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (receipt_id) REFERENCES receipts(receipt_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_receipt_items_receipt_id ON receipt_items(receipt_id);
+
+CREATE TABLE IF NOT EXISTS receipt_participants (
+    participant_id INT AUTO_INCREMENT PRIMARY KEY,
+    receipt_id INT NOT NULL,
+    user_id VARCHAR(36) NOT NULL,
+    status ENUM('pending', 'accepted', 'declined') DEFAULT 'pending',
+    paid_amount DECIMAL(10, 2) DEFAULT 0.00,
+    paid_at TIMESTAMP NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (receipt_id) REFERENCES receipts(receipt_id) ON DELETE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE,
+    CONSTRAINT unique_receipt_participant UNIQUE (receipt_id, user_id)
+);
+CREATE INDEX idx_receipt_participants_user_id ON receipt_participants(user_id);
+
+CREATE TABLE IF NOT EXISTS item_assignments (
+    assignment_id INT AUTO_INCREMENT PRIMARY KEY,
+    receipt_id INT NOT NULL,
+    item_id INT NOT NULL,
+    user_id VARCHAR(36) NOT NULL,
+    quantity INT DEFAULT 1,
+    paid_by VARCHAR(36) NULL,
+    paid_at TIMESTAMP NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (receipt_id) REFERENCES receipts(receipt_id) ON DELETE CASCADE,
+    FOREIGN KEY (item_id) REFERENCES receipt_items(item_id) ON DELETE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE,
+    CONSTRAINT unique_item_user UNIQUE (item_id, user_id)
+);
+CREATE INDEX idx_item_assignments_receipt_id ON item_assignments(receipt_id);
+CREATE INDEX idx_item_assignments_user_id ON item_assignments(user_id);
+
+CREATE TABLE IF NOT EXISTS transactions (
+    transaction_id INT AUTO_INCREMENT PRIMARY KEY,
+    from_user_id VARCHAR(36) NOT NULL,
+    to_user_id VARCHAR(36),
+    amount DECIMAL(10, 2) NOT NULL,
+    transaction_type ENUM('receipt_payment', 'pot_contribution', 'pot_withdrawal', 'peer_to_peer', 'refund', 'other') NOT NULL,
+    description VARCHAR(500),
+    status ENUM('pending', 'completed', 'failed', 'cancelled') DEFAULT 'pending',
+    related_entity_id VARCHAR(100),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (from_user_id) REFERENCES users(user_id) ON DELETE CASCADE,
+    FOREIGN KEY (to_user_id) REFERENCES users(user_id) ON DELETE SET NULL
+);
@@ -0,0 +1,195 @@
+package loadtest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One scripted user journey against the Server endpoints:
+ * sign up an uploader and a friend, befriend, (optionally) parse an image, top up the
+ * friend's balance, create a receipt shared with the friend, list pending receipts,
+ * view the receipt, claim every item, pay, and load the activity feed.
+ *
+ * Every request is timed as its own step; the first failing step ends the journey.
+ */
+public class Journey {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    // Smallest valid JPEG header; the stub parser never looks at the bytes
+    private static final byte[] PLACEHOLDER_IMAGE = {
+        (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, (byte) 0xFF, (byte) 0xD9
+    };
+
+    private final HttpClient client;
+    private final LoadTestConfig config;
+    private final LatencyStats stats;
+    private final String runId;
+    private final byte[] parseImage;
+
+    public Journey(HttpClient client, LoadTestConfig config, LatencyStats stats, String runId) throws IOException {
+        this.client = client;
+        this.config = config;
+        this.stats = stats;
+        this.runId = runId;
+        this.parseImage = config.parseImage != null ? Files.readAllBytes(config.parseImage) : PLACEHOLDER_IMAGE;
+    }
+
+    /**
+     * Run the journey once.
+     *
+     * @return true if every step succeeded
+     */
+    public boolean run() {
+        long n = SEQUENCE.incrementAndGet();
+        try {
+            String uploaderEmail = email(n, "u");
+            String friendEmail = email(n, "f");
+            String uploaderId = signup("Uploader " + n, uploaderEmail, phone(n, 1)).getString("userId");
+            String friendId = signup("Friend " + n, friendEmail, phone(n, 2)).getString("userId");
+
+            post("friends/add-by-email", "/api/friends/add-by-email?userId=" + enc(uploaderId) + "&email=" + enc(friendEmail), null);
+            post("friends/accept", "/api/friends/accept?userId=" + enc(friendId) + "&friendId=" + enc(uploaderId), null);
+
+            if (config.parse) {
+                send("receipt/parse", HttpRequest.newBuilder(uri("/api/receipt/parse?userId=" + enc(uploaderId)))
+                    .header("Content-Type", "image/jpeg")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(parseImage)));
+            }
+
+            post("balance/add", "/api/balance/add?userId=" + enc(friendId) + "&amount=1000", null);
+
+            JSONObject created = post("receipts/create", "/api/receipts/create?userId=" + enc(uploaderId),
+                                      receiptBody(friendEmail));
+            int receiptId = created.getJSONObject("receipt").getInt("receiptId");
+
+            get("receipts/pending", "/api/receipts/pending?userId=" + enc(friendId));
+
+            JSONObject view = get("receipts/view", "/api/receipts/view?receiptId=" + receiptId + "&userId=" + enc(friendId));
+            JSONArray items = view.getJSONObject("receipt").optJSONArray("items");
+            if (items == null || items.isEmpty()) {
+                throw new StepFailure("receipts/view", "no items on receipt");
+            }
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                post("receipts/items/claim", "/api/receipts/items/claim?userId=" + enc(friendId) +
+                     "&receiptId=" + receiptId + "&itemId=" + item.getInt("itemId") +
+                     "&quantity=" + item.optInt("quantity", 1), null);
+            }
+
+            post("receipts/pay", "/api/receipts/pay?userId=" + enc(friendId) + "&receiptId=" + receiptId, null);
+            get("receipts/activity", "/api/receipts/activity?userId=" + enc(friendId));
+            return true;
+        } catch (StepFailure e) {
+            return false;
+        }
+    }
+
+    private JSONObject signup(String name, String email, String phone) {
+        JSONObject body = new JSONObject()
+            .put("name", name)
+            .put("email", email)
+            .put("phoneNumber", phone)
+            .put("password", "LoadTest-" + runId);
+        return post("auth/signup", "/api/auth/signup", body);
+    }
+
+    private JSONObject receiptBody(String participantEmail) {
+        JSONArray items = new JSONArray();
+        double subtotal = 0;
+        for (int i = 0; i < config.itemsPerReceipt; i++) {
+            double price = 5.0 + i * 1.25;
+            subtotal += price;
+            items.put(new JSONObject().put("name", "Item " + i).put("price", price).put("qty", 1));
+        }
+        double tax = Math.round(subtotal * 8.0) / 100.0;
+        double tip = Math.round(subtotal * 15.0) / 100.0;
+        return new JSONObject()
+            .put("restaurant_name", "Load Test Diner")
+            .put("total_amount", subtotal + tax + tip)
+            .put("tax", tax)
+            .put("tip", tip)
+            .put("items", items)
+            .put("participants", new JSONArray().put(participantEmail));
+    }
+
+    private JSONObject get(String step, String path) {
+        return send(step, HttpRequest.newBuilder(uri(path)).GET());
+    }
+
+    private JSONObject post(String step, String path, JSONObject body) {
+        HttpRequest.BodyPublisher publisher = body != null
+            ? HttpRequest.BodyPublishers.ofString(body.toString())
+            : HttpRequest.BodyPublishers.noBody();
+        return send(step, HttpRequest.newBuilder(uri(path))
+            .header("Content-Type", "application/json")
+            .POST(publisher));
+    }
+
+    private JSONObject send(String step, HttpRequest.Builder builder) {
+        HttpRequest request = builder.timeout(Duration.ofSeconds(config.requestTimeoutSeconds)).build();
+        long start = System.nanoTime();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            stats.recordError(step, System.nanoTime() - start, e.getClass().getSimpleName());
+            throw new StepFailure(step, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.recordError(step, System.nanoTime() - start, "interrupted");
+            throw new StepFailure(step, "interrupted");
+        }
+        long latency = System.nanoTime() - start;
+
+        JSONObject json;
+        try {
+            json = new JSONObject(response.body());
+        } catch (RuntimeException e) {
+            stats.recordError(step, latency, "HTTP " + response.statusCode() + " non-JSON body");
+            throw new StepFailure(step, "non-JSON body");
+        }
+        if (response.statusCode() >= 400 || (json.has("success") && !json.optBoolean("success"))) {
+            stats.recordError(step, latency, "HTTP " + response.statusCode());
+            throw new StepFailure(step, json.optString("message", json.optString("error", "")));
+        }
+        stats.recordSuccess(step, latency);
+        return json;
+    }
+
+    private URI uri(String path) {
+        return URI.create(config.baseUrl + path);
+    }
+
+    private String email(long n, String role) {
+        return "lt-" + runId + "-" + n + "-" + role + "@loadtest.local";
+    }
+
+    // Unique per run, journey and role; fits the VARCHAR(20) phone column
+    private String phone(long n, int role) {
+        return "+1" + runId.substring(0, 4) + String.format("%08d", n) + role;
+    }
+
+    private static String enc(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ends the journey after a step failed; the failure itself is already recorded.
+     */
+    static class StepFailure extends RuntimeException {
+        StepFailure(String step, String message) {
+            super(step + ": " + message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-step latency histograms and error counts, safe to record from many threads.
+ * Latencies are kept in microseconds, from 1us up to 5 minutes, with 3 significant digits.
+ */
+public class LatencyStats {
+
+    private static final long MAX_MICROS = 300_000_000L;
+
+    private final Map<String, Step> steps = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> errorsByReason = new ConcurrentHashMap<>();
+
+    public void recordSuccess(String step, long latencyNanos) {
+        step(step).histogram.recordValue(clamp(latencyNanos / 1000));
+    }
+
+    public void recordError(String step, long latencyNanos, String reason) {
+        Step s = step(step);
+        s.histogram.recordValue(clamp(latencyNanos / 1000));
+        s.errors.incrementAndGet();
+        errorsByReason.computeIfAbsent(step + ": " + reason, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private Step step(String name) {
+        return steps.computeIfAbsent(name, k -> new Step());
+    }
+
+    private static long clamp(long micros) {
+        return Math.max(1, Math.min(MAX_MICROS, micros));
+    }
+
+    /**
+     * Print one row per step: count, error rate, throughput and latency percentiles in milliseconds.
+     */
+    public void printReport(double elapsedSeconds) {
+        System.out.println();
+        System.out.printf("%-22s %8s %7s %8s %9s %9s %9s %9s %9s%n",
+            "step", "count", "err%", "req/s", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<String, Step> entry : steps.entrySet()) {
+            Histogram h = entry.getValue().histogram;
+            long count = h.getTotalCount();
+            long errors = entry.getValue().errors.get();
+            System.out.printf("%-22s %8d %6.2f%% %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                entry.getKey(),
+                count,
+                count == 0 ? 0.0 : 100.0 * errors / count,
+                elapsedSeconds > 0 ? count / elapsedSeconds : 0.0,
+                h.getValueAtPercentile(50) / 1000.0,
+                h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0,
+                h.getMaxValue() / 1000.0);
+        }
+        if (!errorsByReason.isEmpty()) {
+            System.out.println();
+            System.out.println("Errors:");
+            new ConcurrentSkipListMap<>(errorsByReason).forEach((reason, count) ->
+                System.out.printf("  %6d  %s%n", count.get(), reason));
+        }
+    }
+
+    private static class Step {
+        final Histogram histogram = new ConcurrentHistogram(MAX_MICROS, 3);
+        final AtomicLong errors = new AtomicLong();
+    }
+}
@@ -0,0 +1,144 @@
+package loadtest;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end HTTP load test for the CheckMate server.
+ *
+ * In open-loop mode (--rate > 0) journeys are started on a fixed schedule and the journey
+ * latency is measured from the time it was scheduled to start, so a slow server shows up
+ * as queueing delay instead of silently lowering the offered load. --concurrency caps the
+ * journeys in flight; a scheduled start that finds no free slot waits for one and that
+ * wait is counted in its latency.
+ *
+ * In closed-loop mode (--rate=0) --concurrency virtual users run journeys back to back.
+ */
+public class LoadTest {
+
+    private static final String JOURNEY_STEP = "= journey";
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            LoadTestConfig.printUsage();
+            System.exit(2);
+            return;
+        }
+
+        String runId = UUID.randomUUID().toString().replace("-", "").substring(0, 8);
+        System.out.println("Load test " + runId + ": " + config);
+
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(config.requestTimeoutSeconds))
+            .executor(Executors.newFixedThreadPool(Math.max(4, config.concurrency)))
+            .build();
+
+        LatencyStats warmupStats = new LatencyStats();
+        LatencyStats measuredStats = new LatencyStats();
+        Journey warmupJourney = new Journey(client, config, warmupStats, runId);
+        Journey measuredJourney = new Journey(client, config, measuredStats, runId);
+
+        long startNanos = System.nanoTime();
+        long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+        long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+
+        ExecutorService workers = Executors.newFixedThreadPool(config.concurrency);
+        AtomicLong completed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+
+        if (config.rate > 0) {
+            runOpenLoop(config, workers, warmupJourney, measuredJourney, measuredStats,
+                        startNanos, measureFromNanos, endNanos, completed, failed);
+        } else {
+            runClosedLoop(config, workers, warmupJourney, measuredJourney, measuredStats,
+                          measureFromNanos, endNanos, completed, failed);
+        }
+
+        workers.shutdown();
+        if (!workers.awaitTermination(config.requestTimeoutSeconds * 20L, TimeUnit.SECONDS)) {
+            System.err.println("Journeys still running after the drain timeout; reporting what finished");
+            workers.shutdownNow();
+        }
+
+        double measuredSeconds = config.durationSeconds;
+        measuredStats.printReport(measuredSeconds);
+        System.out.println();
+        System.out.printf("Journeys: %d completed, %d failed, %.2f journeys/s%n",
+            completed.get(), failed.get(), completed.get() / measuredSeconds);
+        System.exit(failed.get() > 0 ? 1 : 0);
+    }
+
+    private static void runOpenLoop(LoadTestConfig config, ExecutorService workers,
+                                    Journey warmupJourney, Journey measuredJourney, LatencyStats measuredStats,
+                                    long startNanos, long measureFromNanos, long endNanos,
+                                    AtomicLong completed, AtomicLong failed) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(config.concurrency);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate);
+
+        for (long i = 0; ; i++) {
+            long intendedStart = startNanos + i * intervalNanos;
+            if (intendedStart >= endNanos) {
+                break;
+            }
+            long sleep = intendedStart - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            inFlight.acquire();
+
+            boolean measured = intendedStart >= measureFromNanos;
+            Journey journey = measured ? measuredJourney : warmupJourney;
+            workers.execute(() -> {
+                try {
+                    boolean ok = journey.run();
+                    if (measured) {
+                        recordJourney(measuredStats, intendedStart, ok, completed, failed);
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private static void runClosedLoop(LoadTestConfig config, ExecutorService workers,
+                                      Journey warmupJourney, Journey measuredJourney, LatencyStats measuredStats,
+                                      long measureFromNanos, long endNanos,
+                                      AtomicLong completed, AtomicLong failed) {
+        for (int user = 0; user < config.concurrency; user++) {
+            workers.execute(() -> {
+                long start;
+                while ((start = System.nanoTime()) < endNanos) {
+                    boolean measured = start >= measureFromNanos;
+                    boolean ok = (measured ? measuredJourney : warmupJourney).run();
+                    if (measured) {
+                        recordJourney(measuredStats, start, ok, completed, failed);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void recordJourney(LatencyStats stats, long startNanos, boolean ok,
+                                      AtomicLong completed, AtomicLong failed) {
+        long latency = System.nanoTime() - startNanos;
+        if (ok) {
+            stats.recordSuccess(JOURNEY_STEP, latency);
+            completed.incrementAndGet();
+        } else {
+            stats.recordError(JOURNEY_STEP, latency, "step failed");
+            failed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Load test settings, parsed from --key=value arguments.
+ */
+public class LoadTestConfig {
+
+    public String baseUrl = "http://localhost:8080";
+
+    // Maximum journeys in flight at once
+    public int concurrency = 20;
+
+    // Journeys started per second (open loop); 0 runs a closed loop of `concurrency` users
+    public double rate = 5.0;
+
+    public int durationSeconds = 60;
+
+    // Results from journeys started during warm-up are discarded
+    public int warmupSeconds = 10;
+
+    // Items on each created receipt; each is claimed by the participant
+    public int itemsPerReceipt = 4;
+
+    // Include POST /api/receipt/parse in each journey (run the server with the stub parser)
+    public boolean parse = false;
+
+    // Image uploaded by the parse step; a tiny placeholder is sent when unset
+    public Path parseImage;
+
+    public int requestTimeoutSeconds = 30;
+
+    public static LoadTestConfig fromArgs(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            if ("--help".equals(arg) || "-h".equals(arg)) {
+                printUsage();
+                System.exit(0);
+            }
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String[] keyValue = arg.substring(2).split("=", 2);
+            String key = keyValue[0];
+            String value = keyValue.length == 2 ? keyValue[1] : "true";
+            switch (key) {
+                case "base-url":
+                    config.baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                    break;
+                case "concurrency":
+                    config.concurrency = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    config.rate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    config.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    config.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "items":
+                    config.itemsPerReceipt = Integer.parseInt(value);
+                    break;
+                case "parse":
+                    config.parse = Boolean.parseBoolean(value);
+                    break;
+                case "parse-image":
+                    config.parseImage = Paths.get(value);
+                    config.parse = true;
+                    break;
+                case "timeout":
+                    config.requestTimeoutSeconds = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        if (config.concurrency < 1) {
+            throw new IllegalArgumentException("--concurrency must be at least 1");
+        }
+        if (config.rate < 0) {
+            throw new IllegalArgumentException("--rate cannot be negative");
+        }
+        if (config.itemsPerReceipt < 1) {
+            throw new IllegalArgumentException("--items must be at least 1");
+        }
+        return config;
+    }
+
+    static void printUsage() {
+        System.out.println("Usage: java -jar loadtest.jar [options]");
+        System.out.println("  --base-url=URL       Server base URL (default http://localhost:8080)");
+        System.out.println("  --concurrency=N      Max journeys in flight (default 20)");
+        System.out.println("  --rate=R             Journeys started per second; 0 = closed loop (default 5)");
+        System.out.println("  --duration=S         Measured run length in seconds (default 60)");
+        System.out.println("  --warmup=S           Warm-up seconds excluded from results (default 10)");
+        System.out.println("  --items=N            Items per receipt (default 4)");
+        System.out.println("  --parse              Include POST /api/receipt/parse in each journey");
+        System.out.println("  --parse-image=PATH   Image to upload in the parse step (implies --parse)");
+        System.out.println("  --timeout=S          Per-request timeout in seconds (default 30)");
+    }
+
+    @Override
+    public String toString() {
+        return "baseUrl=" + baseUrl + ", concurrency=" + concurrency +
+               ", rate=" + (rate > 0 ? rate + "/s" : "closed-loop") +
+               ", duration=" + durationSeconds + "s, warmup=" + warmupSeconds + "s" +
+               ", items=" + itemsPerReceipt + ", parse=" + parse;
+    }
+}
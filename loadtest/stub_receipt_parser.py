@@ -0,0 +1,57 @@
+#!/usr/bin/env python3
+"""
+Stub receipt parser for local load tests.
+
+Same command-line contract as receipt_parser_local.py (image path in argv[1], JSON on stdout)
+but returns a fixed receipt without calling OpenAI, so /api/receipt/parse can be exercised
+without network access or API keys.
+
+With --worker it speaks the same line protocol as receipt_parser_local.py --worker, one
+JSON request per stdin line and one JSON response per stdout line.
+
+Set STUB_PARSER_DELAY_MS to simulate parser latency.
+"""
+import json
+import os
+import sys
+import time
+
+
+def fixed_receipt():
+    delay_ms = int(os.environ.get("STUB_PARSER_DELAY_MS", "0"))
+    if delay_ms > 0:
+        time.sleep(delay_ms / 1000.0)
+
+    # Same keys as receipt_parser_local.py; an item's price is its line total
+    return {
+        "merchant": "Load Test Diner",
+        "date": "2024-01-15",
+        "items": [
+            {"name": "Burger", "qty": 1, "price": 12.50},
+            {"name": "Fries", "qty": 2, "price": 8.50},
+            {"name": "Soda", "qty": 2, "price": 5.50}
+        ],
+        "subtotal": 26.50,
+        "tax": 2.25,
+        "tip": 4.00,
+        "total": 32.75
+    }
+
+
+def main():
+    if "--worker" in sys.argv[1:]:
+        for line in sys.stdin:
+            if line.strip():
+                request = json.loads(line)
+                sys.stdout.write(json.dumps({"id": request.get("id"), "result": fixed_receipt()}) + "\n")
+                sys.stdout.flush()
+        return
+    if len(sys.argv) < 2:
+        print(json.dumps({"error": "Please provide an image path as an argument"}))
+        sys.exit(1)
+
+    print(json.dumps(fixed_receipt()))
+
+
+if __name__ == "__main__":
+    main()
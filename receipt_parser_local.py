@@ -32,11 +32,6 @@ def encode_image(image_path: str) -> str:
         return base64.b64encode(image_file.read()).decode("utf-8")
 
 
-if len(sys.argv) < 2:
-    print(json.dumps({"error": "Please provide an image path as an argument"}))
-    sys.exit(1)
-
-
 def ensure_jpeg(input_path: str) -> str:
     """Open whatever the phone sent (HEIC, JPEG, etc.) and re-save as JPEG."""
     with Image.open(input_path) as img:
@@ -106,14 +101,7 @@ def ensure_cropped_jpeg(input_path: str) -> str:
     return tmp.name
 
 
-# Image path from Java ReceiptController
-original_path = sys.argv[1]
-jpeg_path = ensure_jpeg(original_path)
-# Crop the image to content (removes excess white space/background)
-cropped_jpeg_path = ensure_cropped_jpeg(jpeg_path)
-base64_image = encode_image(cropped_jpeg_path)
-
-prompt = """
+PROMPT = """
 Extract the receipt information from the image.
 
 Return ONLY valid JSON, no extra text, in this format:
@@ -147,37 +135,52 @@ Rules:
   for that item.
 """
 
-# Call vision model
-response = client.chat.completions.create(
-    model="gpt-4o",
-    messages=[
-        {
-            "role": "user",
-            "content": [
-                {"type": "text", "text": prompt},
-                {
-                    "type": "image_url",
-                    "image_url": {
-                        "url": f"data:image/jpeg;base64,{base64_image}"
+
+def load_image(image_path: str, preprocessed: bool) -> str:
+    """Return the image as base64 JPEG, ready for the model."""
+    if preprocessed:
+        # The server already cropped, downscaled and re-encoded it as a small grayscale JPEG
+        return encode_image(image_path)
+    jpeg_path = ensure_jpeg(image_path)
+    # Crop the image to content (removes excess white space/background)
+    cropped_jpeg_path = ensure_cropped_jpeg(jpeg_path)
+    return encode_image(cropped_jpeg_path)
+
+
+def call_model(base64_image: str) -> str:
+    """Send the image to the vision model and return its reply with any code fences removed."""
+    # Call vision model
+    response = client.chat.completions.create(
+        model="gpt-4o",
+        messages=[
+            {
+                "role": "user",
+                "content": [
+                    {"type": "text", "text": PROMPT},
+                    {
+                        "type": "image_url",
+                        "image_url": {
+                            "url": f"data:image/jpeg;base64,{base64_image}"
+                        },
                     },
-                },
-            ],
-        }
-    ],
-)
-
-raw = response.choices[0].message.content.strip()
-
-# Clean up JSON if wrapped in code blocks
-if raw.startswith("```"):
-    lines = raw.split("\n")
-    if lines[0].strip().startswith("```json"):
-        raw = "\n".join(lines[1:])
-    elif lines[0].strip().startswith("```"):
-        raw = "\n".join(lines[1:])
-    if raw.rstrip().endswith("```"):
-        raw = raw.rstrip().rstrip("`").strip()
-    raw = raw.strip()
+                ],
+            }
+        ],
+    )
+
+    raw = response.choices[0].message.content.strip()
+
+    # Clean up JSON if wrapped in code blocks
+    if raw.startswith("```"):
+        lines = raw.split("\n")
+        if lines[0].strip().startswith("```json"):
+            raw = "\n".join(lines[1:])
+        elif lines[0].strip().startswith("```"):
+            raw = "\n".join(lines[1:])
+        if raw.rstrip().endswith("```"):
+            raw = raw.rstrip().rstrip("`").strip()
+        raw = raw.strip()
+    return raw
 
 
 def validate_receipt(data: dict) -> dict:
@@ -305,31 +308,73 @@ def apply_discounts_and_strip_tip(data: dict) -> dict:
     return data
 
 
-try:
-    data = json.loads(raw)
-except json.JSONDecodeError:
-    print("Failed to parse model output as JSON", file=sys.stderr)
-    print(raw, file=sys.stderr)
-    raise
-
-# Optional debug:
-# for item in data.get("items", []):
-#     print("RAW:", item.get("raw_line"), "PRICE:", item.get("price"))
-
-# Items needing manual price (you can surface this to the UI if you want)
-unknown_items = [
-    item for item in data.get("items", []) if item.get("needs_manual_price")
-]
-if unknown_items:
-    print("Items needing manual price:", unknown_items, file=sys.stderr)
-
-# Post-processing pipeline
-override_price_from_raw_line(data)
-validate_receipt(data)
-normalize_numbers(data)
-apply_discounts_and_strip_tip(data)
-check_totals(data)  # Check totals while prices are still line totals
-convert_line_totals_to_unit_prices(data)  # Convert line totals to unit prices (after validation)
-
-# Final output for Java side: clean JSON only
-print(json.dumps(data))
+def parse_receipt(image_path: str, preprocessed: bool = False) -> dict:
+    raw = call_model(load_image(image_path, preprocessed))
+    try:
+        data = json.loads(raw)
+    except json.JSONDecodeError:
+        print("Failed to parse model output as JSON", file=sys.stderr)
+        print(raw, file=sys.stderr)
+        raise
+
+    # Optional debug:
+    # for item in data.get("items", []):
+    #     print("RAW:", item.get("raw_line"), "PRICE:", item.get("price"))
+
+    # Items needing manual price (you can surface this to the UI if you want)
+    unknown_items = [
+        item for item in data.get("items", []) if item.get("needs_manual_price")
+    ]
+    if unknown_items:
+        print("Items needing manual price:", unknown_items, file=sys.stderr)
+
+    # Post-processing pipeline
+    override_price_from_raw_line(data)
+    validate_receipt(data)
+    normalize_numbers(data)
+    apply_discounts_and_strip_tip(data)
+    check_totals(data)  # Check totals while prices are still line totals
+    convert_line_totals_to_unit_prices(data)  # Convert line totals to unit prices (after validation)
+
+    return data
+
+
+def run_worker() -> None:
+    """
+    Serve many parses from one process, so the interpreter, imports and API client are set
+    up once. Reads one JSON request per line on stdin ({"id", "image", "preprocessed"}) and
+    writes one JSON response per line on stdout ({"id", "result"} or {"id", "error"}).
+    Everything else goes to stderr.
+    """
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        request_id = None
+        try:
+            request = json.loads(line)
+            request_id = request.get("id")
+            result = parse_receipt(request["image"], bool(request.get("preprocessed")))
+            response = {"id": request_id, "result": result}
+        except Exception as e:  # one bad receipt must not take the worker down
+            print(f"Worker request failed: {e!r}", file=sys.stderr)
+            response = {"id": request_id, "error": str(e)}
+        sys.stdout.write(json.dumps(response) + "\n")
+        sys.stdout.flush()
+
+
+def main() -> None:
+    if "--worker" in sys.argv[1:]:
+        run_worker()
+        return
+    if len(sys.argv) < 2:
+        print(json.dumps({"error": "Please provide an image path as an argument"}))
+        sys.exit(1)
+    # Image path from Java ReceiptController
+    data = parse_receipt(sys.argv[1], "--preprocessed" in sys.argv[2:])
+    # Final output for Java side: clean JSON only
+    print(json.dumps(data))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,16 @@
+-- Migration: Add balance_checkpoints table
+-- BalanceCheckpointService writes per-user ledger balances here at intervals, so
+-- reconciliation and "balance as of" queries only replay balance_history rows after the last checkpoint
+
+USE railway;
+
+CREATE TABLE IF NOT EXISTS balance_checkpoints (
+    checkpoint_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id VARCHAR(36) NOT NULL,
+    balance DECIMAL(10, 2) NOT NULL,
+    last_history_id INT NOT NULL,
+    last_history_at TIMESTAMP NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
+);
+CREATE INDEX idx_balance_checkpoints_user ON balance_checkpoints(user_id, last_history_id);
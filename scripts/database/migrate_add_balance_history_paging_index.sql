@@ -0,0 +1,7 @@
+-- Migration: Add composite index for paged balance history
+-- /api/balance/history pages with keyset paging on (created_at, history_id) per user,
+-- and /api/balance/summary aggregates per user over a date range; both use this index
+
+USE railway;
+
+CREATE INDEX idx_balance_history_user_created ON balance_history(user_id, created_at, history_id);
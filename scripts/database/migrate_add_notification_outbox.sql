@@ -0,0 +1,23 @@
+-- Migration: Add receipt_notification_outbox table
+-- Receipt shares are queued here and fanned out in batches by NotificationDispatcher,
+-- so sending a receipt to a large group no longer inserts participants inside the request
+
+USE railway;
+
+CREATE TABLE IF NOT EXISTS receipt_notification_outbox (
+    outbox_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    receipt_id INT NOT NULL,
+    sender_id VARCHAR(36) NOT NULL,
+    recipient_id VARCHAR(36) NOT NULL,
+    message VARCHAR(500) NOT NULL,
+    status ENUM('pending', 'processing', 'delivered', 'failed') DEFAULT 'pending',
+    attempts INT DEFAULT 0,
+    last_error VARCHAR(500) NULL,
+    next_attempt_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    delivered_at TIMESTAMP NULL,
+    FOREIGN KEY (receipt_id) REFERENCES receipts(receipt_id) ON DELETE CASCADE
+);
+
+-- Dispatcher polls for due rows by status and next_attempt_at
+CREATE INDEX idx_notification_outbox_due ON receipt_notification_outbox(status, next_attempt_at);
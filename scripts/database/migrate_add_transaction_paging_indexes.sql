@@ -0,0 +1,8 @@
+-- Migration: Add composite indexes for paged transaction history
+-- TransactionService.findTransactions pages a user's sent and received transactions
+-- newest first using keyset paging on (created_at, transaction_id)
+
+USE railway;
+
+CREATE INDEX idx_transactions_from_user_created ON transactions(from_user_id, created_at, transaction_id);
+CREATE INDEX idx_transactions_to_user_created ON transactions(to_user_id, created_at, transaction_id);
@@ -0,0 +1,62 @@
+// Default package (no package declaration)
+
+import services.BalanceCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BalanceCache.
+ * Tests version ordering and TTL expiry; no database required.
+ */
+public class BalanceCacheTest {
+
+    /**
+     * Test that a newer version replaces an older snapshot.
+     */
+    @Test
+    void testPutIfNewer_newerVersion_replaces() {
+        BalanceCache cache = new BalanceCache(60_000);
+        cache.putIfNewer("user-1", 10.0, 5);
+        cache.putIfNewer("user-1", 25.0, 6);
+
+        assertEquals(25.0, cache.get("user-1").balance, 0.001);
+        assertEquals(6, cache.get("user-1").version);
+    }
+
+    /**
+     * Test that a stale read published after a write does not overwrite the newer balance.
+     */
+    @Test
+    void testPutIfNewer_olderVersion_ignored() {
+        BalanceCache cache = new BalanceCache(60_000);
+        cache.putIfNewer("user-1", 25.0, 6);
+        cache.putIfNewer("user-1", 10.0, 5);
+
+        assertEquals(25.0, cache.get("user-1").balance, 0.001, "Older snapshot should not replace newer one");
+    }
+
+    /**
+     * Test that expired snapshots are not served.
+     */
+    @Test
+    void testGet_expiredSnapshot_returnsNull() throws InterruptedException {
+        BalanceCache cache = new BalanceCache(1);
+        cache.putIfNewer("user-1", 10.0, 1);
+        Thread.sleep(5);
+
+        assertNull(cache.get("user-1"), "Expired snapshot should not be served");
+    }
+
+    /**
+     * Test that invalidate removes the snapshot.
+     */
+    @Test
+    void testInvalidate_removesSnapshot() {
+        BalanceCache cache = new BalanceCache(60_000);
+        cache.putIfNewer("user-1", 10.0, 1);
+        cache.invalidate("user-1");
+
+        assertNull(cache.get("user-1"));
+    }
+}
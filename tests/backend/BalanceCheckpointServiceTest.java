@@ -0,0 +1,136 @@
+// Default package (no package declaration)
+
+import database.DatabaseConnection;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import services.BalanceCheckpointService;
+import services.BalanceService;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BalanceCheckpointService.
+ * The ledger arithmetic is tested directly; the checkpoint test needs a running MySQL
+ * database and is skipped without one.
+ */
+public class BalanceCheckpointServiceTest {
+
+    private static BigDecimal money(String value) {
+        return new BigDecimal(value);
+    }
+
+    /**
+     * Test that the ledger balance starts from the checkpoint when there is one and from the
+     * opening balance otherwise.
+     */
+    @Test
+    void testLedgerBalance_checkpointOrOpening() {
+        assertEquals(money("15.00"), BalanceCheckpointService.ledgerBalance(money("10.00"), money("3.00"), money("5.00")));
+        assertEquals(money("8.00"), BalanceCheckpointService.ledgerBalance(null, money("3.00"), money("5.00")));
+        assertEquals(money("10.00"), BalanceCheckpointService.ledgerBalance(money("10.00"), null, null));
+        assertNull(BalanceCheckpointService.ledgerBalance(null, null, BigDecimal.ZERO), "No ledger");
+    }
+
+    /**
+     * Test that a stored balance off by more than half a cent is drift and rounding is not.
+     */
+    @Test
+    void testCompare_driftAndTolerance() {
+        BalanceCheckpointService.BalanceDrift drift = BalanceCheckpointService.compare(
+            "user", money("20.00"), money("10.00"), null, money("5.00"));
+        assertNotNull(drift);
+        assertEquals("user", drift.userId);
+        assertEquals(money("15.00"), drift.ledgerBalance);
+        assertEquals(money("5.00"), drift.difference);
+
+        assertNull(BalanceCheckpointService.compare("user", money("15.004"), money("10.00"), null, money("5.00")));
+        assertNull(BalanceCheckpointService.compare("user", null, money("10.00"), null, money("5.00")));
+    }
+
+    /**
+     * Test that a user with a balance but no ledger rows is not reported as drift.
+     */
+    @Test
+    void testCompare_noHistoryIsNotDrift() {
+        assertNull(BalanceCheckpointService.compare("user", money("50.00"), null, null, BigDecimal.ZERO));
+    }
+
+    /**
+     * Test that checkpoints capture the ledger, later rows are replayed on top of them, and
+     * only a genuinely changed stored balance is reported.
+     */
+    @Test
+    void testCheckpointAndVerify() throws SQLException {
+        String userId = createUser(0.0);
+        String noHistoryUserId = createUser(50.0);
+        Assumptions.assumeTrue(userId != null && noHistoryUserId != null, "User creation failed - database may not be set up");
+        try {
+            BalanceService balances = new BalanceService();
+            BalanceCheckpointService checkpoints = new BalanceCheckpointService();
+            assertTrue(balances.addToBalance(userId, 10.0, BalanceService.TYPE_PAYMENT_RECEIVED, "test", null, null));
+            assertTrue(balances.subtractFromBalance(userId, 3.0, BalanceService.TYPE_PAYMENT_SENT, "test", null, null));
+
+            assertTrue(checkpoints.createCheckpoints() >= 1);
+            assertTrue(balances.addToBalance(userId, 5.0, BalanceService.TYPE_PAYMENT_RECEIVED, "test", null, null));
+            assertEquals(0, money("12.00").compareTo(
+                checkpoints.getBalanceAsOf(userId, new Timestamp(System.currentTimeMillis() + 60_000))));
+            assertFalse(driftedUsers(checkpoints).contains(userId), "Checkpoint plus later rows matches");
+            assertFalse(driftedUsers(checkpoints).contains(noHistoryUserId), "No ledger, no drift");
+
+            setBalance(userId, 100.0);
+            assertTrue(driftedUsers(checkpoints).contains(userId));
+        } finally {
+            deleteUser(userId);
+            deleteUser(noHistoryUserId);
+        }
+    }
+
+    private static List<String> driftedUsers(BalanceCheckpointService checkpoints) {
+        return checkpoints.verifyBalances().stream().map(d -> d.userId).collect(Collectors.toList());
+    }
+
+    private static String createUser(double balance) {
+        String userId = UUID.randomUUID().toString();
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO users (user_id, name, email, phone_number, password_hash, balance) VALUES (?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, userId);
+            stmt.setString(2, "Checkpoint Test");
+            stmt.setString(3, "checkpoint-" + userId + "@test.com");
+            stmt.setString(4, userId.substring(0, 10));
+            stmt.setString(5, "hash");
+            stmt.setDouble(6, balance);
+            stmt.executeUpdate();
+            return userId;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static void setBalance(String userId, double balance) throws SQLException {
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE users SET balance = ? WHERE user_id = ?")) {
+            stmt.setDouble(1, balance);
+            stmt.setString(2, userId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void deleteUser(String userId) throws SQLException {
+        // History and checkpoints go with the user through ON DELETE CASCADE
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM users WHERE user_id = ?")) {
+            stmt.setString(1, userId);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -375,6 +375,39 @@ public class BalanceServiceTest {
         }, "Null transaction type should throw IllegalArgumentException");
     }
 
+    /**
+     * Test 16: Test getBalanceHistoryPage rejects page sizes outside 1..MAX_PAGE_SIZE
+     */
+    @Test
+    void testGetBalanceHistoryPage_invalidPageSize_throwsException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            balanceService.getBalanceHistoryPage("test-user", null, null, 0);
+        }, "Zero page size should throw IllegalArgumentException");
+        assertThrows(IllegalArgumentException.class, () -> {
+            balanceService.getBalanceHistoryPage("test-user", null, null, BalanceService.MAX_PAGE_SIZE + 1);
+        }, "Oversized page should throw IllegalArgumentException");
+    }
+
+    /**
+     * Test 17: Test getBalanceHistoryPage rejects a malformed cursor
+     */
+    @Test
+    void testGetBalanceHistoryPage_malformedCursor_throwsException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            balanceService.getBalanceHistoryPage("test-user", null, "not-a-cursor", 20);
+        }, "Malformed cursor should throw IllegalArgumentException");
+    }
+
+    /**
+     * Test 18: Test getNetFlowByPeriod only accepts day or month
+     */
+    @Test
+    void testGetNetFlowByPeriod_invalidPeriod_throwsException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            balanceService.getNetFlowByPeriod("test-user", "week", null, null);
+        }, "Unsupported period should throw IllegalArgumentException");
+    }
+
     @AfterEach
     void cleanup() {
         // In a real test scenario, you would clean up test data here
@@ -0,0 +1,33 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.Test;
+import utils.ClientAddress;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ClientAddress. No database required.
+ */
+public class ClientAddressTest {
+
+    /**
+     * Test that without a trusted proxy the socket address is used and the header is ignored.
+     */
+    @Test
+    void testResolve_noProxyIgnoresHeader() {
+        assertEquals("10.0.0.1", ClientAddress.resolve("10.0.0.1", List.of("1.2.3.4"), 0));
+        assertEquals("10.0.0.1", ClientAddress.resolve("10.0.0.1", null, 1));
+    }
+
+    /**
+     * Test that behind proxies the entry they appended is used, not one the client wrote.
+     */
+    @Test
+    void testResolve_trustedHopsFromTheRight() {
+        assertEquals("5.6.7.8", ClientAddress.resolve("10.0.0.1", List.of("1.2.3.4, 5.6.7.8"), 1));
+        assertEquals("5.6.7.8", ClientAddress.resolve("10.0.0.1", List.of("1.2.3.4", "5.6.7.8, 10.0.0.9"), 2));
+        assertEquals("10.0.0.1", ClientAddress.resolve("10.0.0.1", List.of("5.6.7.8"), 2), "Too few hops");
+    }
+}
@@ -0,0 +1,49 @@
+// Default package (no package declaration)
+
+import database.DatabaseConnection;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the JDBC URL settings applied by DatabaseConnection; no database required.
+ */
+public class DatabaseConnectionSettingsTest {
+
+    /**
+     * Test that the statement cache settings are appended to a plain MySQL URL.
+     */
+    @Test
+    void testStatementCache_appendedToMysqlUrl() {
+        String url = DatabaseConnection.applyStatementCacheSettings("jdbc:mysql://localhost:3306/checkmate_db", true);
+
+        assertEquals("jdbc:mysql://localhost:3306/checkmate_db?cachePrepStmts=true&useServerPrepStmts=true" +
+                     "&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048", url);
+    }
+
+    /**
+     * Test that settings already in the URL are kept and existing parameters are extended with '&'.
+     */
+    @Test
+    void testStatementCache_respectsExistingParameters() {
+        String url = DatabaseConnection.applyStatementCacheSettings(
+            "jdbc:mysql://db:3306/railway?useSSL=false&prepStmtCacheSize=500", true);
+
+        assertTrue(url.startsWith("jdbc:mysql://db:3306/railway?useSSL=false&prepStmtCacheSize=500&"), url);
+        assertEquals(1, url.split("prepStmtCacheSize=", -1).length - 1, "Existing setting should not be duplicated");
+        assertTrue(url.contains("&cachePrepStmts=true"), url);
+        assertTrue(url.contains("&useServerPrepStmts=true"), url);
+    }
+
+    /**
+     * Test that disabled caching and non-MySQL URLs are left unchanged.
+     */
+    @Test
+    void testStatementCache_disabledOrOtherDriver_unchanged() {
+        String mysql = "jdbc:mysql://localhost:3306/checkmate_db";
+        String h2 = "jdbc:h2:mem:test;MODE=MySQL";
+
+        assertEquals(mysql, DatabaseConnection.applyStatementCacheSettings(mysql, false));
+        assertEquals(h2, DatabaseConnection.applyStatementCacheSettings(h2, true));
+    }
+}
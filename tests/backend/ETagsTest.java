@@ -0,0 +1,27 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.Test;
+import utils.ETags;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ETags.
+ * Tests If-None-Match matching; no database required.
+ */
+public class ETagsTest {
+
+    /**
+     * Test list, weak and wildcard forms of If-None-Match.
+     */
+    @Test
+    void testMatches_headerForms() {
+        String tag = "\"receipt-1-2-0\"";
+
+        assertTrue(ETags.matches(tag, tag));
+        assertTrue(ETags.matches("\"other\", W/" + tag, tag));
+        assertTrue(ETags.matches("*", tag));
+        assertFalse(ETags.matches("\"other\"", tag));
+        assertFalse(ETags.matches(null, tag));
+    }
+}
@@ -0,0 +1,96 @@
+// Default package (no package declaration)
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for MetricsRegistry.
+ * Tests metric reuse and the Prometheus text output; no database required.
+ */
+public class MetricsRegistryTest {
+
+    /**
+     * Test that the same name and labels return the same counter.
+     */
+    @Test
+    void testCounter_sameLabels_sameInstance() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests", "route", "/a").increment();
+        registry.counter("requests_total", "Requests", "route", "/a").add(2);
+        registry.counter("requests_total", "Requests", "route", "/b").increment();
+
+        assertEquals(3, registry.counter("requests_total", "Requests", "route", "/a").get());
+        String output = registry.writePrometheus();
+        assertTrue(output.contains("# TYPE requests_total counter\n"), output);
+        assertTrue(output.contains("requests_total{route=\"/a\"} 3\n"), output);
+        assertTrue(output.contains("requests_total{route=\"/b\"} 1\n"), output);
+    }
+
+    /**
+     * Test that histogram buckets are cumulative and _count/_sum match the observations.
+     */
+    @Test
+    void testHistogram_bucketsAreCumulative() {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.histogram("query_seconds", "Query time", "method", "X.y");
+        histogram.record(150_000L);          // 0.15ms -> le 0.0002
+        histogram.record(3_000_000L);        // 3ms    -> le 0.005
+        histogram.record(120_000_000_000L);  // 120s   -> +Inf only
+
+        String output = registry.writePrometheus();
+        assertTrue(output.contains("# TYPE query_seconds histogram\n"), output);
+        assertTrue(output.contains("query_seconds_bucket{method=\"X.y\",le=\"1.0E-4\"} 0\n"), output);
+        assertTrue(output.contains("query_seconds_bucket{method=\"X.y\",le=\"2.0E-4\"} 1\n"), output);
+        assertTrue(output.contains("query_seconds_bucket{method=\"X.y\",le=\"0.005\"} 2\n"), output);
+        assertTrue(output.contains("query_seconds_bucket{method=\"X.y\",le=\"50\"} 2\n"), output);
+        assertTrue(output.contains("query_seconds_bucket{method=\"X.y\",le=\"+Inf\"} 3\n"), output);
+        assertTrue(output.contains("query_seconds_count{method=\"X.y\"} 3\n"), output);
+        assertTrue(output.contains("query_seconds_sum{method=\"X.y\"} 120.00315\n"), output);
+    }
+
+    /**
+     * Test that gauges and function counters are read at scrape time.
+     */
+    @Test
+    void testGaugeAndCounterFunction_readAtScrape() {
+        MetricsRegistry registry = new MetricsRegistry();
+        AtomicLong depth = new AtomicLong(4);
+        AtomicLong delivered = new AtomicLong(10);
+        registry.gauge("queue_depth", "Queue depth", depth::get, "executor", "e1");
+        registry.counterFunction("delivered_total", "Delivered", delivered::get);
+
+        depth.set(7);
+        delivered.addAndGet(5);
+
+        String output = registry.writePrometheus();
+        assertTrue(output.contains("queue_depth{executor=\"e1\"} 7\n"), output);
+        assertTrue(output.contains("delivered_total 15\n"), output);
+    }
+
+    /**
+     * Test that label values are escaped.
+     */
+    @Test
+    void testLabelValues_escaped() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("odd_total", "Odd labels", "value", "a\"b\\c").increment();
+
+        assertTrue(registry.writePrometheus().contains("odd_total{value=\"a\\\"b\\\\c\"} 1\n"));
+    }
+
+    /**
+     * Test that reusing a name with a different metric type is rejected.
+     */
+    @Test
+    void testTypeConflict_throws() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("thing", "A counter");
+
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("thing", "A histogram"));
+    }
+}
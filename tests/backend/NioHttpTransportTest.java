@@ -0,0 +1,241 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import transport.NioHttpTransport;
+import transport.TransportSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for NioHttpTransport.
+ * Talks raw HTTP/1.1 over loopback sockets to check routing, keep-alive and the limits;
+ * no database required.
+ */
+public class NioHttpTransportTest {
+
+    private NioHttpTransport transport;
+
+    private int start(TransportSettings settings) throws IOException {
+        transport = new NioHttpTransport(new InetSocketAddress("127.0.0.1", 0), settings);
+        transport.createContext("/api", exchange -> {
+            byte[] body = ("api " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        transport.createContext("/api/echo", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(201, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        transport.start();
+        return transport.getAddress().getPort();
+    }
+
+    private static TransportSettings settings(int maxConnections, long idleTimeoutMillis, long maxBodyBytes) {
+        return new TransportSettings(maxConnections, idleTimeoutMillis, 8192, maxBodyBytes, 1, 1024);
+    }
+
+    @AfterEach
+    void stop() {
+        if (transport != null) {
+            transport.stop(1);
+        }
+    }
+
+    /**
+     * Read one response with a Content-Length body; returns the head and body separated by a blank line.
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            String text = head.toString(StandardCharsets.ISO_8859_1);
+            if (text.endsWith("\r\n\r\n")) {
+                break;
+            }
+        }
+        String text = head.toString(StandardCharsets.ISO_8859_1);
+        int length = 0;
+        for (String line : text.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = in.readNBytes(length);
+        return text + new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    /**
+     * Test that two requests are served on one connection and routed by longest prefix.
+     */
+    @Test
+    void testKeepAlive_servesSequentialRequests() throws IOException {
+        int port = start(settings(10, 30_000, 1024));
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /api/receipts?id=1 HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            String first = readResponse(socket.getInputStream());
+            assertTrue(first.startsWith("HTTP/1.1 200 OK"), first);
+            assertTrue(first.contains("Connection: keep-alive"), first);
+            assertTrue(first.endsWith("api /api/receipts"), first);
+
+            out.write(("POST /api/echo HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nhello")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            String second = readResponse(socket.getInputStream());
+            assertTrue(second.startsWith("HTTP/1.1 201 Created"), second);
+            assertTrue(second.toLowerCase().contains("content-type: text/plain"), second);
+            assertTrue(second.endsWith("hello"), second);
+        }
+    }
+
+    /**
+     * Test that pipelined requests are answered in order.
+     */
+    @Test
+    void testPipelinedRequests_answeredInOrder() throws IOException {
+        int port = start(settings(10, 30_000, 1024));
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write(("GET /api/a HTTP/1.1\r\n\r\nGET /api/b HTTP/1.1\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readResponse(socket.getInputStream()).endsWith("api /api/a"));
+            assertTrue(readResponse(socket.getInputStream()).endsWith("api /api/b"));
+        }
+    }
+
+    /**
+     * Test that unknown paths get 404 and oversized bodies get 413 with the connection closed.
+     */
+    @Test
+    void testLimits_unknownPathAndOversizedBody() throws IOException {
+        int port = start(settings(10, 30_000, 16));
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("GET /other HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 404"));
+        }
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("POST /api/echo HTTP/1.1\r\nContent-Length: 100\r\n\r\n"
+                .getBytes(StandardCharsets.ISO_8859_1));
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 413"), response);
+            assertTrue(response.contains("Connection: close"), response);
+            assertEquals(-1, socket.getInputStream().read(), "Connection should be closed after 413");
+        }
+    }
+
+    /**
+     * Test that connections beyond the limit are refused with 503.
+     */
+    @Test
+    void testMaxConnections_refusesWith503() throws IOException {
+        int port = start(settings(1, 30_000, 1024));
+        try (Socket first = connect(port)) {
+            first.getOutputStream().write("GET /api/a HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readResponse(first.getInputStream()).startsWith("HTTP/1.1 200"));
+
+            try (Socket second = connect(port)) {
+                String response = readResponse(second.getInputStream());
+                assertTrue(response.startsWith("HTTP/1.1 503"), response);
+                assertTrue(response.toLowerCase().contains("retry-after: 1"), response);
+            }
+        }
+    }
+
+    /**
+     * Test that an idle keep-alive connection is closed after the idle timeout.
+     */
+    @Test
+    void testIdleTimeout_closesConnection() throws IOException {
+        int port = start(settings(10, 100, 1024));
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("GET /api/a HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 200"));
+            assertEquals(-1, socket.getInputStream().read(), "Idle connection should be closed by the server");
+        }
+    }
+
+    /**
+     * Test that a request trickled in a byte at a time is cut off once its deadline passes,
+     * even though every read counts as activity.
+     */
+    @Test
+    void testRequestDeadline_closesSlowClient() throws Exception {
+        int port = start(settings(10, 300, 1024));
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            byte[] head = "GET /api/a HTTP/1.1\r\nHost: x\r\nX-Slow: ".getBytes(StandardCharsets.ISO_8859_1);
+            long start = System.currentTimeMillis();
+            boolean closed = false;
+            for (int i = 0; i < 80 && !closed; i++) {
+                try {
+                    out.write(head[Math.min(i, head.length - 1)]);
+                    out.flush();
+                } catch (IOException e) {
+                    closed = true;
+                }
+                Thread.sleep(50);
+            }
+            if (!closed) {
+                assertEquals(-1, socket.getInputStream().read(), "Slow request should be closed by the server");
+            }
+            assertTrue(System.currentTimeMillis() - start < 2500, "Closed within the deadline plus a sweep");
+        }
+    }
+
+    /**
+     * Test that a body may take longer than the timeout as long as it keeps arriving.
+     */
+    @Test
+    void testRequestDeadline_slowBodyStillServed() throws Exception {
+        int port = start(settings(10, 300, 1024));
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("POST /api/echo HTTP/1.1\r\nContent-Length: 10\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            for (byte b : "0123456789".getBytes(StandardCharsets.ISO_8859_1)) {
+                Thread.sleep(100);
+                out.write(b);
+                out.flush();
+            }
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 201"), response);
+            assertTrue(response.endsWith("0123456789"), response);
+        }
+    }
+
+    /**
+     * Test that a header with a bare line feed gets 400 and the server keeps accepting connections.
+     */
+    @Test
+    void testMalformedHeader_rejectedWithoutStoppingServer() throws IOException {
+        int port = start(settings(10, 30_000, 1024));
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("GET /api/a HTTP/1.1\r\nX: a\nb\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 400"), response);
+        }
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("GET /api/a HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 200"));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+// Default package (no package declaration)
+
+import database.DatabaseConnection;
+import database.NotificationOutboxDAO;
+import database.NotificationOutboxDAO.OutboxEntry;
+import database.ReceiptDAO;
+import models.Receipt;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for NotificationOutboxDAO.
+ * The backoff schedule is tested directly; the outbox tests need a running MySQL database
+ * and are skipped without one.
+ */
+public class NotificationOutboxDAOTest {
+
+    private final NotificationOutboxDAO outboxDAO = new NotificationOutboxDAO();
+
+    /**
+     * Test that the retry delay doubles per attempt and stops at the cap.
+     */
+    @Test
+    void testBackoffSeconds_doublesUpToCap() {
+        assertEquals(2, NotificationOutboxDAO.backoffSeconds(1, 2, 600));
+        assertEquals(4, NotificationOutboxDAO.backoffSeconds(2, 2, 600));
+        assertEquals(256, NotificationOutboxDAO.backoffSeconds(8, 2, 600));
+        assertEquals(600, NotificationOutboxDAO.backoffSeconds(10, 2, 600));
+        assertEquals(600, NotificationOutboxDAO.backoffSeconds(1000, 2, 600), "No overflow");
+    }
+
+    /**
+     * Test that claimed rows are not claimed again, that delivery adds each participant once
+     * even when repeated, and that failed rows wait out their backoff and are parked after
+     * the last attempt.
+     */
+    @Test
+    void testClaimDeliverRetryAndDedup() throws SQLException {
+        String senderId = createUser();
+        String firstId = createUser();
+        String secondId = createUser();
+        Assumptions.assumeTrue(senderId != null && firstId != null && secondId != null,
+            "User creation failed - database may not be set up");
+        try (Connection conn = DatabaseConnection.getInstance().openConnection()) {
+            Receipt receipt = new ReceiptDAO().createReceipt(senderId, "Outbox Store", new Date(), 10.0f, 0.0f, 0.0f, "url");
+            assertNotNull(receipt);
+            int receiptId = receipt.getReceiptId();
+            assertEquals(2, outboxDAO.enqueue(receiptId, senderId, Arrays.asList(firstId, secondId), "shared"));
+
+            List<OutboxEntry> claimed = forReceipt(outboxDAO.claimBatch(conn, 1000), receiptId);
+            assertEquals(2, claimed.size());
+            assertEquals(NotificationOutboxDAO.STATUS_PROCESSING, status(claimed.get(0).outboxId));
+            assertTrue(forReceipt(outboxDAO.claimBatch(conn, 1000), receiptId).isEmpty(), "Claimed rows are not claimed twice");
+
+            OutboxEntry first = claimed.get(0).recipientId.equals(firstId) ? claimed.get(0) : claimed.get(1);
+            OutboxEntry second = first == claimed.get(0) ? claimed.get(1) : claimed.get(0);
+            outboxDAO.deliver(conn, receiptId, Collections.singletonList(first));
+            outboxDAO.deliver(conn, receiptId, Collections.singletonList(first));
+            assertEquals(NotificationOutboxDAO.STATUS_DELIVERED, status(first.outboxId));
+            assertEquals(1, participantRows(receiptId, firstId), "Repeated delivery adds the participant once");
+
+            outboxDAO.markFailed(conn, Collections.singletonList(second), "boom", 3, 60, 600);
+            assertEquals(NotificationOutboxDAO.STATUS_PENDING, status(second.outboxId));
+            assertTrue(forReceipt(outboxDAO.claimBatch(conn, 1000), receiptId).isEmpty(), "Retry waits for its backoff");
+
+            second.attempts = 2;
+            outboxDAO.markFailed(conn, Collections.singletonList(second), "boom", 3, 60, 600);
+            assertEquals(NotificationOutboxDAO.STATUS_FAILED, status(second.outboxId), "Parked after the last attempt");
+            assertEquals(0, participantRows(receiptId, secondId));
+        } finally {
+            deleteUser(senderId);
+            deleteUser(firstId);
+            deleteUser(secondId);
+        }
+    }
+
+    /**
+     * Test that claiming on the dispatcher's connection does not commit a transaction that is
+     * open on the shared connection.
+     */
+    @Test
+    void testClaim_leavesSharedTransactionAlone() throws SQLException {
+        String userId = createUser();
+        Assumptions.assumeTrue(userId != null, "User creation failed - database may not be set up");
+        Connection shared = DatabaseConnection.getInstance().getConnection();
+        try (Connection conn = DatabaseConnection.getInstance().openConnection()) {
+            shared.setAutoCommit(false);
+            try (PreparedStatement stmt = shared.prepareStatement("UPDATE users SET name = ? WHERE user_id = ?")) {
+                stmt.setString(1, "Uncommitted");
+                stmt.setString(2, userId);
+                stmt.executeUpdate();
+            }
+            outboxDAO.claimBatch(conn, 1);
+            shared.rollback();
+            shared.setAutoCommit(true);
+            try (PreparedStatement stmt = shared.prepareStatement("SELECT name FROM users WHERE user_id = ?")) {
+                stmt.setString(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals("Outbox Test", rs.getString("name"), "The open transaction was rolled back, not committed");
+                }
+            }
+        } finally {
+            shared.setAutoCommit(true);
+            deleteUser(userId);
+        }
+    }
+
+    private static List<OutboxEntry> forReceipt(List<OutboxEntry> entries, int receiptId) {
+        return entries.stream().filter(e -> e.receiptId == receiptId).collect(Collectors.toList());
+    }
+
+    private static String status(long outboxId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT status FROM receipt_notification_outbox WHERE outbox_id = ?")) {
+            stmt.setLong(1, outboxId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("status") : null;
+            }
+        }
+    }
+
+    private static int participantRows(int receiptId, String userId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT COUNT(*) FROM receipt_participants WHERE receipt_id = ? AND user_id = ?")) {
+            stmt.setInt(1, receiptId);
+            stmt.setString(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static String createUser() {
+        String userId = UUID.randomUUID().toString();
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO users (user_id, name, email, phone_number, password_hash, balance) VALUES (?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, userId);
+            stmt.setString(2, "Outbox Test");
+            stmt.setString(3, "outbox-" + userId + "@test.com");
+            stmt.setString(4, userId.substring(0, 10));
+            stmt.setString(5, "hash");
+            stmt.setDouble(6, 0.0);
+            stmt.executeUpdate();
+            return userId;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static void deleteUser(String userId) throws SQLException {
+        if (userId == null) {
+            return;
+        }
+        // Receipts, participants and outbox rows go with the user through ON DELETE CASCADE
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM users WHERE user_id = ?")) {
+            stmt.setString(1, userId);
+            stmt.executeUpdate();
+        }
+    }
+}
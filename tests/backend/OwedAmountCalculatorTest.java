@@ -0,0 +1,57 @@
+// Default package (no package declaration)
+
+import models.ReceiptItem;
+import org.junit.jupiter.api.Test;
+import utils.OwedAmountCalculator;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for OwedAmountCalculator.
+ * Tests proportional tax/tip splitting and rounding; no database required.
+ */
+public class OwedAmountCalculatorTest {
+
+    private static final List<ReceiptItem> ITEMS = List.of(
+        new ReceiptItem(1, 10, "Pizza", 12.00f, 1, "Food"),
+        new ReceiptItem(2, 10, "Soda", 2.50f, 2, "Drinks"),
+        new ReceiptItem(3, 10, "Salad", 8.99f, 1, "Food"));
+
+    /**
+     * Test that tax and tip are split in proportion to the claimed subtotal.
+     */
+    @Test
+    void testOwedAmount_proportionalTaxAndTip() {
+        // Subtotal 25.99; claimed 14.50 -> proportion 0.5578... of 2.60 tax and 5.00 tip
+        BigDecimal owed = OwedAmountCalculator.owedAmount(ITEMS, Map.of(1, 1, 2, 1), 2.60f, 5.00f);
+
+        assertEquals(new BigDecimal("18.74"), owed);
+    }
+
+    /**
+     * Test that nothing is owed without claims.
+     */
+    @Test
+    void testOwedAmount_noClaims_isZero() {
+        assertEquals(0, OwedAmountCalculator.owedAmount(ITEMS, Map.of(), 2.60f, 5.00f).signum());
+    }
+
+    /**
+     * Test that paid claims are taken off the amount owed.
+     */
+    @Test
+    void testOwedAmountExcludingPaid_subtractsPaidClaims() {
+        Map<Integer, Integer> claimed = Map.of(1, 1, 3, 1);
+
+        BigDecimal all = OwedAmountCalculator.owedAmount(ITEMS, claimed, 2.60f, 5.00f);
+        BigDecimal paidPizza = OwedAmountCalculator.owedAmount(ITEMS, Map.of(1, 1), 2.60f, 5.00f);
+        BigDecimal remaining = OwedAmountCalculator.owedAmountExcludingPaid(ITEMS, claimed, Map.of(1, 1), 2.60f, 5.00f);
+
+        assertEquals(all.subtract(paidPizza), remaining);
+        assertEquals(0, OwedAmountCalculator.owedAmountExcludingPaid(ITEMS, claimed, claimed, 2.60f, 5.00f).signum());
+    }
+}
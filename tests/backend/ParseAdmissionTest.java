@@ -0,0 +1,242 @@
+// Default package (no package declaration)
+
+import com.sun.net.httpserver.HttpServer;
+import controllers.ReceiptController;
+import org.junit.jupiter.api.Test;
+import services.ParseAdmission;
+import transport.HttpTransport;
+import transport.NioHttpTransport;
+import transport.TransportSettings;
+import utils.ResponseWriter;
+import utils.Router;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ParseAdmission: per-client rate limits, the concurrency cap and
+ * round-robin hand-off of free slots, and ParseAdmissionHandler on both HTTP engines.
+ * No database required.
+ */
+public class ParseAdmissionTest {
+
+    /**
+     * Test that a client over its burst is refused with a Retry-After while others are not.
+     */
+    @Test
+    void testRateLimit_perClient() throws Exception {
+        ParseAdmission admission = new ParseAdmission(2, 1, 10, 2, 10, 1000);
+
+        assertTrue(submit(admission, "a", null).awaitRun());
+        assertTrue(submit(admission, "a", null).awaitRun());
+        Job refused = submit(admission, "a", null);
+
+        assertNotNull(refused.retryAfter, "Refused without waiting");
+        assertTrue(refused.retryAfter > 1 && refused.retryAfter <= 60,
+            "One token per minute: retry after up to a minute, got " + refused.retryAfter);
+        assertTrue(submit(admission, "b", null).awaitRun());
+    }
+
+    /**
+     * Test that freed slots alternate between clients instead of draining one client's queue first.
+     */
+    @Test
+    void testFairQueue_roundRobinAcrossClients() throws Exception {
+        ParseAdmission admission = new ParseAdmission(10, 60, 1, 2, 10, 10_000);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        Job holder = submit(admission, "holder", gate);
+        assertTrue(holder.awaitStart());
+        List<Job> waiting = new ArrayList<>();
+        for (String client : new String[] {"a", "a", "b"}) {
+            waiting.add(submit(admission, client, null, order));
+        }
+        assertEquals(3, admission.getQueued());
+
+        gate.countDown();
+        for (Job job : waiting) {
+            assertTrue(job.awaitRun());
+        }
+        assertEquals(List.of("a", "b", "a"), order);
+        waitForIdle(admission);
+    }
+
+    /**
+     * Test that a full per-client queue refuses at once and a long wait times out.
+     */
+    @Test
+    void testQueueLimits_refuseAndTimeOut() throws Exception {
+        ParseAdmission admission = new ParseAdmission(10, 60, 1, 1, 10, 200);
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            assertTrue(submit(admission, "a", gate).awaitStart());
+            Job waiting = submit(admission, "a", null);
+            assertEquals(1, admission.getQueued());
+
+            Job full = submit(admission, "a", null);
+            assertEquals(Long.valueOf(1), full.retryAfter, "A full queue refuses without waiting");
+
+            assertTrue(waiting.refusedLatch.await(5, TimeUnit.SECONDS), "Should time out");
+            assertFalse(waiting.ran);
+            assertEquals(0, admission.getQueued());
+        } finally {
+            gate.countDown();
+        }
+        waitForIdle(admission);
+    }
+
+    /**
+     * Test that a parse that timed out in the queue gets its token back.
+     */
+    @Test
+    void testQueueTimeout_refundsToken() throws Exception {
+        ParseAdmission admission = new ParseAdmission(2, 1, 1, 1, 10, 100);
+        CountDownLatch gate = new CountDownLatch(1);
+        assertTrue(submit(admission, "a", gate).awaitStart());
+        Job waiting = submit(admission, "a", null);
+        assertTrue(waiting.refusedLatch.await(5, TimeUnit.SECONDS));
+        gate.countDown();
+        waitForIdle(admission);
+
+        assertTrue(submit(admission, "a", null).awaitRun(), "The timed-out parse's token was refunded");
+    }
+
+    /**
+     * Test that overlapping parse requests run at the same time on both engines, whose request
+     * handlers run on a single thread, and that other routes are answered meanwhile.
+     */
+    @Test
+    void testHandler_overlappingRequestsOnBothEngines() throws Exception {
+        HttpServer jdk = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        HttpTransport nio = new NioHttpTransport(new InetSocketAddress("127.0.0.1", 0),
+            new TransportSettings(10, 30_000, 8192, 1024, 1, 1024));
+        CountDownLatch[] arrived = new CountDownLatch[1];
+        CountDownLatch[] release = new CountDownLatch[1];
+        Router router = new Router()
+            .post("/api/parse", new ReceiptController.ParseAdmissionHandler(new ParseAdmission(10, 60, 2, 2, 10, 5000),
+                exchange -> {
+                    arrived[0].countDown();
+                    try {
+                        release[0].await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    ResponseWriter.sendJson(exchange, 200, "{\"success\": true}");
+                }))
+            .get("/api/ping", exchange -> ResponseWriter.sendJson(exchange, 200, "{\"success\": true}"));
+        jdk.createContext("/api", router);
+        jdk.start();
+        nio.createContext("/api", router);
+        nio.start();
+        try {
+            for (int port : new int[] {jdk.getAddress().getPort(), nio.getAddress().getPort()}) {
+                arrived[0] = new CountDownLatch(2);
+                release[0] = new CountDownLatch(1);
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                HttpRequest parse = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/parse"))
+                    .POST(HttpRequest.BodyPublishers.ofString("image")).build();
+                List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    responses.add(client.sendAsync(parse, HttpResponse.BodyHandlers.ofString()));
+                }
+
+                assertTrue(arrived[0].await(5, TimeUnit.SECONDS), "Both parses run at once on port " + port);
+                HttpResponse<String> ping = client.send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/ping")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, ping.statusCode(), "Answered while parses are running");
+                assertFalse(responses.get(0).isDone() || responses.get(1).isDone(), "Neither parse has finished yet");
+
+                release[0].countDown();
+                for (CompletableFuture<HttpResponse<String>> response : responses) {
+                    assertEquals(200, response.get(5, TimeUnit.SECONDS).statusCode());
+                }
+            }
+        } finally {
+            jdk.stop(0);
+            nio.stop(1);
+        }
+    }
+
+    private static Job submit(ParseAdmission admission, String client, CountDownLatch gate) {
+        return submit(admission, client, gate, null);
+    }
+
+    private static Job submit(ParseAdmission admission, String client, CountDownLatch gate, List<String> order) {
+        Job job = new Job(client, gate, order);
+        admission.submit(client, job);
+        return job;
+    }
+
+    private static void waitForIdle(ParseAdmission admission) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (admission.getRunning() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, admission.getRunning());
+    }
+
+    /**
+     * Records what admission did with it; run() holds its slot until the gate opens, if any.
+     */
+    private static final class Job implements ParseAdmission.Job {
+        private final String client;
+        private final CountDownLatch gate;
+        private final List<String> order;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final CountDownLatch refusedLatch = new CountDownLatch(1);
+        volatile boolean ran;
+        volatile Long retryAfter;
+
+        Job(String client, CountDownLatch gate, List<String> order) {
+            this.client = client;
+            this.gate = gate;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            ran = true;
+            if (order != null) {
+                order.add(client);
+            }
+            started.countDown();
+            try {
+                if (gate != null) {
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        @Override
+        public void refuse(long retryAfterSeconds) {
+            retryAfter = retryAfterSeconds;
+            refusedLatch.countDown();
+        }
+
+        boolean awaitStart() throws InterruptedException {
+            return started.await(5, TimeUnit.SECONDS);
+        }
+
+        boolean awaitRun() throws InterruptedException {
+            return finished.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
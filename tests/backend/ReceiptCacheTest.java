@@ -0,0 +1,107 @@
+// Default package (no package declaration)
+
+import database.ReceiptCache;
+import models.ReceiptDetail;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReceiptCache.
+ * Tests invalidation tickets, LRU eviction and TTL expiry; no database required.
+ */
+public class ReceiptCacheTest {
+
+    private static ReceiptDetail detail(int receiptId) {
+        return new ReceiptDetail(receiptId, "uploader", "Cafe", new Date(), 10f, 0f, 0f,
+            null, "pending", "", 0, false, List.of(), List.of());
+    }
+
+    /**
+     * Test that a load that started before an invalidation is not cached.
+     */
+    @Test
+    void testPutDetail_afterInvalidation_ignored() {
+        ReceiptCache cache = new ReceiptCache(10, 60_000, 60_000);
+        long staleTicket = cache.ticket();
+        cache.invalidateDetail(1);
+        cache.putDetail(1, staleTicket, detail(1));
+
+        assertNull(cache.getDetail(1), "Load that predates the write should not be cached");
+
+        cache.putDetail(1, cache.ticket(), detail(1));
+        assertNotNull(cache.getDetail(1));
+    }
+
+    /**
+     * Test that the two layers are invalidated independently.
+     */
+    @Test
+    void testInvalidatePaymentState_keepsDetail() {
+        ReceiptCache cache = new ReceiptCache(10, 60_000, 60_000);
+        long ticket = cache.ticket();
+        cache.putDetail(1, ticket, detail(1));
+        cache.putPaymentState(1, ticket, new ReceiptCache.PaymentState(List.of(
+            new ReceiptCache.Assignment(5, "user-1", "Ann", 2, null, null, null))));
+
+        cache.invalidatePaymentState(1);
+
+        assertNotNull(cache.getDetail(1));
+        assertNull(cache.getPaymentState(1));
+    }
+
+    /**
+     * Test that the least recently used receipt is evicted and a stale load for it stays rejected.
+     */
+    @Test
+    void testEviction_leastRecentlyUsed() {
+        ReceiptCache cache = new ReceiptCache(2, 60_000, 60_000);
+        long staleTicket = cache.ticket();
+        cache.invalidateDetail(1);
+        cache.putDetail(2, cache.ticket(), detail(2));
+        cache.putDetail(3, cache.ticket(), detail(3));
+
+        cache.putDetail(1, staleTicket, detail(1));
+        assertNull(cache.getDetail(1), "Evicted invalidation should still reject older tickets");
+
+        cache.getDetail(2);
+        cache.putDetail(4, cache.ticket(), detail(4));
+        assertNotNull(cache.getDetail(2), "Recently read receipt should be kept");
+        assertNull(cache.getDetail(3), "Least recently used receipt should be evicted");
+    }
+
+    /**
+     * Test that expired payment state is not served.
+     */
+    @Test
+    void testGetPaymentState_expired_returnsNull() throws InterruptedException {
+        ReceiptCache cache = new ReceiptCache(10, 60_000, 1);
+        cache.putPaymentState(1, cache.ticket(), new ReceiptCache.PaymentState(List.of()));
+        Thread.sleep(5);
+
+        assertNull(cache.getPaymentState(1), "Expired payment state should not be served");
+    }
+
+    /**
+     * Test that payment state derives per-user assignments and per-item payment info.
+     */
+    @Test
+    void testPaymentState_views() {
+        ReceiptCache.PaymentState state = new ReceiptCache.PaymentState(List.of(
+            new ReceiptCache.Assignment(5, "user-1", "Ann", 2, "user-1", "Ann", 1_000L),
+            new ReceiptCache.Assignment(6, "user-1", "Ann", 1, null, null, null),
+            new ReceiptCache.Assignment(6, "user-2", "Bob", 1, null, null, null)));
+
+        assertEquals(Map.of(5, 2, 6, 1), state.assignmentsForUser("user-1"));
+        Map<Integer, Map<String, Object>> payments = state.itemPaymentInfo();
+        assertEquals(1, payments.size());
+        assertEquals("user-1", payments.get(5).get("paidBy"));
+        assertEquals("Ann", payments.get(5).get("payerName"));
+        assertEquals(1_000L, payments.get(5).get("paidAt"));
+        assertEquals(Map.of(5, 2), state.paidAssignmentsForUser("user-1"));
+    }
+}
@@ -0,0 +1,75 @@
+// Default package (no package declaration)
+
+import models.ReceiptDetail;
+import models.ReceiptItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReceiptDetail.
+ * Tests the access helpers and immutability of the view model; no database required.
+ */
+public class ReceiptDetailTest {
+
+    private static ReceiptDetail sampleDetail(List<ReceiptItem> items) {
+        List<ReceiptDetail.Participant> participants = List.of(
+            new ReceiptDetail.Participant("friend-1", "accepted", 12.5f),
+            new ReceiptDetail.Participant("friend-2", "declined", 0f));
+        return new ReceiptDetail(7, "uploader", "Cafe", new Date(1_700_000_000_000L),
+            30f, 3f, 2f, null, "pending", "Uploader Name", items.size(), false, items, participants);
+    }
+
+    /**
+     * Test that the uploader and participants can view the receipt but others cannot.
+     */
+    @Test
+    void testCanView_uploaderAndParticipantsOnly() {
+        ReceiptDetail detail = sampleDetail(List.of());
+
+        assertTrue(detail.canView("uploader"));
+        assertTrue(detail.canView("friend-2"));
+        assertFalse(detail.canView("stranger"));
+        assertFalse(detail.canView(null));
+        assertTrue(detail.isUploader("uploader"));
+        assertFalse(detail.isUploader("friend-1"));
+    }
+
+    /**
+     * Test that participant rows are looked up by user ID.
+     */
+    @Test
+    void testGetParticipant_returnsRow() {
+        ReceiptDetail detail = sampleDetail(List.of());
+
+        ReceiptDetail.Participant friend = detail.getParticipant("friend-1");
+        assertNotNull(friend);
+        assertEquals("accepted", friend.getStatus());
+        assertEquals(12.5f, friend.getPaidAmount(), 0.001f);
+        assertNull(detail.getParticipant("uploader"));
+    }
+
+    /**
+     * Test that items are sorted by ID and neither the lists nor the date can be changed.
+     */
+    @Test
+    void testImmutable_itemsSortedAndCopied() {
+        List<ReceiptItem> items = new ArrayList<>();
+        items.add(new ReceiptItem(12, 7, "Tea", 4f, 1, "Drinks"));
+        items.add(new ReceiptItem(10, 7, "Bagel", 6f, 2, "Food"));
+        ReceiptDetail detail = sampleDetail(items);
+        items.clear();
+
+        assertEquals(2, detail.getItems().size(), "Detail should keep its own copy of the items");
+        assertEquals(10, detail.getItems().get(0).getItemId());
+        assertThrows(UnsupportedOperationException.class, () -> detail.getItems().clear());
+        assertThrows(UnsupportedOperationException.class, () -> detail.getParticipants().clear());
+
+        detail.getDate().setTime(0);
+        assertEquals(1_700_000_000_000L, detail.getDate().getTime());
+    }
+}
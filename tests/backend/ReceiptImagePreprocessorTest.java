@@ -0,0 +1,97 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import services.ReceiptImagePreprocessor;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReceiptImagePreprocessor.
+ * Builds synthetic receipt photos with ImageIO; no database or parser required.
+ */
+public class ReceiptImagePreprocessorTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Test that an image is downscaled, made grayscale and cropped to its content.
+     */
+    @Test
+    void testPreprocess_downscalesGrayscalesAndCrops() throws IOException {
+        // A red "receipt" in the middle of a white 4000x1000 photo
+        BufferedImage photo = new BufferedImage(4000, 1000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = photo.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 4000, 1000);
+        g.setColor(Color.RED);
+        g.fillRect(1000, 200, 2000, 600);
+        g.dispose();
+        Path source = dir.resolve("upload.png");
+        ImageIO.write(photo, "png", source.toFile());
+
+        Path output = new ReceiptImagePreprocessor(2000, 0.85f, 1).preprocess(source);
+
+        assertNotNull(output);
+        BufferedImage result = ImageIO.read(output.toFile());
+        // Scaled by half, then cropped to the 1000x300 receipt; allow for edge blending
+        assertEquals(1000, result.getWidth(), 2);
+        assertEquals(300, result.getHeight(), 2);
+        assertEquals(1, result.getRaster().getNumBands(), "Output should be grayscale");
+        assertTrue(Files.size(output) < Files.size(source) * 4);
+        assertTrue(Files.exists(source), "The original is left for the caller to store");
+    }
+
+    /**
+     * Test that files ImageIO cannot decode are left for the parser to handle.
+     */
+    @Test
+    void testPreprocess_unreadableImageReturnsNull() throws IOException {
+        Path source = Files.write(dir.resolve("upload.heic"), new byte[] {0, 0, 0, 24, 'f', 't', 'y', 'p'});
+
+        assertNull(new ReceiptImagePreprocessor(2000, 0.85f, 1).preprocess(source));
+    }
+
+    /**
+     * Test that an image whose header declares too many pixels is refused before decoding.
+     */
+    @Test
+    void testPreprocess_oversizedImageRefused() throws IOException {
+        // A PNG header for a 30000x30000 image: 900 MP, about 3.6 GB once decoded
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        ByteBuffer header = ByteBuffer.allocate(13).putInt(30_000).putInt(30_000)
+            .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(png, "IHDR", header.array());
+        writeChunk(png, "IDAT", new byte[] {0x78, (byte) 0x9c, 0x03, 0x00, 0x00, 0x00, 0x00, 0x01});
+        writeChunk(png, "IEND", new byte[0]);
+        Path source = Files.write(dir.resolve("bomb.png"), png.toByteArray());
+
+        long start = System.nanoTime();
+        assertNull(new ReceiptImagePreprocessor(2000, 0.85f, 1).preprocess(source));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "Refused from the header, not by decoding");
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type.getBytes(StandardCharsets.US_ASCII));
+        crc.update(data);
+        out.write(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.write(type.getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+}
@@ -0,0 +1,197 @@
+// Default package (no package declaration)
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import services.ReceiptImageStore;
+import services.ThumbnailService;
+import transport.HttpTransport;
+import transport.NioHttpTransport;
+import transport.TransportSettings;
+import utils.ByteRange;
+import utils.ResponseWriter;
+import utils.Router;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for receipt image storage and file responses: ReceiptImageStore, ThumbnailService,
+ * ByteRange and ResponseWriter.sendFile on both HTTP engines. No database required.
+ */
+public class ReceiptImageServingTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] image(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        data[0] = (byte) 0xff;
+        data[1] = (byte) 0xd8;
+        return data;
+    }
+
+    /**
+     * Test that uploads are stored once under their content hash and that names are validated.
+     */
+    @Test
+    void testStore_adoptIsContentAddressed() throws IOException {
+        ReceiptImageStore store = new ReceiptImageStore(dir.resolve("images"));
+        byte[] data = image(1000);
+        Path first = Files.write(dir.resolve("upload1"), data);
+        Path second = Files.write(dir.resolve("upload2"), data);
+
+        String name = store.adopt(first, data);
+        assertEquals(name, store.adopt(second, data), "Identical images share a name");
+        assertTrue(name.endsWith(".jpg"));
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(second));
+        assertArrayEquals(data, Files.readAllBytes(store.resolve(name)));
+        assertEquals("\"" + name.substring(0, 64) + "\"", ReceiptImageStore.etag(name));
+
+        assertNull(store.resolve("../" + name));
+        assertNull(store.resolve(null));
+        assertNull(store.resolve("0".repeat(64) + ".jpg"), "Valid but unknown name");
+    }
+
+    /**
+     * Test that a thumbnail is scaled to the maximum dimension, stored as JPEG next to the
+     * original and addressed by the original's hash.
+     */
+    @Test
+    void testThumbnail_generatedNextToOriginal() throws IOException {
+        ReceiptImageStore store = new ReceiptImageStore(dir.resolve("images"));
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), "png", png);
+        byte[] data = png.toByteArray();
+        String name = store.adopt(Files.write(dir.resolve("upload"), data), data);
+        assertTrue(name.endsWith(".png"));
+
+        String thumbnailName = ReceiptImageStore.thumbnailName(name);
+        assertEquals(name.substring(0, 64) + "_thumb.jpg", thumbnailName);
+        assertEquals(name, store.originalOf(thumbnailName));
+        assertNull(store.resolve(thumbnailName));
+
+        ThumbnailService thumbnails = new ThumbnailService(store, 320, 1, 4);
+        Path thumbnail = thumbnails.generate(name);
+        assertEquals(store.resolve(thumbnailName), thumbnail);
+        BufferedImage scaled = ImageIO.read(thumbnail.toFile());
+        assertEquals(320, scaled.getWidth());
+        assertEquals(160, scaled.getHeight());
+        assertEquals(thumbnailName,
+            ReceiptImageStore.nameFromUrl(ReceiptImageStore.urlFor(thumbnailName)));
+
+        assertNull(thumbnails.generate("0".repeat(64) + ".jpg"), "Missing original has no thumbnail");
+    }
+
+    /**
+     * Test that only JPEG and PNG originals get thumbnails and that an original which failed
+     * to decode is not tried again.
+     */
+    @Test
+    void testThumbnail_unsupportedAndFailedOriginals() throws IOException {
+        String hash = "a".repeat(64);
+        assertTrue(ReceiptImageStore.hasThumbnail(hash + ".jpg"));
+        assertTrue(ReceiptImageStore.hasThumbnail(hash + ".png"));
+        assertFalse(ReceiptImageStore.hasThumbnail(hash + ".heic"));
+        assertFalse(ReceiptImageStore.hasThumbnail(hash + ".webp"));
+        assertFalse(ReceiptImageStore.hasThumbnail(hash + "_thumb.jpg"));
+        assertFalse(ReceiptImageStore.hasThumbnail(null));
+
+        ReceiptImageStore store = new ReceiptImageStore(dir.resolve("images"));
+        byte[] data = image(1000);
+        String name = store.adopt(Files.write(dir.resolve("upload"), data), data);
+        ThumbnailService thumbnails = new ThumbnailService(store, 320, 1, 4);
+        assertNull(thumbnails.generate(name), "Not a decodable JPEG");
+
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), "jpg", jpeg);
+        Files.write(store.resolve(name), jpeg.toByteArray());
+        assertNull(thumbnails.generate(name), "Failure is remembered");
+        assertNotNull(new ThumbnailService(store, 320, 1, 4).generate(name));
+    }
+
+    /**
+     * Test single-range parsing, suffix ranges and the cases that fall back to the full body.
+     */
+    @Test
+    void testByteRange_parse() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+        assertEquals(10, range.start);
+        assertEquals(10, range.length);
+        assertEquals("bytes 10-19/100", range.contentRange(100));
+
+        assertEquals(90, ByteRange.parse("bytes=90-", 100).start);
+        assertEquals(99, ByteRange.parse("bytes=90-500", 100).end());
+        assertEquals(80, ByteRange.parse("bytes=-20", 100).start);
+        assertEquals(100, ByteRange.parse("bytes=-500", 100).length);
+
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=100-", 100));
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 100));
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("bytes=0-1,5-6", 100), "Multiple ranges are served in full");
+        assertNull(ByteRange.parse("bytes=5-1", 100));
+        assertNull(ByteRange.parse("bytes=+1-2", 100));
+        assertNull(ByteRange.parse("items=0-1", 100));
+    }
+
+    /**
+     * Test that file bodies and ranges are sent intact by the JDK engine and the NIO engine's sendfile path.
+     */
+    @Test
+    void testSendFile_bothEngines() throws Exception {
+        byte[] data = image(200_000);
+        Path file = Files.write(dir.resolve("image.jpg"), data);
+        Router router = new Router().get("/api/file", exchange -> {
+            ByteRange range = ByteRange.parse(exchange.getRequestHeaders().getFirst("Range"), data.length);
+            if (range != null) {
+                ResponseWriter.sendFile(exchange, 206, "image/jpeg", file, range.start, range.length);
+            } else {
+                ResponseWriter.sendFile(exchange, 200, "image/jpeg", file, 0, data.length);
+            }
+        });
+
+        HttpServer jdk = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        jdk.createContext("/api", router);
+        jdk.start();
+        HttpTransport nio = new NioHttpTransport(new InetSocketAddress("127.0.0.1", 0),
+            new TransportSettings(10, 30_000, 8192, 1024, 1, 1024));
+        nio.createContext("/api", router);
+        nio.start();
+        try {
+            for (int port : new int[] {jdk.getAddress().getPort(), nio.getAddress().getPort()}) {
+                HttpClient client = HttpClient.newHttpClient();
+                URI uri = URI.create("http://127.0.0.1:" + port + "/api/file");
+
+                HttpResponse<byte[]> full = client.send(HttpRequest.newBuilder(uri).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+                assertEquals(200, full.statusCode());
+                assertEquals("image/jpeg", full.headers().firstValue("Content-Type").orElse(null));
+                assertArrayEquals(data, full.body());
+
+                HttpResponse<byte[]> part = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=-100").build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+                assertEquals(206, part.statusCode());
+                assertArrayEquals(Arrays.copyOfRange(data, data.length - 100, data.length), part.body());
+            }
+        } finally {
+            jdk.stop(0);
+            nio.stop(1);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// Default package (no package declaration)
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import parser.ParseResult;
+import parser.PersistentWorkerReceiptParser;
+import parser.ReceiptParser;
+import parser.StubReceiptParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for the ReceiptParser implementations.
+ * The worker test runs the load-test stub script and is skipped when python3 is not installed.
+ */
+public class ReceiptParserTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Test that the stub parser returns its fixture.
+     */
+    @Test
+    void testStub_returnsFixture() throws Exception {
+        ParseResult result = new StubReceiptParser("{\"total_amount\": 5}", 0).parse(dir.resolve("a.jpg"), false, 1000);
+
+        assertTrue(result.isOk());
+        assertEquals("{\"total_amount\": 5}", result.output);
+    }
+
+    /**
+     * Test that the stub parser gives up at the timeout when its delay is longer.
+     */
+    @Test
+    void testStub_delayBeyondTimeoutTimesOut() throws Exception {
+        long start = System.nanoTime();
+        ParseResult result = new StubReceiptParser("{}", 10_000).parse(dir.resolve("a.jpg"), false, 50);
+
+        assertEquals(ParseResult.Status.TIMED_OUT, result.status);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+    }
+
+    /**
+     * Test that interrupting the calling thread abandons the parse.
+     */
+    @Test
+    void testStub_interruptCancels() throws Exception {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                new StubReceiptParser("{}", 10_000).parse(dir.resolve("a.jpg"), false, 60_000);
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        caller.start();
+        Thread.sleep(50);
+        caller.interrupt();
+        caller.join(5_000);
+
+        assertFalse(caller.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    /**
+     * Test that an unknown RECEIPT_PARSER value is rejected at start-up.
+     */
+    @Test
+    void testCreate_unknownKindThrows() {
+        assertThrows(IllegalArgumentException.class, () -> ReceiptParser.create("magic"));
+        assertTrue(ReceiptParser.create("stub") instanceof StubReceiptParser);
+    }
+
+    /**
+     * Test that the built-in stub receipt has the keys the parse endpoint reads from the real parser.
+     */
+    @Test
+    void testStub_defaultFixtureMatchesParserOutput() throws Exception {
+        ParseResult result = ReceiptParser.create("stub").parse(dir.resolve("a.jpg"), false, 1000);
+        JSONObject receipt = new JSONObject(result.output);
+
+        assertEquals("Load Test Diner", receipt.getString("merchant"));
+        assertFalse(receipt.getString("date").isEmpty());
+        assertEquals(3, receipt.getJSONArray("items").length());
+        assertEquals(26.50, receipt.getDouble("subtotal"), 0.001);
+        assertEquals(2.25, receipt.getDouble("tax"), 0.001);
+        assertEquals(32.75, receipt.getDouble("total"), 0.001);
+    }
+
+    /**
+     * Test that a persistent worker answers several parses from the same process.
+     */
+    @Test
+    void testWorker_reusesProcess() throws Exception {
+        assumeTrue(python3Available(), "python3 not installed");
+        File script = new File(System.getProperty("user.dir"), "loadtest/stub_receipt_parser.py");
+        assumeTrue(script.exists(), "stub parser script not found");
+        Path image = Files.write(dir.resolve("a.jpg"), new byte[] {1, 2, 3});
+
+        PersistentWorkerReceiptParser parser = new PersistentWorkerReceiptParser(script, 1);
+        try {
+            for (int i = 0; i < 3; i++) {
+                ParseResult result = parser.parse(image, i % 2 == 0, 10_000);
+                assertTrue(result.isOk(), "Parse " + i + " failed: " + result.errorOutput);
+                assertEquals(32.75, new JSONObject(result.output).getDouble("total"), 0.001);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Test that a parse waiting for the only worker starts a new one when that worker is killed,
+     * instead of waiting out its own timeout.
+     */
+    @Test
+    void testWorker_waiterRespawnsKilledWorker() throws Exception {
+        assumeTrue(python3Available(), "python3 not installed");
+        // Answers at once, except for images named slow.jpg, which it never answers
+        Path script = Files.write(dir.resolve("worker.py"), String.join("\n",
+            "import json, sys, time",
+            "for line in sys.stdin:",
+            "    request = json.loads(line)",
+            "    if request['image'].endswith('slow.jpg'):",
+            "        time.sleep(60)",
+            "    print(json.dumps({'id': request['id'], 'result': {'total': 1}}), flush=True)",
+            "").getBytes());
+        Path slow = Files.write(dir.resolve("slow.jpg"), new byte[] {1});
+        Path fast = Files.write(dir.resolve("fast.jpg"), new byte[] {1});
+
+        PersistentWorkerReceiptParser parser = new PersistentWorkerReceiptParser(script.toFile(), 1);
+        try {
+            AtomicReference<ParseResult> first = new AtomicReference<>();
+            Thread slowParse = new Thread(() -> {
+                try {
+                    first.set(parser.parse(slow, false, 1_000));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            slowParse.start();
+            Thread.sleep(300);
+
+            long start = System.nanoTime();
+            ParseResult second = parser.parse(fast, false, 20_000);
+            slowParse.join(5_000);
+
+            assertEquals(ParseResult.Status.TIMED_OUT, first.get().status);
+            assertTrue(second.isOk(), "Waiting parse failed: " + second.errorOutput);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10_000,
+                "The waiting parse started a worker when the slot came free");
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static boolean python3Available() {
+        try {
+            Process process = new ProcessBuilder("python3", "--version").start();
+            return process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -8,7 +8,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assumptions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -165,5 +170,42 @@ public class ReceiptServiceTest {
         // Test declining already declined receipt - status should remain declined
         assertEquals("declined", receiptDAO.getParticipantStatus(receiptId, testParticipantId));
     }
-}
 
+    /**
+     * Test that createReceiptAggregate writes the receipt, items and participants together.
+     */
+    @Test
+    void testCreateReceiptAggregate() {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (String name : new String[] {"Burger", "Fries"}) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", name);
+            item.put("price", 5.0);
+            item.put("quantity", 2);
+            items.add(item);
+        }
+        ReceiptDAO.CreatedReceipt created = receiptDAO.createReceiptAggregate(
+            testUploaderId, "Aggregate Store", new Date(), 20.0f, 0.0f, 0.0f, "url", items,
+            Arrays.asList("participant@test.com", "nobody-" + UUID.randomUUID() + "@test.com"));
+        Assumptions.assumeTrue(created != null, "Receipt creation failed - database may not be set up");
+
+        int receiptId = created.receipt.getReceiptId();
+        assertEquals(testUploaderId, created.participantIds.get(0), "Uploader is the first participant");
+        assertEquals(2, created.participantIds.size(), "Unknown emails are skipped");
+        assertEquals(2, created.receipt.getNumberOfItems());
+        assertEquals(2, created.receipt.getItems().size());
+        assertTrue(created.receipt.getItems().get(0).getItemId() > 0);
+        assertNotEquals(created.receipt.getItems().get(0).getItemId(), created.receipt.getItems().get(1).getItemId());
+
+        Receipt stored = receiptDAO.getReceiptById(receiptId);
+        assertNotNull(stored);
+        assertEquals(testUploaderId, created.uploadedBy);
+        assertEquals(receiptDAO.getReceiptUploadedBy(receiptId), created.uploadedBy);
+        assertEquals(stored.getDate(), created.receipt.getDate(), "Date as stored, not as passed in");
+        assertEquals(stored.getSenderName(), created.receipt.getSenderName());
+        assertEquals(2, stored.getNumberOfItems());
+        assertEquals(2, stored.getItems().size());
+        assertEquals("pending", receiptDAO.getParticipantStatus(receiptId, testUploaderId));
+        assertEquals("pending", receiptDAO.getParticipantStatus(receiptId, created.participantIds.get(1)));
+    }
+}
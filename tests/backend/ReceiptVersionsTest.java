@@ -0,0 +1,62 @@
+// Default package (no package declaration)
+
+import database.ReceiptVersions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReceiptVersions.
+ * Tests that writes change the tags of the affected receipt and users only; no database required.
+ */
+public class ReceiptVersionsTest {
+
+    /**
+     * Test that a receipt write changes the receipt's tag and its members' list tags.
+     */
+    @Test
+    void testBumpReceipt_changesReceiptAndMemberTags() {
+        ReceiptVersions versions = new ReceiptVersions(60_000);
+        String view = versions.receiptTag("view", 1);
+        String uploaderList = versions.userTag("pending", "uploader");
+        String friendList = versions.userTag("pending", "friend");
+        String outsiderList = versions.userTag("pending", "outsider");
+        String otherReceipt = versions.receiptTag("view", 2);
+
+        versions.bumpReceipt(1, List.of("uploader", "friend"));
+
+        assertNotEquals(view, versions.receiptTag("view", 1));
+        assertNotEquals(uploaderList, versions.userTag("pending", "uploader"));
+        assertNotEquals(friendList, versions.userTag("pending", "friend"));
+        assertEquals(outsiderList, versions.userTag("pending", "outsider"));
+        assertEquals(otherReceipt, versions.receiptTag("view", 2));
+    }
+
+    /**
+     * Test that tags are stable without writes and differ per endpoint and per process.
+     */
+    @Test
+    void testTags_stableAndScoped() {
+        ReceiptVersions versions = new ReceiptVersions(60_000);
+        versions.bumpUser("user-1");
+
+        assertEquals(versions.userTag("activity", "user-1"), versions.userTag("activity", "user-1"));
+        assertNotEquals(versions.userTag("activity", "user-1"), versions.userTag("pending", "user-1"));
+        assertNotEquals(versions.userTag("activity", "user-1"),
+            new ReceiptVersions(60_000).userTag("activity", "user-1"), "A restart should change every tag");
+    }
+
+    /**
+     * Test that tags roll over once the max age passes even without a write.
+     */
+    @Test
+    void testTags_expireAfterMaxAge() throws InterruptedException {
+        ReceiptVersions versions = new ReceiptVersions(1);
+        String tag = versions.receiptTag("view", 1);
+        Thread.sleep(5);
+
+        assertNotEquals(tag, versions.receiptTag("view", 1));
+    }
+}
@@ -0,0 +1,68 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.Test;
+import utils.ResponseWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ResponseWriter.
+ * Tests Accept-Encoding negotiation and that pooled compressors produce valid streams.
+ */
+public class ResponseWriterTest {
+
+    private static final byte[] BODY = "{\"receipts\":[{\"merchantName\":\"Cafe\",\"status\":\"pending\"}]}"
+        .repeat(50).getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Test encoding selection from Accept-Encoding, including q-values and wildcards.
+     */
+    @Test
+    void testNegotiate_acceptEncoding() {
+        assertEquals("gzip", ResponseWriter.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", ResponseWriter.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("deflate", ResponseWriter.negotiate("deflate"));
+        assertEquals("gzip", ResponseWriter.negotiate("*"));
+        assertNull(ResponseWriter.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(ResponseWriter.negotiate("br"));
+        assertNull(ResponseWriter.negotiate(null));
+    }
+
+    /**
+     * Test that gzip output decodes back to the body, also when a pooled deflater is reused.
+     */
+    @Test
+    void testGzip_roundTrip() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            byte[] compressed = ResponseWriter.gzip(BODY);
+            assertTrue(compressed.length < BODY.length);
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals(BODY, in.readAllBytes());
+            }
+        }
+    }
+
+    /**
+     * Test that deflate output is a zlib stream that decodes back to the body.
+     */
+    @Test
+    void testDeflate_roundTrip() throws Exception {
+        byte[] compressed = ResponseWriter.deflate(BODY);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!inflater.finished()) {
+            out.write(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+
+        assertArrayEquals(BODY, out.toByteArray());
+    }
+}
@@ -0,0 +1,112 @@
+// Default package (no package declaration)
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import utils.QueryParams;
+import utils.ResponseWriter;
+import utils.Router;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Router and QueryParams.
+ * Serves a router from a loopback HttpServer; no database required.
+ */
+public class RouterTest {
+
+    private HttpServer server;
+    private HttpClient client;
+    private String base;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Router router = new Router()
+            .get("/api/items", exchange -> {
+                Map<String, String> query = QueryParams.of(exchange);
+                ResponseWriter.sendJson(exchange, 200, "{\"name\": \"" + query.get("name") + "\"}");
+            })
+            .post("/api/items", exchange -> ResponseWriter.sendJson(exchange, 201, "{}"))
+            .delete("/api/items", exchange -> ResponseWriter.sendJson(exchange, 200, "{}"));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api", router);
+        server.start();
+        client = HttpClient.newHttpClient();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+            .method(method, HttpRequest.BodyPublishers.noBody())
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Test that a preflight is answered by the router with a cacheable CORS response.
+     */
+    @Test
+    void testPreflight_returnsMaxAgeAndMethods() throws Exception {
+        HttpResponse<String> response = send("OPTIONS", "/api/items");
+
+        assertEquals(204, response.statusCode());
+        assertEquals("GET, POST, DELETE, OPTIONS",
+            response.headers().firstValue("Access-Control-Allow-Methods").orElse(null));
+        assertEquals("86400", response.headers().firstValue("Access-Control-Max-Age").orElse(null));
+        assertEquals("*", response.headers().firstValue("Access-Control-Allow-Origin").orElse(null));
+    }
+
+    /**
+     * Test dispatch by method, with decoded query parameters and CORS on the response.
+     */
+    @Test
+    void testDispatch_byMethodWithQuery() throws Exception {
+        HttpResponse<String> get = send("GET", "/api/items/?name=a%26b+c");
+        assertEquals(200, get.statusCode());
+        assertEquals("{\"name\": \"a&b+c\"}", get.body());
+        assertEquals("*", get.headers().firstValue("Access-Control-Allow-Origin").orElse(null));
+        assertTrue(get.headers().firstValue("Access-Control-Expose-Headers").orElse("").contains("ETag"));
+
+        assertEquals(201, send("POST", "/api/items").statusCode());
+    }
+
+    /**
+     * Test that unsupported methods get 405 with Allow and unknown paths get 404.
+     */
+    @Test
+    void testUnknownMethodAndPath() throws Exception {
+        HttpResponse<String> put = send("PUT", "/api/items");
+        assertEquals(405, put.statusCode());
+        assertEquals("GET, POST, DELETE, OPTIONS", put.headers().firstValue("Allow").orElse(null));
+
+        assertEquals(404, send("GET", "/api/missing").statusCode());
+    }
+
+    /**
+     * Test query parsing edge cases: bare keys, repeated keys and malformed escapes.
+     */
+    @Test
+    void testQueryParams_parse() {
+        Map<String, String> params = QueryParams.parse("a=1&a=2&flag&email=x%40y.com&bad=%zz&&");
+
+        assertEquals("1", params.get("a"), "First value of a repeated key wins");
+        assertEquals("", params.get("flag"));
+        assertEquals("x@y.com", params.get("email"));
+        assertEquals("%zz", params.get("bad"));
+        assertEquals(Map.of(), QueryParams.parse(null));
+    }
+}
@@ -0,0 +1,64 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.Settings;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Settings, using System properties so no environment is needed.
+ */
+public class SettingsTest {
+
+    private static final String NAME = "SETTINGS_TEST_VALUE";
+
+    @AfterEach
+    void cleanup() {
+        System.clearProperty(NAME);
+    }
+
+    /**
+     * Test that unset and blank settings fall back to the default and values are trimmed.
+     */
+    @Test
+    void testGet_defaultsAndTrims() {
+        assertEquals("fallback", Settings.get(NAME, "fallback"));
+        assertNull(Settings.get(NAME));
+        System.setProperty(NAME, "   ");
+        assertEquals("fallback", Settings.get(NAME, "fallback"));
+        System.setProperty(NAME, " value ");
+        assertEquals("value", Settings.get(NAME, "fallback"));
+    }
+
+    /**
+     * Test that numbers outside the range or not numbers at all fall back to the default.
+     */
+    @Test
+    void testGetInt_rangeAndFormat() {
+        System.setProperty(NAME, "42");
+        assertEquals(42, Settings.getInt(NAME, 7));
+        System.setProperty(NAME, "0");
+        assertEquals(7, Settings.getInt(NAME, 7), "Positive by default");
+        assertEquals(0, Settings.getInt(NAME, 7, 0, 10));
+        System.setProperty(NAME, "11");
+        assertEquals(7, Settings.getInt(NAME, 7, 0, 10));
+        System.setProperty(NAME, "lots");
+        assertEquals(7L, Settings.getLong(NAME, 7L));
+    }
+
+    /**
+     * Test that doubles and booleans are parsed and invalid values use the default.
+     */
+    @Test
+    void testGetDoubleAndBoolean() {
+        System.setProperty(NAME, "0.5");
+        assertEquals(0.5, Settings.getDouble(NAME, 0.01, 0.0, 1.0));
+        System.setProperty(NAME, "2");
+        assertEquals(0.01, Settings.getDouble(NAME, 0.01, 0.0, 1.0));
+        System.setProperty(NAME, "FALSE");
+        assertFalse(Settings.getBoolean(NAME, true));
+        System.setProperty(NAME, "maybe");
+        assertTrue(Settings.getBoolean(NAME, true));
+    }
+}
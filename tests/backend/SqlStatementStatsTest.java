@@ -0,0 +1,91 @@
+// Default package (no package declaration)
+
+import metrics.SqlStatementStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SqlStatementStats.
+ * Tests statement normalization and aggregation; no database required.
+ */
+public class SqlStatementStatsTest {
+
+    /**
+     * Test that IN lists of different sizes normalize to the same shape.
+     */
+    @Test
+    void testNormalize_inListsCollapse() {
+        String three = SqlStatementStats.normalize("SELECT * FROM receipts WHERE receipt_id IN (?, ?, ?)");
+        String one = SqlStatementStats.normalize("SELECT * FROM receipts WHERE receipt_id IN (?)");
+
+        assertEquals("SELECT * FROM receipts WHERE receipt_id IN (?+)", three);
+        assertEquals(three, one);
+    }
+
+    /**
+     * Test that multi-row VALUES lists collapse and whitespace is normalized.
+     */
+    @Test
+    void testNormalize_multiRowValuesCollapse() {
+        String shape = SqlStatementStats.normalize(
+            "INSERT INTO receipt_participants (receipt_id, user_id)\n   VALUES (?, ?), (?, ?), (?, ?)");
+
+        assertEquals("INSERT INTO receipt_participants (receipt_id, user_id) VALUES (?+), ...", shape);
+    }
+
+    /**
+     * Test that literals are replaced but identifiers containing digits are kept.
+     */
+    @Test
+    void testNormalize_literalsReplaced() {
+        String shape = SqlStatementStats.normalize(
+            "SELECT t1.id FROM t1 WHERE status = 'pending' AND amount > 12.50 LIMIT 10");
+
+        assertEquals("SELECT t1.id FROM t1 WHERE status = ? AND amount > ? LIMIT ?", shape);
+    }
+
+    /**
+     * Test that executions aggregate per shape and are ordered by the requested key.
+     */
+    @Test
+    void testTop_aggregatesByShape() {
+        SqlStatementStats stats = new SqlStatementStats(60_000);
+        SqlStatementStats.Entry lookup = stats.entryFor("SELECT * FROM users WHERE user_id IN (?, ?)");
+        stats.record(lookup, "UserDAO.findUsers", 2_000_000L, false, null);
+        lookup.addRows(2);
+        SqlStatementStats.Entry sameShape = stats.entryFor("SELECT * FROM users WHERE user_id IN (?, ?, ?, ?)");
+        stats.record(sameShape, "UserDAO.findUsers", 6_000_000L, false, null);
+        sameShape.addRows(4);
+        SqlStatementStats.Entry update = stats.entryFor("UPDATE users SET balance = ? WHERE user_id = ?");
+        stats.record(update, "BalanceService.addToBalance", 5_000_000L, true, null);
+
+        assertSame(lookup, sameShape);
+        assertEquals(2, stats.size());
+
+        List<SqlStatementStats.StatementSummary> byTotal = stats.top(10, "total");
+        SqlStatementStats.StatementSummary first = byTotal.get(0);
+        assertEquals("SELECT * FROM users WHERE user_id IN (?+)", first.shape);
+        assertEquals(2, first.count);
+        assertEquals(8.0, first.totalMillis, 0.001);
+        assertEquals(6.0, first.maxMillis, 0.001);
+        assertEquals(4.0, first.avgMillis, 0.001);
+        assertEquals(6, first.rows);
+
+        List<SqlStatementStats.StatementSummary> byErrors = stats.top(1, "errors");
+        assertEquals(1, byErrors.size());
+        assertEquals(1, byErrors.get(0).errors);
+        assertEquals(List.of("BalanceService.addToBalance"), byErrors.get(0).callers);
+    }
+
+    /**
+     * Test that an unknown sort key is rejected.
+     */
+    @Test
+    void testTop_invalidSort_throws() {
+        SqlStatementStats stats = new SqlStatementStats(60_000);
+        assertThrows(IllegalArgumentException.class, () -> stats.top(10, "latency"));
+    }
+}
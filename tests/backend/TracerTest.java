@@ -0,0 +1,82 @@
+// Default package (no package declaration)
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import tracing.Span;
+import tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Tracer.
+ * Tests span nesting, sampling decisions and the no-trace fast path; no database required.
+ */
+public class TracerTest {
+
+    /**
+     * Test that nested spans record their parent and the trace is written when sampled.
+     */
+    @Test
+    void testNestedSpans_recordParents() {
+        List<String> lines = new ArrayList<>();
+        Tracer tracer = new Tracer(1.0, 60_000, lines::add);
+
+        tracer.begin("req-1", "POST /api/receipts/pay");
+        try (Span service = Tracer.span("BalanceService.subtractFromBalance")) {
+            service.tag("userId", "u1");
+            try (Span sql = Tracer.span("sql BalanceService.subtractFromBalance")) {
+                assertEquals("req-1", Tracer.currentRequestId());
+            }
+        }
+        assertTrue(tracer.end(200));
+
+        assertEquals(1, lines.size());
+        JSONObject trace = new JSONObject(lines.get(0));
+        assertEquals("req-1", trace.getString("requestId"));
+        assertEquals("random", trace.getString("sampledBy"));
+        assertEquals(200, trace.getInt("status"));
+
+        JSONArray spans = trace.getJSONArray("spans");
+        assertEquals(2, spans.length());
+        // Spans are listed in completion order: the SQL span closes first
+        JSONObject sql = spans.getJSONObject(0);
+        JSONObject service = spans.getJSONObject(1);
+        assertEquals("BalanceService.subtractFromBalance", service.getString("name"));
+        assertEquals(0, service.getInt("parent"), "Service span should be a child of the root");
+        assertEquals(service.getInt("id"), sql.getInt("parent"), "SQL span should be a child of the service span");
+        assertEquals("u1", service.getJSONObject("tags").getString("userId"));
+        assertNull(Tracer.currentRequestId(), "Trace should be unbound after end");
+    }
+
+    /**
+     * Test that unsampled fast requests are discarded but server errors are always kept.
+     */
+    @Test
+    void testSampling_errorsAlwaysKept() {
+        List<String> lines = new ArrayList<>();
+        Tracer tracer = new Tracer(0.0, 60_000, lines::add);
+
+        tracer.begin("fast", "GET /api/balance");
+        assertFalse(tracer.end(200));
+        tracer.begin("failed", "GET /api/balance");
+        assertTrue(tracer.end(500));
+
+        assertEquals(1, lines.size());
+        assertEquals("error", new JSONObject(lines.get(0)).getString("sampledBy"));
+    }
+
+    /**
+     * Test that spans outside a trace are no-ops.
+     */
+    @Test
+    void testSpan_withoutTrace_isNoop() {
+        Span span = Tracer.span("UserDAO.findUserById");
+        assertSame(Span.NOOP, span);
+        span.tag("key", "value").close();
+        assertNull(Tracer.currentRequestId());
+    }
+}
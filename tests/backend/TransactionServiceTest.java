@@ -1,13 +1,20 @@
 // Default package (no package declaration)
 
+import database.DatabaseConnection;
 import services.TransactionService;
 import models.Transaction;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.AfterEach;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -448,6 +455,132 @@ public class TransactionServiceTest {
         }, "Start date after end date should throw IllegalArgumentException");
     }
 
+    /**
+     * Test 19: Edge case - findTransactions rejects a malformed cursor
+     */
+    @Test
+    void testFindTransactions_malformedCursor_throwsException() {
+        for (String cursor : new String[] {"not-a-cursor", "123", "123_4_5", "abc_4", "123_abc"}) {
+            assertThrows(IllegalArgumentException.class, () -> {
+                transactionService.findTransactions(new TransactionService.TransactionQuery(testUserId1).limit(2).after(cursor));
+            }, "Malformed cursor should throw IllegalArgumentException: " + cursor);
+        }
+    }
+
+    /**
+     * Test 20: findTransactions pages through sent and received transactions newest first,
+     * breaking a created_at tie on transaction_id across a page boundary
+     */
+    @Test
+    void testFindTransactions_pagesThroughTies() throws SQLException {
+        String userA = createUser();
+        String userB = createUser();
+        Assumptions.assumeTrue(userA != null && userB != null, "User creation failed - database may not be set up");
+        try {
+            List<Transaction> toCreate = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                toCreate.add(new Transaction(i % 2 == 0 ? userA : userB, i % 2 == 0 ? userB : userA, 10.0 + i,
+                    TransactionService.TYPE_PEER_TO_PEER, "Paging " + i, TransactionService.STATUS_COMPLETED, null));
+            }
+            List<Transaction> created = transactionService.createTransactions(toCreate);
+            assertEquals(5, created.size());
+
+            // The last three share one created_at, so page order among them comes from transaction_id
+            long now = System.currentTimeMillis() / 1000 * 1000;
+            try (Connection conn = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("UPDATE transactions SET created_at = ? WHERE transaction_id = ?")) {
+                for (int i = 0; i < 5; i++) {
+                    stmt.setTimestamp(1, new Timestamp(i < 2 ? now - (2 - i) * 60_000L : now));
+                    stmt.setInt(2, created.get(i).getTransactionId());
+                    stmt.executeUpdate();
+                }
+            }
+            int[] expected = {
+                created.get(4).getTransactionId(), created.get(3).getTransactionId(), created.get(2).getTransactionId(),
+                created.get(1).getTransactionId(), created.get(0).getTransactionId()
+            };
+
+            for (String userId : new String[] {userA, userB}) {
+                TransactionService.TransactionPage first = transactionService.findTransactions(
+                    new TransactionService.TransactionQuery(userId).limit(2));
+                assertEquals(expected[0], first.transactions.get(0).getTransactionId());
+                assertEquals(expected[1], first.transactions.get(1).getTransactionId());
+                assertNotNull(first.nextCursor, "More transactions follow");
+
+                TransactionService.TransactionPage second = transactionService.findTransactions(
+                    new TransactionService.TransactionQuery(userId).limit(2).after(first.nextCursor));
+                assertEquals(2, second.transactions.size());
+                assertEquals(expected[2], second.transactions.get(0).getTransactionId(), "Tied row after the cursor");
+                assertEquals(expected[3], second.transactions.get(1).getTransactionId());
+
+                TransactionService.TransactionPage last = transactionService.findTransactions(
+                    new TransactionService.TransactionQuery(userId).limit(2).after(second.nextCursor));
+                assertEquals(1, last.transactions.size());
+                assertEquals(expected[4], last.transactions.get(0).getTransactionId());
+                assertNull(last.nextCursor, "Last page has no cursor");
+            }
+        } finally {
+            deleteUser(userA);
+            deleteUser(userB);
+        }
+    }
+
+    /**
+     * Test 21: createTransactions returns the created_at/updated_at that were stored
+     */
+    @Test
+    void testCreateTransactions_returnsStoredTimestamps() throws SQLException {
+        String userA = createUser();
+        String userB = createUser();
+        Assumptions.assumeTrue(userA != null && userB != null, "User creation failed - database may not be set up");
+        try {
+            List<Transaction> created = transactionService.createTransactions(List.of(
+                new Transaction(userA, userB, 5.0, TransactionService.TYPE_PEER_TO_PEER, "Stamp 1",
+                    TransactionService.STATUS_COMPLETED, null),
+                new Transaction(userB, userA, 6.0, TransactionService.TYPE_PEER_TO_PEER, "Stamp 2",
+                    TransactionService.STATUS_COMPLETED, null)));
+            assertEquals(2, created.size());
+
+            for (Transaction transaction : created) {
+                Transaction stored = transactionService.getTransactionById(transaction.getTransactionId());
+                assertNotNull(stored);
+                assertEquals(stored.getCreatedAt(), transaction.getCreatedAt());
+                assertEquals(stored.getUpdatedAt(), transaction.getUpdatedAt());
+            }
+            assertEquals(created.get(0).getCreatedAt(), created.get(1).getCreatedAt(), "One timestamp per insert");
+        } finally {
+            deleteUser(userA);
+            deleteUser(userB);
+        }
+    }
+
+    private static String createUser() {
+        String userId = UUID.randomUUID().toString();
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO users (user_id, name, email, phone_number, password_hash, balance) VALUES (?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, userId);
+            stmt.setString(2, "Paging Test");
+            stmt.setString(3, "paging-" + userId + "@test.com");
+            stmt.setString(4, userId.substring(0, 10));
+            stmt.setString(5, "hash");
+            stmt.setDouble(6, 0.0);
+            stmt.executeUpdate();
+            return userId;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static void deleteUser(String userId) throws SQLException {
+        // Transactions go with the sender through ON DELETE CASCADE
+        try (Connection conn = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM users WHERE user_id = ?")) {
+            stmt.setString(1, userId);
+            stmt.executeUpdate();
+        }
+    }
+
     @AfterEach
     void cleanup() {
         // In a real test scenario, you would clean up test data here
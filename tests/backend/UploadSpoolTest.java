@@ -0,0 +1,122 @@
+// Default package (no package declaration)
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import services.UploadSpool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadSpool.
+ * Works on a temporary directory; no database required.
+ */
+public class UploadSpoolTest {
+
+    @TempDir
+    Path dir;
+
+    private static void age(Path path, long millis) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+
+    /**
+     * Test that files land in a two-character shard directory and release deletes them.
+     */
+    @Test
+    void testCreateAndRelease_shardedAndAccounted() throws IOException {
+        UploadSpool spool = new UploadSpool(dir, 1000, 60_000, 60);
+        Path path = spool.create(new byte[100], ".jpg");
+
+        assertEquals(dir, path.getParent().getParent());
+        assertEquals(2, path.getParent().getFileName().toString().length());
+        assertTrue(path.getFileName().toString().startsWith(path.getParent().getFileName().toString()));
+        assertEquals(100, spool.getBytes());
+
+        spool.release(path);
+        assertFalse(Files.exists(path));
+        assertEquals(0, spool.getBytes());
+        spool.release(path);
+        assertEquals(0, spool.getBytes(), "Releasing twice must not double count");
+    }
+
+    /**
+     * Test that the quota evicts the oldest idle file and refuses uploads when only files in use remain.
+     */
+    @Test
+    void testQuota_evictsOldestIdleThenRefuses() throws IOException {
+        UploadSpool spool = new UploadSpool(dir, 250, 60_000, 60);
+        // Files left by a crashed request: on disk but not in use
+        Path shard = Files.createDirectories(dir.resolve("ab"));
+        Path orphanOld = Files.write(shard.resolve("old.jpg"), new byte[100]);
+        Path orphanNew = Files.write(shard.resolve("new.jpg"), new byte[100]);
+        age(orphanOld, 20_000);
+        age(orphanNew, 10_000);
+        spool.sweep();
+        assertEquals(200, spool.getBytes());
+
+        Path third = spool.create(new byte[100], ".jpg");
+        assertNotNull(third);
+        assertFalse(Files.exists(orphanOld), "Oldest idle file is evicted first");
+        assertTrue(Files.exists(orphanNew));
+
+        Path fourth = spool.create(new byte[100], ".jpg");
+        assertNotNull(fourth);
+        assertFalse(Files.exists(orphanNew));
+
+        assertNull(spool.create(new byte[100], ".jpg"), "Files in use are never evicted");
+        assertTrue(Files.exists(third));
+        assertTrue(Files.exists(fourth));
+    }
+
+    /**
+     * Test that the janitor deletes expired idle files but keeps files in use.
+     */
+    @Test
+    void testSweep_deletesExpiredIdleFiles() throws IOException {
+        UploadSpool spool = new UploadSpool(dir, 10_000, 1_000, 60);
+        Path inUse = spool.create(new byte[10], ".jpg");
+        Path derived = inUse.resolveSibling(inUse.getFileName() + ".pre.jpg");
+        Files.write(derived, new byte[5]);
+        spool.retain(derived);
+        Path leftover = Files.write(inUse.resolveSibling("leftover.jpg"), new byte[20]);
+        age(inUse, 5_000);
+        age(derived, 5_000);
+        age(leftover, 5_000);
+
+        spool.sweep();
+
+        assertTrue(Files.exists(inUse));
+        assertTrue(Files.exists(derived));
+        assertFalse(Files.exists(leftover));
+        assertEquals(15, spool.getBytes());
+        spool.release(derived);
+        spool.release(inUse);
+        assertEquals(0, spool.getBytes());
+    }
+
+    /**
+     * Test that a sweep keeps counting files in use that its listing did not see, such as an
+     * upload reserved but not yet written.
+     */
+    @Test
+    void testSweep_countsFilesInUseMissingFromListing() throws IOException {
+        UploadSpool spool = new UploadSpool(dir, 10_000, 60_000, 60);
+        Path unwritten = spool.create(new byte[30], ".jpg");
+        Files.delete(unwritten);
+        Path idle = Files.write(unwritten.resolveSibling("idle.jpg"), new byte[20]);
+
+        spool.sweep();
+
+        assertEquals(50, spool.getBytes());
+        spool.release(unwritten);
+        assertEquals(20, spool.getBytes());
+        Files.delete(idle);
+        spool.sweep();
+        assertEquals(0, spool.getBytes());
+    }
+}